@@ -342,6 +342,21 @@ public class PerformanceWatcher implements Disposable {
                mySwingApdex.summarizePerformanceSince(myStartSwingSnapshot));
     }
 
+    public void logThroughputSinceCreation(@Nonnull String activityName, long processedItems, long processedBytes) {
+      long millis = Math.max(1, System.currentTimeMillis() - myStartMillis);
+      LOG.info(activityName +
+               ": " +
+               processedItems +
+               " files, " +
+               processedBytes / 1024 +
+               "KB in " +
+               millis +
+               "ms; " +
+               processedItems * 1000 / millis +
+               " files/s, " +
+               processedBytes * 1000 / 1024 / millis +
+               " KB/s");
+    }
   }
 
   @Nonnull
@@ -33,6 +33,7 @@ import consulo.language.editor.inspection.scheme.InspectionManager;
 import consulo.language.editor.inspection.scheme.InspectionToolWrapper;
 import consulo.language.editor.impl.inspection.scheme.LocalInspectionToolWrapper;
 import consulo.language.editor.scope.AnalysisScope;
+import consulo.language.impl.psi.PsiFileImpl;
 import consulo.language.psi.PsiElement;
 import consulo.language.psi.PsiElementVisitor;
 import consulo.language.psi.PsiFile;
@@ -141,6 +142,10 @@ public class InspectionEngine {
                                                                @Nonnull final ProgressIndicator indicator) {
     if (toolWrappers.isEmpty()) return Collections.emptyMap();
 
+    // all elements will be visited, expand chameleons of all roots at once instead of one by one
+    for (PsiFile root : file.getViewProvider().getAllFiles()) {
+      if (root instanceof PsiFileImpl) ((PsiFileImpl)root).expandLazyParseableElements();
+    }
 
     TextRange range = file.getTextRange();
     List<Divider.DividedElements> allDivided = new ArrayList<>();
@@ -11,6 +11,7 @@ import consulo.ide.impl.idea.util.indexing.provided.ProvidedIndexExtension;
 import consulo.ide.impl.idea.util.indexing.provided.ProvidedIndexExtensionLocator;
 import consulo.index.io.data.DataExternalizer;
 import consulo.index.io.KeyDescriptor;
+import consulo.index.io.MappedIndexSnapshot;
 import jakarta.annotation.Nonnull;
 
 import jakarta.annotation.Nullable;
@@ -24,7 +25,9 @@ public class BasicProvidedExtensionLocator implements ProvidedIndexExtensionLoca
   @Override
   public <K, V> ProvidedIndexExtension<K, V> findProvidedIndexExtension(@Nonnull FileBasedIndexExtension<K, V> originalExtension) {
     File root = getPrebuiltIndexPath();
-    if (root == null || !new File(root, StringUtil.toLowerCase(originalExtension.getName().getName())).exists()) return null;
+    if (root == null) return null;
+    String name = originalExtension.getName().getName();
+    if (!new File(root, StringUtil.toLowerCase(name)).exists() && !new File(root, name + MappedIndexSnapshot.FILE_EXTENSION).exists()) return null;
 
     return originalExtension.getName().equals(StubUpdatingIndex.INDEX_ID)
            ? (ProvidedIndexExtension<K, V>)new StubProvidedIndexExtension(root)
@@ -10,6 +10,7 @@ import consulo.application.impl.internal.progress.ProgressIndicatorUtils;
 import consulo.application.impl.internal.progress.ProgressWrapper;
 import consulo.application.internal.ApplicationEx;
 import consulo.application.internal.ApplicationManagerEx;
+import consulo.application.impl.internal.performance.PerformanceWatcher;
 import consulo.application.progress.ProgressIndicator;
 import consulo.application.progress.ProgressManager;
 import consulo.application.util.registry.Registry;
@@ -40,7 +41,10 @@ public class CacheUpdateRunner {
 
   public static void processFiles(@Nonnull ProgressIndicator indicator, @Nonnull Collection<VirtualFile> files, @Nonnull Project project, @Nonnull Consumer<? super FileContent> processor) {
     indicator.checkCanceled();
-    final FileContentQueue queue = new FileContentQueue(project, files, indicator);
+    final IndexingStageStatistics statistics = new IndexingStageStatistics();
+    final boolean trackThroughput = !ApplicationManager.getApplication().isUnitTestMode();
+    final PerformanceWatcher.Snapshot snapshot = trackThroughput ? PerformanceWatcher.takeSnapshot() : null;
+    final FileContentQueue queue = new FileContentQueue(project, files, indicator, statistics);
     final double total = files.size();
     queue.startLoading();
 
@@ -74,11 +78,19 @@ public class CacheUpdateRunner {
       }
     };
 
+    int maxThreadsCount = indexingThreadCount();
+    int threadsCount = maxThreadsCount;
     while (!project.isDisposed()) {
       indicator.checkCanceled();
-      if (processSomeFilesWhileUserIsInactive(queue, progressUpdater, indicator, project, processor)) {
+      if (processSomeFilesWhileUserIsInactive(queue, progressUpdater, indicator, project, processor, statistics, threadsCount)) {
         break;
       }
+      threadsCount = statistics.adjustThreadCount(threadsCount, maxThreadsCount);
+    }
+
+    if (snapshot != null) {
+      snapshot.logThroughputSinceCreation("Content loading", statistics.myLoadedFiles.sum(), statistics.myLoadedBytes.sum());
+      snapshot.logThroughputSinceCreation("Indexing", statistics.myIndexedFiles.sum(), statistics.myIndexedBytes.sum());
     }
 
     if (project.isDisposed()) {
@@ -97,7 +109,9 @@ public class CacheUpdateRunner {
                                                              @Nonnull ProgressUpdater progressUpdater,
                                                              @Nonnull ProgressIndicator suspendableIndicator,
                                                              @Nonnull Project project,
-                                                             @Nonnull Consumer<? super FileContent> fileProcessor) {
+                                                             @Nonnull Consumer<? super FileContent> fileProcessor,
+                                                             @Nonnull IndexingStageStatistics statistics,
+                                                             int threadsCount) {
     final ProgressIndicatorBase innerIndicator = new ProgressIndicatorBase() {
       @Override
       protected boolean isCancelable() {
@@ -116,9 +130,8 @@ public class CacheUpdateRunner {
 
     final AtomicBoolean isFinished = new AtomicBoolean();
     try {
-      int threadsCount = indexingThreadCount();
       if (threadsCount == 1 || application.isWriteAccessAllowed()) {
-        Runnable process = createRunnable(project, queue, progressUpdater, suspendableIndicator, innerIndicator, isFinished, fileProcessor);
+        Runnable process = createRunnable(project, queue, progressUpdater, suspendableIndicator, innerIndicator, isFinished, fileProcessor, statistics);
         ProgressManager.getInstance().runProcess(process, innerIndicator);
       }
       else {
@@ -127,7 +140,7 @@ public class CacheUpdateRunner {
         for (int i = 0; i < threadsCount; i++) {
           AtomicBoolean localFinished = new AtomicBoolean();
           finishedRefs[i] = localFinished;
-          Runnable process = createRunnable(project, queue, progressUpdater, suspendableIndicator, innerIndicator, localFinished, fileProcessor);
+          Runnable process = createRunnable(project, queue, progressUpdater, suspendableIndicator, innerIndicator, localFinished, fileProcessor, statistics);
           futures[i] = application.executeOnPooledThread(process);
         }
         isFinished.set(waitForAll(finishedRefs, futures));
@@ -147,15 +160,19 @@ public class CacheUpdateRunner {
                                          @Nonnull ProgressIndicator suspendableIndicator,
                                          @Nonnull ProgressIndicatorBase innerIndicator,
                                          @Nonnull AtomicBoolean isFinished,
-                                         @Nonnull Consumer<? super FileContent> fileProcessor) {
-    return ConcurrencyUtil.underThreadNameRunnable("Indexing", new MyRunnable(innerIndicator, suspendableIndicator, queue, isFinished, progressUpdater, project, fileProcessor));
+                                         @Nonnull Consumer<? super FileContent> fileProcessor,
+                                         @Nonnull IndexingStageStatistics statistics) {
+    return ConcurrencyUtil.underThreadNameRunnable("Indexing", new MyRunnable(innerIndicator, suspendableIndicator, queue, isFinished, progressUpdater, project, fileProcessor, statistics));
   }
 
   public static int indexingThreadCount() {
     int threadsCount = Registry.intValue("caches.indexerThreadsCount");
     if (threadsCount <= 0) {
-      int coresToLeaveForOtherActivity = ApplicationManager.getApplication().isCommandLine() ? 0 : 1;
-      threadsCount = Math.max(1, Math.min(PROC_COUNT - coresToLeaveForOtherActivity, DEFAULT_MAX_INDEXER_THREADS));
+      boolean commandLine = ApplicationManager.getApplication().isCommandLine();
+      int coresToLeaveForOtherActivity = commandLine ? 0 : 1;
+      // headless runs have nothing else to do, while the IDE keeps half of the cores above the default for the user
+      int maxThreadsCount = commandLine ? PROC_COUNT : Math.max(DEFAULT_MAX_INDEXER_THREADS, PROC_COUNT / 2);
+      threadsCount = Math.max(1, Math.min(PROC_COUNT - coresToLeaveForOtherActivity, maxThreadsCount));
     }
     return threadsCount;
   }
@@ -195,6 +212,8 @@ public class CacheUpdateRunner {
     private final Project myProject;
     @Nonnull
     private final Consumer<? super FileContent> myProcessor;
+    @Nonnull
+    private final IndexingStageStatistics myStatistics;
 
     MyRunnable(@Nonnull ProgressIndicatorBase innerIndicator,
                @Nonnull ProgressIndicator suspendableIndicator,
@@ -202,7 +221,8 @@ public class CacheUpdateRunner {
                @Nonnull AtomicBoolean finished,
                @Nonnull ProgressUpdater progressUpdater,
                @Nonnull Project project,
-               @Nonnull Consumer<? super FileContent> fileProcessor) {
+               @Nonnull Consumer<? super FileContent> fileProcessor,
+               @Nonnull IndexingStageStatistics statistics) {
       myInnerIndicator = innerIndicator;
       mySuspendableIndicator = suspendableIndicator;
       myQueue = queue;
@@ -210,6 +230,7 @@ public class CacheUpdateRunner {
       myProgressUpdater = progressUpdater;
       myProject = project;
       myProcessor = fileProcessor;
+      myStatistics = statistics;
     }
 
     @Override
@@ -222,7 +243,9 @@ public class CacheUpdateRunner {
         try {
           mySuspendableIndicator.checkCanceled();
 
+          long waitStarted = System.nanoTime();
           final FileContent fileContent = myQueue.take(myInnerIndicator);
+          myStatistics.myContentWaitNanos.add(System.nanoTime() - waitStarted);
           if (fileContent == null) {
             myFinished.set(true);
             return;
@@ -235,7 +258,11 @@ public class CacheUpdateRunner {
               try {
                 myProgressUpdater.processingStarted(file);
                 if (!file.isDirectory() && !Boolean.TRUE.equals(file.getUserData(FAILED_TO_INDEX))) {
+                  long indexingStarted = System.nanoTime();
                   myProcessor.accept(fileContent);
+                  myStatistics.myIndexingNanos.add(System.nanoTime() - indexingStarted);
+                  myStatistics.myIndexedFiles.increment();
+                  myStatistics.myIndexedBytes.add(fileContent.getLength());
                 }
                 myProgressUpdater.processingSuccessfullyFinished(file);
               }
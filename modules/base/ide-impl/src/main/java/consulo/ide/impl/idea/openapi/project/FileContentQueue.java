@@ -11,7 +11,8 @@ import consulo.project.ProjectLocator;
 import consulo.virtualFileSystem.VFileProperty;
 import consulo.ide.impl.idea.openapi.vfs.VfsUtilCore;
 import consulo.virtualFileSystem.VirtualFile;
-import consulo.application.util.concurrent.SequentialTaskExecutor;
+import consulo.application.util.concurrent.AppExecutorUtil;
+import consulo.util.lang.SystemProperties;
 import jakarta.annotation.Nonnull;
 
 import jakarta.annotation.Nullable;
@@ -33,7 +34,10 @@ public class FileContentQueue {
   private static final long PROCESSED_FILE_BYTES_THRESHOLD = 1024 * 1024 * 3;
   private static final long LARGE_SIZE_REQUEST_THRESHOLD = PROCESSED_FILE_BYTES_THRESHOLD - 1024 * 300; // 300k for other threads
 
-  private static final Executor ourExecutor = SequentialTaskExecutor.createSequentialApplicationPoolExecutor("FileContentQueue Pool");
+  // content loading is a separate pipeline stage: with several loaders indexer threads don't read files themselves
+  private static final int LOADER_THREADS = Math.max(1, SystemProperties.getIntProperty("idea.indexing.content.loader.threads",
+                                                                                        IndexingStageStatistics.loaderThreadCount(Runtime.getRuntime().availableProcessors())));
+  private static final Executor ourExecutor = AppExecutorUtil.createBoundedApplicationPoolExecutor("FileContentQueue Pool", LOADER_THREADS);
 
   // Unbounded (!)
   private final LinkedBlockingDeque<FileContent> myLoadedContents = new LinkedBlockingDeque<>();
@@ -49,10 +53,16 @@ public class FileContentQueue {
   private final Object myProceedWithProcessingLock = new Object();
   private final BlockingQueue<VirtualFile> myFilesQueue;
   private final ProgressIndicator myProgressIndicator;
+  @Nonnull
+  private final IndexingStageStatistics myStatistics;
   private static final Deque<FileContentQueue> ourContentLoadingQueues = new LinkedBlockingDeque<>();
 
-  FileContentQueue(@Nonnull Project project, @Nonnull Collection<VirtualFile> files, @Nonnull final ProgressIndicator indicator) {
+  FileContentQueue(@Nonnull Project project,
+                   @Nonnull Collection<VirtualFile> files,
+                   @Nonnull final ProgressIndicator indicator,
+                   @Nonnull IndexingStageStatistics statistics) {
     myProject = project;
+    myStatistics = statistics;
     int numberOfFiles = files.size();
     myContentsToLoad.set(numberOfFiles);
     // ABQ is more memory efficient for significant number of files (e.g. 500K)
@@ -63,7 +73,10 @@ public class FileContentQueue {
   public void startLoading() {
     if (myContentsToLoad.get() == 0) return;
 
-    ourContentLoadingQueues.addLast(this);
+    // every occurrence of the queue in ourContentLoadingQueues is served by its own loader
+    for (int i = 0; i < LOADER_THREADS; i++) {
+      ourContentLoadingQueues.addLast(this);
+    }
 
     Runnable task = () -> {
       FileContentQueue contentQueue = ourContentLoadingQueues.pollFirst();
@@ -77,7 +90,9 @@ public class FileContentQueue {
         contentQueue = ourContentLoadingQueues.pollFirst();
       }
     };
-    ourExecutor.execute(task);
+    for (int i = 0; i < LOADER_THREADS; i++) {
+      ourExecutor.execute(task);
+    }
   }
 
   private enum PreloadState {
@@ -142,6 +157,8 @@ public class FileContentQueue {
       // hint at the current project to avoid expensive read action in ProjectLocatorImpl
       ProjectLocator.computeWithPreferredProject(content.getVirtualFile(), myProject, () -> content.getBytes());
 
+      myStatistics.myLoadedFiles.increment();
+      myStatistics.myLoadedBytes.add(contentLength);
       return true;
     }
     catch (Throwable e) {
@@ -216,7 +233,8 @@ public class FileContentQueue {
       if (result == null) {  // no loaded contents by other threads
         if (remainingContentsToLoad == 0) return null; // no items to load
 
-        if (!loadNextContent()) { // attempt to eagerly load content failed
+        // with dedicated loaders indexer threads don't load content eagerly
+        if (LOADER_THREADS > 1 || !loadNextContent()) { // attempt to eagerly load content failed
           // last remaining contents are loaded by other threads, use timed poll for results
           waitForContentsToBeLoaded = true;
         }
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.ide.impl.idea.openapi.project;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the two indexing pipeline stages: content loading in {@link FileContentQueue} and per-file index computation
+ * in {@link CacheUpdateRunner} workers. Also used to adapt the number of indexing workers to the observed content wait.
+ */
+class IndexingStageStatistics {
+  final LongAdder myLoadedFiles = new LongAdder();
+  final LongAdder myLoadedBytes = new LongAdder();
+  final LongAdder myIndexedFiles = new LongAdder();
+  final LongAdder myIndexedBytes = new LongAdder();
+  final LongAdder myContentWaitNanos = new LongAdder();
+  final LongAdder myIndexingNanos = new LongAdder();
+
+  private long myLastContentWaitNanos;
+  private long myLastIndexingNanos;
+
+  /**
+   * Number of dedicated content loader threads for the given number of cores. Below 4 cores the only loader shares the work
+   * with indexer threads, which load content themselves when the queue is empty. From 4 cores on there is a loader per 4 cores,
+   * at least 2 and at most 4, and indexer threads only compute indices.
+   */
+  static int loaderThreadCount(int cores) {
+    if (cores < 4) return 1;
+    return Math.min(4, Math.max(2, cores / 4));
+  }
+
+  /**
+   * Called between indexing rounds. Workers which mostly wait for content mean that indexing is bound by disk reads:
+   * additional workers only add contention there, so the count is halved; it grows back once workers are busy computing indices.
+   * <p>
+   * A round ends when indexing is suspended for user activity or finishes, so while the user stays idle the count chosen
+   * for the round is kept: the first round always starts with the maximum count.
+   */
+  int adjustThreadCount(int current, int max) {
+    long contentWait = myContentWaitNanos.sum();
+    long indexing = myIndexingNanos.sum();
+    long waitDelta = contentWait - myLastContentWaitNanos;
+    long indexingDelta = indexing - myLastIndexingNanos;
+    myLastContentWaitNanos = contentWait;
+    myLastIndexingNanos = indexing;
+
+    if (waitDelta == 0 && indexingDelta == 0) return current;
+    if (waitDelta > indexingDelta) return Math.max(1, current / 2);
+    if (waitDelta < indexingDelta / 4) return Math.min(max, current * 2);
+    return Math.min(max, current);
+  }
+}
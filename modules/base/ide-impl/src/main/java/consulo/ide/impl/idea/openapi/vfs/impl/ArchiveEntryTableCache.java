@@ -0,0 +1,265 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.ide.impl.idea.openapi.vfs.impl;
+
+import consulo.container.boot.ContainerPathManager;
+import consulo.ide.impl.idea.openapi.vfs.newvfs.persistent.FlushingDaemon;
+import consulo.index.io.EnumeratorStringDescriptor;
+import consulo.index.io.PersistentHashMap;
+import consulo.index.io.data.DataExternalizer;
+import consulo.index.io.data.DataInputOutputUtil;
+import consulo.index.io.data.IOUtil;
+import consulo.logging.Logger;
+import consulo.util.io.UnsyncByteArrayInputStream;
+import consulo.util.io.UnsyncByteArrayOutputStream;
+import consulo.util.lang.ByteArrayCharSequence;
+import consulo.util.lang.ShutDownTracker;
+import consulo.util.lang.SystemProperties;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent cache of archive entry tables, so {@link ZipHandler} builds its entries map without opening the archive and
+ * parsing its central directory again, e.g. after the soft reference to the map is cleared or in the next session.
+ * <p>
+ * Tables are kept in a {@link PersistentHashMap} (memory mapped key storage) keyed by the canonical archive path,
+ * a table is used only if the length and the modification time of the archive are the same as when it was parsed.
+ */
+final class ArchiveEntryTableCache {
+  private static final Logger LOG = Logger.getInstance(ArchiveEntryTableCache.class);
+
+  static final boolean ENABLED = SystemProperties.getBooleanProperty("idea.zip.entry.table.cache", true);
+
+  private static final int VERSION = 1;
+  private static final String FILE_NAME = "archive_entries" + File.separatorChar + "entry_tables";
+
+  private static final int DIRECTORY = 1;
+  private static final int ARCHIVE_TIMESTAMP = 2;
+  private static final int OWN_TIMESTAMP = 4;
+
+  private static volatile ArchiveEntryTableCache ourInstance;
+  private static volatile boolean ourFailed;
+
+  private final PersistentHashMap<String, EntryTable> myTables;
+  private final AtomicLong myHits = new AtomicLong();
+  private final AtomicLong myMisses = new AtomicLong();
+
+  private ArchiveEntryTableCache(@Nonnull PersistentHashMap<String, EntryTable> tables) {
+    myTables = tables;
+  }
+
+  @Nullable
+  static ArchiveEntryTableCache getInstance() {
+    if (!ENABLED || ourFailed) return null;
+    ArchiveEntryTableCache cache = ourInstance;
+    if (cache == null) {
+      synchronized (ArchiveEntryTableCache.class) {
+        cache = ourInstance;
+        if (cache == null && !ourFailed) {
+          PersistentHashMap<String, EntryTable> tables = open(new File(ContainerPathManager.get().getSystemPath(), FILE_NAME));
+          if (tables == null) {
+            ourFailed = true;
+            return null;
+          }
+          ArchiveEntryTableCache created = new ArchiveEntryTableCache(tables);
+          FlushingDaemon.everyFiveSeconds(() -> created.flush());
+          ShutDownTracker.getInstance().registerShutdownTask(() -> created.close());
+          ourInstance = cache = created;
+        }
+      }
+    }
+    return cache;
+  }
+
+  @Nullable
+  static ArchiveEntryTableCache getInstanceIfOpen() {
+    return ourInstance;
+  }
+
+  @Nullable
+  private static PersistentHashMap<String, EntryTable> open(@Nonnull File file) {
+    for (int i = 0; i < 2; ++i) {
+      try {
+        file.getParentFile().mkdirs();
+        return new PersistentHashMap<>(file, EnumeratorStringDescriptor.INSTANCE, new EntryTableExternalizer(), 4096, VERSION);
+      }
+      catch (IOException e) {
+        LOG.info("Cannot open archive entry table cache, recreating", e);
+        PersistentHashMap.deleteFilesStartingWith(file);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return entries map of the archive with the given canonical path or null if there is no table for the archive
+   * with the given length and modification time
+   */
+  @Nullable
+  Map<String, ArchiveHandler.EntryInfo> get(@Nonnull String path, long length, long timestamp, @Nonnull ArchiveHandler.EntryInfo root) {
+    try {
+      EntryTable table = myTables.get(path);
+      if (table != null && table.myLength == length && table.myTimestamp == timestamp) {
+        Map<String, ArchiveHandler.EntryInfo> map = decode(table.myEntries, timestamp, root);
+        myHits.incrementAndGet();
+        return map;
+      }
+    }
+    catch (IOException | RuntimeException e) {
+      LOG.info("Cannot read archive entry table of " + path, e);
+      myTables.markCorrupted();
+    }
+    myMisses.incrementAndGet();
+    return null;
+  }
+
+  void put(@Nonnull String path, long length, long timestamp, @Nonnull Map<String, ArchiveHandler.EntryInfo> map) {
+    try {
+      myTables.put(path, new EntryTable(length, timestamp, encode(map, timestamp)));
+    }
+    catch (IOException e) {
+      LOG.info("Cannot save archive entry table of " + path, e);
+      myTables.markCorrupted();
+    }
+  }
+
+  @Nonnull
+  String getStatistics() {
+    return "hits: " + myHits.get() + ", misses: " + myMisses.get();
+  }
+
+  private void flush() {
+    if (myTables.isDirty()) myTables.force();
+  }
+
+  private void close() {
+    try {
+      myTables.close();
+    }
+    catch (IOException e) {
+      LOG.info(e);
+    }
+  }
+
+  // entries are written parents first, each refers to its parent by the position in the table, the root is implicit
+  @Nonnull
+  private static byte[] encode(@Nonnull Map<String, ArchiveHandler.EntryInfo> map, long archiveTimestamp) throws IOException {
+    Map<ArchiveHandler.EntryInfo, Integer> indices = new IdentityHashMap<>();
+    UnsyncByteArrayOutputStream bytes = new UnsyncByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    for (ArchiveHandler.EntryInfo info : map.values()) {
+      if (info.parent != null) write(info, indices, out, archiveTimestamp);
+    }
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  private static int write(@Nonnull ArchiveHandler.EntryInfo info,
+                           @Nonnull Map<ArchiveHandler.EntryInfo, Integer> indices,
+                           @Nonnull DataOutput out,
+                           long archiveTimestamp) throws IOException {
+    if (info.parent == null) return 0;
+    Integer index = indices.get(info);
+    if (index != null) return index;
+
+    int parent = write(info.parent, indices, out, archiveTimestamp);
+    int flags = info.isDirectory ? DIRECTORY : 0;
+    if (info.timestamp == archiveTimestamp) flags |= ARCHIVE_TIMESTAMP;
+    else if (info.timestamp != ArchiveHandler.DEFAULT_TIMESTAMP) flags |= OWN_TIMESTAMP;
+
+    DataInputOutputUtil.writeINT(out, parent);
+    IOUtil.writeUTF(out, info.shortName.toString());
+    out.writeByte(flags);
+    DataInputOutputUtil.writeLONG(out, info.length);
+    if ((flags & OWN_TIMESTAMP) != 0) DataInputOutputUtil.writeTIME(out, info.timestamp);
+
+    index = indices.size() + 1;
+    indices.put(info, index);
+    return index;
+  }
+
+  @Nonnull
+  private static Map<String, ArchiveHandler.EntryInfo> decode(@Nonnull byte[] entries, long archiveTimestamp, @Nonnull ArchiveHandler.EntryInfo root)
+    throws IOException {
+    DataInputStream in = new DataInputStream(new UnsyncByteArrayInputStream(entries));
+    ArchiveHandler.EntryInfo[] infos = new ArchiveHandler.EntryInfo[16];
+    String[] names = new String[16];
+    infos[0] = root;
+    names[0] = "";
+    int count = 1;
+    while (in.available() > 0) {
+      int parent = DataInputOutputUtil.readINT(in);
+      String shortName = IOUtil.readUTF(in);
+      int flags = in.readByte();
+      long length = DataInputOutputUtil.readLONG(in);
+      long timestamp = (flags & ARCHIVE_TIMESTAMP) != 0 ? archiveTimestamp
+                       : (flags & OWN_TIMESTAMP) != 0 ? DataInputOutputUtil.readTIME(in) : ArchiveHandler.DEFAULT_TIMESTAMP;
+      if (parent >= count) throw new IOException("Invalid parent " + parent + " of entry " + count);
+
+      if (count == infos.length) {
+        infos = Arrays.copyOf(infos, count * 2);
+        names = Arrays.copyOf(names, count * 2);
+      }
+      CharSequence sequence = ByteArrayCharSequence.convertToBytesIfPossible(shortName);
+      infos[count] = new ArchiveHandler.EntryInfo(sequence, (flags & DIRECTORY) != 0, length, timestamp, infos[parent]);
+      names[count] = parent == 0 ? shortName : names[parent] + '/' + shortName;
+      count++;
+    }
+
+    Map<String, ArchiveHandler.EntryInfo> map = new ZipEntryMap(count);
+    for (int i = 0; i < count; i++) {
+      map.put(names[i], infos[i]);
+    }
+    return map;
+  }
+
+  private static final class EntryTable {
+    private final long myLength;
+    private final long myTimestamp;
+    private final byte[] myEntries;
+
+    private EntryTable(long length, long timestamp, @Nonnull byte[] entries) {
+      myLength = length;
+      myTimestamp = timestamp;
+      myEntries = entries;
+    }
+  }
+
+  private static final class EntryTableExternalizer implements DataExternalizer<EntryTable> {
+    @Override
+    public void save(@Nonnull DataOutput out, EntryTable value) throws IOException {
+      DataInputOutputUtil.writeLONG(out, value.myLength);
+      DataInputOutputUtil.writeTIME(out, value.myTimestamp);
+      DataInputOutputUtil.writeINT(out, value.myEntries.length);
+      out.write(value.myEntries);
+    }
+
+    @Override
+    public EntryTable read(@Nonnull DataInput in) throws IOException {
+      long length = DataInputOutputUtil.readLONG(in);
+      long timestamp = DataInputOutputUtil.readTIME(in);
+      byte[] entries = new byte[DataInputOutputUtil.readINT(in)];
+      in.readFully(entries);
+      return new EntryTable(length, timestamp, entries);
+    }
+  }
+}
@@ -23,6 +23,7 @@ import consulo.ide.impl.idea.openapi.util.io.FileUtil;
 import consulo.ide.impl.idea.openapi.util.text.StringUtil;
 import consulo.util.io.FileAccessorCache;
 import consulo.util.lang.ByteArrayCharSequence;
+import consulo.util.lang.SystemProperties;
 import consulo.virtualFileSystem.archive.ArchiveEntry;
 import consulo.virtualFileSystem.archive.ArchiveFile;
 import jakarta.annotation.Nonnull;
@@ -36,7 +37,13 @@ import java.util.Iterator;
 import java.util.Map;
 
 public abstract class ZipHandler extends ArchiveHandler {
-  private static final FileAccessorCache<ZipHandler, ArchiveFile> ourZipFileFileAccessorCache = new FileAccessorCache<ZipHandler, ArchiveFile>(20, 10) {
+  private static final Logger LOG = Logger.getInstance(ZipHandler.class);
+
+  // the cache grows up to this size when archives evicted from it are reopened often, e.g. for projects with thousands of jars
+  private static final int MAX_OPEN_ARCHIVES = SystemProperties.getIntProperty("idea.zip.handle.cache.max.size", 160);
+
+  private static final FileAccessorCache<ZipHandler, ArchiveFile> ourZipFileFileAccessorCache =
+    new FileAccessorCache<ZipHandler, ArchiveFile>(20, 10, MAX_OPEN_ARCHIVES) {
     @Override
     protected ArchiveFile createAccessor(ZipHandler key) throws IOException {
       final String canonicalPathToZip = key.getCanonicalPathToZip();
@@ -79,9 +86,26 @@ public abstract class ZipHandler extends ArchiveHandler {
     return value;
   }
 
+  /**
+   * @return whether entry tables of archives of this handler may be kept in the persistent {@link ArchiveEntryTableCache}
+   */
+  protected boolean isEntryTableCacheable() {
+    return false;
+  }
+
   @Nonnull
   @Override
   protected Map<String, EntryInfo> createEntriesMap() throws IOException {
+    ArchiveEntryTableCache cache = isEntryTableCacheable() ? ArchiveEntryTableCache.getInstance() : null;
+    FileAttributes attributes = null;
+    if (cache != null) {
+      attributes = FileSystemUtil.getAttributes(getCanonicalPathToZip());
+      if (attributes != null) {
+        Map<String, EntryInfo> map = cache.get(getCanonicalPathToZip(), attributes.length, attributes.lastModified, createRootEntry());
+        if (map != null) return map;
+      }
+    }
+
     FileAccessorCache.Handle<ArchiveFile> zipRef = getZipFileHandle();
     try {
       ArchiveFile zip = zipRef.get();
@@ -94,6 +118,10 @@ public abstract class ZipHandler extends ArchiveHandler {
         getOrCreate(entries.next(), map, zip);
       }
 
+      // the archive may have been changed after the attributes were read
+      if (cache != null && attributes != null && attributes.lastModified == myFileStamp && attributes.length == myFileLength) {
+        cache.put(getCanonicalPathToZip(), attributes.length, attributes.lastModified, map);
+      }
       return map;
     }
     finally {
@@ -236,6 +264,16 @@ public abstract class ZipHandler extends ArchiveHandler {
 
   // also used in Kotlin
   public static void clearFileAccessorCache() {
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(getStatistics());
+    }
     ourZipFileFileAccessorCache.clear();
   }
+
+  @Nonnull
+  public static String getStatistics() {
+    ArchiveEntryTableCache cache = ArchiveEntryTableCache.getInstanceIfOpen();
+    return "Open archives cache: " + ourZipFileFileAccessorCache.getStatistics() +
+           (cache != null ? "; entry tables cache: " + cache.getStatistics() : "");
+  }
 }
\ No newline at end of file
@@ -75,6 +75,11 @@ public class JarHandler extends ZipHandler {
     return myFileSystem.createArchiveFile(path);
   }
 
+  @Override
+  protected boolean isEntryTableCacheable() {
+    return true;
+  }
+
   @Nonnull
   @Override
   protected File getFileToUse() {
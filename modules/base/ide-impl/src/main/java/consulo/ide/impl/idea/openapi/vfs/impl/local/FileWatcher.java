@@ -74,8 +74,9 @@ public class FileWatcher {
   FileWatcher(@Nonnull ManagingFS managingFS) {
     myManagingFS = managingFS;
     myNotificationSink = new MyFileWatcherNotificationSink();
-    myWatchers =
-      new PluggableFileWatcher[]{new NativeFileWatcherImpl()}; //FIXME [VISTALL] this is dirty hack, due we don't allow change file watcher
+    myWatchers = new PluggableFileWatcher[]{
+      InotifyFileWatcher.isEnabled() ? new InotifyFileWatcher() : new NativeFileWatcherImpl()
+    }; //FIXME [VISTALL] this is dirty hack, due we don't allow change file watcher
 
     myFileWatcherExecutor.execute(() -> {
       try {
@@ -278,6 +279,44 @@ public class FileWatcher {
       notifyOnEvent(path);
     }
 
+    @Override
+    public void notifyChanges(@Nonnull Collection<String> dirtyPaths,
+                              @Nonnull Collection<String> createdOrDeletedPaths,
+                              @Nonnull Collection<String> dirtyDirectories,
+                              @Nonnull Collection<String> dirtyPathsRecursive) {
+      CanonicalPathMap pathMap = myPathMap;
+      synchronized (myLock) {
+        for (String path : dirtyPaths) {
+          for (String eachPath : pathMap.getWatchedPaths(path, true)) {
+            myDirtyPaths.addDirtyPath(eachPath);
+          }
+        }
+        for (String path : createdOrDeletedPaths) {
+          for (String p : pathMap.getWatchedPaths(path, true)) {
+            myDirtyPaths.addDirtyPathRecursive(p);
+            String parentPath = new File(p).getParent();
+            if (parentPath != null) {
+              myDirtyPaths.addDirtyPath(parentPath);
+            }
+          }
+        }
+        for (String path : dirtyDirectories) {
+          myDirtyPaths.dirtyDirectories.addAll(pathMap.getWatchedPaths(path, false));
+        }
+        for (String path : dirtyPathsRecursive) {
+          for (String each : pathMap.getWatchedPaths(path, false)) {
+            myDirtyPaths.addDirtyPathRecursive(each);
+          }
+        }
+      }
+
+      if (myTestNotifier != null) {
+        for (Collection<String> paths : List.of(dirtyPaths, createdOrDeletedPaths, dirtyDirectories, dirtyPathsRecursive)) {
+          paths.forEach(FileWatcher.this::notifyOnEvent);
+        }
+      }
+    }
+
     @Override
     public void notifyReset(@Nullable String path) {
       if (path != null) {
@@ -0,0 +1,663 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.ide.impl.idea.openapi.vfs.impl.local;
+
+import com.sun.jna.Library;
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+import consulo.application.Application;
+import consulo.application.ApplicationBundle;
+import consulo.application.ApplicationManager;
+import consulo.application.util.SystemInfo;
+import consulo.logging.Logger;
+import consulo.util.collection.primitive.ints.IntMaps;
+import consulo.util.collection.primitive.ints.IntObjectMap;
+import consulo.util.io.CharsetToolkit;
+import consulo.util.jna.JnaLoader;
+import consulo.util.lang.Pair;
+import consulo.util.lang.SystemProperties;
+import consulo.util.lang.TimeoutUtil;
+import consulo.virtualFileSystem.ManagingFS;
+import consulo.virtualFileSystem.impl.internal.local.FileWatcherNotificationSink;
+import consulo.virtualFileSystem.impl.internal.local.PluggableFileWatcher;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import org.jetbrains.annotations.TestOnly;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Linux file watcher reading inotify(7) events in-process instead of running {@code fsnotifier}. Raw event buffers are read
+ * in batches, changes are coalesced per directory and passed to the notification sink at once.
+ * <p>
+ * Like {@code fsnotifier}, symlinked directories under recursive roots are followed: their targets are watched under canonical paths
+ * and the link paths are reported via {@link FileWatcherNotificationSink#notifyMapping}, so events are mapped back to the requested paths.
+ * <p>
+ * Enabled by {@code consulo.filewatcher.inotify}.
+ */
+public class InotifyFileWatcher extends PluggableFileWatcher {
+  private static final Logger LOG = Logger.getInstance(InotifyFileWatcher.class);
+
+  static final String PROPERTY_WATCHER_INOTIFY = "consulo.filewatcher.inotify";
+  private static final String PROPERTY_WATCHER_DISABLED = "consulo.filewatcher.disabled";
+
+  // events arriving while the batch is open are delivered together, the batch is closed once no events came for BATCH_IDLE_MS
+  private static final int BATCH_WINDOW_MS = SystemProperties.getIntProperty("consulo.filewatcher.inotify.batch.ms", 50);
+  private static final int BATCH_IDLE_MS = 5;
+  private static final int MAX_BATCH_EVENTS = 100_000;
+  // directories with more changed children in one batch are refreshed as a whole
+  private static final int DIRECTORY_COALESCING_THRESHOLD = SystemProperties.getIntProperty("consulo.filewatcher.inotify.coalescing.threshold", 32);
+  private static final int POLL_TIMEOUT_MS = 500;
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int EVENT_HEADER_SIZE = 16;
+
+  private static final int IN_MODIFY = 0x00000002;
+  private static final int IN_ATTRIB = 0x00000004;
+  private static final int IN_MOVED_FROM = 0x00000040;
+  private static final int IN_MOVED_TO = 0x00000080;
+  private static final int IN_CREATE = 0x00000100;
+  private static final int IN_DELETE = 0x00000200;
+  private static final int IN_DELETE_SELF = 0x00000400;
+  private static final int IN_MOVE_SELF = 0x00000800;
+  private static final int IN_UNMOUNT = 0x00002000;
+  private static final int IN_Q_OVERFLOW = 0x00004000;
+  private static final int IN_IGNORED = 0x00008000;
+  private static final int IN_DONT_FOLLOW = 0x02000000;
+  private static final int IN_EXCL_UNLINK = 0x04000000;
+  private static final int IN_ISDIR = 0x40000000;
+  private static final int IN_NONBLOCK = 0x00000800;
+  private static final int IN_CLOEXEC = 0x00080000;
+  private static final int WATCH_MASK =
+    IN_MODIFY | IN_ATTRIB | IN_MOVED_FROM | IN_MOVED_TO | IN_CREATE | IN_DELETE | IN_DELETE_SELF | IN_MOVE_SELF | IN_DONT_FOLLOW | IN_EXCL_UNLINK;
+
+  private static final short POLLIN = 0x0001;
+  private static final int ENOENT = 2;
+  private static final int EINTR = 4;
+  private static final int EAGAIN = 11;
+  private static final int ENOSPC = 28;
+
+  private static final Charset CHARSET = CharsetToolkit.getPlatformCharset();
+
+  private FileWatcherNotificationSink myNotificationSink;
+  private LibC myLibC;
+  private volatile int myFd = -1;
+  private volatile Thread myReader;
+  private volatile boolean myIsShuttingDown;
+  private final AtomicInteger mySettingRoots = new AtomicInteger(0);
+  private volatile List<String> myRecursiveWatchRoots = Collections.emptyList();
+  private volatile List<String> myFlatWatchRoots = Collections.emptyList();
+
+  private final Object myLock = new Object();
+  private final IntObjectMap<WatchedPath> myWatches = IntMaps.newIntObjectHashMap();
+  private final Map<String, Integer> myPathToWatch = new HashMap<>();
+  // canonical paths of symlinked directories under recursive roots -> link paths
+  private final Map<String, Set<String>> myLinkedRoots = new HashMap<>();
+  private boolean myWatchLimitReported;
+
+  public static boolean isEnabled() {
+    return SystemInfo.isLinux && SystemProperties.getBooleanProperty(PROPERTY_WATCHER_INOTIFY, false) && JnaLoader.isLoaded();
+  }
+
+  @Override
+  public void initialize(@Nonnull ManagingFS managingFS, @Nonnull FileWatcherNotificationSink notificationSink) {
+    myNotificationSink = notificationSink;
+
+    if (isDisabled()) {
+      LOG.info("Inotify file watcher is disabled");
+      return;
+    }
+
+    try {
+      start();
+      LOG.info("Inotify file watcher is operational.");
+    }
+    catch (IOException | LinkageError e) {
+      LOG.warn(e.getMessage());
+      myNotificationSink.notifyUserOnFailure(ApplicationBundle.message("watcher.failed.to.start"));
+    }
+  }
+
+  @Override
+  public void dispose() {
+    myIsShuttingDown = true;
+  }
+
+  @Override
+  public boolean isOperational() {
+    return myReader != null;
+  }
+
+  @Override
+  public boolean isSettingRoots() {
+    return isOperational() && mySettingRoots.get() > 0;
+  }
+
+  protected boolean isDisabled() {
+    if (Boolean.getBoolean(PROPERTY_WATCHER_DISABLED)) return true;
+    Application app = ApplicationManager.getApplication();
+    return app.isCommandLine() || app.isUnitTestMode();
+  }
+
+  @Override
+  public void setWatchRoots(@Nonnull List<String> recursive, @Nonnull List<String> flat) {
+    if (myReader == null) return;
+
+    if (ApplicationManager.getApplication().isDisposeInProgress()) {
+      recursive = flat = Collections.emptyList();
+    }
+
+    if (myRecursiveWatchRoots.equals(recursive) && myFlatWatchRoots.equals(flat)) {
+      // the sink starts with a fresh path map whenever roots are set
+      myNotificationSink.notifyMapping(getLinkMapping());
+      return;
+    }
+
+    mySettingRoots.incrementAndGet();
+    try {
+      myRecursiveWatchRoots = recursive;
+      myFlatWatchRoots = flat;
+      synchronized (myLock) {
+        myLinkedRoots.clear();
+      }
+
+      List<String> unwatchable = new ArrayList<>();
+      for (String root : recursive) {
+        if (!watchTree(root)) unwatchable.add(root);
+      }
+      for (String root : flat) {
+        if (addWatch(root, false) < 0) unwatchable.add(root);
+      }
+      removeWatchesOutside(recursive, flat);
+      if (LOG.isDebugEnabled()) LOG.debug("Watching " + getWatchCount() + " paths, unwatchable: " + unwatchable);
+
+      myNotificationSink.notifyMapping(getLinkMapping());
+      myNotificationSink.notifyManualWatchRoots(unwatchable);
+    }
+    finally {
+      mySettingRoots.decrementAndGet();
+    }
+  }
+
+  /* internal stuff */
+
+  private void start() throws IOException {
+    if (myLibC == null) {
+      myLibC = Native.load("c", LibC.class);
+    }
+    int fd = myLibC.inotify_init1(IN_NONBLOCK | IN_CLOEXEC);
+    if (fd < 0) {
+      throw new IOException("inotify_init1() failed, errno=" + Native.getLastError());
+    }
+    myFd = fd;
+
+    Thread reader = new Thread(this::readEvents, "Inotify File Watcher");
+    reader.setDaemon(true);
+    myReader = reader;
+    reader.start();
+  }
+
+  private void readEvents() {
+    Memory pollFd = new Memory(8);
+    Memory buffer = new Memory(BUFFER_SIZE);
+    try {
+      while (!myIsShuttingDown) {
+        if (!poll(pollFd, POLL_TIMEOUT_MS)) continue;
+
+        EventBatch batch = new EventBatch();
+        long batchEnd = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BATCH_WINDOW_MS);
+        do {
+          read(buffer, batch);
+        }
+        while (batch.myEventCount < MAX_BATCH_EVENTS && System.nanoTime() < batchEnd && poll(pollFd, BATCH_IDLE_MS));
+
+        batch.deliver(myNotificationSink);
+      }
+    }
+    catch (IOException | RuntimeException e) {
+      LOG.warn("Inotify file watcher failed", e);
+      myNotificationSink.notifyUserOnFailure(ApplicationBundle.message("watcher.gave.up"));
+    }
+    finally {
+      synchronized (myLock) {
+        myWatches.clear();
+        myPathToWatch.clear();
+        myLinkedRoots.clear();
+      }
+      myLibC.close(myFd);
+      myFd = -1;
+      myRecursiveWatchRoots = Collections.emptyList();
+      myFlatWatchRoots = Collections.emptyList();
+      myReader = null;
+    }
+  }
+
+  private boolean poll(@Nonnull Memory pollFd, int timeoutMs) throws IOException {
+    // struct pollfd { int fd; short events; short revents; }
+    pollFd.setInt(0, myFd);
+    pollFd.setShort(4, POLLIN);
+    pollFd.setShort(6, (short)0);
+    int result = myLibC.poll(pollFd, 1, timeoutMs);
+    if (result < 0) {
+      int errno = Native.getLastError();
+      if (errno != EINTR) throw new IOException("poll() failed, errno=" + errno);
+    }
+    return result > 0;
+  }
+
+  private void read(@Nonnull Memory buffer, @Nonnull EventBatch batch) throws IOException {
+    while (true) {
+      long read = myLibC.read(myFd, buffer, new NativeLong(BUFFER_SIZE)).longValue();
+      if (read < 0) {
+        int errno = Native.getLastError();
+        if (errno == EAGAIN) return;
+        if (errno == EINTR) continue;
+        throw new IOException("read() failed, errno=" + errno);
+      }
+      if (read == 0) return;
+      processEvents(buffer.getByteArray(0, (int)read), batch);
+    }
+  }
+
+  private void processEvents(@Nonnull byte[] bytes, @Nonnull EventBatch batch) {
+    // struct inotify_event { int wd; uint32_t mask; uint32_t cookie; uint32_t len; char name[len]; }
+    ByteBuffer events = ByteBuffer.wrap(bytes).order(ByteOrder.nativeOrder());
+    while (events.remaining() >= EVENT_HEADER_SIZE) {
+      int wd = events.getInt();
+      int mask = events.getInt();
+      events.getInt();
+      int length = events.getInt();
+      String name = length == 0 ? null : decodeName(bytes, events.position(), length);
+      events.position(events.position() + length);
+      processEvent(wd, mask, name, batch);
+    }
+  }
+
+  @Nullable
+  private static String decodeName(@Nonnull byte[] bytes, int offset, int length) {
+    int end = offset;
+    while (end < offset + length && bytes[end] != 0) end++;
+    return end == offset ? null : new String(bytes, offset, end - offset, CHARSET);
+  }
+
+  private void processEvent(int wd, int mask, @Nullable String name, @Nonnull EventBatch batch) {
+    batch.myEventCount++;
+    if ((mask & IN_Q_OVERFLOW) != 0) {
+      batch.myReset = true;
+      return;
+    }
+
+    WatchedPath watched;
+    boolean recursive;
+    synchronized (myLock) {
+      watched = myWatches.get(wd);
+      recursive = watched != null && watched.recursive;
+    }
+    if (watched == null) return;
+
+    if ((mask & IN_IGNORED) != 0) {
+      forgetWatch(wd, watched);
+      return;
+    }
+
+    if (name == null) {
+      if ((mask & (IN_DELETE_SELF | IN_MOVE_SELF | IN_UNMOUNT)) != 0) {
+        batch.myCreatedOrDeleted.add(watched.path);
+        // watches of a tree moved away would keep reporting changes under the old paths
+        if ((mask & IN_MOVE_SELF) != 0) removeWatchesUnder(watched.path);
+      }
+      else if ((mask & (IN_MODIFY | IN_ATTRIB)) != 0) {
+        batch.myDirtyPaths.add(watched.path);
+      }
+      return;
+    }
+
+    String path = watched.path.endsWith("/") ? watched.path + name : watched.path + '/' + name;
+    if ((mask & (IN_CREATE | IN_DELETE | IN_MOVED_FROM | IN_MOVED_TO)) != 0) {
+      batch.addChange(watched.path, path);
+      batch.myCreatedOrDeleted.add(path);
+      if ((mask & IN_ISDIR) != 0) {
+        if ((mask & IN_MOVED_FROM) != 0) {
+          removeWatchesUnder(path);
+        }
+        else if ((mask & (IN_CREATE | IN_MOVED_TO)) != 0 && recursive) {
+          // children might have appeared before the watch was added
+          watchTree(path);
+          batch.myDirtyPathsRecursive.add(path);
+        }
+      }
+      else if ((mask & (IN_CREATE | IN_MOVED_TO)) != 0 && recursive && Files.isSymbolicLink(Path.of(path)) && Files.isDirectory(Path.of(path))) {
+        if (watchLinkedTree(Path.of(path))) {
+          myNotificationSink.notifyMapping(getLinkMapping());
+          batch.myDirtyPathsRecursive.add(path);
+        }
+      }
+      else if ((mask & (IN_DELETE | IN_MOVED_FROM)) != 0) {
+        forgetLink(path);
+      }
+    }
+    else if ((mask & (IN_MODIFY | IN_ATTRIB)) != 0) {
+      batch.addChange(watched.path, path);
+    }
+  }
+
+  /**
+   * @return false if the root cannot be watched
+   */
+  private boolean watchTree(@Nonnull String root) {
+    Path rootPath = Path.of(root);
+    if (!Files.isDirectory(rootPath, LinkOption.NOFOLLOW_LINKS)) {
+      return addWatch(root, false) >= 0;
+    }
+
+    boolean[] watched = {true};
+    try {
+      Files.walkFileTree(rootPath, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+          if (myIsShuttingDown) return FileVisitResult.TERMINATE;
+          int result = addWatch(dir.toString(), true);
+          if (result >= 0) return FileVisitResult.CONTINUE;
+          if (result == -ENOSPC) {
+            reportWatchLimit();
+            watched[0] = false;
+            return FileVisitResult.TERMINATE;
+          }
+          if (dir.equals(rootPath)) {
+            watched[0] = false;
+            return FileVisitResult.TERMINATE;
+          }
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+          if (attrs.isSymbolicLink() && Files.isDirectory(file)) {
+            watchLinkedTree(file);
+          }
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException exc) {
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    }
+    catch (IOException e) {
+      LOG.debug(e);
+      return false;
+    }
+    return watched[0];
+  }
+
+  /**
+   * Watches the target of a symlinked directory under its canonical path and remembers the link for {@link #getLinkMapping()}.
+   * Targets inside of an already watched tree (including link cycles) are not walked again.
+   *
+   * @return false if the target cannot be watched
+   */
+  private boolean watchLinkedTree(@Nonnull Path link) {
+    String target;
+    try {
+      target = link.toRealPath().toString();
+    }
+    catch (IOException e) {
+      LOG.debug(e);
+      return false;
+    }
+
+    boolean alreadyWatched;
+    synchronized (myLock) {
+      alreadyWatched = isUnder(target, myRecursiveWatchRoots) || isUnder(target, myLinkedRoots.keySet());
+      myLinkedRoots.computeIfAbsent(target, __ -> new HashSet<>()).add(link.toString());
+    }
+    return alreadyWatched || watchTree(target);
+  }
+
+  private void forgetLink(@Nonnull String link) {
+    String target = null;
+    synchronized (myLock) {
+      for (Iterator<Map.Entry<String, Set<String>>> iterator = myLinkedRoots.entrySet().iterator(); iterator.hasNext(); ) {
+        Map.Entry<String, Set<String>> entry = iterator.next();
+        if (entry.getValue().remove(link) && entry.getValue().isEmpty()) {
+          iterator.remove();
+          target = entry.getKey();
+          break;
+        }
+      }
+    }
+    if (target != null && !isUnder(target, myRecursiveWatchRoots)) {
+      removeWatchesUnder(target);
+    }
+  }
+
+  private static boolean isUnder(@Nonnull String path, @Nonnull Collection<String> roots) {
+    for (String root : roots) {
+      if (path.equals(root) || path.startsWith(root.endsWith("/") ? root : root + '/')) return true;
+    }
+    return false;
+  }
+
+  @Nonnull
+  private List<Pair<String, String>> getLinkMapping() {
+    List<Pair<String, String>> mapping = new ArrayList<>();
+    synchronized (myLock) {
+      for (Map.Entry<String, Set<String>> entry : myLinkedRoots.entrySet()) {
+        for (String link : entry.getValue()) {
+          mapping.add(Pair.create(entry.getKey(), link));
+        }
+      }
+    }
+    return mapping;
+  }
+
+  /**
+   * @return watch descriptor or negated errno
+   */
+  private int addWatch(@Nonnull String path, boolean recursive) {
+    int fd = myFd;
+    if (fd < 0) return -ENOENT;
+    int wd = myLibC.inotify_add_watch(fd, path, WATCH_MASK);
+    if (wd < 0) {
+      return -Native.getLastError();
+    }
+    synchronized (myLock) {
+      WatchedPath watched = myWatches.get(wd);
+      if (watched == null || !watched.path.equals(path)) {
+        // the same directory reached by another path (e.g. moved or bind-mounted) is reported under the latest one
+        if (watched != null) myPathToWatch.remove(watched.path);
+        watched = new WatchedPath(path, recursive);
+        myWatches.put(wd, watched);
+      }
+      else if (recursive) {
+        watched.recursive = true;
+      }
+      myPathToWatch.put(path, wd);
+    }
+    return wd;
+  }
+
+  private void forgetWatch(int wd, @Nonnull WatchedPath watched) {
+    synchronized (myLock) {
+      if (myWatches.get(wd) == watched) {
+        myWatches.remove(wd);
+        myPathToWatch.remove(watched.path, wd);
+      }
+    }
+  }
+
+  private void removeWatchesUnder(@Nonnull String path) {
+    String prefix = path.endsWith("/") ? path : path + '/';
+    removeWatches(watchedPath -> watchedPath.equals(path) || watchedPath.startsWith(prefix));
+  }
+
+  private void removeWatchesOutside(@Nonnull List<String> recursive, @Nonnull List<String> flat) {
+    Set<String> flatRoots = new HashSet<>(flat);
+    Set<String> recursiveRoots = new HashSet<>(recursive);
+    synchronized (myLock) {
+      recursiveRoots.addAll(myLinkedRoots.keySet());
+    }
+    List<String> recursivePrefixes = new ArrayList<>(recursiveRoots.size());
+    for (String root : recursiveRoots) {
+      recursivePrefixes.add(root.endsWith("/") ? root : root + '/');
+    }
+    removeWatches(watchedPath -> {
+      if (flatRoots.contains(watchedPath) || recursiveRoots.contains(watchedPath)) return false;
+      for (String prefix : recursivePrefixes) {
+        if (watchedPath.startsWith(prefix)) return false;
+      }
+      return true;
+    });
+  }
+
+  private void removeWatches(@Nonnull Predicate<String> condition) {
+    List<Integer> removed = new ArrayList<>();
+    synchronized (myLock) {
+      for (Iterator<Map.Entry<String, Integer>> iterator = myPathToWatch.entrySet().iterator(); iterator.hasNext(); ) {
+        Map.Entry<String, Integer> entry = iterator.next();
+        if (condition.test(entry.getKey())) {
+          iterator.remove();
+          myWatches.remove(entry.getValue());
+          removed.add(entry.getValue());
+        }
+      }
+    }
+    int fd = myFd;
+    if (fd < 0) return;
+    for (int wd : removed) {
+      myLibC.inotify_rm_watch(fd, wd);
+    }
+  }
+
+  private int getWatchCount() {
+    synchronized (myLock) {
+      return myWatches.size();
+    }
+  }
+
+  private void reportWatchLimit() {
+    synchronized (myLock) {
+      if (myWatchLimitReported) return;
+      myWatchLimitReported = true;
+    }
+    myNotificationSink.notifyUserOnFailure(ApplicationBundle.message("watcher.inotify.limit"));
+  }
+
+  private static final class WatchedPath {
+    final String path;
+    boolean recursive;
+
+    WatchedPath(@Nonnull String path, boolean recursive) {
+      this.path = path;
+      this.recursive = recursive;
+    }
+  }
+
+  private static final class EventBatch {
+    private final Map<String, Set<String>> myChangesByDirectory = new HashMap<>();
+    private final Set<String> myDirtyPaths = new HashSet<>();
+    private final Set<String> myCreatedOrDeleted = new HashSet<>();
+    private final Set<String> myDirtyPathsRecursive = new HashSet<>();
+    private boolean myReset;
+    private int myEventCount;
+
+    void addChange(@Nonnull String directory, @Nonnull String path) {
+      myChangesByDirectory.computeIfAbsent(directory, __ -> new HashSet<>()).add(path);
+    }
+
+    void deliver(@Nonnull FileWatcherNotificationSink sink) {
+      if (myReset) {
+        sink.notifyReset(null);
+        return;
+      }
+
+      Set<String> dirtyDirectories = new HashSet<>();
+      Set<String> coalesced = new HashSet<>();
+      for (Map.Entry<String, Set<String>> entry : myChangesByDirectory.entrySet()) {
+        if (entry.getValue().size() > DIRECTORY_COALESCING_THRESHOLD) {
+          dirtyDirectories.add(entry.getKey());
+          coalesced.addAll(entry.getValue());
+        }
+        else {
+          myDirtyPaths.addAll(entry.getValue());
+        }
+      }
+      myDirtyPaths.removeAll(myCreatedOrDeleted);
+      myCreatedOrDeleted.removeAll(coalesced);
+
+      if (LOG.isDebugEnabled()) {
+        LOG.debug(myEventCount + " events: " + myDirtyPaths.size() + " dirty, " + myCreatedOrDeleted.size() + " created or deleted, " +
+                  dirtyDirectories.size() + " dirty directories, " + myDirtyPathsRecursive.size() + " new directories");
+      }
+      sink.notifyChanges(myDirtyPaths, myCreatedOrDeleted, dirtyDirectories, myDirtyPathsRecursive);
+    }
+  }
+
+  private interface LibC extends Library {
+    int inotify_init1(int flags);
+
+    int inotify_add_watch(int fd, String path, int mask);
+
+    int inotify_rm_watch(int fd, int wd);
+
+    int poll(Pointer fds, int nfds, int timeout);
+
+    NativeLong read(int fd, Pointer buffer, NativeLong count);
+
+    int close(int fd);
+  }
+
+  @Override
+  @TestOnly
+  public void startup() throws IOException {
+    Application app = ApplicationManager.getApplication();
+    assert app != null && app.isUnitTestMode() : app;
+
+    myIsShuttingDown = false;
+    start();
+  }
+
+  @Override
+  @TestOnly
+  public void shutdown() throws InterruptedException {
+    Application app = ApplicationManager.getApplication();
+    assert app != null && app.isUnitTestMode() : app;
+
+    Thread reader = myReader;
+    if (reader != null) {
+      myIsShuttingDown = true;
+
+      long t = System.currentTimeMillis();
+      while (reader.isAlive()) {
+        if (System.currentTimeMillis() - t > 5000) {
+          throw new InterruptedException("Timed out waiting watcher thread to terminate");
+        }
+        TimeoutUtil.sleep(100);
+      }
+    }
+  }
+}
@@ -28,6 +28,7 @@ import consulo.virtualFileSystem.NewVirtualFile;
 import consulo.virtualFileSystem.RefreshQueue;
 import consulo.ide.impl.idea.openapi.vfs.newvfs.VfsImplUtil;
 import consulo.ide.impl.idea.openapi.vfs.newvfs.persistent.PersistentFS;
+import consulo.ide.impl.idea.openapi.vfs.newvfs.persistent.RefreshJournal;
 import consulo.util.lang.ObjectUtil;
 import consulo.ide.impl.idea.util.io.URLUtil;
 import consulo.util.collection.Maps;
@@ -99,7 +100,36 @@ public final class LocalFileSystemImpl extends LocalFileSystemBase implements Re
               STATUS_UPDATE_PERIOD, STATUS_UPDATE_PERIOD, TimeUnit.MILLISECONDS);
     }
 
-    Disposer.register(app, () -> myWatcher.dispose());
+    Disposer.register(app, () -> {
+      saveRefreshJournal();
+      myWatcher.dispose();
+    });
+  }
+
+  private void saveRefreshJournal() {
+    if (!myWatcher.isOperational()) return;
+
+    // apply changes the watcher has reported so far, so directories with pending changes are not journaled
+    markSuspiciousFilesDirty(Collections.emptyList());
+
+    List<String> watchedRoots = new ArrayList<>();
+    for (WatchRequestImpl request : normalizeRootsForRefresh()) {
+      if (request.isToWatchRecursively()) {
+        watchedRoots.add(request.getRootPath());
+      }
+    }
+    Collection<String> manualRoots = myWatcher.getManualWatchRoots();
+    RefreshJournal.save(dir -> {
+      if (dir.getFileSystem() != this) return false;
+      String path = dir.getPath();
+      for (String root : manualRoots) {
+        if (FileUtil.isAncestor(root, path, false)) return false;
+      }
+      for (String root : watchedRoots) {
+        if (FileUtil.isAncestor(root, path, false)) return true;
+      }
+      return false;
+    });
   }
 
   @Nonnull
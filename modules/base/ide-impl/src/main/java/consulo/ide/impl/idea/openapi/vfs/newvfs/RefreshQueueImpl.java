@@ -36,6 +36,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -59,6 +60,7 @@ public class RefreshQueueImpl extends RefreshQueue implements Disposable {
   private final Map<Long, RefreshSession> mySessions = new HashMap<>();
   private final FrequentEventDetector myEventCounter = new FrequentEventDetector(100, 100, FrequentEventDetector.Level.WARN);
   private final AtomicLong myWriteActionCounter = new AtomicLong();
+  private final AtomicLong myMaxEventsWriteActionNanos = new AtomicLong();
 
   @Nonnull
   private final Application myApplication;
@@ -159,8 +161,10 @@ public class RefreshQueueImpl extends RefreshQueue implements Disposable {
     }
   }
 
+  // large sessions (e.g. after a branch switch) are applied in chunks, each prepared here and applied in a write action of its own
   protected void tryProcessingEvents(@Nonnull RefreshSessionImpl session, @Nullable TransactionId transaction) {
-    List<? extends VFileEvent> events = ContainerUtil.filter(session.getEvents(), e -> {
+    List<? extends VFileEvent> chunk = session.getNextEventChunk(Math.max(1, Registry.intValue("vfs.async.event.processing.chunk.size", 5000)));
+    List<? extends VFileEvent> events = ContainerUtil.filter(chunk, e -> {
       VirtualFile file = e instanceof VFileCreateEvent ? ((VFileCreateEvent)e).getParent() : e.getFile();
       return file == null || file.isValid();
     });
@@ -170,7 +174,9 @@ public class RefreshQueueImpl extends RefreshQueue implements Disposable {
     long stamp = myWriteActionCounter.get();
     TransactionGuard.getInstance().submitTransaction(ApplicationManager.getApplication(), transaction, () -> {
       if (stamp == myWriteActionCounter.get()) {
-        session.fireEvents(events, appliers);
+        if (session.fireEventChunk(chunk.size(), events, appliers)) {
+          scheduleAsynchronousPreprocessing(session, transaction);
+        }
       }
       else {
         scheduleAsynchronousPreprocessing(session, transaction);
@@ -178,6 +184,23 @@ public class RefreshQueueImpl extends RefreshQueue implements Disposable {
     });
   }
 
+  void eventsApplied(int eventCount, long writeActionNanos) {
+    long max = myMaxEventsWriteActionNanos.get();
+    while (writeActionNanos > max && !myMaxEventsWriteActionNanos.compareAndSet(max, writeActionNanos)) {
+      max = myMaxEventsWriteActionNanos.get();
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(eventCount + " events applied in " + TimeUnit.NANOSECONDS.toMillis(writeActionNanos) + "ms");
+    }
+  }
+
+  /**
+   * @return the longest time a write action applying refresh events took
+   */
+  public long getMaxEventsWriteActionMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(myMaxEventsWriteActionNanos.get());
+  }
+
   private void doScan(@Nonnull RefreshSessionImpl session) {
     try {
       updateSessionMap(session, true);
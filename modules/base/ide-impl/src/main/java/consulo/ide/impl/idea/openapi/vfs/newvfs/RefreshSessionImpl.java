@@ -49,6 +49,9 @@ public class RefreshSessionImpl extends RefreshSession {
   private volatile boolean myCancelled;
   private final TransactionId myTransaction;
   private boolean myLaunched;
+  // events to apply in chunks and the number of them applied already, see fireEventChunk()
+  private volatile List<? extends VFileEvent> myEventsToFire;
+  private volatile int myFiredEventCount;
 
   public RefreshSessionImpl(boolean async, boolean recursive, @Nullable Runnable finishRunnable, @Nonnull ModalityState context) {
     myIsAsync = async;
@@ -182,7 +185,7 @@ public class RefreshSessionImpl extends RefreshSession {
     try {
       if ((myFinishRunnable != null || !events.isEmpty()) && !ApplicationManager.getApplication().isDisposed()) {
         if (LOG.isDebugEnabled()) LOG.debug("events are about to fire: " + events);
-        WriteAction.run(() -> fireEventsInWriteAction(events, appliers));
+        WriteAction.run(() -> fireEventsInWriteAction(events, appliers, true, true));
       }
     }
     finally {
@@ -190,12 +193,68 @@ public class RefreshSessionImpl extends RefreshSession {
     }
   }
 
-  private void fireEventsInWriteAction(List<? extends VFileEvent> events, @Nullable List<? extends AsyncFileListener.ChangeApplier> appliers) {
+  /**
+   * @return at most {@code maxCount} events of the session following the ones applied by {@link #fireEventChunk} already
+   */
+  @Nonnull
+  List<? extends VFileEvent> getNextEventChunk(int maxCount) {
+    List<? extends VFileEvent> events = myEventsToFire;
+    if (events == null) {
+      myEventsToFire = events = getEvents();
+    }
+    int start = myFiredEventCount;
+    return events.subList(start, Math.min(events.size(), start + maxCount));
+  }
+
+  /**
+   * Applies the next chunk of events in a write action of its own, the refresh is reported to be started before the first chunk
+   * and finished after the last one, so other write actions may run between chunks.
+   *
+   * @param chunkSize number of events obtained from {@link #getNextEventChunk}, {@code events} are the valid ones of them
+   * @return true if there are more events to apply
+   */
+  boolean fireEventChunk(int chunkSize,
+                         @Nonnull List<? extends VFileEvent> events,
+                         @Nullable List<? extends AsyncFileListener.ChangeApplier> appliers) {
+    int total = myEventsToFire.size();
+    boolean first = myFiredEventCount == 0;
+    boolean last = myFiredEventCount + chunkSize >= total;
+    if (first && last) {
+      myFiredEventCount = total;
+      fireEvents(events, appliers);
+      return false;
+    }
+
+    boolean completed = false;
+    try {
+      if (!ApplicationManager.getApplication().isDisposed()) {
+        if (LOG.isDebugEnabled()) LOG.debug("event chunk is about to fire: " + events);
+        WriteAction.run(() -> fireEventsInWriteAction(events, appliers, first, last));
+        completed = true;
+      }
+    }
+    finally {
+      // the refresh is finished by a failed chunk, the rest of events is dropped
+      myFiredEventCount = completed ? myFiredEventCount + chunkSize : total;
+      if (!completed || last) {
+        mySemaphore.up();
+      }
+    }
+    return !last;
+  }
+
+  private void fireEventsInWriteAction(List<? extends VFileEvent> events,
+                                       @Nullable List<? extends AsyncFileListener.ChangeApplier> appliers,
+                                       boolean startRefresh,
+                                       boolean finishRefresh) {
     final VirtualFileManagerEx manager = (VirtualFileManagerEx)VirtualFileManager.getInstance();
+    long started = System.nanoTime();
 
-    manager.fireBeforeRefreshStart(myIsAsync);
+    if (startRefresh) manager.fireBeforeRefreshStart(myIsAsync);
+    boolean completed = false;
     try {
       AsyncEventSupport.processEvents(events, appliers);
+      completed = true;
     }
     catch (AssertionError e) {
       if (FileStatusMapImpl.CHANGES_NOT_ALLOWED_DURING_HIGHLIGHTING.equals(e.getMessage())) {
@@ -205,11 +264,21 @@ public class RefreshSessionImpl extends RefreshSession {
     }
     finally {
       try {
-        manager.fireAfterRefreshFinish(myIsAsync);
+        if (finishRefresh || !completed) {
+          try {
+            manager.fireAfterRefreshFinish(myIsAsync);
+          }
+          finally {
+            if (myFinishRunnable != null) {
+              myFinishRunnable.run();
+            }
+          }
+        }
       }
       finally {
-        if (myFinishRunnable != null) {
-          myFinishRunnable.run();
+        RefreshQueue queue = RefreshQueue.getInstance();
+        if (queue instanceof RefreshQueueImpl) {
+          ((RefreshQueueImpl)queue).eventsApplied(events.size(), System.nanoTime() - started);
         }
       }
     }
@@ -19,6 +19,7 @@ import consulo.util.lang.Pair;
 import consulo.ide.impl.idea.openapi.util.io.FileUtil;
 import consulo.ide.impl.idea.openapi.util.text.StringUtil;
 import consulo.ide.impl.idea.openapi.vfs.impl.ArchiveHandler;
+import consulo.ide.impl.idea.openapi.vfs.newvfs.persistent.PathIdIndex;
 import consulo.util.lang.function.PairFunction;
 import consulo.ide.impl.idea.util.containers.ContainerUtil;
 import consulo.application.Application;
@@ -49,6 +50,14 @@ public class VfsImplUtil {
 
   @Nullable
   public static NewVirtualFile findFileByPath(@Nonnull NewVirtualFileSystem vfs, @Nonnull String path) {
+    PathIdIndex index = PathIdIndex.getInstance();
+    String indexablePath = index != null ? getIndexablePath(vfs, path) : null;
+    int depth = indexablePath != null ? getDepth(vfs, indexablePath) : 0;
+    if (indexablePath != null) {
+      NewVirtualFile file = index.find(vfs, indexablePath, depth);
+      if (file != null) return file;
+    }
+
     Pair<NewVirtualFile, Iterable<String>> data = prepare(vfs, path);
     if (data == null) return null;
 
@@ -71,9 +80,76 @@ public class VfsImplUtil {
       if (file == null) return null;
     }
 
+    if (indexablePath != null) {
+      index.record(vfs, indexablePath, depth, file);
+    }
     return file;
   }
 
+  /**
+   * Resolves a list of paths at once, the paths share lookups of their common parent directories. If {@link PathIdIndex} is enabled,
+   * deep paths known to it are resolved by a single probe each.
+   *
+   * @return files in the order of paths, null for paths which don't exist
+   */
+  @Nonnull
+  public static List<NewVirtualFile> findFilesByPaths(@Nonnull NewVirtualFileSystem vfs, @Nonnull List<String> paths) {
+    PathIdIndex index = PathIdIndex.getInstance();
+    Map<String, NewVirtualFile> resolved = new HashMap<>();
+    List<NewVirtualFile> result = new ArrayList<>(paths.size());
+    for (String path : paths) {
+      String indexablePath = getIndexablePath(vfs, path);
+      result.add(indexablePath != null ? findInBatch(vfs, indexablePath, index, resolved) : findFileByPath(vfs, path));
+    }
+    return result;
+  }
+
+  @Nullable
+  private static NewVirtualFile findInBatch(@Nonnull NewVirtualFileSystem vfs,
+                                            @Nonnull String normalizedPath,
+                                            @Nullable PathIdIndex index,
+                                            @Nonnull Map<String, NewVirtualFile> resolved) {
+    if (resolved.containsKey(normalizedPath)) return resolved.get(normalizedPath);
+
+    int depth = getDepth(vfs, normalizedPath);
+    NewVirtualFile file = index != null ? index.find(vfs, normalizedPath, depth) : null;
+    if (file == null) {
+      String rootPath = vfs.extractRootPath(normalizedPath);
+      int slash = normalizedPath.lastIndexOf('/');
+      if (slash < rootPath.length() || slash == normalizedPath.length() - 1) {
+        file = findFileByPath(vfs, normalizedPath);
+      }
+      else {
+        NewVirtualFile parent = findInBatch(vfs, normalizedPath.substring(0, slash), index, resolved);
+        file = parent != null ? parent.findChild(normalizedPath.substring(slash + 1)) : null;
+        if (file != null && index != null) {
+          index.record(vfs, normalizedPath, depth, file);
+        }
+      }
+    }
+    resolved.put(normalizedPath, file);
+    return file;
+  }
+
+  private static int getDepth(@Nonnull NewVirtualFileSystem vfs, @Nonnull String normalizedPath) {
+    return StringUtil.countChars(normalizedPath, '/', vfs.extractRootPath(normalizedPath).length(), false) + 1;
+  }
+
+  // the normalized path if it may be looked up in PathIdIndex, i.e. has no "." or ".." elements which need resolving
+  @Nullable
+  private static String getIndexablePath(@Nonnull NewVirtualFileSystem vfs, @Nonnull String path) {
+    String normalizedPath = normalize(vfs, path);
+    if (StringUtil.isEmptyOrSpaces(normalizedPath) || normalizedPath.indexOf('\\') >= 0) return null;
+    for (int start = 0; start < normalizedPath.length(); ) {
+      int end = normalizedPath.indexOf('/', start);
+      if (end < 0) end = normalizedPath.length();
+      int length = end - start;
+      if (length == 1 && normalizedPath.charAt(start) == '.' || length == 2 && normalizedPath.startsWith("..", start)) return null;
+      start = end + 1;
+    }
+    return normalizedPath;
+  }
+
   @Nullable
   public static NewVirtualFile findFileByPathIfCached(@Nonnull NewVirtualFileSystem vfs, @Nonnull String path) {
     return findCachedFileByPath(vfs, path).first;
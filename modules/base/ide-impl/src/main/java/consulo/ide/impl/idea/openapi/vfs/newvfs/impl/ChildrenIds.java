@@ -0,0 +1,401 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.ide.impl.idea.openapi.vfs.newvfs.impl;
+
+import consulo.ide.impl.idea.util.ArrayUtil;
+import consulo.ide.impl.idea.util.ArrayUtilRt;
+import consulo.util.lang.ObjectUtil;
+import consulo.util.lang.SystemProperties;
+import jakarta.annotation.Nonnull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Immutable sorted sequence of children ids of a directory, see {@link VfsData.DirectoryData#myChildren}.
+ * Modifications return a new instance, so readers never need a lock.
+ * <p>
+ * Small directories keep ids in a plain array which is copied on every modification. Above {@link #CHUNKED_THRESHOLD} children
+ * ids are split into chunks of at most {@link #MAX_CHUNK_SIZE} ids, a modification copies the affected chunk and the chunk table only,
+ * so populating a directory with hundreds of thousands of children one by one is no longer quadratic. Bulk modifications
+ * ({@link #merge}, {@link #removeAll}) rebuild only the chunks they touch and share the others with the previous instance.
+ */
+abstract class ChildrenIds {
+  static final int CHUNKED_THRESHOLD = SystemProperties.getIntProperty("idea.vfs.children.chunked.threshold", 2048);
+  static final int MAX_CHUNK_SIZE = 1024;
+
+  static final ChildrenIds EMPTY = new Flat(ArrayUtilRt.EMPTY_INT_ARRAY);
+
+  @Nonnull
+  static ChildrenIds of(@Nonnull int[] sortedIds) {
+    if (sortedIds.length == 0) return EMPTY;
+    return sortedIds.length > CHUNKED_THRESHOLD ? Chunked.create(sortedIds) : new Flat(sortedIds);
+  }
+
+  abstract int size();
+
+  abstract int get(int index);
+
+  @Nonnull
+  abstract int[] toArray();
+
+  abstract void forEach(@Nonnull IntConsumer consumer);
+
+  /**
+   * @param idComparator compares the name of the child with the given id to the searched one
+   * @return index of the matching child or {@code -(insertionPoint + 1)}, like {@link ObjectUtil#binarySearch}
+   */
+  abstract int binarySearch(@Nonnull IntUnaryOperator idComparator);
+
+  @Nonnull
+  abstract ChildrenIds insert(int index, int id);
+
+  @Nonnull
+  abstract ChildrenIds remove(int index);
+
+  /**
+   * @param positions for every id of {@code ids}, in ascending order, the index of the child it replaces
+   *                  or {@code -(insertionPoint + 1)} if it is inserted, as returned by {@link #binarySearch}
+   */
+  @Nonnull
+  abstract ChildrenIds merge(@Nonnull int[] positions, @Nonnull int[] ids);
+
+  @Nonnull
+  abstract ChildrenIds removeAll(@Nonnull IntPredicate condition);
+
+  int indexOf(int id) {
+    for (int i = 0, size = size(); i < size; i++) {
+      if (get(i) == id) return i;
+    }
+    return -1;
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(toArray());
+  }
+
+  private static final class Flat extends ChildrenIds {
+    private final int[] myIds;
+
+    private Flat(@Nonnull int[] ids) {
+      myIds = ids;
+    }
+
+    @Override
+    int size() {
+      return myIds.length;
+    }
+
+    @Override
+    int get(int index) {
+      return myIds[index];
+    }
+
+    @Nonnull
+    @Override
+    int[] toArray() {
+      return myIds;
+    }
+
+    @Override
+    int binarySearch(@Nonnull IntUnaryOperator idComparator) {
+      int[] ids = myIds;
+      return ObjectUtil.binarySearch(0, ids.length, mid -> idComparator.applyAsInt(ids[mid]));
+    }
+
+    @Override
+    int indexOf(int id) {
+      return ArrayUtil.indexOf(myIds, id);
+    }
+
+    @Nonnull
+    @Override
+    ChildrenIds insert(int index, int id) {
+      return of(ArrayUtil.insert(myIds, index, id));
+    }
+
+    @Nonnull
+    @Override
+    ChildrenIds remove(int index) {
+      return myIds.length == 1 ? EMPTY : new Flat(ArrayUtil.remove(myIds, index));
+    }
+
+    @Override
+    void forEach(@Nonnull IntConsumer consumer) {
+      for (int id : myIds) {
+        consumer.accept(id);
+      }
+    }
+
+    @Nonnull
+    @Override
+    ChildrenIds merge(@Nonnull int[] positions, @Nonnull int[] ids) {
+      return of(mergeSlice(myIds, 0, positions, ids, 0, positions.length));
+    }
+
+    @Nonnull
+    @Override
+    ChildrenIds removeAll(@Nonnull IntPredicate condition) {
+      int[] result = filter(myIds, condition);
+      return result == myIds ? this : of(result);
+    }
+  }
+
+  /**
+   * Merges {@code ids[from, to)} into the slice of children starting at {@code base}, see {@link #merge}.
+   */
+  @Nonnull
+  private static int[] mergeSlice(@Nonnull int[] slice, int base, @Nonnull int[] positions, @Nonnull int[] ids, int from, int to) {
+    int[] result = new int[slice.length + to - from];
+    int r = 0;
+    int s = 0;
+    for (int k = from; k < to; k++) {
+      int position = positions[k];
+      int index = (position >= 0 ? position : -position - 1) - base;
+      while (s < index) result[r++] = slice[s++];
+      result[r++] = ids[k];
+      // a child can be replaced only once, a second id of the same name is inserted after it
+      if (position >= 0 && s == index) s++;
+    }
+    while (s < slice.length) result[r++] = slice[s++];
+    return r == result.length ? result : Arrays.copyOf(result, r);
+  }
+
+  /**
+   * @return {@code ids} itself if no id matches the condition
+   */
+  @Nonnull
+  private static int[] filter(@Nonnull int[] ids, @Nonnull IntPredicate condition) {
+    int[] result = null;
+    int r = 0;
+    for (int i = 0; i < ids.length; i++) {
+      if (condition.test(ids[i])) {
+        if (result == null) {
+          result = new int[ids.length - 1];
+          System.arraycopy(ids, 0, result, 0, i);
+          r = i;
+        }
+      }
+      else if (result != null) {
+        result[r++] = ids[i];
+      }
+    }
+    if (result == null) return ids;
+    return r == result.length ? result : Arrays.copyOf(result, r);
+  }
+
+  private static final class Chunked extends ChildrenIds {
+    private final int[][] myChunks;
+    // myEnds[i] is the index following the last id of myChunks[i]
+    private final int[] myEnds;
+
+    private Chunked(@Nonnull int[][] chunks) {
+      myChunks = chunks;
+      myEnds = new int[chunks.length];
+      int end = 0;
+      for (int i = 0; i < chunks.length; i++) {
+        end += chunks[i].length;
+        myEnds[i] = end;
+      }
+    }
+
+    @Nonnull
+    static Chunked create(@Nonnull int[] sortedIds) {
+      int chunkSize = MAX_CHUNK_SIZE / 2; // leave room for insertions
+      int[][] chunks = new int[(sortedIds.length + chunkSize - 1) / chunkSize][];
+      for (int i = 0; i < chunks.length; i++) {
+        chunks[i] = Arrays.copyOfRange(sortedIds, i * chunkSize, Math.min(sortedIds.length, (i + 1) * chunkSize));
+      }
+      return new Chunked(chunks);
+    }
+
+    @Override
+    int size() {
+      return myEnds[myEnds.length - 1];
+    }
+
+    private int chunkStart(int chunk) {
+      return chunk == 0 ? 0 : myEnds[chunk - 1];
+    }
+
+    // index of the chunk containing the given position, the last chunk for the position right after the last id
+    private int chunkOf(int index) {
+      int chunk = Arrays.binarySearch(myEnds, index);
+      chunk = chunk >= 0 ? chunk + 1 : -chunk - 1;
+      return Math.min(chunk, myChunks.length - 1);
+    }
+
+    @Override
+    int get(int index) {
+      int chunk = chunkOf(index);
+      return myChunks[chunk][index - chunkStart(chunk)];
+    }
+
+    @Nonnull
+    @Override
+    int[] toArray() {
+      int[] result = new int[size()];
+      for (int i = 0; i < myChunks.length; i++) {
+        System.arraycopy(myChunks[i], 0, result, chunkStart(i), myChunks[i].length);
+      }
+      return result;
+    }
+
+    @Override
+    int binarySearch(@Nonnull IntUnaryOperator idComparator) {
+      int[][] chunks = myChunks;
+      // the first chunk whose last id is not less than the searched one
+      int low = 0;
+      int high = chunks.length - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int[] chunk = chunks[mid];
+        if (idComparator.applyAsInt(chunk[chunk.length - 1]) < 0) low = mid + 1;
+        else high = mid - 1;
+      }
+      if (low == chunks.length) return -(size() + 1);
+
+      int[] chunk = chunks[low];
+      int start = chunkStart(low);
+      int index = ObjectUtil.binarySearch(0, chunk.length, mid -> idComparator.applyAsInt(chunk[mid]));
+      return index >= 0 ? start + index : index - start;
+    }
+
+    @Override
+    int indexOf(int id) {
+      for (int i = 0; i < myChunks.length; i++) {
+        int index = ArrayUtil.indexOf(myChunks[i], id);
+        if (index >= 0) return chunkStart(i) + index;
+      }
+      return -1;
+    }
+
+    @Nonnull
+    @Override
+    ChildrenIds insert(int index, int id) {
+      int chunk = chunkOf(index);
+      int[] updated = ArrayUtil.insert(myChunks[chunk], index - chunkStart(chunk), id);
+      if (updated.length <= MAX_CHUNK_SIZE) {
+        int[][] chunks = myChunks.clone();
+        chunks[chunk] = updated;
+        return new Chunked(chunks);
+      }
+
+      int half = updated.length / 2;
+      int[][] chunks = new int[myChunks.length + 1][];
+      System.arraycopy(myChunks, 0, chunks, 0, chunk);
+      chunks[chunk] = Arrays.copyOfRange(updated, 0, half);
+      chunks[chunk + 1] = Arrays.copyOfRange(updated, half, updated.length);
+      System.arraycopy(myChunks, chunk + 1, chunks, chunk + 2, myChunks.length - chunk - 1);
+      return new Chunked(chunks);
+    }
+
+    @Nonnull
+    @Override
+    ChildrenIds remove(int index) {
+      if (size() <= CHUNKED_THRESHOLD / 2) {
+        return new Flat(ArrayUtil.remove(toArray(), index));
+      }
+      int chunk = chunkOf(index);
+      int[] updated = ArrayUtil.remove(myChunks[chunk], index - chunkStart(chunk));
+      if (updated.length > 0) {
+        int[][] chunks = myChunks.clone();
+        chunks[chunk] = updated;
+        return new Chunked(chunks);
+      }
+      int[][] chunks = new int[myChunks.length - 1][];
+      System.arraycopy(myChunks, 0, chunks, 0, chunk);
+      System.arraycopy(myChunks, chunk + 1, chunks, chunk, myChunks.length - chunk - 1);
+      return new Chunked(chunks);
+    }
+
+    @Override
+    void forEach(@Nonnull IntConsumer consumer) {
+      for (int[] chunk : myChunks) {
+        for (int id : chunk) {
+          consumer.accept(id);
+        }
+      }
+    }
+
+    @Nonnull
+    @Override
+    ChildrenIds merge(@Nonnull int[] positions, @Nonnull int[] ids) {
+      List<int[]> chunks = new ArrayList<>(myChunks.length + 1);
+      int next = 0;
+      int k = 0;
+      while (k < positions.length) {
+        int chunk = chunkOf(targetIndex(positions[k]));
+        while (next < chunk) chunks.add(myChunks[next++]);
+
+        int from = k;
+        while (k < positions.length && chunkOf(targetIndex(positions[k])) == chunk) k++;
+        int[] merged = mergeSlice(myChunks[chunk], chunkStart(chunk), positions, ids, from, k);
+        addSplit(chunks, merged);
+        next = chunk + 1;
+      }
+      while (next < myChunks.length) chunks.add(myChunks[next++]);
+      return new Chunked(chunks.toArray(new int[0][]));
+    }
+
+    private static int targetIndex(int position) {
+      return position >= 0 ? position : -position - 1;
+    }
+
+    private static void addSplit(@Nonnull List<int[]> chunks, @Nonnull int[] ids) {
+      if (ids.length <= MAX_CHUNK_SIZE) {
+        chunks.add(ids);
+        return;
+      }
+      int chunkSize = MAX_CHUNK_SIZE / 2;
+      for (int start = 0; start < ids.length; start += chunkSize) {
+        chunks.add(Arrays.copyOfRange(ids, start, Math.min(ids.length, start + chunkSize)));
+      }
+    }
+
+    @Nonnull
+    @Override
+    ChildrenIds removeAll(@Nonnull IntPredicate condition) {
+      List<int[]> chunks = new ArrayList<>(myChunks.length);
+      int size = 0;
+      boolean changed = false;
+      for (int[] chunk : myChunks) {
+        int[] filtered = filter(chunk, condition);
+        changed |= filtered != chunk;
+        if (filtered.length > 0) {
+          chunks.add(filtered);
+          size += filtered.length;
+        }
+      }
+      if (!changed) return this;
+      if (size <= CHUNKED_THRESHOLD / 2) {
+        int[] ids = new int[size];
+        int offset = 0;
+        for (int[] chunk : chunks) {
+          System.arraycopy(chunk, 0, ids, offset, chunk.length);
+          offset += chunk.length;
+        }
+        return ids.length == 0 ? EMPTY : new Flat(ids);
+      }
+      return new Chunked(chunks.toArray(new int[0][]));
+    }
+  }
+}
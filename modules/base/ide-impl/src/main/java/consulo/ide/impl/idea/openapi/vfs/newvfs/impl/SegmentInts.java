@@ -0,0 +1,106 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.ide.impl.idea.openapi.vfs.newvfs.impl;
+
+import jakarta.annotation.Nonnull;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Fixed-size array of ints with atomic access holding name ids and flags of a {@link VfsData.Segment}.
+ * <p>
+ * The compact variant keeps the ints in direct memory: segments take slices of shared 1MB slabs, so a segment costs a buffer object
+ * on heap instead of a 4K array. Segments are never released, neither are slabs.
+ */
+abstract class SegmentInts {
+  @Nonnull
+  static SegmentInts create(int length, boolean offHeap) {
+    return offHeap ? new OffHeap(length) : new OnHeap(length);
+  }
+
+  abstract int get(int index);
+
+  abstract void set(int index, int value);
+
+  abstract boolean compareAndSet(int index, int expected, int value);
+
+  private static final class OnHeap extends SegmentInts {
+    private final AtomicIntegerArray myArray;
+
+    private OnHeap(int length) {
+      myArray = new AtomicIntegerArray(length);
+    }
+
+    @Override
+    int get(int index) {
+      return myArray.get(index);
+    }
+
+    @Override
+    void set(int index, int value) {
+      myArray.set(index, value);
+    }
+
+    @Override
+    boolean compareAndSet(int index, int expected, int value) {
+      return myArray.compareAndSet(index, expected, value);
+    }
+  }
+
+  private static final class OffHeap extends SegmentInts {
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+    private static final int SLAB_SIZE = 1 << 20;
+
+    private static ByteBuffer ourSlab; // guarded by OffHeap.class
+
+    private final ByteBuffer myBuffer;
+
+    private OffHeap(int length) {
+      myBuffer = allocate(length * Integer.BYTES);
+    }
+
+    @Nonnull
+    private static synchronized ByteBuffer allocate(int size) {
+      if (size > SLAB_SIZE) return ByteBuffer.allocateDirect(size);
+      if (ourSlab == null || ourSlab.remaining() < size) {
+        ourSlab = ByteBuffer.allocateDirect(SLAB_SIZE);
+      }
+      ByteBuffer slice = ourSlab.slice();
+      slice.limit(size);
+      ourSlab.position(ourSlab.position() + size);
+      return slice;
+    }
+
+    @Override
+    int get(int index) {
+      return (int)INTS.getVolatile(myBuffer, index * Integer.BYTES);
+    }
+
+    @Override
+    void set(int index, int value) {
+      INTS.setVolatile(myBuffer, index * Integer.BYTES, value);
+    }
+
+    @Override
+    boolean compareAndSet(int index, int expected, int value) {
+      return INTS.compareAndSet(myBuffer, index * Integer.BYTES, expected, value);
+    }
+  }
+}
@@ -8,7 +8,6 @@ import consulo.virtualFileSystem.NewVirtualFileSystem;
 import consulo.ide.impl.idea.openapi.vfs.newvfs.persistent.FSRecords;
 import consulo.ide.impl.idea.openapi.vfs.newvfs.persistent.PersistentFS;
 import consulo.ide.impl.idea.openapi.vfs.newvfs.persistent.PersistentFSImpl;
-import consulo.ide.impl.idea.util.ArrayUtilRt;
 import consulo.util.lang.BitUtil;
 import consulo.ide.impl.idea.util.Functions;
 import consulo.util.lang.ObjectUtil;
@@ -24,12 +23,12 @@ import consulo.util.collection.primitive.ints.IntObjectMap;
 import consulo.util.collection.primitive.ints.IntSet;
 import consulo.util.collection.primitive.ints.IntSets;
 import consulo.util.dataholder.keyFMap.KeyFMap;
+import consulo.util.lang.SystemProperties;
 import org.jetbrains.annotations.Contract;
 
 import jakarta.annotation.Nonnull;
 import jakarta.annotation.Nullable;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import static consulo.ide.impl.idea.openapi.vfs.newvfs.impl.VirtualFileSystemEntry.ALL_FLAGS_MASK;
@@ -61,14 +60,18 @@ import static consulo.util.lang.ObjectUtil.assertNotNull;
  * <p>
  * 5. The file with removed data is marked as "dead" (see {@link #myDeadMarker}, any access to it will throw {@link InvalidVirtualFileAccessException}
  * Dead ids won't be reused in the same session of the IDE.
+ * <p>
+ * With {@code idea.vfs.data.off.heap} name ids and flags of segments are kept in direct memory, see {@link SegmentInts};
+ * {@code VfsDataHeapUsage} in the tests compares the heap usage of both modes.
  *
  * @author peter
  */
 public class VfsData {
   private static final Logger LOG = Logger.getInstance(VfsData.class);
   private static final int SEGMENT_BITS = 9;
-  private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+  static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
   private static final int OFFSET_MASK = SEGMENT_SIZE - 1;
+  static final boolean OFF_HEAP_SEGMENTS = SystemProperties.getBooleanProperty("idea.vfs.data.off.heap", false);
 
   private final Object myDeadMarker = ObjectUtil.sentinel("dead file");
 
@@ -216,7 +219,7 @@ public class VfsData {
     private final AtomicReferenceArray<Object> myObjectArray = new AtomicReferenceArray<>(SEGMENT_SIZE);
 
     // <nameId, flags> pairs, "flags" part containing flags per se and modification stamp
-    private final AtomicIntegerArray myIntArray = new AtomicIntegerArray(SEGMENT_SIZE * 2);
+    private final SegmentInts myIntArray = SegmentInts.create(SEGMENT_SIZE * 2, OFF_HEAP_SEGMENTS);
 
     @Nonnull
     final VfsData vfsData;
@@ -296,26 +299,26 @@ public class VfsData {
      * sorted by {@link VfsData#getNameByFileId(int)}
      * assigned under lock(this) only; never modified in-place
      *
-     * @see VirtualDirectoryImpl#findIndex(int[], CharSequence, boolean)
+     * @see VirtualDirectoryImpl#findIndex(ChildrenIds, CharSequence, boolean)
      */
     @Nonnull
-    volatile int[] myChildrenIds = ArrayUtilRt.EMPTY_INT_ARRAY; // guarded by this
+    volatile ChildrenIds myChildren = ChildrenIds.EMPTY; // guarded by this
 
     // assigned under lock(this) only; accessed/modified map contents under lock(myAdoptedNames)
     private volatile Set<CharSequence> myAdoptedNames;
 
     @Nonnull
     VirtualFileSystemEntry[] getFileChildren(@Nonnull VirtualDirectoryImpl parent) {
-      int[] ids = myChildrenIds;
-      VirtualFileSystemEntry[] children = new VirtualFileSystemEntry[ids.length];
-      for (int i = 0; i < ids.length; i++) {
-        int childId = ids[i];
+      ChildrenIds ids = myChildren;
+      VirtualFileSystemEntry[] children = new VirtualFileSystemEntry[ids.size()];
+      int[] index = {0};
+      ids.forEach(childId -> {
         VirtualFileSystemEntry child = parent.mySegment.vfsData.getFileById(childId, parent);
         if (child == null) {
           throw new AssertionError("No file for id " + childId + ", parentId = " + parent.myId);
         }
-        children[i] = child;
-      }
+        children[index[0]++] = child;
+      });
       return children;
     }
 
@@ -404,7 +407,7 @@ public class VfsData {
 
     @Override
     public String toString() {
-      return "DirectoryData{" + "myUserMap=" + myUserMap + ", myChildrenIds=" + Arrays.toString(myChildrenIds) + ", myAdoptedNames=" + myAdoptedNames + '}';
+      return "DirectoryData{" + "myUserMap=" + myUserMap + ", myChildren=" + myChildren + ", myAdoptedNames=" + myAdoptedNames + '}';
     }
   }
 
@@ -22,7 +22,6 @@ import consulo.util.collection.primitive.ints.IntSets;
 import consulo.util.dataholder.Key;
 import consulo.util.dataholder.keyFMap.KeyFMap;
 import consulo.util.io.FileAttributes;
-import consulo.util.lang.ObjectUtil;
 import consulo.util.lang.function.PairConsumer;
 import consulo.virtualFileSystem.*;
 import consulo.virtualFileSystem.event.ChildInfo;
@@ -79,10 +78,10 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
   @Nullable // null if there can't be a child with this name, NULL_VIRTUAL_FILE
   private VirtualFileSystemEntry doFindChildInArray(@Nonnull String name, boolean caseSensitive) {
     if (myData.isAdoptedName(name)) return NULL_VIRTUAL_FILE;
-    int[] array = myData.myChildrenIds;
-    int indexInReal = findIndex(array, name, caseSensitive);
+    ChildrenIds children = myData.myChildren;
+    int indexInReal = findIndex(children, name, caseSensitive);
     if (indexInReal >= 0) {
-      return mySegment.vfsData.getFileById(array[indexInReal], this);
+      return mySegment.vfsData.getFileById(children.get(indexInReal), this);
     }
     return null;
   }
@@ -364,7 +363,8 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
           }
           return cmp;
         });
-        IntSet prevChildren = IntSets.newHashSet(myData.myChildrenIds);
+        IntSet prevChildren = IntSets.newHashSet(myData.myChildren.size());
+        myData.myChildren.forEach(prevChildren::add);
         for (int i = 0; i < childrenIds.length; i++) {
           FSRecords.NameId child = childrenIds[i];
           result[i] = child.id;
@@ -384,7 +384,7 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
       }
 
       myData.clearAdoptedNames();
-      myData.myChildrenIds = result;
+      myData.myChildren = ChildrenIds.of(result);
       setChildrenLoaded();
       if (CHECK) {
         assertConsistency(caseSensitive, Arrays.asList(childrenIds));
@@ -396,7 +396,7 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
 
   private void assertConsistency(boolean caseSensitive, @Nonnull Object details) {
     if (!CHECK || ApplicationInfoImpl.isInPerformanceTest()) return;
-    int[] childrenIds = myData.myChildrenIds;
+    int[] childrenIds = myData.myChildren.toArray();
     if (childrenIds.length == 0) return;
     CharSequence prevName = mySegment.vfsData.getNameByFileId(childrenIds[0]);
     for (int i = 1; i < childrenIds.length; i++) {
@@ -458,7 +458,7 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
 
 
   public VirtualFileSystemEntry doFindChildById(int id) {
-    int i = ArrayUtil.indexOf(myData.myChildrenIds, id);
+    int i = myData.myChildren.indexOf(id);
     if (i >= 0) {
       return mySegment.vfsData.getFileById(id, this);
     }
@@ -501,8 +501,7 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
     added.sort(pairComparator);
 
     synchronized (myData) {
-      int[] oldIds = myData.myChildrenIds;
-      IntList mergedIds = IntLists.newArrayList(oldIds.length + added.size());
+      ChildrenIds oldChildren = myData.myChildren;
       //noinspection ForLoopReplaceableByForEach
       for (int i = 0; i < added.size(); i++) {
         ChildInfo info = added.get(i);
@@ -513,6 +512,25 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
         VirtualFileSystemEntry file = createChild(info.getId(), info.getNameId(), getFileSystem(), attributes, isEmptyDirectory);
         fileCreated.consume(file, info);
       }
+
+      // a few children added to a big directory are looked up one by one, so only the affected chunks are copied
+      if ((long)added.size() * (32 - Integer.numberOfLeadingZeros(oldChildren.size())) < oldChildren.size()) {
+        int[] positions = new int[added.size()];
+        int[] ids = new int[added.size()];
+        for (int i = 0; i < added.size(); i++) {
+          positions[i] = findIndex(oldChildren, added.get(i).getName(), caseSensitive);
+          ids[i] = added.get(i).getId();
+        }
+        myData.myChildren = oldChildren.merge(positions, ids);
+        if (markAllChildrenLoaded) {
+          setChildrenLoaded();
+        }
+        assertConsistency(caseSensitive, added);
+        return;
+      }
+
+      int[] oldIds = oldChildren.toArray();
+      IntList mergedIds = IntLists.newArrayList(oldIds.length + added.size());
       List<ChildInfo> existingChildren = new AbstractList<ChildInfo>() {
         @Override
         public ChildInfo get(int index) {
@@ -527,7 +545,7 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
         }
       };
       ContainerUtil.processSortedListsInOrder(added, existingChildren, pairComparator, true, nextInfo -> mergedIds.add(nextInfo.getId()));
-      myData.myChildrenIds = mergedIds.toArray();
+      myData.myChildren = ChildrenIds.of(mergedIds.toArray());
 
       if (markAllChildrenLoaded) {
         setChildrenLoaded();
@@ -541,7 +559,7 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
     final boolean caseSensitive = getFileSystem().isCaseSensitive();
     synchronized (myData) {
       myData.removeAdoptedName(childName);
-      int indexInReal = findIndex(myData.myChildrenIds, childName, caseSensitive);
+      int indexInReal = findIndex(myData.myChildren, childName, caseSensitive);
       if (indexInReal < 0) {
         insertChildAt(child, indexInReal);
       }
@@ -554,18 +572,18 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
     int i = -negativeIndex - 1;
     int id = file.getId();
     assert id > 0 : file + ": " + id;
-    myData.myChildrenIds = ArrayUtil.insert(myData.myChildrenIds, i, id);
+    myData.myChildren = myData.myChildren.insert(i, id);
   }
 
   public void removeChild(@Nonnull VirtualFile file) {
     boolean caseSensitive = getFileSystem().isCaseSensitive();
     String name = file.getName();
     synchronized (myData) {
-      int indexInReal = findIndex(myData.myChildrenIds, name, caseSensitive);
+      int indexInReal = findIndex(myData.myChildren, name, caseSensitive);
       if (indexInReal >= 0) {
         // there suddenly can be that we ask to add name to adopted whereas it already contained in the real part
         // in this case we should remove it from there
-        myData.myChildrenIds = ArrayUtil.remove(myData.myChildrenIds, indexInReal);
+        myData.myChildren = myData.myChildren.remove(indexInReal);
       }
       if (!allChildrenLoaded()) {
         myData.addAdoptedName(name, caseSensitive);
@@ -579,19 +597,7 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
   public void removeChildren(@Nonnull IntSet idsToRemove, @Nonnull List<? extends CharSequence> namesToRemove) {
     boolean caseSensitive = getFileSystem().isCaseSensitive();
     synchronized (myData) {
-      // remove from array by merging two sorted lists
-      int[] newIds = new int[myData.myChildrenIds.length];
-      int[] oldIds = myData.myChildrenIds;
-      int o = 0;
-      for (int oldId : oldIds) {
-        if (!idsToRemove.contains(oldId)) {
-          newIds[o++] = oldId;
-        }
-      }
-      if (o != newIds.length) {
-        newIds = o == 0 ? ArrayUtil.EMPTY_INT_ARRAY : Arrays.copyOf(newIds, o);
-      }
-      myData.myChildrenIds = newIds;
+      myData.myChildren = myData.myChildren.removeAll(idsToRemove::contains);
 
       if (!allChildrenLoaded()) {
         myData.addAdoptedNames(namesToRemove, caseSensitive);
@@ -615,10 +621,9 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
     boolean caseSensitive = getFileSystem().isCaseSensitive();
 
     CharSequenceHashingStrategy strategy = caseSensitive ? CharSequenceHashingStrategy.CASE_SENSITIVE : CharSequenceHashingStrategy.CASE_INSENSITIVE;
-    Set<CharSequence> existingNames = Sets.newHashSet(myData.myChildrenIds.length, strategy);
-    for (int id : myData.myChildrenIds) {
-      existingNames.add(mySegment.vfsData.getNameByFileId(id));
-    }
+    ChildrenIds childrenIds = myData.myChildren;
+    Set<CharSequence> existingNames = Sets.newHashSet(childrenIds.size(), strategy);
+    childrenIds.forEach(childId -> existingNames.add(mySegment.vfsData.getNameByFileId(childId)));
     int id = getId();
     synchronized (myData) {
       FSRecords.NameId[] persistentIds = FSRecords.listAll(id);
@@ -665,8 +670,8 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
     return myData.getAdoptedNames();
   }
 
-  private int findIndex(@Nonnull int[] ids, @Nonnull CharSequence name, boolean caseSensitive) {
-    return ObjectUtil.binarySearch(0, ids.length, mid -> compareNames(mySegment.vfsData.getNameByFileId(ids[mid]), name, caseSensitive));
+  private int findIndex(@Nonnull ChildrenIds ids, @Nonnull CharSequence name, boolean caseSensitive) {
+    return ids.binarySearch(id -> compareNames(mySegment.vfsData.getNameByFileId(id), name, caseSensitive));
   }
 
   private static int compareNames(@Nonnull CharSequence name1, @Nonnull CharSequence name2, boolean caseSensitive) {
@@ -62,8 +62,11 @@ public class FSRecords {
   private static final boolean inlineAttributes = SystemProperties.getBooleanProperty("idea.inline.vfs.attributes", true);
   private static final boolean bulkAttrReadSupport = SystemProperties.getBooleanProperty("idea.bulk.attr.read", false);
   private static final boolean useCompressionUtil = SystemProperties.getBooleanProperty("idea.use.lightweight.compression.for.vfs", false);
+  // lz4 | dictionary, see BlockContentCodec
+  private static final String contentCodec = useCompressionUtil ? "" : System.getProperty("idea.vfs.content.codec", "");
   private static final boolean useSmallAttrTable = SystemProperties.getBooleanProperty("idea.use.small.attr.table.for.vfs", true);
   private static final boolean ourStoreRootsSeparately = SystemProperties.getBooleanProperty("idea.store.roots.separately", false);
+  private static final boolean optimisticRecordReads = SystemProperties.getBooleanProperty("idea.vfs.optimistic.record.reads", true);
 
   //TODO[anyone] when bumping the version, please delete `ourSymlinkTargetAttr_old` and use it's value for `ourSymlinkTargetAttr`
   private static final int VERSION = 54 +
@@ -75,6 +78,11 @@ public class FSRecords {
                                      (useCompressionUtil ? 0x7f : 0) +
                                      (useSmallAttrTable ? 0x31 : 0) +
                                      (PersistentHashMapValueStorage.COMPRESSION_ENABLED ? 0x15 : 0);
+  /**
+   * Contents may contain records in the block format, which older versions can't read. A storage of {@link #VERSION} is upgraded
+   * in place when a block codec is enabled, its deflated records stay readable and get re-encoded as they are rewritten.
+   */
+  private static final int BLOCK_CONTENTS_VERSION = VERSION + 0x10000;
 
   private static final int PARENT_OFFSET = 0;
   private static final int PARENT_SIZE = 4;
@@ -116,6 +124,8 @@ public class FSRecords {
   private static final ReentrantReadWriteLock.ReadLock r;
   private static final ReentrantReadWriteLock.WriteLock w;
 
+  private static final RecordStamps ourRecordStamps = new RecordStamps(8192);
+
   private static volatile int ourLocalModificationCount;
   private static volatile boolean ourIsDisposed;
 
@@ -279,7 +289,9 @@ public class FSRecords {
           }
         };
 
-        myContents = new RefCountingStorage(contentsFile.getPath(), CapacityAllocationPolicy.FIVE_PERCENT_FOR_GROWTH, useCompressionUtil) {
+        BlockContentCodec codec =
+          BlockContentCodec.create(contentCodec, contentsFile, SequentialTaskExecutor.createSequentialApplicationPoolExecutor("FSRecords Content Dictionary"));
+        myContents = new RefCountingStorage(contentsFile.getPath(), CapacityAllocationPolicy.FIVE_PERCENT_FOR_GROWTH, useCompressionUtil, codec) {
           @Nonnull
           @Override
           protected ExecutorService createExecutor() {
@@ -299,11 +311,15 @@ public class FSRecords {
         if (initial) {
           cleanRecord(0); // Clean header
           cleanRecord(1); // Create root record
-          setCurrentVersion();
+          setCurrentVersion(codec.isEnabled() ? BLOCK_CONTENTS_VERSION : VERSION);
         }
 
         int version = getVersion();
-        if (version != VERSION) {
+        if (version == VERSION && codec.isEnabled()) {
+          LOG.info("Upgrading VFS contents to the block format, existing contents are re-encoded when rewritten");
+          setVersion(BLOCK_CONTENTS_VERSION);
+        }
+        else if (version != VERSION && version != BLOCK_CONTENTS_VERSION) {
           throw new IOException("FS repository version mismatch: actual=" + version + " expected=" + VERSION);
         }
 
@@ -326,6 +342,7 @@ public class FSRecords {
           deleted &= IOUtil.deleteAllFilesStartingWith(namesFile);
           deleted &= AbstractStorage.deleteFiles(attributesFile.getPath());
           deleted &= AbstractStorage.deleteFiles(contentsFile.getPath());
+          deleted &= FileUtil.delete(BlockContentCodec.getDictionaryFile(contentsFile));
           deleted &= IOUtil.deleteAllFilesStartingWith(contentsHashesFile);
           deleted &= IOUtil.deleteAllFilesStartingWith(recordsFile);
           deleted &= IOUtil.deleteAllFilesStartingWith(vfsDependentEnumBaseFile);
@@ -450,16 +467,27 @@ public class FSRecords {
       return myRecords.getLong(HEADER_TIMESTAMP_OFFSET);
     }
 
-    private static void setCurrentVersion() {
-      myRecords.putInt(HEADER_VERSION_OFFSET, VERSION);
+    private static void setCurrentVersion(int version) {
+      setVersion(version);
       myRecords.putLong(HEADER_TIMESTAMP_OFFSET, System.currentTimeMillis());
-      myAttributes.setVersion(VERSION);
-      myContents.setVersion(VERSION);
       myRecords.putInt(HEADER_CONNECTION_STATUS_OFFSET, SAFELY_CLOSED_MAGIC);
     }
 
+    private static void setVersion(int version) {
+      myRecords.putInt(HEADER_VERSION_OFFSET, version);
+      myAttributes.setVersion(version);
+      myContents.setVersion(version);
+    }
+
     static void cleanRecord(int id) {
-      myRecords.put(((long)id) * RECORD_SIZE, ZEROES, 0, RECORD_SIZE);
+      // a new record may extend the records file
+      ourRecordStamps.beginStructureChange();
+      try {
+        myRecords.put(((long)id) * RECORD_SIZE, ZEROES, 0, RECORD_SIZE);
+      }
+      finally {
+        ourRecordStamps.endStructureChange();
+      }
     }
 
     private static PersistentStringEnumerator getNames() {
@@ -467,6 +495,16 @@ public class FSRecords {
     }
 
     private static void closeFiles() throws IOException {
+      ourRecordStamps.beginStructureChange();
+      try {
+        doCloseFiles();
+      }
+      finally {
+        ourRecordStamps.endStructureChange();
+      }
+    }
+
+    private static void doCloseFiles() throws IOException {
       if (myFlushingFuture != null) {
         myFlushingFuture.cancel(false);
         myFlushingFuture = null;
@@ -1070,15 +1108,13 @@ public class FSRecords {
   }
 
   public static int getParent(int id) {
-    return readAndHandleErrors(() -> {
-      final int parentId = getRecordInt(id, PARENT_OFFSET);
-      if (parentId == id) {
-        LOG.error("Cyclic parent child relations in the database. id = " + id);
-        return 0;
-      }
+    final int parentId = readRecordInt(id, PARENT_OFFSET);
+    if (parentId == id) {
+      LOG.error("Cyclic parent child relations in the database. id = " + id);
+      return 0;
+    }
 
-      return parentId;
-    });
+    return parentId;
   }
 
   @Nullable
@@ -1154,7 +1190,7 @@ public class FSRecords {
   }
 
   public static int getNameId(int id) {
-    return readAndHandleErrors(() -> doGetNameId(id));
+    return readRecordInt(id, NAME_OFFSET);
   }
 
   private static int doGetNameId(int id) {
@@ -1197,7 +1233,7 @@ public class FSRecords {
   }
 
   static int getFlags(int id) {
-    return readAndHandleErrors(() -> doGetFlags(id));
+    return readRecordInt(id, FLAGS_OFFSET);
   }
 
   private static int doGetFlags(int id) {
@@ -1214,7 +1250,7 @@ public class FSRecords {
   }
 
   static long getLength(int id) {
-    return readAndHandleErrors(() -> getRecords().getLong(getOffset(id, LENGTH_OFFSET)));
+    return readRecordLong(id, LENGTH_OFFSET);
   }
 
   static void setLength(int id, long len) {
@@ -1223,13 +1259,13 @@ public class FSRecords {
       int lengthOffset = getOffset(id, LENGTH_OFFSET);
       if (records.getLong(lengthOffset) != len) {
         incModCount(id);
-        records.putLong(lengthOffset, len);
+        putRecordLong(id, LENGTH_OFFSET, len);
       }
     });
   }
 
   static long getTimestamp(int id) {
-    return readAndHandleErrors(() -> getRecords().getLong(getOffset(id, TIMESTAMP_OFFSET)));
+    return readRecordLong(id, TIMESTAMP_OFFSET);
   }
 
   static void setTimestamp(int id, long value) {
@@ -1238,13 +1274,13 @@ public class FSRecords {
       ResizeableMappedFile records = getRecords();
       if (records.getLong(timeStampOffset) != value) {
         incModCount(id);
-        records.putLong(timeStampOffset, value);
+        putRecordLong(id, TIMESTAMP_OFFSET, value);
       }
     });
   }
 
   static int getModCount(int id) {
-    return readAndHandleErrors(() -> getRecordInt(id, MOD_COUNT_OFFSET));
+    return readRecordInt(id, MOD_COUNT_OFFSET);
   }
 
   private static void setModCount(int id, int value) {
@@ -1272,7 +1308,56 @@ public class FSRecords {
   }
 
   private static void putRecordInt(int id, int offset, int value) {
-    getRecords().putInt(getOffset(id, offset), value);
+    ourRecordStamps.beginWrite(id);
+    try {
+      getRecords().putInt(getOffset(id, offset), value);
+    }
+    finally {
+      ourRecordStamps.endWrite(id);
+    }
+  }
+
+  private static void putRecordLong(int id, int offset, long value) {
+    ourRecordStamps.beginWrite(id);
+    try {
+      getRecords().putLong(getOffset(id, offset), value);
+    }
+    finally {
+      ourRecordStamps.endWrite(id);
+    }
+  }
+
+  // reads a fixed-size record field without taking the lock, falls back to the locked read if a writer touched the record stripe
+  private static int readRecordInt(int id, int offset) {
+    if (optimisticRecordReads) {
+      long stamp = ourRecordStamps.tryOptimisticRead(id);
+      if (stamp != RecordStamps.INVALID_STAMP) {
+        try {
+          int value = getRecordInt(id, offset);
+          if (ourRecordStamps.validate(id, stamp)) return value;
+        }
+        catch (RuntimeException | AssertionError ignored) {
+          // the records file was changed or closed concurrently, the locked read below reports real problems
+        }
+      }
+    }
+    return readAndHandleErrors(() -> getRecordInt(id, offset));
+  }
+
+  private static long readRecordLong(int id, int offset) {
+    if (optimisticRecordReads) {
+      long stamp = ourRecordStamps.tryOptimisticRead(id);
+      if (stamp != RecordStamps.INVALID_STAMP) {
+        try {
+          long value = getRecords().getLong(getOffset(id, offset));
+          if (ourRecordStamps.validate(id, stamp)) return value;
+        }
+        catch (RuntimeException | AssertionError ignored) {
+          // the records file was changed or closed concurrently, the locked read below reports real problems
+        }
+      }
+    }
+    return readAndHandleErrors(() -> getRecords().getLong(getOffset(id, offset)));
   }
 
   private static int getOffset(int id, int offset) {
@@ -94,7 +94,10 @@ class LocalFileSystemRefreshWorker {
 
     if (file.isDirectory()) {
       boolean fullSync = ((VirtualDirectoryImpl)file).allChildrenLoaded();
-      if (fullSync) {
+      if (fullSync && myIsRecursive && skipJournaledDir((VirtualDirectoryImpl)file, refreshContext)) {
+        if (LOG.isDebugEnabled()) LOG.debug("unchanged since last session: " + file);
+      }
+      else if (fullSync) {
         fullDirRefresh((VirtualDirectoryImpl)file, refreshContext);
       }
       else {
@@ -151,8 +154,55 @@ class LocalFileSystemRefreshWorker {
     }
   }
 
+  /**
+   * Skips reading children of a directory whose fingerprint matches the one journaled in the previous session,
+   * child directories are still processed as they have their own fingerprints. A directory stamp doesn't change when a file
+   * is modified in place, so every file child is still stat'ed and the directory is refreshed fully if any of them changed.
+   */
+  private boolean skipJournaledDir(@Nonnull VirtualDirectoryImpl dir, @Nonnull RefreshContext refreshContext) {
+    RefreshJournal journal = RefreshJournal.getInstance();
+    if (journal == null || dir.is(VFileProperty.SYMLINK)) return false;
+
+    List<VirtualFile> children = ReadAction.compute(dir::getCachedChildren);
+    for (VirtualFile child : children) {
+      // targets of symlinks are not covered by the fingerprint
+      if (child.is(VFileProperty.SYMLINK)) return false;
+    }
+    RefreshJournal.Fingerprint fingerprint = RefreshJournal.fingerprint(Paths.get(dir.getPath()));
+    if (fingerprint == null || !journal.isUnchangedSinceLastSession(dir.getId(), fingerprint)) return false;
+
+    for (VirtualFile child : children) {
+      if (!child.isDirectory() && !isUnchangedFile((NewVirtualFile)child, refreshContext)) return false;
+    }
+    for (VirtualFile child : children) {
+      NewVirtualFile file = (NewVirtualFile)child;
+      if (file.isDirectory()) {
+        refreshContext.submitRefreshRequest(() -> processFile(file, refreshContext));
+      }
+      else {
+        file.markClean();
+      }
+    }
+    return true;
+  }
+
+  private static boolean isUnchangedFile(@Nonnull NewVirtualFile file, @Nonnull RefreshContext refreshContext) {
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(Paths.get(file.getPath()), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    }
+    catch (IOException e) {
+      return false;
+    }
+    return !attributes.isDirectory() &&
+           refreshContext.persistence.getTimeStamp(file) == attributes.lastModifiedTime().toMillis() &&
+           refreshContext.persistence.getLastRecordedLength(file) == attributes.size();
+  }
+
   private void fullDirRefresh(@Nonnull VirtualDirectoryImpl dir, @Nonnull RefreshContext refreshContext) {
+    RefreshJournal journal = RefreshJournal.getInstance();
     while (true) {
+      RefreshJournal.Fingerprint fingerprint = journal == null || dir.is(VFileProperty.SYMLINK) ? null : RefreshJournal.fingerprint(Paths.get(dir.getPath()));
       // obtaining directory snapshot
       Pair<String[], VirtualFile[]> result = getDirectorySnapshot(refreshContext.persistence, dir);
       if (result == null) return;
@@ -180,6 +230,9 @@ class LocalFileSystemRefreshWorker {
         return true;
       });
       if (hasEvents) {
+        if (journal != null && !myCancelled) {
+          journal.record(dir.getId(), fingerprint);
+        }
         break;
       }
     }
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.ide.impl.idea.openapi.vfs.newvfs.persistent;
+
+import consulo.application.Application;
+import consulo.application.ApplicationManager;
+import consulo.index.io.EnumeratorIntegerDescriptor;
+import consulo.index.io.EnumeratorStringDescriptor;
+import consulo.index.io.PersistentHashMap;
+import consulo.logging.Logger;
+import consulo.util.lang.ShutDownTracker;
+import consulo.util.lang.SystemProperties;
+import consulo.virtualFileSystem.NewVirtualFile;
+import consulo.virtualFileSystem.NewVirtualFileSystem;
+import consulo.virtualFileSystem.VirtualFile;
+import consulo.virtualFileSystem.VirtualFileManager;
+import consulo.virtualFileSystem.event.BulkFileListener;
+import consulo.virtualFileSystem.event.VFileDeleteEvent;
+import consulo.virtualFileSystem.event.VFileEvent;
+import consulo.virtualFileSystem.event.VFileMoveEvent;
+import consulo.virtualFileSystem.event.VFilePropertyChangeEvent;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+
+import java.io.*;
+import java.util.List;
+
+/**
+ * Persistent map from full file URLs to VFS file ids, so a known deep path is resolved by a single probe instead of a
+ * {@code findChild()} per path element. It's consulted by {@link consulo.ide.impl.idea.openapi.vfs.newvfs.VfsImplUtil#findFileByPath}
+ * and {@link consulo.ide.impl.idea.openapi.vfs.newvfs.VfsImplUtil#findFilesByPaths} for paths of at least {@code idea.vfs.path.index.min.depth}
+ * elements and is off unless {@code idea.vfs.path.index} is set: every probe is a synchronized map lookup which may read the disk,
+ * and a miss is recorded, which pays off only when deep paths are resolved repeatedly across sessions.
+ * <p>
+ * An id found in the index is accepted only if the file with that id is valid and has exactly the requested path, so the index
+ * never needs to be complete or precise: entries of deleted, renamed and moved files are removed on VFS events, while stale entries
+ * of their descendants are dropped when they fail the check. As the latter may never be probed again, the index stops recording
+ * new paths once it has {@code idea.vfs.path.index.max.size} entries and is recreated on the next start, as well as with VFS.
+ * Ids of paths already in a full index are still updated.
+ */
+public final class PathIdIndex {
+  private static final Logger LOG = Logger.getInstance(PathIdIndex.class);
+
+  private static final boolean ENABLED = SystemProperties.getBooleanProperty("idea.vfs.path.index", false);
+  // resolving shorter paths element by element is cheap enough
+  static final int MIN_DEPTH = SystemProperties.getIntProperty("idea.vfs.path.index.min.depth", 4);
+  private static final int MAX_SIZE = SystemProperties.getIntProperty("idea.vfs.path.index.max.size", 100_000);
+
+  private static final String FILE_NAME = "path_index";
+  private static final int VERSION = 1;
+
+  private static volatile PathIdIndex ourInstance;
+  private static volatile boolean ourFailed;
+
+  private final PersistentHashMap<String, Integer> myIds;
+  private final int myMaxSize;
+
+  PathIdIndex(@Nonnull PersistentHashMap<String, Integer> ids, int maxSize) {
+    myIds = ids;
+    myMaxSize = maxSize;
+  }
+
+  @Nullable
+  public static PathIdIndex getInstance() {
+    if (!ENABLED || ourFailed) return null;
+    PathIdIndex index = ourInstance;
+    if (index == null) {
+      synchronized (PathIdIndex.class) {
+        index = ourInstance;
+        if (index == null && !ourFailed) {
+          PersistentHashMap<String, Integer> ids = open(new File(FSRecords.basePath(), FILE_NAME), FSRecords.getCreationTimestamp(), MAX_SIZE);
+          if (ids == null) {
+            ourFailed = true;
+            return null;
+          }
+          PathIdIndex created = new PathIdIndex(ids, MAX_SIZE);
+          created.subscribe();
+          FlushingDaemon.everyFiveSeconds(() -> created.flush());
+          ShutDownTracker.getInstance().registerShutdownTask(() -> created.close());
+          ourInstance = index = created;
+        }
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Opens the map of the given VFS instance, an index of another instance or a full one is recreated.
+   */
+  @Nullable
+  static PersistentHashMap<String, Integer> open(@Nonnull File file, long vfsTimestamp, int maxSize) {
+    File versionFile = new File(file.getPath() + ".vfs");
+    if (readVfsTimestamp(versionFile) != vfsTimestamp) {
+      // ids of another VFS instance, the check on lookup would reject them anyway
+      PersistentHashMap.deleteFilesStartingWith(file);
+    }
+    for (int i = 0; i < 2; ++i) {
+      try {
+        PersistentHashMap<String, Integer> map =
+          new PersistentHashMap<>(file, EnumeratorStringDescriptor.INSTANCE, EnumeratorIntegerDescriptor.INSTANCE, 4096, VERSION);
+        if (map.getSize() >= maxSize) {
+          // most of the entries are probably stale, start over rather than keep the index full
+          LOG.info("Path index has " + map.getSize() + " entries, recreating");
+          map.close();
+          PersistentHashMap.deleteFilesStartingWith(file);
+          continue;
+        }
+        writeVfsTimestamp(versionFile, vfsTimestamp);
+        return map;
+      }
+      catch (IOException e) {
+        LOG.info("Cannot open path index, recreating", e);
+        PersistentHashMap.deleteFilesStartingWith(file);
+      }
+    }
+    return null;
+  }
+
+  private static long readVfsTimestamp(@Nonnull File file) {
+    if (!file.exists()) return -1;
+    try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+      return input.readLong();
+    }
+    catch (IOException e) {
+      return -1;
+    }
+  }
+
+  private static void writeVfsTimestamp(@Nonnull File file, long vfsTimestamp) throws IOException {
+    try (DataOutputStream output = new DataOutputStream(new FileOutputStream(file))) {
+      output.writeLong(vfsTimestamp);
+    }
+  }
+
+  /**
+   * @param normalizedPath path normalized by the file system, without "." and ".." elements
+   * @param depth          number of path elements after the root
+   * @return the file if its id is known and it still has the given path
+   */
+  @Nullable
+  public NewVirtualFile find(@Nonnull NewVirtualFileSystem vfs, @Nonnull String normalizedPath, int depth) {
+    if (depth < MIN_DEPTH) return null;
+    String url = VirtualFileManager.constructUrl(vfs.getProtocol(), normalizedPath);
+    try {
+      Integer id = getId(url);
+      if (id == null) return null;
+
+      VirtualFile file = PersistentFS.getInstance().findFileById(id);
+      if (file instanceof NewVirtualFile && file.isValid() && file.getFileSystem() == vfs && hasPath(file, normalizedPath, vfs.isCaseSensitive())) {
+        return (NewVirtualFile)file;
+      }
+      myIds.remove(url);
+    }
+    catch (IOException e) {
+      handleError(e);
+    }
+    return null;
+  }
+
+  @Nullable
+  Integer getId(@Nonnull String url) throws IOException {
+    return myIds.get(url);
+  }
+
+  /**
+   * Remembers the id of the file found by the given path, if the path is deep enough to be worth it.
+   */
+  public void record(@Nonnull NewVirtualFileSystem vfs, @Nonnull String normalizedPath, int depth, @Nonnull NewVirtualFile file) {
+    record(VirtualFileManager.constructUrl(vfs.getProtocol(), normalizedPath), depth, file.getId());
+  }
+
+  void record(@Nonnull String url, int depth, int id) {
+    if (depth < MIN_DEPTH) return;
+    try {
+      Integer knownId = myIds.get(url);
+      // a full index still updates the paths it has, their ids change when files are deleted and created again
+      if (knownId != null ? knownId == id : myIds.getSize() >= myMaxSize) return;
+      myIds.put(url, id);
+    }
+    catch (IOException e) {
+      handleError(e);
+    }
+  }
+
+  // compares names from the file up to the root with path elements from the end, without building the path of the file
+  static boolean hasPath(@Nonnull VirtualFile file, @Nonnull String path, boolean caseSensitive) {
+    int end = path.length();
+    while (end > 0 && path.charAt(end - 1) == '/') end--;
+    VirtualFile current = file;
+    while (true) {
+      VirtualFile parent = current.getParent();
+      if (parent == null) {
+        // roots have names like "C:" or "/", the rest of the path must be the root path
+        String rootPath = current.getPath();
+        return rootPath.regionMatches(!caseSensitive, 0, path, 0, end) && (rootPath.length() == end || rootPath.length() == end + 1 && rootPath.endsWith("/"));
+      }
+      CharSequence name = current.getNameSequence();
+      int start = end - name.length();
+      if (start <= 0 || path.charAt(start - 1) != '/' || !path.regionMatches(!caseSensitive, start, name.toString(), 0, name.length())) {
+        return false;
+      }
+      end = start - 1;
+      current = parent;
+    }
+  }
+
+  private void subscribe() {
+    Application app = ApplicationManager.getApplication();
+    app.getMessageBus().connect(app).subscribe(BulkFileListener.class, new BulkFileListener() {
+      @Override
+      public void before(@Nonnull List<? extends VFileEvent> events) {
+        for (VFileEvent event : events) {
+          boolean removesPath = event instanceof VFileDeleteEvent ||
+                                event instanceof VFileMoveEvent ||
+                                event instanceof VFilePropertyChangeEvent && ((VFilePropertyChangeEvent)event).isRename();
+          VirtualFile file = removesPath ? event.getFile() : null;
+          if (file == null) continue;
+          try {
+            // descendants keep their entries until they fail the check on lookup
+            myIds.remove(file.getUrl());
+          }
+          catch (IOException e) {
+            handleError(e);
+            return;
+          }
+        }
+      }
+    });
+  }
+
+  private void handleError(@Nonnull Exception e) {
+    LOG.info("Path index is corrupted", e);
+    myIds.markCorrupted();
+  }
+
+  private void flush() {
+    if (myIds.isDirty()) myIds.force();
+  }
+
+  private void close() {
+    try {
+      myIds.close();
+    }
+    catch (IOException e) {
+      LOG.info(e);
+    }
+  }
+}
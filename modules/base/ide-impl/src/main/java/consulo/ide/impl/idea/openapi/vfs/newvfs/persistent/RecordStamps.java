@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.ide.impl.idea.openapi.vfs.newvfs.persistent;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Sequence stamps over stripes of the {@link FSRecords} records file.
+ * <p>
+ * A writer (which always holds the {@link FSRecords} write lock) makes the stamp of the stripe it modifies odd for the duration
+ * of the modification. Readers of fixed-size record fields read without any lock and re-read under the lock only when a stamp
+ * they observed has changed meanwhile. Changes which may remap the records file (resize, close) bump the structure stamp instead,
+ * which invalidates all optimistic reads.
+ */
+final class RecordStamps {
+  static final long INVALID_STAMP = -1;
+
+  private static final int RECORDS_PER_STRIPE_SHIFT = 6;
+
+  private final AtomicIntegerArray myStripeStamps;
+  private final AtomicInteger myStructureStamp = new AtomicInteger();
+  private final int myStripeMask;
+
+  RecordStamps(int stripesCount) {
+    assert Integer.bitCount(stripesCount) == 1 : stripesCount;
+    myStripeStamps = new AtomicIntegerArray(stripesCount);
+    myStripeMask = stripesCount - 1;
+  }
+
+  private int getStripe(int id) {
+    return (id >>> RECORDS_PER_STRIPE_SHIFT) & myStripeMask;
+  }
+
+  long tryOptimisticRead(int id) {
+    int structure = myStructureStamp.get();
+    int stripe = myStripeStamps.get(getStripe(id));
+    if (((structure | stripe) & 1) != 0) return INVALID_STAMP;
+    return ((long)structure << 32) | (stripe & 0xFFFFFFFFL);
+  }
+
+  boolean validate(int id, long stamp) {
+    VarHandle.loadLoadFence();
+    return stamp != INVALID_STAMP &&
+           myStripeStamps.get(getStripe(id)) == (int)stamp &&
+           myStructureStamp.get() == (int)(stamp >>> 32);
+  }
+
+  void beginWrite(int id) {
+    myStripeStamps.incrementAndGet(getStripe(id));
+    VarHandle.storeStoreFence();
+  }
+
+  void endWrite(int id) {
+    myStripeStamps.incrementAndGet(getStripe(id));
+  }
+
+  void beginStructureChange() {
+    myStructureStamp.incrementAndGet();
+    VarHandle.storeStoreFence();
+  }
+
+  void endStructureChange() {
+    myStructureStamp.incrementAndGet();
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.ide.impl.idea.openapi.vfs.newvfs.persistent;
+
+import consulo.logging.Logger;
+import consulo.util.collection.primitive.ints.ConcurrentIntObjectMap;
+import consulo.util.collection.primitive.ints.IntMaps;
+import consulo.util.lang.SystemProperties;
+import consulo.virtualFileSystem.NewVirtualFile;
+import consulo.virtualFileSystem.VirtualFile;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Fingerprints (modification time and file key) of directories whose children were completely refreshed by
+ * {@link LocalFileSystemRefreshWorker}. The journal is saved on exit for directories which the file watcher kept up to date,
+ * so the first refresh of the next session may skip reading children of directories whose fingerprint didn't change.
+ * <p>
+ * Directory stamps change only when entries are added, removed or renamed, not when a file is modified in place, so the refresh
+ * worker still compares the stamp and length of every file in a skipped directory. The journal is opt-in
+ * ({@code idea.vfs.refresh.journal}). The journal file is deleted once loaded, a session which doesn't exit normally
+ * leaves no journal and the next startup refresh is a full one.
+ */
+public final class RefreshJournal {
+  private static final Logger LOG = Logger.getInstance(RefreshJournal.class);
+
+  static final boolean ENABLED = SystemProperties.getBooleanProperty("idea.vfs.refresh.journal", false);
+
+  private static final String FILE_NAME = "refresh.journal";
+  private static final int VERSION = 2;
+  // a directory changed this recently may change again without its stamp changing on file systems with coarse timestamps
+  private static final long RACY_INTERVAL_NS = TimeUnit.SECONDS.toNanos(2);
+
+  private static volatile RefreshJournal ourInstance;
+
+  private final long myVfsCreationTimestamp;
+  private final ConcurrentIntObjectMap<Fingerprint> myFingerprints = IntMaps.newConcurrentIntObjectHashMap();
+  // directories loaded from the journal and not checked in this session yet
+  private final Set<Integer> myUnchecked = ConcurrentHashMap.newKeySet();
+
+  private RefreshJournal(long vfsCreationTimestamp) {
+    myVfsCreationTimestamp = vfsCreationTimestamp;
+  }
+
+  @Nullable
+  static RefreshJournal getInstance() {
+    if (!ENABLED) return null;
+    RefreshJournal journal = ourInstance;
+    if (journal == null) {
+      synchronized (RefreshJournal.class) {
+        journal = ourInstance;
+        if (journal == null) {
+          journal = new RefreshJournal(FSRecords.getCreationTimestamp());
+          journal.load(getJournalFile());
+          ourInstance = journal;
+        }
+      }
+    }
+    return journal;
+  }
+
+  @Nonnull
+  private static File getJournalFile() {
+    return new File(FSRecords.basePath(), FILE_NAME);
+  }
+
+  /**
+   * @return true if the directory was journaled in the previous session and its fingerprint didn't change since then.
+   * Each directory is answered positively at most once per session, later refreshes are triggered by the file watcher or
+   * explicitly and must not be skipped.
+   */
+  boolean isUnchangedSinceLastSession(int id, @Nonnull Fingerprint current) {
+    if (!myUnchecked.remove(id)) return false;
+    if (current.equals(myFingerprints.get(id))) return true;
+    myFingerprints.remove(id);
+    return false;
+  }
+
+  /**
+   * @param before fingerprint taken before children of the directory were read
+   */
+  void record(int id, @Nullable Fingerprint before) {
+    myUnchecked.remove(id);
+    if (before == null || System.currentTimeMillis() * 1_000_000 - before.myModifiedNanos < RACY_INTERVAL_NS) {
+      myFingerprints.remove(id);
+    }
+    else {
+      myFingerprints.put(id, before);
+    }
+  }
+
+  @Nullable
+  static Fingerprint fingerprint(@Nonnull Path dir) {
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(dir, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+      if (!attributes.isDirectory()) return null;
+      // the key itself (e.g. device and inode), its hash code may collide
+      Object key = attributes.fileKey();
+      return new Fingerprint(attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS), key == null ? "" : key.toString());
+    }
+    catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Saves fingerprints of directories which are still valid and up to date in VFS and accepted by the given filter,
+   * i.e. whose changes the file watcher would have reported.
+   */
+  public static void save(@Nonnull Predicate<? super VirtualFile> isWatched) {
+    RefreshJournal journal = ourInstance;
+    if (journal == null) return;
+
+    PersistentFS persistentFS = PersistentFS.getInstance();
+    File file = getJournalFile();
+    int saved = 0;
+    try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+      output.writeInt(VERSION);
+      output.writeLong(journal.myVfsCreationTimestamp);
+      for (int id : journal.myFingerprints.keys()) {
+        Fingerprint fingerprint = journal.myFingerprints.get(id);
+        NewVirtualFile dir = persistentFS.findFileByIdIfCached(id);
+        if (fingerprint == null || dir == null || !isUpToDate(dir) || !isWatched.test(dir)) continue;
+        output.writeInt(id);
+        output.writeLong(fingerprint.myModifiedNanos);
+        output.writeUTF(fingerprint.myKey);
+        saved++;
+      }
+      output.writeInt(0);
+    }
+    catch (IOException | RuntimeException e) {
+      LOG.info("Cannot save refresh journal", e);
+      file.delete();
+      return;
+    }
+    LOG.info("Refresh journal saved: " + saved + " directories");
+  }
+
+  private static boolean isUpToDate(@Nonnull NewVirtualFile dir) {
+    if (!dir.isValid() || dir.isDirty() || !dir.isDirectory()) return false;
+    for (VirtualFile child : dir.getCachedChildren()) {
+      if (((NewVirtualFile)child).isDirty()) return false;
+    }
+    return true;
+  }
+
+  private void load(@Nonnull File file) {
+    if (!file.exists()) return;
+    try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (input.readInt() != VERSION || input.readLong() != myVfsCreationTimestamp) return;
+      int id;
+      while ((id = input.readInt()) != 0) {
+        myFingerprints.put(id, new Fingerprint(input.readLong(), input.readUTF()));
+        myUnchecked.add(id);
+      }
+      LOG.info("Refresh journal loaded: " + myUnchecked.size() + " directories");
+    }
+    catch (IOException e) {
+      LOG.info("Cannot load refresh journal", e);
+      myFingerprints.clear();
+      myUnchecked.clear();
+    }
+    finally {
+      // saved again on normal exit only
+      file.delete();
+    }
+  }
+
+  static final class Fingerprint {
+    private final long myModifiedNanos;
+    private final String myKey;
+
+    Fingerprint(long modifiedNanos, @Nonnull String key) {
+      myModifiedNanos = modifiedNanos;
+      myKey = key;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Fingerprint)) return false;
+      Fingerprint that = (Fingerprint)o;
+      return myModifiedNanos == that.myModifiedNanos && myKey.equals(that.myKey);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * Long.hashCode(myModifiedNanos) + myKey.hashCode();
+    }
+  }
+}
@@ -11,6 +11,8 @@ import consulo.application.dumb.IndexNotReadyException;
 import consulo.application.event.ApplicationListener;
 import consulo.application.HeavyProcessLatch;
 import consulo.application.impl.internal.start.StartupUtil;
+import consulo.application.internal.ApplicationManagerEx;
+import consulo.application.progress.EmptyProgressIndicator;
 import consulo.application.progress.ProgressIndicator;
 import consulo.application.progress.ProgressManager;
 import consulo.application.util.function.Computable;
@@ -41,6 +43,7 @@ import consulo.application.util.NotNullLazyValue;
 import consulo.ide.impl.idea.openapi.util.io.FileUtil;
 import consulo.ide.impl.idea.openapi.util.text.StringUtil;
 import consulo.ide.impl.idea.openapi.vfs.newvfs.AsyncEventSupport;
+import consulo.index.io.PagedFileStorage;
 import consulo.index.io.StorageException;
 import consulo.index.io.ValueContainer;
 import consulo.virtualFileSystem.ManagingFS;
@@ -98,6 +101,8 @@ import consulo.util.collection.primitive.ints.IntList;
 import consulo.util.collection.primitive.ints.IntLists;
 import consulo.util.collection.primitive.ints.IntSet;
 import consulo.application.impl.internal.concurent.BoundedTaskExecutor;
+import consulo.application.impl.internal.progress.SensitiveProgressWrapper;
+import consulo.application.util.concurrent.AppExecutorUtil;
 import consulo.util.dataholder.Key;
 import consulo.util.lang.ShutDownTracker;
 import consulo.util.lang.SystemProperties;
@@ -143,10 +148,16 @@ public final class FileBasedIndexImpl extends FileBasedIndex {
   private static final String CORRUPTION_MARKER_NAME = "corruption.marker";
   private static final ThreadLocal<Stack<DumbModeAccessType>> ourDumbModeAccessTypeStack = ThreadLocal.withInitial(() -> new Stack<>());
 
+  private static final boolean ourParallelIndexUpdates = SystemProperties.getBooleanProperty("idea.indexing.parallel.index.updates", false);
+  private static final int ourParallelIndexUpdatesMinFileSize = SystemProperties.getIntProperty("idea.indexing.parallel.index.updates.min.file.size", 1024 * 1024);
+
   private final List<ID<?, ?>> myIndicesForDirectories = new SmartList<>();
 
   private final Map<ID<?, ?>, DocumentUpdateTask> myUnsavedDataUpdateTasks = new ConcurrentHashMap<>();
 
+  private final ExecutorService myIndexUpdateExecutor =
+    AppExecutorUtil.createBoundedApplicationPoolExecutor("Index Update Pool", Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1)));
+
   private final Set<ID<?, ?>> myNotRequiringContentIndices = new HashSet<>();
   private final Set<ID<?, ?>> myRequiringContentIndices = new HashSet<>();
   private final Set<ID<?, ?>> myPsiDependentIndices = new HashSet<>();
@@ -173,6 +184,8 @@ public final class FileBasedIndexImpl extends FileBasedIndex {
   private final boolean myIsUnitTestMode;
   @Nullable
   private ScheduledFuture<?> myFlushingFuture;
+  @Nullable
+  private ScheduledFuture<?> myCompactionFuture;
   private final AtomicInteger myLocalModCount = new AtomicInteger();
   final AtomicInteger myFilesModCount = new AtomicInteger();
   final AtomicInteger myUpdatingFiles = new AtomicInteger();
@@ -529,6 +542,10 @@ public final class FileBasedIndexImpl extends FileBasedIndex {
         myFlushingFuture.cancel(false);
         myFlushingFuture = null;
       }
+      if (myCompactionFuture != null) {
+        myCompactionFuture.cancel(false);
+        myCompactionFuture = null;
+      }
     }
     finally {
       LOG.info("START INDEX SHUTDOWN");
@@ -635,10 +652,20 @@ public final class FileBasedIndexImpl extends FileBasedIndex {
       return;
     }
     IndexingStamp.flushCaches();
+    // pages of all index storages are written together, sorted by file and offset
+    PagedFileStorage.runWithBatchedFlush(() -> {
+      if (!flushIndices(modCount)) return;
+
+      ContentHashesSupport.flushContentHashes();
+      SharedIndicesData.flushData();
+    });
+  }
+
+  private boolean flushIndices(long modCount) {
     IndexConfiguration state = getState();
     for (ID<?, ?> indexId : new ArrayList<>(state.getIndexIDs())) {
       if (HeavyProcessLatch.INSTANCE.isRunning() || modCount != myLocalModCount.get()) {
-        return; // do not interfere with 'main' jobs
+        return false; // do not interfere with 'main' jobs
       }
       try {
         final UpdatableIndex<?, ?, FileContent> index = state.getIndex(indexId);
@@ -650,9 +677,7 @@ public final class FileBasedIndexImpl extends FileBasedIndex {
         requestRebuild(indexId, e);
       }
     }
-
-    ContentHashesSupport.flushContentHashes();
-    SharedIndicesData.flushData();
+    return true;
   }
 
   @Override
@@ -1598,6 +1623,7 @@ public final class FileBasedIndexImpl extends FileBasedIndex {
       Set<ID<?, ?>> currentIndexedStates = new HashSet<>(IndexingStamp.getNontrivialFileIndexedStates(inputId));
 
       final List<ID<?, ?>> affectedIndexCandidates = getAffectedIndexCandidates(file);
+      final List<ID<?, ?>> deferredIndexUpdates = ourParallelIndexUpdates && content.getLength() >= ourParallelIndexUpdatesMinFileSize ? new ArrayList<>() : null;
       //noinspection ForLoopReplaceableByForEach
       for (int i = 0, size = affectedIndexCandidates.size(); i < size; ++i) {
         final ID<?, ?> indexId = affectedIndexCandidates.get(i);
@@ -1624,7 +1650,10 @@ public final class FileBasedIndexImpl extends FileBasedIndex {
 
           try {
             ProgressManager.checkCanceled();
-            if (!updateSingleIndex(indexId, file, inputId, fc)) {
+            if (deferredIndexUpdates != null) {
+              deferredIndexUpdates.add(indexId);
+            }
+            else if (!updateSingleIndex(indexId, file, inputId, fc)) {
               setIndexedStatus.set(Boolean.FALSE);
             }
             currentIndexedStates.remove(indexId);
@@ -1636,6 +1665,18 @@ public final class FileBasedIndexImpl extends FileBasedIndex {
         }
       }
 
+      if (deferredIndexUpdates != null && fc != null) {
+        try {
+          if (!updateIndicesInParallel(deferredIndexUpdates, file, inputId, fc)) {
+            setIndexedStatus.set(Boolean.FALSE);
+          }
+        }
+        catch (ProcessCanceledException e) {
+          cleanFileContent(fc, psiFile);
+          throw e;
+        }
+      }
+
       if (psiFile != null) {
         psiFile.putUserData(PsiFileImpl.BUILDING_STUB, null);
       }
@@ -1686,7 +1727,115 @@ public final class FileBasedIndexImpl extends FileBasedIndex {
     fc.setProject(project);
   }
 
+  /**
+   * Computes the updates of several indices for one file in parallel, they are applied in the order of {@code indexIds} on the calling thread.
+   * An update which could not be computed in the pool (no read action available, failure) is recomputed by {@link #updateSingleIndex}
+   * to keep the usual error handling. The method doesn't return, even when canceled, before every submitted computation has finished,
+   * so the caller may clean up the shared file content right away.
+   */
+  private boolean updateIndicesInParallel(@Nonnull List<ID<?, ?>> indexIds, @Nonnull VirtualFile file, int inputId, @Nonnull FileContentImpl fc) {
+    if (indexIds.size() == 1) {
+      return updateSingleIndex(indexIds.get(0), file, inputId, fc);
+    }
+
+    // lazily computed content state of FileContentImpl is not thread-safe, initialize it before sharing
+    if (!fc.getFileType().isBinary()) {
+      fc.getContentAsText();
+    }
+    fc.ensureThreadSafeLighterAST();
+
+    ProgressIndicator callerIndicator = ProgressManager.getInstance().getProgressIndicator();
+    ProgressIndicator indicator = new SensitiveProgressWrapper(callerIndicator != null ? callerIndicator : new EmptyProgressIndicator());
+    List<Future<Computable<Boolean>>> updates = new ArrayList<>(indexIds.size());
+    try {
+      for (ID<?, ?> indexId : indexIds) {
+        updates.add(CompletableFuture.supplyAsync(() -> indicator.isCanceled() ? null : computeIndexUpdate(indexId, file, inputId, fc, indicator),
+                                                  myIndexUpdateExecutor));
+      }
+
+      boolean allUpdated = true;
+      for (int i = 0; i < indexIds.size(); i++) {
+        Computable<Boolean> update = awaitIndexUpdate(updates.get(i));
+        if (!updateSingleIndex(indexIds.get(i), file, inputId, update, fc)) {
+          allUpdated = false;
+        }
+      }
+      return allUpdated;
+    }
+    finally {
+      // stop the computations still running and wait for them, they must not touch the file content after it's cleaned
+      indicator.cancel();
+      for (Future<Computable<Boolean>> update : updates) {
+        awaitCompletion(update);
+      }
+    }
+  }
+
+  private static void awaitCompletion(@Nonnull Future<?> future) {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        future.get();
+        break;
+      }
+      catch (InterruptedException e) {
+        interrupted = true;
+      }
+      catch (ExecutionException | CancellationException e) {
+        break;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Nullable
+  private Computable<Boolean> computeIndexUpdate(@Nonnull ID<?, ?> indexId, @Nonnull VirtualFile file, int inputId, @Nonnull FileContent fc, @Nullable ProgressIndicator indicator) {
+    Ref<Computable<Boolean>> result = Ref.create();
+    ProgressManager.getInstance().executeProcessUnderProgress(() -> ApplicationManagerEx.getApplicationEx().tryRunReadAction(() -> {
+      if (!RebuildStatus.isOk(indexId) && !myIsUnitTestMode) return;
+      markFileIndexed(file);
+      try {
+        result.set(getIndex(indexId).update(inputId, fc));
+      }
+      finally {
+        unmarkBeingIndexed();
+      }
+    }), indicator);
+    return result.get();
+  }
+
+  @Nullable
+  private static Computable<Boolean> awaitIndexUpdate(@Nonnull Future<Computable<Boolean>> update) {
+    try {
+      while (true) {
+        ProgressManager.checkCanceled();
+        try {
+          return update.get(10, TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException ignored) {
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+    catch (ExecutionException | CancellationException e) {
+      return null;
+    }
+  }
+
   private boolean updateSingleIndex(@Nonnull ID<?, ?> indexId, @Nullable VirtualFile file, int inputId, @Nullable FileContent currentFC) {
+    return updateSingleIndex(indexId, file, inputId, null, currentFC);
+  }
+
+  private boolean updateSingleIndex(@Nonnull ID<?, ?> indexId,
+                                    @Nullable VirtualFile file,
+                                    int inputId,
+                                    @Nullable Computable<Boolean> computedUpdate,
+                                    @Nullable FileContent currentFC) {
     if (!myExtensionsRelatedDataWasLoaded) reportUnexpectedAsyncInitState();
     if (!RebuildStatus.isOk(indexId) && !myIsUnitTestMode) {
       return false; // the index is scheduled for rebuild, no need to update
@@ -1701,7 +1850,7 @@ public final class FileBasedIndexImpl extends FileBasedIndex {
     try {
       // important: no hard referencing currentFC to avoid OOME, the methods introduced for this purpose!
       // important: update is called out of try since possible indexer extension is HANDLED as single file fail / restart indexing policy
-      final Computable<Boolean> update = index.update(inputId, currentFC);
+      final Computable<Boolean> update = computedUpdate != null ? computedUpdate : index.update(inputId, currentFC);
       updateCalculated = true;
 
       runIndexUpdate(indexId, update, file, inputId);
@@ -2343,6 +2492,7 @@ public final class FileBasedIndexImpl extends FileBasedIndex {
             lastModCount = currentModCount;
           }
         });
+        myCompactionFuture = IndexStorageCompactor.schedule(ApplicationManager.getApplication(), () -> myUpdatingFiles.get() == 0 && !myShutdownPerformed.get());
         myAllIndicesInitializedFuture = IndexInfrastructure.submitGenesisTask(() -> {
           if (!myShutdownPerformed.get()) {
             getChangedFilesCollector().ensureUpToDateAsync();
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.ide.impl.idea.util.indexing;
+
+import consulo.application.Application;
+import consulo.application.HeavyProcessLatch;
+import consulo.application.util.concurrent.AppExecutorUtil;
+import consulo.container.boot.ContainerPathManager;
+import consulo.index.io.PersistentHashMap;
+import consulo.logging.Logger;
+import consulo.util.concurrent.ConcurrencyUtil;
+import consulo.util.io.FileUtil;
+import consulo.util.lang.SystemProperties;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Compacts fragmented persistent index maps in background while the application is idle, so that garbage left by
+ * removed and rewritten values does not have to wait for the next restart (where {@link PersistentHashMap} compacts
+ * only very large and very fragmented storages).
+ * <p>
+ * Only maps stored under the index root are considered, at most one map is compacted per run, the most fragmented one first.
+ */
+class IndexStorageCompactor {
+  private static final Logger LOG = Logger.getInstance(IndexStorageCompactor.class);
+
+  static final String NAME = "Index Storage Compactor";
+
+  private static final boolean ENABLED = SystemProperties.getBooleanProperty("idea.indexing.idle.compaction", true);
+  private static final int PERIOD_SECONDS = SystemProperties.getIntProperty("idea.indexing.idle.compaction.period.seconds", 60);
+  private static final int MIN_IDLE_MILLIS = SystemProperties.getIntProperty("idea.indexing.idle.compaction.min.idle.millis", 30_000);
+  private static final double MIN_GARBAGE_RATIO = SystemProperties.getIntProperty("idea.indexing.idle.compaction.min.garbage.percent", 40) / 100.0;
+  private static final long MIN_GARBAGE_BYTES = SystemProperties.getIntProperty("idea.indexing.idle.compaction.min.garbage.kb", 1024) * 1024L;
+
+  private final Application myApplication;
+  private final BooleanSupplier myCanCompact;
+  private final File myIndexRoot;
+
+  private IndexStorageCompactor(@Nonnull Application application, @Nonnull BooleanSupplier canCompact, @Nonnull File indexRoot) {
+    myApplication = application;
+    myCanCompact = canCompact;
+    myIndexRoot = indexRoot;
+  }
+
+  /**
+   * @param canCompact checked before each compaction, should return false while indices are being updated
+   * @return null if idle compaction is disabled
+   */
+  @Nullable
+  static ScheduledFuture<?> schedule(@Nonnull Application application, @Nonnull BooleanSupplier canCompact) {
+    if (!ENABLED || application.isUnitTestMode()) return null;
+    IndexStorageCompactor compactor = new IndexStorageCompactor(application, canCompact, ContainerPathManager.get().getIndexRoot());
+    return AppExecutorUtil.getAppScheduledExecutorService()
+      .scheduleWithFixedDelay(ConcurrencyUtil.underThreadNameRunnable(NAME, compactor::compactMostFragmented), PERIOD_SECONDS, PERIOD_SECONDS,
+                              TimeUnit.SECONDS);
+  }
+
+  private boolean isIdle() {
+    return myApplication.getIdleTime() >= MIN_IDLE_MILLIS && !HeavyProcessLatch.INSTANCE.isRunning() && myCanCompact.getAsBoolean();
+  }
+
+  private void compactMostFragmented() {
+    if (!isIdle()) return;
+
+    for (PersistentHashMap<?, ?> map : PersistentHashMap.getOpenMapsByGarbageSize()) {
+      if (!isIdle()) return;
+      if (!FileUtil.isAncestor(myIndexRoot, map.getBaseFile(), true)) continue;
+      try {
+        String statisticsBefore = map.getFragmentationStatistics();
+        long start = System.nanoTime();
+        if (map.compactIfFragmented(MIN_GARBAGE_RATIO, MIN_GARBAGE_BYTES)) {
+          LOG.info("Compacted " + map.getBaseFile() + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms, before: " +
+                   statisticsBefore + ", after: " + map.getFragmentationStatistics());
+          return;
+        }
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Not compacting " + map.getBaseFile() + ", " + statisticsBefore);
+        }
+      }
+      catch (IOException e) {
+        LOG.info("Cannot compact " + map.getBaseFile(), e);
+      }
+    }
+  }
+}
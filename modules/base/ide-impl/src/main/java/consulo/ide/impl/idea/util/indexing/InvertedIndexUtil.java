@@ -15,6 +15,7 @@
  */
 package consulo.ide.impl.idea.util.indexing;
 
+import consulo.index.io.CompressedIdSet;
 import consulo.index.io.StorageException;
 import consulo.index.io.ValueContainer;
 import consulo.util.collection.primitive.ints.IntSet;
@@ -32,12 +33,13 @@ public class InvertedIndexUtil {
                                                                   @Nullable Predicate<? super K> keyChecker,
                                                                   @Nullable Predicate<? super V> valueChecker,
                                                                   @Nullable ValueContainer.IntPredicate idChecker) throws StorageException {
-    IntSet mainIntersection = null;
+    // compressed sets keep intersections of keys with many files small and are intersected chunk by chunk
+    CompressedIdSet mainIntersection = null;
 
     for (K dataKey : dataKeys) {
       if (keyChecker != null && !keyChecker.test(dataKey)) continue;
 
-      final IntSet copy = IntSets.newHashSet();
+      final CompressedIdSet keyIds = new CompressedIdSet(false);
       final ValueContainer<V> container = index.getData(dataKey);
 
       for (ValueContainer.ValueIterator<V> valueIt = container.getValueIterator(); valueIt.hasNext(); ) {
@@ -52,24 +54,36 @@ public class InvertedIndexUtil {
         if (mainIntersection == null || iterator.size() < mainIntersection.size() || (predicate = valueIt.getValueAssociationPredicate()) == null) {
           while (iterator.hasNext()) {
             final int id = iterator.next();
-            if (mainIntersection == null && (idChecker == null || idChecker.contains(id)) || mainIntersection != null && mainIntersection.contains(id)) {
-              copy.add(id);
+            if (mainIntersection != null || idChecker == null || idChecker.contains(id)) {
+              keyIds.add(id);
             }
           }
         }
         else {
-          mainIntersection.forEach(id -> {
-            if (predicate.contains(id)) copy.add(id);
-          });
+          // the value has more inputs than the intersection, probe it only for ids which can survive
+          for (ValueContainer.IntIterator mainIterator = mainIntersection.intIterator(); mainIterator.hasNext(); ) {
+            final int id = mainIterator.next();
+            if (predicate.contains(id)) keyIds.add(id);
+          }
         }
       }
 
-      mainIntersection = copy;
+      if (mainIntersection == null) {
+        mainIntersection = keyIds;
+      }
+      else {
+        mainIntersection.retainAll(keyIds);
+      }
       if (mainIntersection.isEmpty()) {
         return IntSet.of();
       }
     }
 
-    return mainIntersection == null ? IntSet.of() : mainIntersection;
+    if (mainIntersection == null) return IntSet.of();
+    IntSet result = IntSets.newHashSet(mainIntersection.size());
+    for (ValueContainer.IntIterator iterator = mainIntersection.intIterator(); iterator.hasNext(); ) {
+      result.add(iterator.next());
+    }
+    return result;
   }
 }
@@ -43,6 +43,10 @@ class HashBasedMapReduceIndex<Key, Value> extends VfsAwareMapReduceIndex<Key, Va
                                                                      @Nonnull FileBasedIndexExtension<Key, Value> originalExtension,
                                                                      @Nonnull ProvidedIndexExtension<Key, Value> providedExtension,
                                                                      @Nonnull IntUnaryOperator hashToFileId) throws IOException {
+    File snapshotFile = SnapshotIndexStorage.getSnapshotFile(baseFile, originalExtension.getName());
+    if (snapshotFile.exists()) {
+      return new SnapshotIndexStorage<>(snapshotFile, providedExtension.createKeyDescriptor(), providedExtension.createValueExternalizer(), hashToFileId);
+    }
     return new MapIndexStorage<Key, Value>(new File(baseFile, originalExtension.getName().getName()), providedExtension.createKeyDescriptor(), providedExtension.createValueExternalizer(),
                                            originalExtension.getCacheSize(), originalExtension.keyIsUniqueForIndexedFile(), true, true, hashToFileId) {
       @Override
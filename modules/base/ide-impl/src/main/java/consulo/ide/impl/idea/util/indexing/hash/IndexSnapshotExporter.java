@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.ide.impl.idea.util.indexing.hash;
+
+import consulo.application.progress.ProgressManager;
+import consulo.ide.impl.idea.util.indexing.FileBasedIndexImpl;
+import consulo.ide.impl.idea.util.indexing.UpdatableIndex;
+import consulo.ide.impl.idea.util.indexing.VfsAwareIndexStorage;
+import consulo.ide.impl.idea.util.indexing.impl.MapReduceIndex;
+import consulo.index.io.*;
+import consulo.language.psi.stub.FileBasedIndex;
+import consulo.language.psi.stub.FileContent;
+import consulo.logging.Logger;
+import jakarta.annotation.Nonnull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Exports built indices as memory-mapped snapshots which can be shared between machines as prebuilt indices,
+ * see {@code BasicProvidedExtensionLocator}. Inputs are stored by content hash ids, so the snapshot is valid for any machine
+ * which has the same files, wherever they are located.
+ */
+public final class IndexSnapshotExporter {
+  private static final Logger LOG = Logger.getInstance(IndexSnapshotExporter.class);
+
+  private IndexSnapshotExporter() {
+  }
+
+  /**
+   * @param prebuiltIndexRoot directory with the content hash enumerator, snapshot is written into it
+   * @return number of exported keys
+   */
+  public static <K, V> int export(@Nonnull ID<K, V> indexId, @Nonnull File prebuiltIndexRoot) throws StorageException, IOException {
+    FileBasedIndexImpl fileBasedIndex = (FileBasedIndexImpl)FileBasedIndex.getInstance();
+    UpdatableIndex<K, V, FileContent> index = fileBasedIndex.getIndex(indexId);
+    FileContentHashIndex hashIndex = fileBasedIndex.getFileContentHashIndex(prebuiltIndexRoot);
+    return export(index, SnapshotIndexStorage.getSnapshotFile(prebuiltIndexRoot, indexId), fileId -> {
+      try {
+        return hashIndex.getHashId(fileId);
+      }
+      catch (StorageException e) {
+        throw new RuntimeException(e);
+      }
+    });
+  }
+
+  public static <K, V> int export(@Nonnull UpdatableIndex<K, V, FileContent> index,
+                                  @Nonnull File target,
+                                  @Nonnull IntUnaryOperator inputMapping) throws StorageException, IOException {
+    if (!(index instanceof MapReduceIndex) || !(((MapReduceIndex<K, V, ?>)index).getStorage() instanceof VfsAwareIndexStorage)) {
+      throw new IllegalArgumentException("Index can't be exported: " + index.getExtension().getName());
+    }
+    VfsAwareIndexStorage<K, V> storage = (VfsAwareIndexStorage<K, V>)((MapReduceIndex<K, V, ?>)index).getStorage();
+    IndexExtension<K, V, FileContent> extension = index.getExtension();
+    IndexSnapshotWriter<K, V> writer = new IndexSnapshotWriter<>(extension.getKeyDescriptor(), extension.getValueExternalizer(), inputMapping);
+
+    long start = System.currentTimeMillis();
+    Lock lock = index.getReadLock();
+    lock.lock();
+    try {
+      List<K> keys = new ArrayList<>();
+      storage.processKeys(keys::add, null, null);
+      for (K key : keys) {
+        ProgressManager.checkCanceled();
+        writer.add(key, index.getData(key));
+      }
+    }
+    finally {
+      lock.unlock();
+    }
+    writer.write(target);
+    LOG.info("Exported " + writer.size() + " keys of " + extension.getName() + " to " + target + " in " + (System.currentTimeMillis() - start) + "ms");
+    return writer.size();
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.ide.impl.idea.util.indexing.hash;
+
+import consulo.content.scope.SearchScope;
+import consulo.ide.impl.idea.openapi.vfs.newvfs.persistent.PersistentFS;
+import consulo.ide.impl.idea.util.indexing.IndexInfrastructure;
+import consulo.ide.impl.idea.util.indexing.VfsAwareIndexStorage;
+import consulo.index.io.*;
+import consulo.index.io.data.DataExternalizer;
+import consulo.index.io.internal.ValueContainerImpl;
+import consulo.language.psi.stub.IdFilter;
+import consulo.virtualFileSystem.ManagingFS;
+import consulo.virtualFileSystem.VirtualFile;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Predicate;
+
+/**
+ * Index storage served from an immutable {@link MappedIndexSnapshot} exported by {@link IndexSnapshotExporter}.
+ * <p>
+ * Changes are copy-on-write: the values of a changed key are copied from the snapshot into an in-memory container which serves
+ * the key from then on. They live until the storage is closed, the next session starts from the snapshot again.
+ */
+class SnapshotIndexStorage<Key, Value> implements VfsAwareIndexStorage<Key, Value> {
+  private final MappedIndexSnapshot<Key, Value> mySnapshot;
+  private final Map<Key, ValueContainerImpl<Value>> myChangedValues = new ConcurrentHashMap<>();
+  private volatile boolean mySnapshotCleared;
+
+  SnapshotIndexStorage(@Nonnull File file,
+                       @Nonnull KeyDescriptor<Key> keyDescriptor,
+                       @Nonnull DataExternalizer<Value> valueExternalizer,
+                       @Nullable IntUnaryOperator inputRemapping) throws IOException {
+    mySnapshot = new MappedIndexSnapshot<>(file, keyDescriptor, valueExternalizer, inputRemapping);
+  }
+
+  @Nonnull
+  static File getSnapshotFile(@Nonnull File baseFile, @Nonnull ID<?, ?> indexId) {
+    return new File(baseFile, indexId.getName() + MappedIndexSnapshot.FILE_EXTENSION);
+  }
+
+  @Override
+  public boolean processKeys(@Nonnull Predicate<? super Key> processor, SearchScope scope, @Nullable IdFilter idFilter) throws StorageException {
+    IntPredicate inputFilter = createInputFilter(scope, idFilter);
+    try {
+      if (!mySnapshotCleared && !mySnapshot.processKeys(key -> myChangedValues.containsKey(key) || processor.test(key), inputFilter)) {
+        return false;
+      }
+    }
+    catch (IOException e) {
+      throw new StorageException(e);
+    }
+    for (Map.Entry<Key, ValueContainerImpl<Value>> entry : myChangedValues.entrySet()) {
+      if (hasInput(entry.getValue(), inputFilter) && !processor.test(entry.getKey())) return false;
+    }
+    return true;
+  }
+
+  private static boolean hasInput(@Nonnull ValueContainer<?> container, @Nullable IntPredicate inputFilter) {
+    for (ValueContainer.ValueIterator<?> iterator = container.getValueIterator(); iterator.hasNext(); ) {
+      iterator.next();
+      ValueContainer.IntIterator ids = iterator.getInputIdsIterator();
+      while (ids.hasNext()) {
+        if (inputFilter == null || inputFilter.test(ids.next())) return true;
+      }
+    }
+    return false;
+  }
+
+  @Nullable
+  private static IntPredicate createInputFilter(@Nullable SearchScope scope, @Nullable IdFilter idFilter) {
+    if (idFilter != null) return idFilter::containsFileId;
+    if (scope == null) return null;
+    PersistentFS fs = (PersistentFS)ManagingFS.getInstance();
+    return id -> {
+      VirtualFile file = IndexInfrastructure.findFileById(fs, id);
+      return file != null && scope.contains(file);
+    };
+  }
+
+  @Nonnull
+  @Override
+  public ValueContainer<Value> read(Key key) throws StorageException {
+    ValueContainerImpl<Value> changed = myChangedValues.get(key);
+    if (changed != null) return changed;
+    if (mySnapshotCleared) return new ValueContainerImpl<>();
+    try {
+      return mySnapshot.get(key);
+    }
+    catch (IOException e) {
+      throw new StorageException(e);
+    }
+  }
+
+  @Override
+  public void addValue(Key key, int inputId, Value value) throws StorageException {
+    getChangedValues(key).addValue(inputId, value);
+  }
+
+  @Override
+  public void removeAllValues(@Nonnull Key key, int inputId) throws StorageException {
+    getChangedValues(key).removeAssociatedValue(inputId);
+  }
+
+  @Nonnull
+  private synchronized ValueContainerImpl<Value> getChangedValues(Key key) throws StorageException {
+    ValueContainerImpl<Value> changed = myChangedValues.get(key);
+    if (changed == null) {
+      changed = new ValueContainerImpl<>();
+      if (!mySnapshotCleared) {
+        try {
+          copyValues(mySnapshot.get(key), changed);
+        }
+        catch (IOException e) {
+          throw new StorageException(e);
+        }
+      }
+      myChangedValues.put(key, changed);
+    }
+    return changed;
+  }
+
+  private static <Value> void copyValues(@Nonnull ValueContainer<Value> from, @Nonnull ValueContainerImpl<Value> to) {
+    for (ValueContainer.ValueIterator<Value> iterator = from.getValueIterator(); iterator.hasNext(); ) {
+      Value value = iterator.next();
+      ValueContainer.IntIterator ids = iterator.getInputIdsIterator();
+      while (ids.hasNext()) {
+        to.addValue(ids.next(), value);
+      }
+    }
+  }
+
+  @Override
+  public synchronized void clear() {
+    mySnapshotCleared = true;
+    myChangedValues.clear();
+  }
+
+  @Override
+  public void clearCaches() {
+  }
+
+  @Override
+  public void close() {
+    mySnapshot.close();
+  }
+
+  @Override
+  public void flush() {
+  }
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.ide.impl.idea.util.io.storage;
+
+import consulo.index.io.data.DataInputOutputUtil;
+import consulo.logging.Logger;
+import consulo.util.io.BufferExposingByteArrayOutputStream;
+import consulo.util.io.ByteArraySequence;
+import consulo.util.lang.SystemProperties;
+import jakarta.annotation.Nonnull;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4Exception;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Block format of {@link RefCountingStorage} records, used instead of whole-record deflate when {@code idea.vfs.content.codec} is set.
+ * <p>
+ * Contents are split into blocks of {@code idea.vfs.content.codec.block.size} bytes, each block is compressed by its own codec
+ * (stored, LZ4 or deflate with a {@link ContentDictionary trained dictionary}) and has a CRC32C checksum. The block table precedes
+ * the data and is covered by a checksum of its own, so a range of the content may be decoded without decompressing the other blocks,
+ * see {@link #decode(byte[], int, int)}.
+ * <pre>
+ * byte magic, byte version, varint length, varint blockSize, varint dictionaryId
+ * per block: varint (storedLength &lt;&lt; 2 | codec), int crc32c of the block data
+ * int crc32c of the header and the block table
+ * block data
+ * </pre>
+ * Encoded records are told apart from legacy deflate ones by the first byte, so a storage may contain both
+ * and is migrated as its records get rewritten.
+ */
+public final class BlockContentCodec {
+  private static final Logger LOG = Logger.getInstance(BlockContentCodec.class);
+
+  // zlib streams start with CMF byte whose low nibble is always 8 (deflate), see RFC 1950
+  private static final byte MAGIC = (byte)0xB1;
+  private static final int FORMAT_VERSION = 1;
+  private static final int BLOCK_SIZE = SystemProperties.getIntProperty("idea.vfs.content.codec.block.size", 64 * 1024);
+
+  private static final int STORED = 0;
+  private static final int LZ4 = 1;
+  private static final int DICTIONARY = 2;
+
+  private static final ThreadLocal<Deflater> ourDeflater = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+  private static final ThreadLocal<Inflater> ourInflater = ThreadLocal.withInitial(() -> new Inflater(true));
+
+  private final boolean myEnabled;
+  private final boolean myUseDictionary;
+  private final ContentDictionary myDictionary;
+
+  private final LongAdder myEncodedRecords = new LongAdder();
+  private final LongAdder myOriginalBytes = new LongAdder();
+  private final LongAdder myEncodedBytes = new LongAdder();
+  private final LongAdder myEncodeNanos = new LongAdder();
+  private final LongAdder myDecodedBlocks = new LongAdder();
+  private final LongAdder myDecodedBytes = new LongAdder();
+  private final LongAdder myDecodeNanos = new LongAdder();
+
+  private BlockContentCodec(@Nonnull File storagePath, boolean enabled, boolean useDictionary, @Nonnull Executor trainingExecutor) {
+    myEnabled = enabled;
+    myUseDictionary = useDictionary;
+    myDictionary = new ContentDictionary(getDictionaryFile(storagePath), useDictionary, trainingExecutor);
+  }
+
+  /**
+   * Records in the block format are decoded whatever the codec name is, it affects only how new records are written.
+   *
+   * @param name {@code lz4}, {@code dictionary} (deflate with a dictionary trained on stored texts, LZ4 for the rest),
+   *             empty or {@code deflate} for legacy whole-record compression
+   * @param trainingExecutor executor to train the dictionary on, records are written without it until it's ready
+   */
+  @Nonnull
+  public static BlockContentCodec create(@Nonnull String name, @Nonnull File storagePath, @Nonnull Executor trainingExecutor) {
+    switch (name) {
+      case "":
+      case "deflate":
+        return new BlockContentCodec(storagePath, false, false, trainingExecutor);
+      case "lz4":
+        return new BlockContentCodec(storagePath, true, false, trainingExecutor);
+      case "dictionary":
+        return new BlockContentCodec(storagePath, true, true, trainingExecutor);
+      default:
+        LOG.warn("Unknown content codec '" + name + "', using deflate");
+        return new BlockContentCodec(storagePath, false, false, trainingExecutor);
+    }
+  }
+
+  /**
+   * @return whether new records are written in the block format
+   */
+  public boolean isEnabled() {
+    return myEnabled;
+  }
+
+  @Nonnull
+  public static File getDictionaryFile(@Nonnull File storagePath) {
+    return new File(storagePath.getPath() + ".dict");
+  }
+
+  public static boolean isEncoded(@Nonnull byte[] record) {
+    return record.length > 0 && record[0] == MAGIC;
+  }
+
+  @Nonnull
+  public ByteArraySequence encode(@Nonnull ByteArraySequence content) throws IOException {
+    long started = System.nanoTime();
+    byte[] bytes = content.getBytes();
+    int offset = content.getOffset();
+    int length = content.getLength();
+
+    byte[] dictionary = null;
+    if (myUseDictionary) {
+      myDictionary.offerSample(bytes, offset, length);
+      dictionary = myDictionary.getDictionary();
+    }
+
+    int blockCount = (length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    BufferExposingByteArrayOutputStream data = new BufferExposingByteArrayOutputStream(Math.max(length / 2, 16));
+    BufferExposingByteArrayOutputStream result = new BufferExposingByteArrayOutputStream(Math.max(length / 2, 16) + blockCount * 8 + 16);
+    DataOutputStream header = new DataOutputStream(result);
+    header.writeByte(MAGIC);
+    header.writeByte(FORMAT_VERSION);
+    DataInputOutputUtil.writeINT(header, length);
+    DataInputOutputUtil.writeINT(header, BLOCK_SIZE);
+    DataInputOutputUtil.writeINT(header, dictionary == null ? 0 : myDictionary.getId());
+
+    CRC32C crc = new CRC32C();
+    byte[] buffer = new byte[maxCompressedLength(Math.min(length, BLOCK_SIZE))];
+    for (int block = 0; block < blockCount; block++) {
+      int blockStart = offset + block * BLOCK_SIZE;
+      int blockLength = Math.min(BLOCK_SIZE, offset + length - blockStart);
+
+      int codec = dictionary != null && blockLength <= ContentDictionary.MAX_SIZE * 2 ? DICTIONARY : LZ4;
+      int stored = codec == DICTIONARY
+                   ? deflate(bytes, blockStart, blockLength, buffer, dictionary)
+                   : lz4().compress(bytes, blockStart, blockLength, buffer, 0);
+      byte[] storedBytes = buffer;
+      int storedOffset = 0;
+      if (stored < 0 || stored >= blockLength) {
+        codec = STORED;
+        stored = blockLength;
+        storedBytes = bytes;
+        storedOffset = blockStart;
+      }
+
+      crc.reset();
+      crc.update(storedBytes, storedOffset, stored);
+      DataInputOutputUtil.writeINT(header, stored << 2 | codec);
+      header.writeInt((int)crc.getValue());
+      data.write(storedBytes, storedOffset, stored);
+    }
+    crc.reset();
+    crc.update(result.getInternalBuffer(), 0, result.size());
+    header.writeInt((int)crc.getValue());
+    result.write(data.getInternalBuffer(), 0, data.size());
+
+    myEncodedRecords.increment();
+    myOriginalBytes.add(length);
+    myEncodedBytes.add(result.size());
+    myEncodeNanos.add(System.nanoTime() - started);
+    return result.toByteArraySequence();
+  }
+
+  @Nonnull
+  public byte[] decode(@Nonnull byte[] record) throws IOException {
+    return decode(record, 0, -1);
+  }
+
+  /**
+   * Decodes only the blocks overlapping the given range of the original content.
+   *
+   * @param length number of bytes to decode, -1 to decode everything starting from {@code from}
+   */
+  @Nonnull
+  public byte[] decode(@Nonnull byte[] record, int from, int length) throws IOException {
+    long started = System.nanoTime();
+    try {
+      ByteBuffer buffer = ByteBuffer.wrap(record);
+      if (buffer.get() != MAGIC) throw new IOException("Not an encoded content record");
+      int version = buffer.get();
+      if (version != FORMAT_VERSION) throw new IOException("Unsupported content record version " + version);
+      int originalLength = DataInputOutputUtil.readINT(buffer);
+      int blockSize = DataInputOutputUtil.readINT(buffer);
+      int dictionaryId = DataInputOutputUtil.readINT(buffer);
+
+      // the header isn't verified yet, so don't let a damaged one make us allocate a huge table
+      int blockCount = blockSize <= 0 || originalLength < 0 ? -1 : (int)(((long)originalLength + blockSize - 1) / blockSize);
+      if (blockCount < 0 || blockCount > buffer.remaining() / 5) throw new IOException("Corrupted content record header");
+      int[] descriptors = new int[blockCount];
+      int[] checksums = new int[blockCount];
+      for (int block = 0; block < blockCount; block++) {
+        descriptors[block] = DataInputOutputUtil.readINT(buffer);
+        checksums[block] = buffer.getInt();
+      }
+      CRC32C crc = new CRC32C();
+      crc.update(record, 0, buffer.position());
+      if ((int)crc.getValue() != buffer.getInt()) throw new IOException("Checksum mismatch in content record header");
+
+      if (length < 0) length = originalLength - from;
+      if (from < 0 || length < 0 || from + length > originalLength) {
+        throw new IOException("Range " + from + "+" + length + " is out of content of " + originalLength + " bytes");
+      }
+
+      byte[] result = new byte[length];
+      byte[] blockBuffer = null;
+      int dataOffset = buffer.position();
+      for (int block = 0; block < blockCount; block++) {
+        int stored = descriptors[block] >>> 2;
+        int blockStart = block * blockSize;
+        int blockLength = Math.min(blockSize, originalLength - blockStart);
+        if (blockStart < from + length && blockStart + blockLength > from) {
+          if (dataOffset + stored > record.length) throw new IOException("Truncated content record");
+          crc.reset();
+          crc.update(record, dataOffset, stored);
+          if ((int)crc.getValue() != checksums[block]) throw new IOException("Checksum mismatch in block " + block + " of content record");
+
+          boolean whole = blockStart >= from && blockStart + blockLength <= from + length;
+          if (!whole && blockBuffer == null) blockBuffer = new byte[blockSize];
+          byte[] target = whole ? result : blockBuffer;
+          int targetOffset = whole ? blockStart - from : 0;
+          decodeBlock(descriptors[block] & 3, record, dataOffset, stored, target, targetOffset, blockLength, dictionaryId);
+          if (!whole) {
+            int start = Math.max(from, blockStart);
+            int end = Math.min(from + length, blockStart + blockLength);
+            System.arraycopy(blockBuffer, start - blockStart, result, start - from, end - start);
+          }
+          myDecodedBlocks.increment();
+        }
+        dataOffset += stored;
+      }
+
+      myDecodedBytes.add(length);
+      myDecodeNanos.add(System.nanoTime() - started);
+      return result;
+    }
+    catch (BufferUnderflowException | LZ4Exception | DataFormatException e) {
+      throw new IOException("Corrupted content record", e);
+    }
+  }
+
+  private void decodeBlock(int codec, byte[] source, int offset, int length, byte[] target, int targetOffset, int originalLength, int dictionaryId)
+    throws IOException, DataFormatException {
+    switch (codec) {
+      case STORED:
+        if (length != originalLength) throw new IOException("Stored block length mismatch");
+        System.arraycopy(source, offset, target, targetOffset, length);
+        break;
+      case LZ4:
+        int read = LZ4Factory.fastestJavaInstance().fastDecompressor().decompress(source, offset, target, targetOffset, originalLength);
+        if (read != length) throw new IOException("LZ4 block length mismatch");
+        break;
+      case DICTIONARY:
+        inflate(source, offset, length, target, targetOffset, originalLength, myDictionary.getDictionary(dictionaryId));
+        break;
+      default:
+        throw new IOException("Unknown block codec " + codec);
+    }
+  }
+
+  private static LZ4Compressor lz4() {
+    return LZ4Factory.fastestJavaInstance().fastCompressor();
+  }
+
+  private static int maxCompressedLength(int length) {
+    // deflate bound is slightly larger than LZ4 one
+    return Math.max(lz4().maxCompressedLength(length), length + (length >> 12) + (length >> 14) + 64);
+  }
+
+  // returns -1 if the output doesn't fit into the buffer
+  private static int deflate(byte[] source, int offset, int length, byte[] target, byte[] dictionary) {
+    Deflater deflater = ourDeflater.get();
+    deflater.reset();
+    deflater.setDictionary(dictionary);
+    deflater.setInput(source, offset, length);
+    deflater.finish();
+    int written = 0;
+    while (!deflater.finished()) {
+      if (written == target.length) return -1;
+      written += deflater.deflate(target, written, target.length - written);
+    }
+    return written;
+  }
+
+  private static void inflate(byte[] source, int offset, int length, byte[] target, int targetOffset, int originalLength, byte[] dictionary)
+    throws DataFormatException, IOException {
+    Inflater inflater = ourInflater.get();
+    inflater.reset();
+    inflater.setDictionary(dictionary);
+    inflater.setInput(source, offset, length);
+    int read = 0;
+    while (read < originalLength) {
+      int n = inflater.inflate(target, targetOffset + read, originalLength - read);
+      if (n == 0 && (inflater.finished() || inflater.needsInput())) break;
+      read += n;
+    }
+    if (read != originalLength) throw new IOException("Deflate block length mismatch");
+  }
+
+  @Nonnull
+  public String getStatistics() {
+    long records = myEncodedRecords.sum();
+    long original = myOriginalBytes.sum();
+    long encoded = myEncodedBytes.sum();
+    long blocks = myDecodedBlocks.sum();
+    return "encoded " + records + " records, " + original + " -> " + encoded + " bytes" +
+           (encoded == 0 ? "" : String.format(" (ratio %.2f)", (double)original / encoded)) +
+           (records == 0 ? "" : ", avg encode " + myEncodeNanos.sum() / records / 1000 + "us") +
+           "; decoded " + blocks + " blocks, " + myDecodedBytes.sum() + " bytes" +
+           (blocks == 0 ? "" : ", avg decode " + myDecodeNanos.sum() / blocks / 1000 + "us per block") +
+           (!myUseDictionary ? "" : "; dictionary " + (myDictionary.getDictionary() == null ? "not trained" : myDictionary.getId()));
+  }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.ide.impl.idea.util.io.storage;
+
+import consulo.logging.Logger;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+
+/**
+ * Preset dictionary for {@link BlockContentCodec}, trained once from the first small text contents written to the storage and
+ * never changed afterwards, so records referring to it by id stay readable.
+ * <p>
+ * Training is a greedy variant of the COVER algorithm: segments of the samples are scored by how frequent their shingles are
+ * across all samples, the best segments are taken while the shingles they cover are excluded from scoring of the remaining ones.
+ * It runs on the given executor, so writes don't wait for it and go without the dictionary until it's published.
+ */
+final class ContentDictionary {
+  private static final Logger LOG = Logger.getInstance(ContentDictionary.class);
+
+  // deflate window is 32K, leave a half of it for the data itself
+  static final int MAX_SIZE = 16 * 1024;
+  private static final int MAX_SAMPLE_SIZE = 16 * 1024;
+  private static final int MIN_SAMPLE_SIZE = 64;
+  private static final int SAMPLES_TO_TRAIN = 2 * 1024 * 1024;
+
+  private static final int SHINGLE = 8;
+  private static final int SEGMENT = 64;
+  private static final int SEGMENT_STEP = 16;
+  private static final int TABLE_BITS = 20;
+
+  private final File myFile;
+  private final Executor myTrainingExecutor;
+  private volatile byte[] myDictionary;
+  private volatile int myId;
+
+  private volatile List<byte[]> mySamples; // modified under lock(this), null if not training
+  private int mySampledBytes;
+
+  /**
+   * @param train whether to train the dictionary if there is none yet, otherwise an existing one is only used to decode records
+   */
+  ContentDictionary(@Nonnull File file, boolean train, @Nonnull Executor trainingExecutor) {
+    myFile = file;
+    myTrainingExecutor = trainingExecutor;
+    load();
+    if (train && myDictionary == null) {
+      mySamples = new ArrayList<>();
+    }
+  }
+
+  /**
+   * @return the dictionary or null if it's not trained yet
+   */
+  @Nullable
+  byte[] getDictionary() {
+    return myDictionary;
+  }
+
+  int getId() {
+    return myId;
+  }
+
+  @Nonnull
+  byte[] getDictionary(int id) throws IOException {
+    byte[] dictionary = myDictionary;
+    if (dictionary == null || id != myId) {
+      throw new IOException("Unknown content dictionary " + id + " in " + myFile);
+    }
+    return dictionary;
+  }
+
+  void offerSample(@Nonnull byte[] bytes, int offset, int length) {
+    if (mySamples == null || length < MIN_SAMPLE_SIZE || length > MAX_SAMPLE_SIZE || !looksLikeText(bytes, offset, length)) return;
+
+    List<byte[]> samples;
+    synchronized (this) {
+      if (mySamples == null) return;
+      byte[] sample = new byte[length];
+      System.arraycopy(bytes, offset, sample, 0, length);
+      mySamples.add(sample);
+      mySampledBytes += length;
+      if (mySampledBytes < SAMPLES_TO_TRAIN) return;
+      samples = mySamples;
+      mySamples = null;
+    }
+    myTrainingExecutor.execute(() -> trainAndSave(samples));
+  }
+
+  private void trainAndSave(@Nonnull List<byte[]> samples) {
+    long started = System.currentTimeMillis();
+    byte[] dictionary = train(samples, MAX_SIZE);
+    int id = computeId(dictionary);
+    try {
+      save(dictionary, id);
+    }
+    catch (IOException e) {
+      // without the file records written with the dictionary would be unreadable after restart
+      LOG.warn("Cannot save content dictionary to " + myFile, e);
+      return;
+    }
+    myId = id;
+    myDictionary = dictionary;
+    LOG.info("Content dictionary of " + dictionary.length + " bytes trained on " + samples.size() + " samples in " +
+             (System.currentTimeMillis() - started) + "ms");
+  }
+
+  private static boolean looksLikeText(@Nonnull byte[] bytes, int offset, int length) {
+    int end = offset + Math.min(length, 512);
+    for (int i = offset; i < end; i++) {
+      if (bytes[i] == 0) return false;
+    }
+    return true;
+  }
+
+  @Nonnull
+  static byte[] train(@Nonnull List<byte[]> samples, int maxSize) {
+    int[] frequencies = new int[1 << TABLE_BITS];
+    for (byte[] sample : samples) {
+      for (int i = 0; i + SHINGLE <= sample.length; i++) {
+        frequencies[shingleHash(sample, i)]++;
+      }
+    }
+
+    PriorityQueue<Segment> queue = new PriorityQueue<>();
+    for (int s = 0; s < samples.size(); s++) {
+      byte[] sample = samples.get(s);
+      for (int offset = 0; offset + SEGMENT <= sample.length; offset += SEGMENT_STEP) {
+        int score = score(sample, offset, frequencies);
+        if (score > 0) queue.add(new Segment(s, offset, score));
+      }
+    }
+
+    List<Segment> selected = new ArrayList<>();
+    int size = 0;
+    while (size + SEGMENT <= maxSize && !queue.isEmpty()) {
+      Segment best = queue.poll();
+      byte[] sample = samples.get(best.sample);
+      // scores only decrease, so a segment whose actual score is still the best one may be taken right away
+      int actual = score(sample, best.offset, frequencies);
+      if (actual <= 0) continue;
+      if (actual < best.score) {
+        best.score = actual;
+        queue.add(best);
+        continue;
+      }
+      selected.add(best);
+      size += SEGMENT;
+      for (int i = best.offset; i + SHINGLE <= best.offset + SEGMENT; i++) {
+        frequencies[shingleHash(sample, i)] = 0;
+      }
+    }
+
+    // deflate encodes short distances cheaper, so the most valuable segments go last
+    byte[] dictionary = new byte[size];
+    int position = size;
+    for (Segment segment : selected) {
+      position -= SEGMENT;
+      System.arraycopy(samples.get(segment.sample), segment.offset, dictionary, position, SEGMENT);
+    }
+    return dictionary;
+  }
+
+  private static int score(@Nonnull byte[] sample, int offset, @Nonnull int[] frequencies) {
+    int score = 0;
+    for (int i = offset; i + SHINGLE <= offset + SEGMENT; i++) {
+      int frequency = frequencies[shingleHash(sample, i)];
+      // shingles seen once are unique to this sample and useless for others
+      if (frequency > 1) score += frequency;
+    }
+    return score;
+  }
+
+  private static int shingleHash(@Nonnull byte[] bytes, int offset) {
+    long value = 0;
+    for (int i = 0; i < SHINGLE; i++) {
+      value = value << 8 | (bytes[offset + i] & 0xFF);
+    }
+    return (int)(value * 0x9E3779B97F4A7C15L >>> (64 - TABLE_BITS));
+  }
+
+  private static int computeId(@Nonnull byte[] dictionary) {
+    CRC32 crc = new CRC32();
+    crc.update(dictionary, 0, dictionary.length);
+    int id = (int)crc.getValue();
+    return id == 0 ? 1 : id; // 0 means no dictionary
+  }
+
+  private void load() {
+    if (!myFile.exists()) return;
+    try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(myFile)))) {
+      int id = input.readInt();
+      byte[] dictionary = new byte[input.readInt()];
+      input.readFully(dictionary);
+      if (computeId(dictionary) != id) throw new IOException("Checksum mismatch");
+      myId = id;
+      myDictionary = dictionary;
+    }
+    catch (IOException e) {
+      // records referring to the dictionary will fail to decode and cause VFS rebuild
+      LOG.warn("Cannot load content dictionary from " + myFile, e);
+    }
+  }
+
+  private void save(@Nonnull byte[] dictionary, int id) throws IOException {
+    File temp = new File(myFile.getPath() + ".tmp");
+    try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+      output.writeInt(id);
+      output.writeInt(dictionary.length);
+      output.write(dictionary);
+    }
+    Files.move(temp.toPath(), myFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static final class Segment implements Comparable<Segment> {
+    final int sample;
+    final int offset;
+    int score;
+
+    Segment(int sample, int offset, int score) {
+      this.sample = sample;
+      this.offset = offset;
+      this.score = score;
+    }
+
+    @Override
+    public int compareTo(@Nonnull Segment o) {
+      return Integer.compare(o.score, score);
+    }
+  }
+}
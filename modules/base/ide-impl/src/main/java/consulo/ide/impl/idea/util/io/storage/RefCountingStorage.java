@@ -25,10 +25,12 @@ import consulo.ide.impl.idea.util.containers.ContainerUtil;
 import consulo.index.io.PagePool;
 import consulo.ide.impl.idea.util.io.UnsyncByteArrayInputStream;
 import consulo.language.util.IncorrectOperationException;
+import consulo.logging.Logger;
 import consulo.util.io.BufferExposingByteArrayOutputStream;
 import consulo.util.io.ByteArraySequence;
 
 import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.File;
@@ -40,6 +42,8 @@ import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 
 public class RefCountingStorage extends AbstractStorage {
+  private static final Logger LOG = Logger.getInstance(RefCountingStorage.class);
+
   private final Map<Integer, Future<?>> myPendingWriteRequests = ContainerUtil.newConcurrentMap();
   private int myPendingWriteRequestsSize;
   private final ExecutorService myPendingWriteRequestsExecutor = createExecutor();
@@ -51,6 +55,8 @@ public class RefCountingStorage extends AbstractStorage {
   }
 
   private final boolean myDoNotZipCaches;
+  @Nullable
+  private final BlockContentCodec myCodec;
   private static final int MAX_PENDING_WRITE_SIZE = 20 * 1024 * 1024;
 
   public RefCountingStorage(String path) throws IOException {
@@ -62,24 +68,32 @@ public class RefCountingStorage extends AbstractStorage {
   }
 
   public RefCountingStorage(String path, CapacityAllocationPolicy capacityAllocationPolicy, boolean doNotZipCaches) throws IOException {
+    this(path, capacityAllocationPolicy, doNotZipCaches, null);
+  }
+
+  /**
+   * @param codec block codec to read records in the block format and, if it's enabled, to write new ones; records are deflated otherwise
+   */
+  public RefCountingStorage(String path, CapacityAllocationPolicy capacityAllocationPolicy, boolean doNotZipCaches, @Nullable BlockContentCodec codec) throws IOException {
     super(path, capacityAllocationPolicy);
     myDoNotZipCaches = doNotZipCaches;
+    myCodec = codec;
   }
 
   @Override
   public DataInputStream readStream(int record) throws IOException {
     if (myDoNotZipCaches) return super.readStream(record);
-    BufferExposingByteArrayOutputStream stream = internalReadStream(record);
-    return new DataInputStream(new UnsyncByteArrayInputStream(stream.getInternalBuffer(), 0, stream.size()));
+    ByteArraySequence bytes = internalReadStream(record);
+    return new DataInputStream(new UnsyncByteArrayInputStream(bytes.getBytes(), bytes.getOffset(), bytes.getLength()));
   }
 
   @Override
   protected byte[] readBytes(int record) throws IOException {
     if (myDoNotZipCaches) return super.readBytes(record);
-    return internalReadStream(record).toByteArray();
+    return internalReadStream(record).toBytes();
   }
 
-  private BufferExposingByteArrayOutputStream internalReadStream(int record) throws IOException {
+  private ByteArraySequence internalReadStream(int record) throws IOException {
     waitForPendingWriteForRecord(record);
     byte[] result;
 
@@ -87,11 +101,15 @@ public class RefCountingStorage extends AbstractStorage {
       result = super.readBytes(record);
     }
 
+    if (myCodec != null && BlockContentCodec.isEncoded(result)) {
+      return new ByteArraySequence(myCodec.decode(result));
+    }
+
     InflaterInputStream in = new CustomInflaterInputStream(result);
     try {
       final BufferExposingByteArrayOutputStream outputStream = new BufferExposingByteArrayOutputStream();
       StreamUtil.copyStreamContent(in, outputStream);
-      return outputStream;
+      return outputStream.toByteArraySequence();
     }
     finally {
       in.close();
@@ -164,6 +182,16 @@ public class RefCountingStorage extends AbstractStorage {
   }
 
   private void zipAndWrite(ByteArraySequence bytes, int record, boolean fixedSize) throws IOException {
+    if (myCodec != null && myCodec.isEnabled()) {
+      ByteArraySequence encoded = myCodec.encode(bytes);
+      synchronized (myLock) {
+        super.writeBytes(record, encoded, fixedSize);
+        myPendingWriteRequestsSize -= bytes.getLength();
+        myPendingWriteRequests.remove(record);
+      }
+      return;
+    }
+
     BufferExposingByteArrayOutputStream s = new BufferExposingByteArrayOutputStream();
     DeflaterOutputStream out = new DeflaterOutputStream(s);
     try {
@@ -251,6 +279,9 @@ public class RefCountingStorage extends AbstractStorage {
   public void dispose() {
     flushPendingWrites();
     super.dispose();
+    if (myCodec != null && myCodec.isEnabled()) {
+      LOG.info("Content codec statistics: " + myCodec.getStatistics());
+    }
   }
 
   @Override
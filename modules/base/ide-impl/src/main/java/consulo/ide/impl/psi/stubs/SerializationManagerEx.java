@@ -24,6 +24,7 @@ import jakarta.annotation.Nonnull;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Author: dmitrylomov
@@ -39,6 +40,12 @@ public abstract class SerializationManagerEx extends SerializationManager {
   @Nonnull
   public abstract Stub deserialize(@Nonnull InputStream stream) throws SerializerNotFoundException;
 
+  /**
+   * Same as {@link #deserialize(InputStream)}, but stubs are decoded lazily straight from the buffer, which must not be modified afterwards.
+   */
+  @Nonnull
+  public abstract Stub deserialize(@Nonnull ByteBuffer buffer) throws SerializerNotFoundException;
+
   //@ApiStatus.Experimental
   public abstract void reSerialize(@Nonnull InputStream inStub, @Nonnull OutputStream outStub, @Nonnull SerializationManager newSerializationManager) throws IOException;
 
@@ -14,6 +14,7 @@ import jakarta.inject.Singleton;
 
 import jakarta.annotation.Nonnull;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /*
@@ -168,6 +169,21 @@ public final class SerializationManagerImpl extends SerializationManagerEx imple
     }
   }
 
+  @Nonnull
+  @Override
+  public Stub deserialize(@Nonnull ByteBuffer buffer) throws SerializerNotFoundException {
+    initSerializers();
+
+    try {
+      return myStubSerializationHelper.deserialize(buffer);
+    }
+    catch (IOException e) {
+      nameStorageCrashed();
+      LOG.info(e);
+      throw new RuntimeException(e);
+    }
+  }
+
   @Override
   public void reSerialize(@Nonnull InputStream inStub, @Nonnull OutputStream outStub, @Nonnull SerializationManager newSerializationManager) throws IOException {
     initSerializers();
@@ -25,7 +25,6 @@ import consulo.util.io.BufferExposingByteArrayOutputStream;
 import consulo.language.impl.DebugUtil;
 import consulo.ide.impl.idea.util.ArrayUtil;
 import consulo.util.io.DigestUtil;
-import consulo.ide.impl.idea.util.io.UnsyncByteArrayInputStream;
 import consulo.logging.Logger;
 import org.jetbrains.annotations.TestOnly;
 
@@ -35,6 +34,7 @@ import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.util.Arrays;
 import java.util.Map;
@@ -167,7 +167,8 @@ public class SerializedStubTree {
 
   @Nonnull
   Stub retrieveStubFromBytes(@Nonnull SerializationManagerEx serializationManager) throws SerializerNotFoundException {
-    return serializationManager.deserialize(new UnsyncByteArrayInputStream(myTreeBytes, 0, myTreeByteLength));
+    // the tree bytes are never modified, stubs read their data from them without copying
+    return serializationManager.deserialize(ByteBuffer.wrap(myTreeBytes, 0, myTreeByteLength));
   }
 
   @Override
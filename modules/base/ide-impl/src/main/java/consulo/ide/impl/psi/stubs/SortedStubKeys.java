@@ -0,0 +1,156 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.ide.impl.psi.stubs;
+
+import consulo.application.progress.ProgressManager;
+import consulo.language.psi.stub.IdFilter;
+import consulo.util.lang.SystemProperties;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Sorted snapshot of the keys of a string keyed stub index in the files of a project, so {@link StubIndexImpl#processKeysWithPrefix}
+ * finds the first key with the prefix by a binary search and stops after the last one instead of scanning every key of the index.
+ * <p>
+ * The snapshot is kept up to date by {@link StubIndexImpl#updateIndex}: added keys go to a sorted overlay, which is merged into the
+ * snapshot once it grows big. Removed keys are only counted, as other files may still have them, so a snapshot may report keys which
+ * are gone until it's rebuilt because too many keys were removed.
+ */
+final class SortedStubKeys {
+  static final boolean ENABLED = SystemProperties.getBooleanProperty("idea.stub.index.sorted.keys", true);
+  // sorting smaller key sets in the calling thread is cheaper than forking
+  private static final int PARALLEL_SORT_THRESHOLD = 1 << 16;
+  // smaller overlays are cheaper to search along with the sorted keys than to merge
+  private static final int MIN_MERGED_OVERLAY = 1024;
+
+  // sorted keys and the overlay of keys added after them, replaced together when the overlay is merged
+  private static final class Keys {
+    final String[] mySorted;
+    final NavigableSet<String> myAdded = new ConcurrentSkipListSet<>();
+
+    Keys(@Nonnull String[] sorted) {
+      mySorted = sorted;
+    }
+  }
+
+  private final long myVersion;
+  @Nullable
+  private final IdFilter myIdFilter;
+  private final AtomicInteger myRemovedKeys = new AtomicInteger();
+  private volatile Keys myKeys = new Keys(new String[0]);
+  private volatile boolean myInitialized;
+
+  /**
+   * Creates an empty snapshot. It should be notified of changes with {@link #keysAdded} and {@link #keysRemoved} before the keys of the
+   * index are collected for {@link #init}, so no change made meanwhile is lost.
+   *
+   * @param version  version of the index keys, it changes on any change the snapshot isn't notified of
+   * @param idFilter files which keys are kept, null for all files
+   */
+  SortedStubKeys(long version, @Nullable IdFilter idFilter) {
+    myVersion = version;
+    myIdFilter = idFilter;
+  }
+
+  synchronized void init(@Nonnull Collection<String> keys) {
+    Keys sorted = new Keys(sortAndDeduplicate(keys.toArray(new String[0])));
+    // keys added while the index keys were collected
+    sorted.myAdded.addAll(myKeys.myAdded);
+    myKeys = sorted;
+    myInitialized = true;
+  }
+
+  boolean isUpToDate(long version, @Nullable IdFilter idFilter) {
+    return myInitialized &&
+           myVersion == version &&
+           myIdFilter == idFilter &&
+           myRemovedKeys.get() <= Math.max(MIN_MERGED_OVERLAY, myKeys.mySorted.length / 4);
+  }
+
+  synchronized void keysAdded(int fileId, @Nonnull Collection<String> keys) {
+    if (myIdFilter == null || myIdFilter.containsFileId(fileId)) {
+      myKeys.myAdded.addAll(keys);
+    }
+  }
+
+  void keysRemoved(int count) {
+    myRemovedKeys.addAndGet(count);
+  }
+
+  boolean processKeysWithPrefix(@Nonnull String prefix, @Nonnull Predicate<? super String> processor) {
+    Keys keys = myKeys;
+    if (keys.myAdded.size() > Math.max(MIN_MERGED_OVERLAY, keys.mySorted.length / 16)) {
+      keys = mergeAddedKeys();
+    }
+
+    String[] sorted = keys.mySorted;
+    int index = Arrays.binarySearch(sorted, prefix);
+    if (index < 0) index = -index - 1;
+    for (; index < sorted.length && sorted[index].startsWith(prefix); index++) {
+      if ((index & 0xFF) == 0) ProgressManager.checkCanceled();
+      if (!processor.test(sorted[index])) return false;
+    }
+
+    for (String key : keys.myAdded.tailSet(prefix)) {
+      if (!key.startsWith(prefix)) break;
+      if (Arrays.binarySearch(sorted, key) < 0 && !processor.test(key)) return false;
+    }
+    return true;
+  }
+
+  @Nonnull
+  private synchronized Keys mergeAddedKeys() {
+    Keys keys = myKeys;
+    String[] sorted = keys.mySorted;
+    String[] added = keys.myAdded.toArray(new String[0]);
+    String[] merged = new String[sorted.length + added.length];
+    int count = 0;
+    for (int i = 0, j = 0; i < sorted.length || j < added.length; ) {
+      String key = j == added.length || i < sorted.length && sorted[i].compareTo(added[j]) <= 0 ? sorted[i++] : added[j++];
+      if (count == 0 || !merged[count - 1].equals(key)) {
+        merged[count++] = key;
+      }
+    }
+    myKeys = keys = new Keys(count == merged.length ? merged : Arrays.copyOf(merged, count));
+    return keys;
+  }
+
+  @Nonnull
+  private static String[] sortAndDeduplicate(@Nonnull String[] array) {
+    if (array.length >= PARALLEL_SORT_THRESHOLD) {
+      Arrays.parallelSort(array);
+    }
+    else {
+      Arrays.sort(array);
+    }
+
+    // the index may report a key more than once, e.g. from the base and the provided storages
+    int count = 0;
+    for (String key : array) {
+      if (count == 0 || !array[count - 1].equals(key)) {
+        array[count++] = key;
+      }
+    }
+    return count == array.length ? array : Arrays.copyOf(array, count);
+  }
+}
@@ -54,7 +54,9 @@ import jakarta.annotation.Nonnull;
 import jakarta.annotation.Nullable;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.function.Predicate;
@@ -79,6 +81,11 @@ public final class StubIndexImpl extends StubIndex implements PersistentStateCom
     return LazyValue.notNullWithModCount(() -> ContainerUtil.newConcurrentMap(), tracker::getModificationCount);
   }, ContainerUtil::newConcurrentMap);
 
+  // sorted keys of string keyed indices per project for prefix queries, see processKeysWithPrefix()
+  private final Map<StubIndexKey<?, ?>, ConcurrentMap<Project, SortedStubKeys>> mySortedKeys = ContainerUtil.newConcurrentMap();
+  // changes on index changes which sorted keys aren't notified of
+  private final AtomicLong mySortedKeysVersion = new AtomicLong();
+
   private final StubProcessingHelper myStubProcessingHelper;
   private final IndexAccessValidator myAccessValidator = new IndexAccessValidator();
   private volatile Future<AsyncState> myStateFuture;
@@ -494,6 +501,54 @@ public final class StubIndexImpl extends StubIndex implements PersistentStateCom
     return true;
   }
 
+  @Override
+  public boolean processKeysWithPrefix(@Nonnull StubIndexKey<String, ?> indexKey,
+                                       @Nonnull String prefix,
+                                       @Nonnull Predicate<? super String> processor,
+                                       @Nonnull ProjectAwareSearchScope scope,
+                                       @Nullable IdFilter idFilter) {
+    Project project = scope.getProject();
+    // a filter without a scope of its own filters keys by the scope of the query, which can't be kept sorted
+    if (!SortedStubKeys.ENABLED || project == null || idFilter != null && idFilter.getEffectiveFilteringScope() == null) {
+      return super.processKeysWithPrefix(indexKey, prefix, processor, scope, idFilter);
+    }
+    final UpdatableIndex<String, Void, FileContent> index = getIndex(indexKey); // wait for initialization to finish
+    if (index == null) return true;
+    FileBasedIndex.getInstance().ensureUpToDate(StubUpdatingIndex.INDEX_ID, project, scope);
+
+    return getSortedKeys(indexKey, project, scope, idFilter).processKeysWithPrefix(prefix, processor);
+  }
+
+  @Nonnull
+  private SortedStubKeys getSortedKeys(@Nonnull StubIndexKey<String, ?> indexKey,
+                                       @Nonnull Project project,
+                                       @Nonnull ProjectAwareSearchScope scope,
+                                       @Nullable IdFilter idFilter) {
+    long version = mySortedKeysVersion.get();
+    ConcurrentMap<Project, SortedStubKeys> projectKeys = mySortedKeys.computeIfAbsent(indexKey, k -> ContainerUtil.createConcurrentWeakKeySoftValueMap());
+    SortedStubKeys keys = projectKeys.get(project);
+    if (keys != null && keys.isUpToDate(version, idFilter)) return keys;
+
+    // registered before collecting keys, so keys added meanwhile get to it too
+    keys = new SortedStubKeys(version, idFilter);
+    projectKeys.put(project, keys);
+    List<String> allKeys = new ArrayList<>();
+    processAllKeys(indexKey, Processors.cancelableCollectProcessor(allKeys), scope, idFilter);
+    keys.init(allKeys);
+    return keys;
+  }
+
+  // called under the write lock of the index, before the changed keys can be collected by getSortedKeys()
+  @SuppressWarnings("unchecked")
+  private <K> void sortedKeysChanged(@Nonnull StubIndexKey<K, ?> indexKey, int fileId, @Nonnull Collection<K> addedKeys, int removedKeyCount) {
+    ConcurrentMap<Project, SortedStubKeys> projectKeys = mySortedKeys.get(indexKey);
+    if (projectKeys == null) return;
+    for (SortedStubKeys keys : projectKeys.values()) {
+      if (!addedKeys.isEmpty()) keys.keysAdded(fileId, (Collection<String>)addedKeys);
+      if (removedKeyCount > 0) keys.keysRemoved(removedKeyCount);
+    }
+  }
+
   @Nonnull
   @Override
   public <Key> IdIterator getContainingIds(@Nonnull StubIndexKey<Key, ?> indexKey, @Nonnull Key dataKey, @Nonnull final Project project, @Nullable final ProjectAwareSearchScope scope) {
@@ -597,6 +652,8 @@ public final class StubIndexImpl extends StubIndex implements PersistentStateCom
   }
 
   public void dispose() {
+    mySortedKeysVersion.incrementAndGet();
+    mySortedKeys.clear();
     for (UpdatableIndex<?, ?, ?> index : getAsyncState().myIndices.values()) {
       index.dispose();
     }
@@ -613,6 +670,7 @@ public final class StubIndexImpl extends StubIndex implements PersistentStateCom
     stubUpdatingIndex.getWriteLock().lock();
 
     try {
+      mySortedKeysVersion.incrementAndGet();
       for (UpdatableIndex<?, ?, ?> index : getAsyncState().myIndices.values()) {
         index.cleanupMemoryStorage();
       }
@@ -624,6 +682,7 @@ public final class StubIndexImpl extends StubIndex implements PersistentStateCom
 
   void clearAllIndices() {
     if (!myInitialized) return;
+    mySortedKeysVersion.incrementAndGet();
     for (UpdatableIndex<?, ?, ?> index : getAsyncState().myIndices.values()) {
       try {
         index.clear();
@@ -638,6 +697,7 @@ public final class StubIndexImpl extends StubIndex implements PersistentStateCom
   <K> void removeTransientDataForFile(@Nonnull StubIndexKey<K, ?> key, int inputId, @Nonnull Collection<? extends K> keys) {
     UpdatableIndex<K, Void, FileContent> index = getIndex(key);
     index.removeTransientDataForKeys(inputId, keys);
+    sortedKeysChanged(key, inputId, Collections.emptyList(), keys.size());
   }
 
   private boolean dropUnregisteredIndices(@Nonnull AsyncState state) {
@@ -682,10 +742,13 @@ public final class StubIndexImpl extends StubIndex implements PersistentStateCom
                                       @Nonnull KeyValueUpdateProcessor<? super K, ? super Void> updateProcessor,
                                       @Nonnull RemovedKeyProcessor<? super K> removeProcessor) throws StorageException {
           boolean modified = false;
+          int removedKeyCount = 0;
+          List<K> addedKeys = new ArrayList<>();
 
           for (K oldKey : oldInputData.keySet()) {
             if (!newInputData.containsKey(oldKey)) {
               removeProcessor.process(oldKey, fileId);
+              removedKeyCount++;
               if (!modified) modified = true;
             }
           }
@@ -693,10 +756,12 @@ public final class StubIndexImpl extends StubIndex implements PersistentStateCom
           for (K oldKey : newInputData.keySet()) {
             if (!oldInputData.containsKey(oldKey)) {
               addProcessor.process(oldKey, null, fileId);
+              addedKeys.add(oldKey);
               if (!modified) modified = true;
             }
           }
 
+          sortedKeysChanged(key, fileId, addedKeys, removedKeyCount);
           return modified;
         }
 
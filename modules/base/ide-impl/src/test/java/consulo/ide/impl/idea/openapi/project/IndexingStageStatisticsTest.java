@@ -0,0 +1,77 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.ide.impl.idea.openapi.project;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class IndexingStageStatisticsTest {
+  @Test
+  public void testLoaderThreadCount() {
+    assertEquals(1, IndexingStageStatistics.loaderThreadCount(1));
+    assertEquals(1, IndexingStageStatistics.loaderThreadCount(2));
+    assertEquals(1, IndexingStageStatistics.loaderThreadCount(3));
+    // typical machines already get dedicated loaders
+    assertEquals(2, IndexingStageStatistics.loaderThreadCount(4));
+    assertEquals(2, IndexingStageStatistics.loaderThreadCount(8));
+    assertEquals(3, IndexingStageStatistics.loaderThreadCount(12));
+    assertEquals(4, IndexingStageStatistics.loaderThreadCount(16));
+    assertEquals(4, IndexingStageStatistics.loaderThreadCount(64));
+  }
+
+  @Test
+  public void testNoProgressKeepsThreadCount() {
+    IndexingStageStatistics statistics = new IndexingStageStatistics();
+    assertEquals(6, statistics.adjustThreadCount(6, 8));
+  }
+
+  @Test
+  public void testWaitingForContentHalvesThreadCount() {
+    IndexingStageStatistics statistics = new IndexingStageStatistics();
+    statistics.myContentWaitNanos.add(1000);
+    statistics.myIndexingNanos.add(100);
+    assertEquals(4, statistics.adjustThreadCount(8, 8));
+
+    statistics.myContentWaitNanos.add(1000);
+    assertEquals(2, statistics.adjustThreadCount(4, 8));
+
+    statistics.myContentWaitNanos.add(1000);
+    assertEquals(1, statistics.adjustThreadCount(1, 8));
+  }
+
+  @Test
+  public void testBusyWorkersGrowThreadCountBackToMax() {
+    IndexingStageStatistics statistics = new IndexingStageStatistics();
+    statistics.myContentWaitNanos.add(10);
+    statistics.myIndexingNanos.add(1000);
+    assertEquals(4, statistics.adjustThreadCount(2, 8));
+
+    statistics.myIndexingNanos.add(1000);
+    assertEquals(8, statistics.adjustThreadCount(4, 8));
+
+    statistics.myIndexingNanos.add(1000);
+    assertEquals(8, statistics.adjustThreadCount(8, 8));
+  }
+
+  @Test
+  public void testBalancedStagesKeepThreadCount() {
+    IndexingStageStatistics statistics = new IndexingStageStatistics();
+    statistics.myContentWaitNanos.add(500);
+    statistics.myIndexingNanos.add(1000);
+    assertEquals(5, statistics.adjustThreadCount(5, 8));
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.ide.impl.idea.openapi.vfs.newvfs.impl;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+public class ChildrenIdsTest {
+  // ids are compared by value here, the directory compares them by child name
+  private static int search(ChildrenIds ids, int id) {
+    return ids.binarySearch(candidate -> Integer.compare(candidate, id));
+  }
+
+  private static ChildrenIds insertSorted(ChildrenIds ids, int id) {
+    int index = search(ids, id);
+    assertTrue(index < 0);
+    return ids.insert(-index - 1, id);
+  }
+
+  private static void assertContent(List<Integer> expected, ChildrenIds actual) {
+    assertEquals(expected.size(), actual.size());
+    int[] array = actual.toArray();
+    List<Integer> iterated = new ArrayList<>();
+    actual.forEach(iterated::add);
+    assertEquals(expected, iterated);
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals((int)expected.get(i), array[i]);
+      assertEquals((int)expected.get(i), actual.get(i));
+      assertEquals(i, search(actual, expected.get(i)));
+      assertEquals(i, actual.indexOf(expected.get(i)));
+    }
+  }
+
+  @Test
+  public void testInsertAndRemoveAcrossThreshold() {
+    Random random = new Random(1);
+    List<Integer> expected = new ArrayList<>();
+    ChildrenIds ids = ChildrenIds.EMPTY;
+    int count = ChildrenIds.CHUNKED_THRESHOLD * 3;
+    for (int i = 0; i < count; i++) {
+      int id;
+      do {
+        id = random.nextInt(1_000_000) + 1;
+      }
+      while (Collections.binarySearch(expected, id) >= 0);
+      expected.add(-Collections.binarySearch(expected, id) - 1, id);
+      ids = insertSorted(ids, id);
+      if (i == ChildrenIds.CHUNKED_THRESHOLD || i == count - 1) {
+        assertContent(expected, ids);
+      }
+    }
+
+    // down below half of the threshold, where the set turns flat again, and to empty
+    while (!expected.isEmpty()) {
+      int index = random.nextInt(expected.size());
+      int id = expected.remove(index);
+      ChildrenIds before = ids;
+      ids = ids.remove(search(ids, id));
+      assertEquals(-index - 1, search(ids, id));
+      // previous instances are never modified
+      assertEquals(expected.size() + 1, before.size());
+      if (expected.size() == ChildrenIds.CHUNKED_THRESHOLD || expected.size() == ChildrenIds.CHUNKED_THRESHOLD / 2 - 1) {
+        assertContent(expected, ids);
+      }
+    }
+    assertEquals(0, ids.size());
+  }
+
+  @Test
+  public void testSearchMissingIds() {
+    int[] sorted = new int[ChildrenIds.CHUNKED_THRESHOLD * 2];
+    for (int i = 0; i < sorted.length; i++) sorted[i] = (i + 1) * 2;
+    ChildrenIds ids = ChildrenIds.of(sorted);
+    assertEquals(-1, search(ids, 1));
+    assertEquals(-2, search(ids, 3));
+    assertEquals(-(sorted.length + 1), search(ids, sorted[sorted.length - 1] + 1));
+    for (int i = 0; i < sorted.length; i++) {
+      assertEquals(-(i + 1), search(ids, sorted[i] - 1));
+    }
+  }
+
+  @Test
+  public void testMerge() {
+    Random random = new Random(2);
+    for (int size : new int[]{0, 10, ChildrenIds.CHUNKED_THRESHOLD + 1, ChildrenIds.CHUNKED_THRESHOLD * 10}) {
+      List<Integer> expected = new ArrayList<>();
+      for (int i = 0; i < size; i++) expected.add(i * 10 + 10);
+      ChildrenIds ids = ChildrenIds.of(expected.stream().mapToInt(Integer::intValue).toArray());
+
+      // a few new ids plus the first and the last existing ones, which are replaced
+      List<Integer> added = new ArrayList<>();
+      for (int i = 0; i < 3000; i++) added.add(random.nextInt(size * 10 + 20) * 10 + 5);
+      if (size > 0) {
+        added.add(expected.get(0));
+        added.add(expected.get(size - 1));
+      }
+      added = new ArrayList<>(new TreeSet<>(added));
+      int[] positions = new int[added.size()];
+      int[] addedIds = new int[added.size()];
+      for (int i = 0; i < added.size(); i++) {
+        positions[i] = search(ids, added.get(i));
+        addedIds[i] = added.get(i);
+      }
+      for (int id : added) {
+        int index = Collections.binarySearch(expected, id);
+        if (index < 0) expected.add(-index - 1, id);
+      }
+
+      assertContent(expected, ids.merge(positions, addedIds));
+    }
+  }
+
+  @Test
+  public void testRemoveAll() {
+    for (int size : new int[]{10, ChildrenIds.CHUNKED_THRESHOLD + 1, ChildrenIds.CHUNKED_THRESHOLD * 10}) {
+      int[] sorted = new int[size];
+      for (int i = 0; i < size; i++) sorted[i] = i + 1;
+      ChildrenIds ids = ChildrenIds.of(sorted);
+
+      assertSame(ids, ids.removeAll(id -> false));
+
+      List<Integer> expected = new ArrayList<>();
+      for (int id : sorted) if (id % 3 != 0) expected.add(id);
+      assertContent(expected, ids.removeAll(id -> id % 3 == 0));
+
+      // most children removed, the result is small enough to be flat again
+      List<Integer> few = new ArrayList<>();
+      for (int id : sorted) if (id % 100 == 0) few.add(id);
+      assertContent(few, ids.removeAll(id -> id % 100 != 0));
+
+      assertEquals(0, ids.removeAll(id -> true).size());
+      assertEquals(size, ids.size());
+    }
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.ide.impl.idea.openapi.vfs.newvfs.impl;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Compares heap and direct memory taken by {@link VfsData} segments with on-heap and off-heap {@link SegmentInts}.
+ * It is a manual benchmark rather than a test: run it with the number of files as an argument (1M by default),
+ * e.g. with {@code -Xmx1g -XX:+UseSerialGC} for stable numbers.
+ */
+final class VfsDataHeapUsage {
+  private static final int SEGMENT_SIZE = VfsData.SEGMENT_SIZE;
+
+  public static void main(String[] args) {
+    int files = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+    int segments = (files + SEGMENT_SIZE - 1) / SEGMENT_SIZE;
+
+    System.out.println(files + " files in " + segments + " segments of " + SEGMENT_SIZE);
+    measure("on-heap ", segments, false);
+    measure("off-heap", segments, true);
+  }
+
+  private static void measure(String mode, int segments, boolean offHeap) {
+    long heapBefore = usedHeap();
+    long directBefore = usedDirect();
+
+    // the same data a segment holds: user data or DirectoryData references and <nameId, flags> pairs
+    List<Object> retained = new ArrayList<>(segments * 2);
+    for (int s = 0; s < segments; s++) {
+      AtomicReferenceArray<Object> objects = new AtomicReferenceArray<>(SEGMENT_SIZE);
+      SegmentInts ints = SegmentInts.create(SEGMENT_SIZE * 2, offHeap);
+      for (int i = 0; i < SEGMENT_SIZE; i++) {
+        ints.set(i * 2, s * SEGMENT_SIZE + i + 1);
+        ints.set(i * 2 + 1, VirtualFileSystemEntry.IS_WRITABLE_FLAG | i);
+      }
+      retained.add(objects);
+      retained.add(ints);
+    }
+
+    long heap = usedHeap() - heapBefore;
+    long direct = usedDirect() - directBefore;
+    System.out.printf("%s: heap %,d bytes (%.1f per file), direct %,d bytes (%.1f per file)%n", mode, heap,
+                      (double)heap / (segments * SEGMENT_SIZE), direct, (double)direct / (segments * SEGMENT_SIZE));
+    if (retained.size() != segments * 2) throw new AssertionError();
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private static long usedDirect() {
+    long used = 0;
+    for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+      if ("direct".equals(pool.getName())) used += pool.getMemoryUsed();
+    }
+    return used;
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.ide.impl.idea.openapi.vfs.newvfs.persistent;
+
+import consulo.index.io.PersistentHashMap;
+import consulo.virtualFileSystem.StubVirtualFile;
+import consulo.virtualFileSystem.VirtualFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class PathIdIndexTest {
+  @Rule
+  public TemporaryFolder myTempDir = new TemporaryFolder();
+
+  private static final class TestFile extends StubVirtualFile {
+    private final String myName;
+    private final VirtualFile myParent;
+
+    TestFile(String name, VirtualFile parent) {
+      myName = name;
+      myParent = parent;
+    }
+
+    @Override
+    public String getName() {
+      return myName;
+    }
+
+    @Override
+    public VirtualFile getParent() {
+      return myParent;
+    }
+
+    @Override
+    public String getPath() {
+      return myParent == null ? myName : myParent.getPath() + (myParent.getPath().endsWith("/") ? "" : "/") + myName;
+    }
+  }
+
+  @Test
+  public void testHasPath() {
+    VirtualFile file = new TestFile("A.java", new TestFile("src", new TestFile("project", new TestFile("/", null))));
+    assertTrue(PathIdIndex.hasPath(file, "/project/src/A.java", true));
+    assertTrue(PathIdIndex.hasPath(file.getParent(), "/project/src/", true));
+    assertFalse(PathIdIndex.hasPath(file, "/project/src/a.java", true));
+    assertTrue(PathIdIndex.hasPath(file, "/project/src/a.java", false));
+    assertFalse(PathIdIndex.hasPath(file, "/project/main/A.java", true));
+    assertFalse(PathIdIndex.hasPath(file, "/other/project/src/A.java", true));
+    assertFalse(PathIdIndex.hasPath(file, "project/src/A.java", true));
+    assertFalse(PathIdIndex.hasPath(file, "/project/srcA.java", true));
+
+    VirtualFile windowsFile = new TestFile("A.java", new TestFile("project", new TestFile("C:", null)));
+    assertTrue(PathIdIndex.hasPath(windowsFile, "C:/project/A.java", true));
+    assertTrue(PathIdIndex.hasPath(windowsFile, "c:/Project/A.java", false));
+    assertFalse(PathIdIndex.hasPath(windowsFile, "D:/project/A.java", true));
+  }
+
+  @Test
+  public void testRecordsOnlyDeepPathsUpToMaxSize() throws IOException {
+    File file = new File(myTempDir.getRoot(), "path_index");
+    PersistentHashMap<String, Integer> ids = PathIdIndex.open(file, 1, 3);
+    assertNotNull(ids);
+    PathIdIndex index = new PathIdIndex(ids, 3);
+
+    index.record("file:///a", PathIdIndex.MIN_DEPTH - 1, 1);
+    assertNull(index.getId("file:///a"));
+
+    for (int i = 0; i < 5; i++) {
+      index.record("file:///a/b/c/d/" + i, PathIdIndex.MIN_DEPTH, 10 + i);
+    }
+    assertEquals(3, ids.getSize());
+    assertEquals(Integer.valueOf(10), index.getId("file:///a/b/c/d/0"));
+    assertNull(index.getId("file:///a/b/c/d/3"));
+    ids.close();
+  }
+
+  @Test
+  public void testUpdatesChangedIdWhenFull() throws IOException {
+    File file = new File(myTempDir.getRoot(), "path_index");
+    PersistentHashMap<String, Integer> ids = PathIdIndex.open(file, 1, 2);
+    assertNotNull(ids);
+    PathIdIndex index = new PathIdIndex(ids, 2);
+
+    index.record("file:///a/b/c/d/0", PathIdIndex.MIN_DEPTH, 10);
+    index.record("file:///a/b/c/d/1", PathIdIndex.MIN_DEPTH, 11);
+    assertEquals(2, ids.getSize());
+
+    // the file was deleted and created again with another id
+    index.record("file:///a/b/c/d/0", PathIdIndex.MIN_DEPTH, 20);
+    assertEquals(Integer.valueOf(20), index.getId("file:///a/b/c/d/0"));
+    assertEquals(Integer.valueOf(11), index.getId("file:///a/b/c/d/1"));
+    assertEquals(2, ids.getSize());
+
+    index.record("file:///a/b/c/d/2", PathIdIndex.MIN_DEPTH, 12);
+    assertNull(index.getId("file:///a/b/c/d/2"));
+    ids.close();
+  }
+
+  @Test
+  public void testRecreatedForAnotherVfsOrWhenFull() throws IOException {
+    File file = new File(myTempDir.getRoot(), "path_index");
+    PersistentHashMap<String, Integer> ids = PathIdIndex.open(file, 1, 100);
+    new PathIdIndex(ids, 100).record("file:///a/b/c/d", PathIdIndex.MIN_DEPTH, 5);
+    ids.close();
+
+    ids = PathIdIndex.open(file, 1, 100);
+    assertEquals(Integer.valueOf(5), new PathIdIndex(ids, 100).getId("file:///a/b/c/d"));
+    ids.close();
+
+    ids = PathIdIndex.open(file, 1, 1);
+    assertEquals(0, ids.getSize());
+    new PathIdIndex(ids, 100).record("file:///a/b/c/d", PathIdIndex.MIN_DEPTH, 5);
+    ids.close();
+
+    ids = PathIdIndex.open(file, 2, 100);
+    assertNull(new PathIdIndex(ids, 100).getId("file:///a/b/c/d"));
+    ids.close();
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.ide.impl.idea.util.io.storage;
+
+import consulo.util.io.ByteArraySequence;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BlockContentCodecTest {
+  @Rule
+  public TemporaryFolder myTempDir = new TemporaryFolder();
+
+  @Test
+  public void testLz4RoundTrip() throws IOException {
+    BlockContentCodec codec = BlockContentCodec.create("lz4", storageFile(), Runnable::run);
+    assertTrue(codec.isEnabled());
+
+    byte[] text = sourceText(new Random(1), 200 * 1024);
+    byte[] encoded = encode(codec, text);
+    assertTrue(BlockContentCodec.isEncoded(encoded));
+    assertTrue(encoded.length < text.length / 2);
+    assertArrayEquals(text, codec.decode(encoded));
+
+    // incompressible blocks are stored as is
+    byte[] random = new byte[100 * 1024];
+    new Random(2).nextBytes(random);
+    assertArrayEquals(random, codec.decode(encode(codec, random)));
+
+    assertArrayEquals(new byte[0], codec.decode(encode(codec, new byte[0])));
+  }
+
+  @Test
+  public void testEncodesSlice() throws IOException {
+    BlockContentCodec codec = BlockContentCodec.create("lz4", storageFile(), Runnable::run);
+    byte[] text = sourceText(new Random(3), 10 * 1024);
+    byte[] encoded = codec.encode(new ByteArraySequence(text, 100, 5000)).toBytes();
+    assertArrayEquals(Arrays.copyOfRange(text, 100, 5100), codec.decode(encoded));
+  }
+
+  @Test
+  public void testRangeDecode() throws IOException {
+    BlockContentCodec codec = BlockContentCodec.create("lz4", storageFile(), Runnable::run);
+    byte[] text = sourceText(new Random(4), 300 * 1024);
+    byte[] encoded = encode(codec, text);
+
+    int block = 64 * 1024;
+    int[][] ranges = {{0, 10}, {block - 5, 10}, {block, block}, {10, 3 * block}, {text.length - 7, 7}, {text.length, 0}};
+    for (int[] range : ranges) {
+      assertArrayEquals(Arrays.copyOfRange(text, range[0], range[0] + range[1]), codec.decode(encoded, range[0], range[1]));
+    }
+    assertArrayEquals(Arrays.copyOfRange(text, 1000, text.length), codec.decode(encoded, 1000, -1));
+
+    try {
+      codec.decode(encoded, text.length - 1, 2);
+      fail();
+    }
+    catch (IOException ignored) {
+    }
+  }
+
+  @Test
+  public void testDamagedRecordsAreDetected() throws IOException {
+    BlockContentCodec codec = BlockContentCodec.create("lz4", storageFile(), Runnable::run);
+    byte[] encoded = encode(codec, sourceText(new Random(5), 150 * 1024));
+
+    // original length, block size, the block table and the data
+    for (int index : new int[]{2, 5, 9, 12, encoded.length / 2, encoded.length - 1}) {
+      byte[] damaged = encoded.clone();
+      damaged[index] ^= 0x10;
+      try {
+        codec.decode(damaged);
+        fail("damaged byte " + index + " is not detected");
+      }
+      catch (IOException ignored) {
+      }
+    }
+
+    try {
+      codec.decode(Arrays.copyOf(encoded, encoded.length - 1));
+      fail();
+    }
+    catch (IOException ignored) {
+    }
+  }
+
+  @Test
+  public void testDictionaryIsTrainedOffTheWritePath() throws IOException {
+    List<Runnable> tasks = new ArrayList<>();
+    File storage = storageFile();
+    BlockContentCodec codec = BlockContentCodec.create("dictionary", storage, tasks::add);
+
+    Random random = new Random(6);
+    byte[] probe = sourceText(random, 2000);
+    byte[] untrained = encode(codec, probe);
+
+    List<byte[]> records = new ArrayList<>();
+    List<byte[]> contents = new ArrayList<>();
+    for (int size = 0; size < 3 * 1024 * 1024; ) {
+      byte[] content = sourceText(random, 4000 + random.nextInt(8000));
+      contents.add(content);
+      records.add(encode(codec, content));
+      size += content.length;
+    }
+    assertEquals(1, tasks.size());
+    assertFalse(BlockContentCodec.getDictionaryFile(storage).exists());
+    assertTrue(codec.getStatistics().contains("not trained"));
+
+    tasks.get(0).run();
+    assertTrue(BlockContentCodec.getDictionaryFile(storage).exists());
+    byte[] trained = encode(codec, probe);
+    assertTrue(trained.length < untrained.length);
+    assertArrayEquals(probe, codec.decode(trained));
+    assertArrayEquals(probe, codec.decode(untrained));
+
+    // after restart the saved dictionary decodes both kinds of records
+    BlockContentCodec reopened = BlockContentCodec.create("dictionary", storage, tasks::add);
+    assertArrayEquals(probe, reopened.decode(trained));
+    for (int i = 0; i < records.size(); i++) {
+      assertArrayEquals(contents.get(i), reopened.decode(records.get(i)));
+    }
+    assertEquals(1, tasks.size());
+  }
+
+  @Test
+  public void testLegacyModeReadsEncodedRecords() throws IOException {
+    byte[] text = sourceText(new Random(7), 5000);
+    byte[] encoded = encode(BlockContentCodec.create("lz4", storageFile(), Runnable::run), text);
+
+    BlockContentCodec legacy = BlockContentCodec.create("deflate", storageFile(), Runnable::run);
+    assertFalse(legacy.isEnabled());
+    assertArrayEquals(text, legacy.decode(encoded));
+  }
+
+  private File storageFile() {
+    return new File(myTempDir.getRoot(), "content.dat");
+  }
+
+  private static byte[] encode(BlockContentCodec codec, byte[] content) throws IOException {
+    return codec.encode(new ByteArraySequence(content)).toBytes();
+  }
+
+  private static final String[] WORDS = {
+    "public", "private", "static", "final", "class", "return", "if", "else", "for", "int", "String", "import", "consulo",
+    "@Nonnull", "new", "null", "this", "void", "boolean", "throws", "IOException", "{", "}", "(", ")", ";", "=", "myValue", "getName"
+  };
+
+  static byte[] sourceText(Random random, int length) {
+    StringBuilder builder = new StringBuilder(length + 16);
+    while (builder.length() < length) {
+      builder.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(8) == 0 ? '\n' : ' ');
+    }
+    builder.setLength(length);
+    return builder.toString().getBytes(StandardCharsets.UTF_8);
+  }
+}
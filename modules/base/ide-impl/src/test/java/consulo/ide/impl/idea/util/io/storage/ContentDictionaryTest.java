@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.ide.impl.idea.util.io.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ContentDictionaryTest {
+  @Rule
+  public TemporaryFolder myTempDir = new TemporaryFolder();
+
+  @Test
+  public void testTrainPicksSharedSegments() {
+    byte[] shared = "import consulo.annotation.component.ExtensionImpl;\nimport jakarta.annotation.Nonnull;\n".getBytes(StandardCharsets.UTF_8);
+    Random random = new Random(1);
+    List<byte[]> samples = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      byte[] unique = new byte[500];
+      for (int j = 0; j < unique.length; j++) {
+        unique[j] = (byte)('a' + random.nextInt(26));
+      }
+      byte[] sample = new byte[shared.length + unique.length];
+      System.arraycopy(unique, 0, sample, 0, unique.length);
+      System.arraycopy(shared, 0, sample, unique.length, shared.length);
+      samples.add(sample);
+    }
+
+    byte[] dictionary = ContentDictionary.train(samples, 1024);
+    assertTrue(dictionary.length > 0 && dictionary.length <= 1024);
+    assertTrue(new String(dictionary, StandardCharsets.ISO_8859_1).contains("import jakarta.annotation"));
+  }
+
+  @Test
+  public void testTrainedDictionaryIsSavedAndLoaded() throws IOException {
+    File file = new File(myTempDir.getRoot(), "content.dat.dict");
+    List<Runnable> tasks = new ArrayList<>();
+    ContentDictionary dictionary = new ContentDictionary(file, true, tasks::add);
+
+    Random random = new Random(2);
+    // binary and too small samples are ignored
+    dictionary.offerSample(new byte[4096], 0, 4096);
+    dictionary.offerSample(new byte[]{'a', 'b'}, 0, 2);
+    for (int size = 0; size < 3 * 1024 * 1024 && tasks.isEmpty(); ) {
+      byte[] sample = BlockContentCodecTest.sourceText(random, 8000);
+      dictionary.offerSample(sample, 0, sample.length);
+      size += sample.length;
+    }
+    assertEquals(1, tasks.size());
+    assertNull(dictionary.getDictionary());
+
+    tasks.get(0).run();
+    byte[] trained = dictionary.getDictionary();
+    assertNotNull(trained);
+    assertArrayEquals(trained, dictionary.getDictionary(dictionary.getId()));
+
+    ContentDictionary loaded = new ContentDictionary(file, true, tasks::add);
+    assertEquals(dictionary.getId(), loaded.getId());
+    assertArrayEquals(trained, loaded.getDictionary(dictionary.getId()));
+    try {
+      loaded.getDictionary(dictionary.getId() + 1);
+      fail();
+    }
+    catch (IOException ignored) {
+    }
+
+    // a loaded dictionary is never retrained
+    byte[] sample = BlockContentCodecTest.sourceText(random, 8000);
+    for (int i = 0; i < 400; i++) {
+      loaded.offerSample(sample, 0, sample.length);
+    }
+    assertEquals(1, tasks.size());
+  }
+}
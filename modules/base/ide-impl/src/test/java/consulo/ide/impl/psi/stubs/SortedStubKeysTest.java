@@ -0,0 +1,112 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.ide.impl.psi.stubs;
+
+import consulo.language.psi.stub.IdFilter;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+public class SortedStubKeysTest {
+  private static final IdFilter EVEN_FILES = new IdFilter() {
+    @Override
+    public boolean containsFileId(int id) {
+      return id % 2 == 0;
+    }
+  };
+
+  @Test
+  public void testKeysWithPrefix() {
+    SortedStubKeys keys = new SortedStubKeys(0, null);
+    keys.init(Arrays.asList("getName", "get", "setName", "getName", "getValue", "ge", "hashCode"));
+
+    assertEquals(List.of("get", "getName", "getValue"), keysWithPrefix(keys, "get"));
+    assertEquals(List.of("ge", "get", "getName", "getValue"), keysWithPrefix(keys, "ge"));
+    assertEquals(List.of("ge", "get", "getName", "getValue", "hashCode", "setName"), keysWithPrefix(keys, ""));
+    assertEquals(List.of(), keysWithPrefix(keys, "x"));
+
+    // the processor stops the query
+    List<String> first = new ArrayList<>();
+    assertFalse(keys.processKeysWithPrefix("get", key -> first.add(key) && false));
+    assertEquals(List.of("get"), first);
+  }
+
+  @Test
+  public void testAddedKeysAreReported() {
+    Random random = new Random(1);
+    TreeSet<String> expected = new TreeSet<>();
+    List<String> initial = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      initial.add("name" + random.nextInt(20000));
+    }
+    expected.addAll(initial);
+
+    SortedStubKeys keys = new SortedStubKeys(0, null);
+    // keys added while the index keys are collected are kept
+    keys.keysAdded(1, List.of("collected", "name1"));
+    expected.addAll(List.of("collected", "name1"));
+    keys.init(initial);
+
+    // enough keys to merge the overlay a few times
+    for (int i = 0; i < 5000; i++) {
+      List<String> added = List.of("name" + random.nextInt(20000), "other" + random.nextInt(100));
+      keys.keysAdded(i, added);
+      expected.addAll(added);
+      if (i % 100 == 0) {
+        assertEquals(new ArrayList<>(expected.subSet("name1", "name2")), keysWithPrefix(keys, "name1"));
+      }
+    }
+    assertEquals(new ArrayList<>(expected), keysWithPrefix(keys, ""));
+  }
+
+  @Test
+  public void testIdFilterAppliesToAddedKeys() {
+    SortedStubKeys keys = new SortedStubKeys(0, EVEN_FILES);
+    keys.init(List.of("a"));
+    keys.keysAdded(1, List.of("b"));
+    keys.keysAdded(2, List.of("c"));
+    assertEquals(List.of("a", "c"), keysWithPrefix(keys, ""));
+  }
+
+  @Test
+  public void testUpToDate() {
+    SortedStubKeys keys = new SortedStubKeys(3, EVEN_FILES);
+    assertFalse("not collected yet", keys.isUpToDate(3, EVEN_FILES));
+
+    keys.init(List.of("a", "b"));
+    assertTrue(keys.isUpToDate(3, EVEN_FILES));
+    assertFalse(keys.isUpToDate(4, EVEN_FILES));
+    assertFalse(keys.isUpToDate(3, null));
+
+    keys.keysRemoved(1000);
+    assertTrue(keys.isUpToDate(3, EVEN_FILES));
+    keys.keysRemoved(1000);
+    assertFalse("too many stale keys", keys.isUpToDate(3, EVEN_FILES));
+  }
+
+  private static List<String> keysWithPrefix(SortedStubKeys keys, String prefix) {
+    List<String> result = new ArrayList<>();
+    assertTrue(keys.processKeysWithPrefix(prefix, result::add));
+    result.sort(null);
+    return result;
+  }
+}
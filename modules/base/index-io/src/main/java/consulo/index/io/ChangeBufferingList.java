@@ -15,6 +15,8 @@
  */
 package consulo.index.io;
 
+import consulo.util.lang.SystemProperties;
+
 import java.util.Arrays;
 
 /**
@@ -28,6 +30,8 @@ import java.util.Arrays;
  */
 public class ChangeBufferingList implements Cloneable {
   static final int MAX_FILES = 20000; // less than Short.MAX_VALUE
+  // large id sets are kept in off-heap compressed bitmaps instead of on-heap IdBitSets
+  static final boolean COMPRESSED_OFF_HEAP_ID_SETS = SystemProperties.getBooleanProperty("idea.index.offheap.id.sets", false);
   //static final int MAX_FILES = 100;
   private volatile int[] changes;
   private short length;
@@ -41,7 +45,7 @@ public class ChangeBufferingList implements Cloneable {
 
   public ChangeBufferingList(int length) {
     if (length > MAX_FILES) {
-      randomAccessContainer = new IdBitSet(length);
+      randomAccessContainer = COMPRESSED_OFF_HEAP_ID_SETS ? new CompressedIdSet(true) : new IdBitSet(length);
     }
     else {
       changes = new int[length];
@@ -136,6 +140,9 @@ public class ChangeBufferingList implements Cloneable {
             idSet = new SortedIdSet(Math.max(someElementsNumberEstimation, 3));
           }
         }
+        else if (COMPRESSED_OFF_HEAP_ID_SETS) {
+          idSet = new CompressedIdSet(true);
+        }
         else if (!hasRemovals) {
           idSet = new IdBitSet(changes, length, 0);
           copyChanges = false;
@@ -0,0 +1,562 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.index.io;
+
+import jakarta.annotation.Nonnull;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Compressed set of non-negative ids, organized like a roaring bitmap: ids are split into chunks by their high 16 bits and every
+ * chunk keeps its low 16 bits either as a sorted array (sparse chunks) or as a 64K bitmap (dense chunks).
+ * <p>
+ * All chunks of a set live in one {@link ByteBuffer} arena which is allocated off-heap when requested, so large file id sets of
+ * inverted indices don't add to heap pressure during bulk indexing. Chunk capacities are powers of two, chunks released when a chunk
+ * grows, changes its representation or is removed are reused for later chunks of the same capacity, so the arena is reallocated
+ * only when it runs out of space. Intersection and union work chunk by chunk without boxing or intermediate hash sets.
+ * <p>
+ * Not thread safe.
+ */
+public final class CompressedIdSet implements Cloneable, RandomAccessIntContainer {
+  private static final int ARRAY_CHUNK_MAX_SIZE = 4096;
+  // bitmap chunks are turned back into arrays only when they become much smaller, to avoid flipping on add / remove sequences
+  private static final int BITMAP_CHUNK_MIN_SIZE = ARRAY_CHUNK_MAX_SIZE / 2;
+  private static final int BITMAP_WORDS = 1 << 10;
+  private static final int BITMAP_BYTES = BITMAP_WORDS * 8;
+  private static final int MIN_CHUNK_BYTES = 8;
+  private static final int MIN_CHUNK_BYTES_LOG = Integer.numberOfTrailingZeros(MIN_CHUNK_BYTES);
+  private static final int SIZE_CLASSES = Integer.numberOfTrailingZeros(BITMAP_BYTES) - MIN_CHUNK_BYTES_LOG + 1;
+  private static final int INITIAL_ARENA_BYTES = 256;
+
+  private final boolean myOffHeap;
+  private ByteBuffer myArena;
+  private int myArenaUsed;
+  // offsets of released chunks by size class, see sizeClass()
+  private int[][] myFreeChunks = new int[SIZE_CLASSES][];
+  private int[] myFreeChunkCounts = new int[SIZE_CLASSES];
+
+  private int myChunkCount;
+  private int[] myKeys = new int[4];
+  private int[] myOffsets = new int[4];
+  private int[] myCapacities = new int[4];
+  private int[] myCardinalities = new int[4];
+  private boolean[] myBitmaps = new boolean[4];
+  private int mySize;
+
+  public CompressedIdSet(boolean offHeap) {
+    myOffHeap = offHeap;
+    myArena = allocateArena(INITIAL_ARENA_BYTES);
+  }
+
+  @Nonnull
+  public static CompressedIdSet copyOf(@Nonnull ValueContainer.IntIterator iterator, boolean offHeap) {
+    CompressedIdSet set = new CompressedIdSet(offHeap);
+    while (iterator.hasNext()) {
+      set.add(iterator.next());
+    }
+    return set;
+  }
+
+  @Override
+  public int size() {
+    return mySize;
+  }
+
+  public boolean isEmpty() {
+    return mySize == 0;
+  }
+
+  @Override
+  public boolean contains(int id) {
+    if (id < 0) return false;
+    int index = findChunk(id >>> 16);
+    return index >= 0 && chunkContains(index, (char)id);
+  }
+
+  @Override
+  public boolean add(int id) {
+    assert id >= 0 : id;
+    int key = id >>> 16;
+    int index = findChunk(key);
+    if (index < 0) {
+      index = -index - 1;
+      insertChunk(index, key, allocateChunk(MIN_CHUNK_BYTES), MIN_CHUNK_BYTES, false);
+    }
+    boolean added = myBitmaps[index] ? addToBitmap(index, (char)id) : addToArray(index, (char)id);
+    if (added) mySize++;
+    return added;
+  }
+
+  @Override
+  public boolean remove(int id) {
+    if (id < 0) return false;
+    int index = findChunk(id >>> 16);
+    if (index < 0) return false;
+    boolean removed = myBitmaps[index] ? removeFromBitmap(index, (char)id) : removeFromArray(index, (char)id);
+    if (!removed) return false;
+    mySize--;
+    if (myCardinalities[index] == 0) {
+      removeChunk(index);
+    }
+    else if (myBitmaps[index] && myCardinalities[index] < BITMAP_CHUNK_MIN_SIZE) {
+      bitmapToArray(index);
+    }
+    return true;
+  }
+
+  /**
+   * Keeps in this set only ids which are also contained in {@code other}.
+   */
+  public void retainAll(@Nonnull CompressedIdSet other) {
+    int result = 0;
+    int size = 0;
+    for (int i = 0, j = 0; i < myChunkCount; i++) {
+      while (j < other.myChunkCount && other.myKeys[j] < myKeys[i]) j++;
+      if (j == other.myChunkCount || other.myKeys[j] != myKeys[i]) {
+        releaseChunk(myOffsets[i], myCapacities[i]);
+        continue;
+      }
+
+      int cardinality;
+      if (myBitmaps[i] && other.myBitmaps[j]) {
+        cardinality = 0;
+        for (int w = 0; w < BITMAP_WORDS; w++) {
+          long word = myArena.getLong(myOffsets[i] + w * 8) & other.myArena.getLong(other.myOffsets[j] + w * 8);
+          myArena.putLong(myOffsets[i] + w * 8, word);
+          cardinality += Long.bitCount(word);
+        }
+      }
+      else {
+        int capacity = chunkBytes(Math.min(myCardinalities[i], other.myCardinalities[j]) * 2);
+        int offset = allocateChunk(capacity);
+        cardinality = 0;
+        // iterate the smaller chunk, probe the larger one
+        boolean iterateThis = myCardinalities[i] <= other.myCardinalities[j];
+        CompressedIdSet iterated = iterateThis ? this : other;
+        CompressedIdSet probed = iterateThis ? other : this;
+        int iteratedIndex = iterateThis ? i : j;
+        int probedIndex = iterateThis ? j : i;
+        for (int low = iterated.nextInChunk(iteratedIndex, 0); low >= 0; low = iterated.nextInChunk(iteratedIndex, low + 1)) {
+          if (probed.chunkContains(probedIndex, (char)low)) {
+            myArena.putChar(offset + cardinality++ * 2, (char)low);
+          }
+        }
+        releaseChunk(myOffsets[i], myCapacities[i]);
+        myOffsets[i] = offset;
+        myCapacities[i] = capacity;
+        myBitmaps[i] = false;
+      }
+      myCardinalities[i] = cardinality;
+      if (cardinality == 0) {
+        releaseChunk(myOffsets[i], myCapacities[i]);
+        continue;
+      }
+
+      moveChunk(i, result);
+      if (myBitmaps[result] && cardinality < BITMAP_CHUNK_MIN_SIZE) {
+        bitmapToArray(result);
+      }
+      size += cardinality;
+      result++;
+    }
+    myChunkCount = result;
+    mySize = size;
+  }
+
+  /**
+   * Adds all ids of {@code other} to this set.
+   */
+  public void addAll(@Nonnull CompressedIdSet other) {
+    for (int j = 0; j < other.myChunkCount; j++) {
+      int index = findChunk(other.myKeys[j]);
+      if (index < 0) {
+        // copy the whole chunk
+        int capacity = other.myBitmaps[j] ? BITMAP_BYTES : chunkBytes(other.myCardinalities[j] * 2);
+        int offset = allocateChunk(capacity);
+        copyBytes(other.myArena, other.myOffsets[j], myArena, offset, other.myBitmaps[j] ? BITMAP_BYTES : other.myCardinalities[j] * 2);
+        index = -index - 1;
+        insertChunk(index, other.myKeys[j], offset, capacity, other.myBitmaps[j]);
+        myCardinalities[index] = other.myCardinalities[j];
+        mySize += other.myCardinalities[j];
+        continue;
+      }
+      if (!myBitmaps[index] && myCardinalities[index] + other.myCardinalities[j] > ARRAY_CHUNK_MAX_SIZE) {
+        arrayToBitmap(index);
+      }
+      if (myBitmaps[index] && other.myBitmaps[j]) {
+        int cardinality = 0;
+        for (int w = 0; w < BITMAP_WORDS; w++) {
+          long word = myArena.getLong(myOffsets[index] + w * 8) | other.myArena.getLong(other.myOffsets[j] + w * 8);
+          myArena.putLong(myOffsets[index] + w * 8, word);
+          cardinality += Long.bitCount(word);
+        }
+        mySize += cardinality - myCardinalities[index];
+        myCardinalities[index] = cardinality;
+        continue;
+      }
+      int high = other.myKeys[j] << 16;
+      for (int low = other.nextInChunk(j, 0); low >= 0; low = other.nextInChunk(j, low + 1)) {
+        add(high | low);
+      }
+    }
+  }
+
+  @Override
+  public IntIdsIterator intIterator() {
+    return new Iterator();
+  }
+
+  @Override
+  public ValueContainer.IntPredicate intPredicate() {
+    return this::contains;
+  }
+
+  /**
+   * Moves all chunks into a new arena without released and unused space.
+   */
+  @Override
+  public void compact() {
+    int bytes = 0;
+    for (int i = 0; i < myChunkCount; i++) {
+      bytes += myBitmaps[i] ? BITMAP_BYTES : chunkBytes(myCardinalities[i] * 2);
+    }
+    if (bytes == myArenaUsed) return;
+
+    ByteBuffer arena = allocateArena(Math.max(bytes, MIN_CHUNK_BYTES));
+    int offset = 0;
+    for (int i = 0; i < myChunkCount; i++) {
+      int capacity = myBitmaps[i] ? BITMAP_BYTES : chunkBytes(myCardinalities[i] * 2);
+      copyBytes(myArena, myOffsets[i], arena, offset, myBitmaps[i] ? BITMAP_BYTES : myCardinalities[i] * 2);
+      myOffsets[i] = offset;
+      myCapacities[i] = capacity;
+      offset += capacity;
+    }
+    myArena = arena;
+    myArenaUsed = offset;
+    Arrays.fill(myFreeChunkCounts, 0);
+  }
+
+  @Override
+  public RandomAccessIntContainer ensureContainerCapacity(int diff) {
+    return this;
+  }
+
+  @Override
+  public CompressedIdSet clone() {
+    try {
+      CompressedIdSet clone = (CompressedIdSet)super.clone();
+      clone.myKeys = myKeys.clone();
+      clone.myOffsets = myOffsets.clone();
+      clone.myCapacities = myCapacities.clone();
+      clone.myCardinalities = myCardinalities.clone();
+      clone.myBitmaps = myBitmaps.clone();
+      clone.myFreeChunkCounts = myFreeChunkCounts.clone();
+      clone.myFreeChunks = new int[SIZE_CLASSES][];
+      for (int i = 0; i < SIZE_CLASSES; i++) {
+        if (myFreeChunks[i] != null) clone.myFreeChunks[i] = myFreeChunks[i].clone();
+      }
+      clone.myArena = allocateArena(myArena.capacity());
+      copyBytes(myArena, 0, clone.myArena, 0, myArenaUsed);
+      return clone;
+    }
+    catch (CloneNotSupportedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private ByteBuffer allocateArena(int bytes) {
+    return myOffHeap ? ByteBuffer.allocateDirect(bytes) : ByteBuffer.allocate(bytes);
+  }
+
+  /**
+   * @return the smallest chunk capacity which fits {@code bytes}
+   */
+  private static int chunkBytes(int bytes) {
+    return bytes <= MIN_CHUNK_BYTES ? MIN_CHUNK_BYTES : Integer.highestOneBit(bytes - 1) << 1;
+  }
+
+  private static int sizeClass(int capacity) {
+    return Integer.numberOfTrailingZeros(capacity) - MIN_CHUNK_BYTES_LOG;
+  }
+
+  /**
+   * @param capacity power of two, see {@link #chunkBytes}
+   * @return offset of a chunk of the given capacity in the arena, its content is undefined
+   */
+  private int allocateChunk(int capacity) {
+    int sizeClass = sizeClass(capacity);
+    if (myFreeChunkCounts[sizeClass] > 0) {
+      return myFreeChunks[sizeClass][--myFreeChunkCounts[sizeClass]];
+    }
+    if (myArenaUsed + capacity > myArena.capacity()) {
+      ByteBuffer arena = allocateArena(Math.max(myArenaUsed + capacity, myArena.capacity() * 2));
+      copyBytes(myArena, 0, arena, 0, myArenaUsed);
+      myArena = arena;
+    }
+    int offset = myArenaUsed;
+    myArenaUsed += capacity;
+    return offset;
+  }
+
+  private void releaseChunk(int offset, int capacity) {
+    int sizeClass = sizeClass(capacity);
+    int[] free = myFreeChunks[sizeClass];
+    if (free == null) {
+      free = myFreeChunks[sizeClass] = new int[4];
+    }
+    else if (myFreeChunkCounts[sizeClass] == free.length) {
+      free = myFreeChunks[sizeClass] = Arrays.copyOf(free, free.length * 2);
+    }
+    free[myFreeChunkCounts[sizeClass]++] = offset;
+  }
+
+  private static void copyBytes(ByteBuffer source, int sourceOffset, ByteBuffer target, int targetOffset, int bytes) {
+    ByteBuffer from = source.duplicate();
+    from.limit(sourceOffset + bytes).position(sourceOffset);
+    ByteBuffer to = target.duplicate();
+    to.position(targetOffset);
+    to.put(from);
+  }
+
+  private int findChunk(int key) {
+    return Arrays.binarySearch(myKeys, 0, myChunkCount, key);
+  }
+
+  private void insertChunk(int index, int key, int offset, int capacity, boolean bitmap) {
+    if (myChunkCount == myKeys.length) {
+      int newLength = myKeys.length * 2;
+      myKeys = Arrays.copyOf(myKeys, newLength);
+      myOffsets = Arrays.copyOf(myOffsets, newLength);
+      myCapacities = Arrays.copyOf(myCapacities, newLength);
+      myCardinalities = Arrays.copyOf(myCardinalities, newLength);
+      myBitmaps = Arrays.copyOf(myBitmaps, newLength);
+    }
+    int tail = myChunkCount - index;
+    System.arraycopy(myKeys, index, myKeys, index + 1, tail);
+    System.arraycopy(myOffsets, index, myOffsets, index + 1, tail);
+    System.arraycopy(myCapacities, index, myCapacities, index + 1, tail);
+    System.arraycopy(myCardinalities, index, myCardinalities, index + 1, tail);
+    System.arraycopy(myBitmaps, index, myBitmaps, index + 1, tail);
+    myKeys[index] = key;
+    myOffsets[index] = offset;
+    myCapacities[index] = capacity;
+    myCardinalities[index] = 0;
+    myBitmaps[index] = bitmap;
+    myChunkCount++;
+  }
+
+  private void moveChunk(int from, int to) {
+    if (from == to) return;
+    myKeys[to] = myKeys[from];
+    myOffsets[to] = myOffsets[from];
+    myCapacities[to] = myCapacities[from];
+    myCardinalities[to] = myCardinalities[from];
+    myBitmaps[to] = myBitmaps[from];
+  }
+
+  private void removeChunk(int index) {
+    releaseChunk(myOffsets[index], myCapacities[index]);
+    int tail = myChunkCount - index - 1;
+    System.arraycopy(myKeys, index + 1, myKeys, index, tail);
+    System.arraycopy(myOffsets, index + 1, myOffsets, index, tail);
+    System.arraycopy(myCapacities, index + 1, myCapacities, index, tail);
+    System.arraycopy(myCardinalities, index + 1, myCardinalities, index, tail);
+    System.arraycopy(myBitmaps, index + 1, myBitmaps, index, tail);
+    myChunkCount--;
+  }
+
+  private boolean chunkContains(int index, char low) {
+    int offset = myOffsets[index];
+    if (myBitmaps[index]) {
+      return (myArena.getLong(offset + (low >>> 6) * 8) & (1L << low)) != 0;
+    }
+    return searchArray(offset, myCardinalities[index], low) >= 0;
+  }
+
+  /**
+   * @return the smallest low 16 bits value present in the chunk which is not less than {@code from}, or -1
+   */
+  private int nextInChunk(int index, int from) {
+    if (from > Character.MAX_VALUE) return -1;
+    int offset = myOffsets[index];
+    if (myBitmaps[index]) {
+      int wordIndex = from >>> 6;
+      long word = myArena.getLong(offset + wordIndex * 8) & (-1L << from);
+      while (true) {
+        if (word != 0) return wordIndex * 64 + Long.numberOfTrailingZeros(word);
+        if (++wordIndex == BITMAP_WORDS) return -1;
+        word = myArena.getLong(offset + wordIndex * 8);
+      }
+    }
+    int position = searchArray(offset, myCardinalities[index], (char)from);
+    if (position < 0) position = -position - 1;
+    return position < myCardinalities[index] ? myArena.getChar(offset + position * 2) : -1;
+  }
+
+  private int searchArray(int offset, int cardinality, char value) {
+    int low = 0;
+    int high = cardinality - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      char midValue = myArena.getChar(offset + mid * 2);
+      if (midValue < value) low = mid + 1;
+      else if (midValue > value) high = mid - 1;
+      else return mid;
+    }
+    return -(low + 1);
+  }
+
+  private boolean addToArray(int index, char low) {
+    int cardinality = myCardinalities[index];
+    int position = searchArray(myOffsets[index], cardinality, low);
+    if (position >= 0) return false;
+    position = -position - 1;
+
+    if (cardinality >= ARRAY_CHUNK_MAX_SIZE) {
+      arrayToBitmap(index);
+      return addToBitmap(index, low);
+    }
+    if ((cardinality + 1) * 2 > myCapacities[index]) {
+      int capacity = myCapacities[index] * 2;
+      int offset = allocateChunk(capacity);
+      copyBytes(myArena, myOffsets[index], myArena, offset, cardinality * 2);
+      releaseChunk(myOffsets[index], myCapacities[index]);
+      myOffsets[index] = offset;
+      myCapacities[index] = capacity;
+    }
+    int offset = myOffsets[index];
+    if (position < cardinality) {
+      copyBytes(myArena, offset + position * 2, myArena, offset + (position + 1) * 2, (cardinality - position) * 2);
+    }
+    myArena.putChar(offset + position * 2, low);
+    myCardinalities[index] = cardinality + 1;
+    return true;
+  }
+
+  private boolean removeFromArray(int index, char low) {
+    int offset = myOffsets[index];
+    int cardinality = myCardinalities[index];
+    int position = searchArray(offset, cardinality, low);
+    if (position < 0) return false;
+    if (position < cardinality - 1) {
+      copyBytes(myArena, offset + (position + 1) * 2, myArena, offset + position * 2, (cardinality - position - 1) * 2);
+    }
+    myCardinalities[index] = cardinality - 1;
+    return true;
+  }
+
+  private boolean addToBitmap(int index, char low) {
+    int offset = myOffsets[index] + (low >>> 6) * 8;
+    long word = myArena.getLong(offset);
+    long mask = 1L << low;
+    if ((word & mask) != 0) return false;
+    myArena.putLong(offset, word | mask);
+    myCardinalities[index]++;
+    return true;
+  }
+
+  private boolean removeFromBitmap(int index, char low) {
+    int offset = myOffsets[index] + (low >>> 6) * 8;
+    long word = myArena.getLong(offset);
+    long mask = 1L << low;
+    if ((word & mask) == 0) return false;
+    myArena.putLong(offset, word & ~mask);
+    myCardinalities[index]--;
+    return true;
+  }
+
+  private void arrayToBitmap(int index) {
+    int array = myOffsets[index];
+    int bitmap = allocateChunk(BITMAP_BYTES);
+    for (int w = 0; w < BITMAP_WORDS; w++) {
+      myArena.putLong(bitmap + w * 8, 0);
+    }
+    for (int i = 0, cardinality = myCardinalities[index]; i < cardinality; i++) {
+      char low = myArena.getChar(array + i * 2);
+      int offset = bitmap + (low >>> 6) * 8;
+      myArena.putLong(offset, myArena.getLong(offset) | (1L << low));
+    }
+    releaseChunk(array, myCapacities[index]);
+    myOffsets[index] = bitmap;
+    myCapacities[index] = BITMAP_BYTES;
+    myBitmaps[index] = true;
+  }
+
+  private void bitmapToArray(int index) {
+    int capacity = chunkBytes(myCardinalities[index] * 2);
+    int array = allocateChunk(capacity);
+    int count = 0;
+    for (int low = nextInChunk(index, 0); low >= 0; low = nextInChunk(index, low + 1)) {
+      myArena.putChar(array + count++ * 2, (char)low);
+    }
+    releaseChunk(myOffsets[index], myCapacities[index]);
+    myOffsets[index] = array;
+    myCapacities[index] = capacity;
+    myBitmaps[index] = false;
+  }
+
+  private class Iterator implements IntIdsIterator {
+    private int myChunk;
+    private int myNext = -1;
+
+    Iterator() {
+      advance(0);
+    }
+
+    private void advance(int from) {
+      while (myChunk < myChunkCount) {
+        int low = nextInChunk(myChunk, from);
+        if (low >= 0) {
+          myNext = (myKeys[myChunk] << 16) | low;
+          return;
+        }
+        myChunk++;
+        from = 0;
+      }
+      myNext = -1;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return myNext >= 0;
+    }
+
+    @Override
+    public int next() {
+      if (myNext < 0) throw new NoSuchElementException();
+      int result = myNext;
+      advance((result & 0xFFFF) + 1);
+      return result;
+    }
+
+    @Override
+    public int size() {
+      return mySize;
+    }
+
+    @Override
+    public boolean hasAscendingOrder() {
+      return true;
+    }
+
+    @Override
+    public IntIdsIterator createCopyInInitialState() {
+      return new Iterator();
+    }
+  }
+}
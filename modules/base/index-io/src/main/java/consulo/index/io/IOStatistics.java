@@ -3,13 +3,53 @@ package consulo.index.io;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
 class IOStatistics {
   static final boolean DEBUG = System.getProperty("io.access.debug") != null;
   static final int MIN_IO_TIME_TO_REPORT = 100;
   static final Logger LOG = LoggerFactory.getLogger(IOStatistics.class);
   static final int KEYS_FACTOR_MASK = 0xFFFF;
 
+  // open maps, used to find the most fragmented ones for compaction
+  private static final Set<PersistentHashMap<?, ?>> ourOpenMaps = Collections.newSetFromMap(new WeakHashMap<>());
+
+  // lookups answered by bloom filters of persistent maps without touching the storage
+  static final LongAdder ourBloomFilterNegatives = new LongAdder();
+  // lookups passed by bloom filters which found a value
+  static final LongAdder ourBloomFilterHits = new LongAdder();
+  // lookups passed by bloom filters which found nothing
+  static final LongAdder ourBloomFilterFalsePositives = new LongAdder();
+
+  static String getBloomFilterStatistics() {
+    long negatives = ourBloomFilterNegatives.sum();
+    long hits = ourBloomFilterHits.sum();
+    long falsePositives = ourBloomFilterFalsePositives.sum();
+    long misses = negatives + falsePositives;
+    return "Bloom filter: " + negatives + " negative lookups short-circuited, " + hits + " hits, " + falsePositives + " false positives" +
+           (misses == 0 ? "" : " (" + (falsePositives * 100 / misses) + "% of missing keys)");
+  }
+
   static void dump(String msg) {
     LOG.info(msg);
   }
+
+  static void registerMap(PersistentHashMap<?, ?> map) {
+    synchronized (ourOpenMaps) {
+      ourOpenMaps.add(map);
+    }
+  }
+
+  static void unregisterMap(PersistentHashMap<?, ?> map) {
+    synchronized (ourOpenMaps) {
+      ourOpenMaps.remove(map);
+    }
+  }
+
+  static List<PersistentHashMap<?, ?>> getOpenMaps() {
+    synchronized (ourOpenMaps) {
+      return new ArrayList<>(ourOpenMaps);
+    }
+  }
 }
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.index.io;
+
+import consulo.index.io.data.DataExternalizer;
+import consulo.util.io.BufferExposingByteArrayOutputStream;
+import consulo.util.io.FilePermissionCopier;
+import consulo.util.io.FileUtil;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+
+import java.io.*;
+import java.util.*;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Builds an immutable {@link MappedIndexSnapshot} file from the content of an inverted index.
+ * <p>
+ * Keys and value containers are serialized when added, the file is written sorted by key hash so the snapshot can be searched
+ * without loading it. Not thread safe.
+ */
+public final class IndexSnapshotWriter<Key, Value> {
+  private final KeyDescriptor<Key> myKeyDescriptor;
+  private final DataExternalizer<Value> myValueExternalizer;
+  private final IntUnaryOperator myInputMapping;
+  private final List<Entry> myEntries = new ArrayList<>();
+
+  /**
+   * @param inputMapping maps input ids of the exported index to ids stored in the snapshot (e.g. file ids to content hash ids,
+   *                     which are stable across machines), non-positive result drops the input
+   */
+  public IndexSnapshotWriter(@Nonnull KeyDescriptor<Key> keyDescriptor,
+                             @Nonnull DataExternalizer<Value> valueExternalizer,
+                             @Nullable IntUnaryOperator inputMapping) {
+    myKeyDescriptor = keyDescriptor;
+    myValueExternalizer = valueExternalizer;
+    myInputMapping = inputMapping;
+  }
+
+  public void add(@Nonnull Key key, @Nonnull ValueContainer<Value> container) throws IOException {
+    if (container.size() == 0) return;
+
+    BufferExposingByteArrayOutputStream keyBytes = new BufferExposingByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(keyBytes)) {
+      myKeyDescriptor.save(out, key);
+    }
+
+    BufferExposingByteArrayOutputStream valueBytes = new BufferExposingByteArrayOutputStream();
+    BufferExposingByteArrayOutputStream singleValueBytes = new BufferExposingByteArrayOutputStream();
+    int valueCount = 0;
+    try (DataOutputStream out = new DataOutputStream(valueBytes)) {
+      out.writeInt(0); // value count, patched below
+      for (ValueContainer.ValueIterator<Value> iterator = container.getValueIterator(); iterator.hasNext(); ) {
+        Value value = iterator.next();
+        int[] ids = collectSorted(iterator.getInputIdsIterator(), myInputMapping);
+        if (ids.length == 0) continue;
+
+        singleValueBytes.reset();
+        try (DataOutputStream valueOut = new DataOutputStream(singleValueBytes)) {
+          myValueExternalizer.save(valueOut, value);
+        }
+        out.writeInt(singleValueBytes.size());
+        out.write(singleValueBytes.getInternalBuffer(), 0, singleValueBytes.size());
+        out.writeInt(ids.length);
+        for (int id : ids) {
+          out.writeInt(id);
+        }
+        valueCount++;
+      }
+    }
+    if (valueCount == 0) return;
+
+    byte[] values = valueBytes.toByteArray();
+    values[0] = (byte)(valueCount >>> 24);
+    values[1] = (byte)(valueCount >>> 16);
+    values[2] = (byte)(valueCount >>> 8);
+    values[3] = (byte)valueCount;
+    myEntries.add(new Entry(myKeyDescriptor.hashCode(key), keyBytes.toByteArray(), values));
+  }
+
+  public int size() {
+    return myEntries.size();
+  }
+
+  /**
+   * Writes the snapshot to a temporary file first and renames it to {@code file}, so readers never observe a partially written snapshot.
+   */
+  public void write(@Nonnull File file) throws IOException {
+    List<Entry> entries = new ArrayList<>(myEntries);
+    entries.sort(Comparator.comparingInt(e -> e.hash));
+
+    long keyTableOffset = MappedIndexSnapshot.PAGE_SIZE;
+    long keyDataOffset = align(keyTableOffset + (long)(entries.size() + 1) * MappedIndexSnapshot.KEY_TABLE_ENTRY_SIZE);
+    long keyDataSize = 0;
+    long valueDataSize = 0;
+    for (Entry entry : entries) {
+      keyDataSize += entry.key.length;
+      valueDataSize += entry.values.length;
+    }
+    long valueDataOffset = align(keyDataOffset + keyDataSize);
+
+    File tempFile = new File(file.getPath() + ".tmp");
+    FileUtil.createParentDirs(tempFile);
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+      // header
+      out.writeInt(MappedIndexSnapshot.MAGIC);
+      out.writeInt(MappedIndexSnapshot.VERSION);
+      out.writeInt(entries.size());
+      out.writeLong(keyTableOffset);
+      out.writeLong(keyDataOffset);
+      out.writeLong(valueDataOffset);
+      long written = 3 * 4 + 3 * 8;
+      written = pad(out, written, keyTableOffset);
+
+      // key table: hash, key offset and value offset of every key, plus a sentinel holding the section ends
+      long keyOffset = 0;
+      long valueOffset = 0;
+      for (Entry entry : entries) {
+        out.writeInt(entry.hash);
+        out.writeInt((int)keyOffset);
+        out.writeLong(valueOffset);
+        keyOffset += entry.key.length;
+        valueOffset += entry.values.length;
+      }
+      out.writeInt(0);
+      out.writeInt((int)keyOffset);
+      out.writeLong(valueOffset);
+      written += (long)(entries.size() + 1) * MappedIndexSnapshot.KEY_TABLE_ENTRY_SIZE;
+      written = pad(out, written, keyDataOffset);
+
+      for (Entry entry : entries) {
+        out.write(entry.key);
+      }
+      written = pad(out, written + keyDataSize, valueDataOffset);
+
+      for (Entry entry : entries) {
+        out.write(entry.values);
+      }
+    }
+
+    FileUtil.delete(file);
+    FileUtil.rename(tempFile, file, FilePermissionCopier.BY_NIO2);
+  }
+
+  @Nonnull
+  private static int[] collectSorted(@Nonnull ValueContainer.IntIterator iterator, @Nullable IntUnaryOperator mapping) {
+    int[] ids = new int[iterator.size()];
+    int count = 0;
+    while (iterator.hasNext()) {
+      int id = mapping == null ? iterator.next() : mapping.applyAsInt(iterator.next());
+      if (id <= 0) continue;
+      if (count == ids.length) ids = Arrays.copyOf(ids, Math.max(4, count * 2));
+      ids[count++] = id;
+    }
+    Arrays.sort(ids, 0, count);
+    // different inputs may be mapped to the same id
+    int unique = 0;
+    for (int i = 0; i < count; i++) {
+      if (unique == 0 || ids[unique - 1] != ids[i]) ids[unique++] = ids[i];
+    }
+    return unique == ids.length ? ids : Arrays.copyOf(ids, unique);
+  }
+
+  private static long align(long offset) {
+    return (offset + MappedIndexSnapshot.PAGE_SIZE - 1) & -MappedIndexSnapshot.PAGE_SIZE;
+  }
+
+  private static long pad(@Nonnull DataOutputStream out, long written, long offset) throws IOException {
+    assert written <= offset : written + " > " + offset;
+    for (long i = written; i < offset; i++) {
+      out.write(0);
+    }
+    return offset;
+  }
+
+  private static class Entry {
+    final int hash;
+    final byte[] key;
+    final byte[] values;
+
+    Entry(int hash, byte[] key, byte[] values) {
+      this.hash = hash;
+      this.key = key;
+      this.values = values;
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.index.io;
+
+import jakarta.annotation.Nonnull;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of operation latencies with power of two millisecond buckets: bucket 0 counts operations faster than 1ms,
+ * bucket {@code i} operations which took {@code [2^(i-1), 2^i)} ms, the last bucket everything slower.
+ */
+public final class LatencyHistogram {
+  private static final int BUCKETS = 18; // up to ~2 minutes
+
+  private final AtomicLongArray myBuckets;
+  private final LongAdder myTotalNanos = new LongAdder();
+
+  public LatencyHistogram() {
+    myBuckets = new AtomicLongArray(BUCKETS);
+  }
+
+  private LatencyHistogram(@Nonnull AtomicLongArray buckets, long totalNanos) {
+    myBuckets = buckets;
+    myTotalNanos.add(totalNanos);
+  }
+
+  public void record(long nanos) {
+    long millis = nanos / 1_000_000;
+    int bucket = millis == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+    myBuckets.incrementAndGet(bucket);
+    myTotalNanos.add(nanos);
+  }
+
+  public long getCount() {
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      count += myBuckets.get(i);
+    }
+    return count;
+  }
+
+  public long getTotalNanos() {
+    return myTotalNanos.sum();
+  }
+
+  /**
+   * @return upper bound (exclusive, in ms) of the bucket containing the given percentile, 0 if nothing was recorded
+   */
+  public long getPercentileMillis(double percentile) {
+    long count = getCount();
+    if (count == 0) return 0;
+    long threshold = (long)Math.ceil(count * percentile / 100);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += myBuckets.get(i);
+      if (seen >= threshold) return 1L << i;
+    }
+    return 1L << (BUCKETS - 1);
+  }
+
+  @Nonnull
+  public LatencyHistogram copy() {
+    AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets.set(i, myBuckets.get(i));
+    }
+    return new LatencyHistogram(buckets, getTotalNanos());
+  }
+
+  @Override
+  public String toString() {
+    long count = getCount();
+    if (count == 0) return "none";
+    return count + " times, avg " + getTotalNanos() / count / 1000 + "us, p50<" + getPercentileMillis(50) + "ms, p90<" + getPercentileMillis(90) +
+           "ms, p99<" + getPercentileMillis(99) + "ms";
+  }
+}
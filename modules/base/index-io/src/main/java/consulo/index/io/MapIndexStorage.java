@@ -20,6 +20,7 @@ import consulo.index.io.data.IOUtil;
 import consulo.index.io.internal.ValueContainerImpl;
 import consulo.util.collection.SLRUCache;
 import consulo.util.lang.LoggerAssert;
+import consulo.util.lang.SystemProperties;
 import org.jetbrains.annotations.TestOnly;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,6 +37,8 @@ import java.util.function.Predicate;
 
 public abstract class MapIndexStorage<Key, Value> implements IndexStorage<Key, Value> {
   private static final Logger LOG = LoggerFactory.getLogger(MapIndexStorage.class);
+  // most lookups of absent keys (e.g. stub index queries for unknown names) don't reach the storage
+  private static final boolean USE_BLOOM_FILTER = SystemProperties.getBooleanProperty("idea.index.storage.bloom.filter", true);
   protected PersistentMap<Key, UpdatableValueContainer<Value>> myMap;
   protected SLRUCache<Key, ChangeTrackingValueContainer<Value>> myCache;
   protected final File myBaseStorageFile;
@@ -94,6 +97,11 @@ public abstract class MapIndexStorage<Key, Value> implements IndexStorage<Key, V
         protected boolean isReadOnly() {
           return myReadOnly;
         }
+
+        @Override
+        protected boolean useBloomFilter() {
+          return USE_BLOOM_FILTER;
+        }
       };
     }
     finally {
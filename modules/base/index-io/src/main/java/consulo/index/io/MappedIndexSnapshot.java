@@ -0,0 +1,378 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.index.io;
+
+import consulo.index.io.data.DataExternalizer;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Predicate;
+
+/**
+ * Read-only inverted index snapshot served directly from a memory-mapped file, see {@link IndexSnapshotWriter}.
+ * <p>
+ * File layout, every section starts at a page boundary:
+ * <pre>
+ *   header        magic, version, key count, section offsets
+ *   key table     (hash, key offset, value offset) per key sorted by hash, plus sentinel
+ *   key data      serialized keys
+ *   value data    per key: value count, then (value size, value, input id count, sorted input ids) per value
+ * </pre>
+ * Lookups only deserialize keys with a matching hash and values which are actually iterated; input ids are read straight
+ * from the mapped buffer. With an input remapping the ids of an iterated value are remapped once into a sorted set, dropping
+ * ids which have no mapping (non-positive result). Instances are thread safe.
+ */
+public final class MappedIndexSnapshot<Key, Value> implements Closeable {
+  public static final String FILE_EXTENSION = ".snapshot";
+
+  static final int MAGIC = 0x49445853; // "IDXS"
+  static final int VERSION = 2;
+  static final int PAGE_SIZE = 4096;
+  static final int KEY_TABLE_ENTRY_SIZE = 16;
+
+  private final File myFile;
+  private final KeyDescriptor<Key> myKeyDescriptor;
+  private final DataExternalizer<Value> myValueExternalizer;
+  private final IntUnaryOperator myInputRemapping;
+  private final MappedByteBuffer myBuffer;
+  private final int myKeyCount;
+  private final int myKeyTableOffset;
+  private final int myKeyDataOffset;
+  private final int myValueDataOffset;
+
+  public MappedIndexSnapshot(@Nonnull File file,
+                             @Nonnull KeyDescriptor<Key> keyDescriptor,
+                             @Nonnull DataExternalizer<Value> valueExternalizer,
+                             @Nullable IntUnaryOperator inputRemapping) throws IOException {
+    myFile = file;
+    myKeyDescriptor = keyDescriptor;
+    myValueExternalizer = valueExternalizer;
+    myInputRemapping = inputRemapping;
+
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) throw new IOException("Index snapshot is too large: " + file + " (" + size + " bytes)");
+      if (size < PAGE_SIZE) throw new IOException("Index snapshot is truncated: " + file);
+      myBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+
+    if (myBuffer.getInt(0) != MAGIC || myBuffer.getInt(4) != VERSION) {
+      throw new IOException("Unsupported index snapshot format: " + file);
+    }
+    myKeyCount = myBuffer.getInt(8);
+    myKeyTableOffset = (int)myBuffer.getLong(12);
+    myKeyDataOffset = (int)myBuffer.getLong(20);
+    myValueDataOffset = (int)myBuffer.getLong(28);
+    if (myValueDataOffset > myBuffer.capacity() ||
+        myValueDataOffset + myBuffer.getLong(myKeyTableOffset + myKeyCount * KEY_TABLE_ENTRY_SIZE + 8) > myBuffer.capacity()) {
+      throw new IOException("Index snapshot is truncated: " + file);
+    }
+  }
+
+  @Nonnull
+  public File getFile() {
+    return myFile;
+  }
+
+  public int getKeyCount() {
+    return myKeyCount;
+  }
+
+  /**
+   * @return values of the key, or an empty container if the snapshot has no such key
+   */
+  @Nonnull
+  public ValueContainer<Value> get(@Nonnull Key key) throws IOException {
+    int index = findKey(key);
+    return index < 0 ? SnapshotValueContainer.empty() : new SnapshotValueContainer<>(this, valueStart(index));
+  }
+
+  public boolean processKeys(@Nonnull Predicate<? super Key> processor) throws IOException {
+    return processKeys(processor, null);
+  }
+
+  /**
+   * @param inputFilter accepts (remapped) input ids, keys without any accepted input are skipped without being deserialized
+   */
+  public boolean processKeys(@Nonnull Predicate<? super Key> processor, @Nullable IntPredicate inputFilter) throws IOException {
+    for (int i = 0; i < myKeyCount; i++) {
+      if (inputFilter != null && !hasInput(i, inputFilter)) continue;
+      if (!processor.test(readKey(i))) return false;
+    }
+    return true;
+  }
+
+  private boolean hasInput(int index, @Nonnull IntPredicate inputFilter) {
+    int offset = valueStart(index);
+    int valueCount = myBuffer.getInt(offset);
+    offset += 4;
+    for (int v = 0; v < valueCount; v++) {
+      int idsOffset = offset + 4 + myBuffer.getInt(offset);
+      int idCount = myBuffer.getInt(idsOffset);
+      for (int i = 0; i < idCount; i++) {
+        int id = myBuffer.getInt(idsOffset + 4 + i * 4);
+        if (myInputRemapping != null) id = myInputRemapping.applyAsInt(id);
+        if (id > 0 && inputFilter.test(id)) return true;
+      }
+      offset = idsOffset + 4 + idCount * 4;
+    }
+    return false;
+  }
+
+  private int findKey(@Nonnull Key key) throws IOException {
+    int hash = myKeyDescriptor.hashCode(key);
+    int low = 0;
+    int high = myKeyCount - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int midHash = keyHash(mid);
+      if (midHash < hash) low = mid + 1;
+      else if (midHash > hash) high = mid - 1;
+      else {
+        for (int i = mid; i >= 0 && keyHash(i) == hash; i--) {
+          if (myKeyDescriptor.equals(key, readKey(i))) return i;
+        }
+        for (int i = mid + 1; i < myKeyCount && keyHash(i) == hash; i++) {
+          if (myKeyDescriptor.equals(key, readKey(i))) return i;
+        }
+        return -1;
+      }
+    }
+    return -1;
+  }
+
+  private int keyHash(int index) {
+    return myBuffer.getInt(myKeyTableOffset + index * KEY_TABLE_ENTRY_SIZE);
+  }
+
+  @Nonnull
+  private Key readKey(int index) throws IOException {
+    int entry = myKeyTableOffset + index * KEY_TABLE_ENTRY_SIZE;
+    int from = myBuffer.getInt(entry + 4);
+    int to = myBuffer.getInt(entry + KEY_TABLE_ENTRY_SIZE + 4);
+    return myKeyDescriptor.read(new DataInputStream(new BufferInputStream(myBuffer, myKeyDataOffset + from, to - from)));
+  }
+
+  private int valueStart(int index) {
+    return myValueDataOffset + (int)myBuffer.getLong(myKeyTableOffset + index * KEY_TABLE_ENTRY_SIZE + 8);
+  }
+
+  private Value readValue(int offset, int size) throws IOException {
+    return myValueExternalizer.read(new DataInputStream(new BufferInputStream(myBuffer, offset, size)));
+  }
+
+  private boolean binarySearch(int idsOffset, int idCount, int id) {
+    int low = 0;
+    int high = idCount - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int midId = myBuffer.getInt(idsOffset + mid * 4);
+      if (midId < id) low = mid + 1;
+      else if (midId > id) high = mid - 1;
+      else return true;
+    }
+    return false;
+  }
+
+  /**
+   * The mapping is released by GC, there is no portable way to unmap it earlier.
+   */
+  @Override
+  public void close() {
+  }
+
+  private static final class SnapshotValueContainer<Value> extends ValueContainer<Value> {
+    private static final SnapshotValueContainer<Object> EMPTY = new SnapshotValueContainer<>(null, -1);
+
+    private final MappedIndexSnapshot<?, Value> mySnapshot;
+    private final int myOffset;
+
+    @SuppressWarnings("unchecked")
+    static <Value> ValueContainer<Value> empty() {
+      return (ValueContainer<Value>)EMPTY;
+    }
+
+    SnapshotValueContainer(MappedIndexSnapshot<?, Value> snapshot, int offset) {
+      mySnapshot = snapshot;
+      myOffset = offset;
+    }
+
+    @Override
+    public int size() {
+      return mySnapshot == null ? 0 : mySnapshot.myBuffer.getInt(myOffset);
+    }
+
+    @Nonnull
+    @Override
+    public ValueIterator<Value> getValueIterator() {
+      return new ValueIterator<Value>() {
+        private final int myCount = size();
+        private int myIndex;
+        private int myNextOffset = myOffset + 4;
+        private int myIdsOffset = -1;
+        private SortedIdSet myRemappedIds;
+
+        @Override
+        public boolean hasNext() {
+          return myIndex < myCount;
+        }
+
+        @Override
+        public Value next() {
+          if (!hasNext()) throw new NoSuchElementException();
+          ByteBuffer buffer = mySnapshot.myBuffer;
+          int valueSize = buffer.getInt(myNextOffset);
+          myIdsOffset = myNextOffset + 4 + valueSize;
+          int idCount = buffer.getInt(myIdsOffset);
+          Value value;
+          try {
+            value = mySnapshot.readValue(myNextOffset + 4, valueSize);
+          }
+          catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+          myNextOffset = myIdsOffset + 4 + idCount * 4;
+          myIndex++;
+          myRemappedIds = null;
+          return value;
+        }
+
+        @Nonnull
+        @Override
+        public IntIterator getInputIdsIterator() {
+          if (myIdsOffset < 0) throw new IllegalStateException();
+          if (mySnapshot.myInputRemapping != null) return getRemappedIds().intIterator();
+          return new InputIdsIterator(mySnapshot.myBuffer, myIdsOffset);
+        }
+
+        @Nullable
+        @Override
+        public IntPredicate getValueAssociationPredicate() {
+          if (myIdsOffset < 0) throw new IllegalStateException();
+          if (mySnapshot.myInputRemapping != null) return getRemappedIds()::contains;
+          int idsOffset = myIdsOffset;
+          int idCount = mySnapshot.myBuffer.getInt(idsOffset);
+          return id -> mySnapshot.binarySearch(idsOffset + 4, idCount, id);
+        }
+
+        @Nonnull
+        private SortedIdSet getRemappedIds() {
+          if (myRemappedIds == null) {
+            myRemappedIds = mySnapshot.remapIds(myIdsOffset);
+          }
+          return myRemappedIds;
+        }
+      };
+    }
+  }
+
+  // remapped ids are not sorted anymore and unknown inputs are mapped to non-positive ids
+  @Nonnull
+  private SortedIdSet remapIds(int idsOffset) {
+    int idCount = myBuffer.getInt(idsOffset);
+    int[] ids = new int[idCount];
+    int size = 0;
+    for (int i = 0; i < idCount; i++) {
+      int id = myInputRemapping.applyAsInt(myBuffer.getInt(idsOffset + 4 + i * 4));
+      if (id > 0) ids[size++] = id;
+    }
+    Arrays.sort(ids, 0, size);
+    int unique = 0;
+    for (int i = 0; i < size; i++) {
+      if (unique == 0 || ids[unique - 1] != ids[i]) ids[unique++] = ids[i];
+    }
+    return new SortedIdSet(ids, unique);
+  }
+
+  private static final class InputIdsIterator implements IntIdsIterator {
+    private final ByteBuffer myBuffer;
+    private final int myIdsOffset;
+    private final int mySize;
+    private int myIndex;
+
+    InputIdsIterator(ByteBuffer buffer, int idsOffset) {
+      myBuffer = buffer;
+      myIdsOffset = idsOffset;
+      mySize = buffer.getInt(idsOffset);
+    }
+
+    @Override
+    public boolean hasNext() {
+      return myIndex < mySize;
+    }
+
+    @Override
+    public int next() {
+      return myBuffer.getInt(myIdsOffset + 4 + (myIndex++) * 4);
+    }
+
+    @Override
+    public int size() {
+      return mySize;
+    }
+
+    @Override
+    public boolean hasAscendingOrder() {
+      return true;
+    }
+
+    @Override
+    public IntIdsIterator createCopyInInitialState() {
+      return new InputIdsIterator(myBuffer, myIdsOffset);
+    }
+  }
+
+  private static final class BufferInputStream extends InputStream {
+    private final ByteBuffer myBuffer;
+    private int myPosition;
+    private final int myLimit;
+
+    BufferInputStream(ByteBuffer buffer, int offset, int length) {
+      myBuffer = buffer;
+      myPosition = offset;
+      myLimit = offset + length;
+    }
+
+    @Override
+    public int read() {
+      return myPosition < myLimit ? myBuffer.get(myPosition++) & 0xFF : -1;
+    }
+
+    @Override
+    public int read(@Nonnull byte[] b, int off, int len) {
+      if (myPosition >= myLimit) return -1;
+      int count = Math.min(len, myLimit - myPosition);
+      for (int i = 0; i < count; i++) {
+        b[off + i] = myBuffer.get(myPosition + i);
+      }
+      myPosition += count;
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return myLimit - myPosition;
+    }
+  }
+}
@@ -20,6 +20,9 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.*;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -127,6 +130,71 @@ public class PagedFileStorage implements Forceable {
     myStorageLockContext.unlock();
   }
 
+  private static final boolean FSYNC_BATCHED_FLUSHES = SystemProperties.getBooleanProperty("idea.paged.storage.flush.fsync", false);
+  private static final ThreadLocal<FlushBatch> ourFlushBatch = new ThreadLocal<>();
+
+  /**
+   * Runs the action deferring page flushes of all storages forced by it on this thread. When the action finishes, dirty pages
+   * of these storages are written sorted by file and offset, adjacent pages with a single write, and if
+   * {@code idea.paged.storage.flush.fsync} is set every written file is synced to disk once.
+   */
+  public static void runWithBatchedFlush(@Nonnull Runnable action) {
+    if (ourFlushBatch.get() != null) {
+      action.run();
+      return;
+    }
+    FlushBatch batch = new FlushBatch();
+    ourFlushBatch.set(batch);
+    try {
+      action.run();
+    }
+    finally {
+      ourFlushBatch.remove();
+      batch.flush();
+    }
+  }
+
+  private static final class FlushBatch {
+    private final Map<StorageLockContext, Map<Integer, PagedFileStorage>> myForcedStorages = new HashMap<>();
+
+    void add(@Nonnull PagedFileStorage storage) {
+      myForcedStorages.computeIfAbsent(storage.myStorageLockContext, __ -> new HashMap<>()).put(storage.myStorageIndex, storage);
+    }
+
+    void flush() {
+      Map<StorageLock, Set<File>> writtenFiles = new HashMap<>();
+      for (Map.Entry<StorageLockContext, Map<Integer, PagedFileStorage>> entry : myForcedStorages.entrySet()) {
+        StorageLockContext context = entry.getKey();
+        Map<Integer, PagedFileStorage> storages = entry.getValue();
+        context.lock();
+        try {
+          Set<File> files = context.myStorageLock.flushBuffersForOwners(storages.keySet(), context);
+          writtenFiles.computeIfAbsent(context.myStorageLock, __ -> new HashSet<>()).addAll(files);
+          // storages stay dirty until their pages are actually written, so force() on other threads keeps flushing them itself
+          for (PagedFileStorage storage : storages.values()) {
+            storage.isDirty = false;
+          }
+        }
+        finally {
+          context.unlock();
+        }
+      }
+      if (FSYNC_BATCHED_FLUSHES) {
+        for (Map.Entry<StorageLock, Set<File>> entry : writtenFiles.entrySet()) {
+          entry.getKey().fsync(entry.getValue());
+        }
+      }
+    }
+  }
+
+  /**
+   * @return page cache counters of the storages sharing the default {@link StorageLock}
+   */
+  @Nonnull
+  public static StorageLock.Statistics getDefaultStorageLockStatistics() {
+    return ourLock.getStatistics();
+  }
+
   public StorageLockContext getStorageLockContext() {
     return myStorageLockContext;
   }
@@ -383,21 +451,21 @@ public class PagedFileStorage implements Forceable {
     synchronized (myLastAccessedBufferCacheLock) {
       if (myLastPage == page) {
         ByteBuffer buf = myLastBuffer.getCachedBuffer();
-        if (buf != null && myLastChangeCount == myStorageLockContext.myStorageLock.myMappingChangeCount) {
+        if (buf != null && myLastChangeCount == myStorageLockContext.myStorageLock.myMappingChangeCount.get()) {
           if (modify) markDirty(myLastBuffer);
           return myLastBuffer;
         }
       }
       else if (myLastPage2 == page) {
         ByteBuffer buf = myLastBuffer2.getCachedBuffer();
-        if (buf != null && myLastChangeCount2 == myStorageLockContext.myStorageLock.myMappingChangeCount) {
+        if (buf != null && myLastChangeCount2 == myStorageLockContext.myStorageLock.myMappingChangeCount.get()) {
           if (modify) markDirty(myLastBuffer2);
           return myLastBuffer2;
         }
       }
       else if (myLastPage3 == page) {
         ByteBuffer buf = myLastBuffer3.getCachedBuffer();
-        if (buf != null && myLastChangeCount3 == myStorageLockContext.myStorageLock.myMappingChangeCount) {
+        if (buf != null && myLastChangeCount3 == myStorageLockContext.myStorageLock.myMappingChangeCount.get()) {
           if (modify) markDirty(myLastBuffer3);
           return myLastBuffer3;
         }
@@ -434,7 +502,7 @@ public class PagedFileStorage implements Forceable {
           myLastBuffer = byteBufferWrapper;
         }
 
-        myLastChangeCount = myStorageLockContext.myStorageLock.myMappingChangeCount;
+        myLastChangeCount = myStorageLockContext.myStorageLock.myMappingChangeCount.get();
       }
 
       return byteBufferWrapper;
@@ -453,8 +521,14 @@ public class PagedFileStorage implements Forceable {
   public void force() {
     long started = IOStatistics.DEBUG ? System.currentTimeMillis() : 0;
     if (isDirty) {
-      myStorageLockContext.myStorageLock.flushBuffersForOwner(myStorageIndex, myStorageLockContext);
-      isDirty = false;
+      FlushBatch batch = ourFlushBatch.get();
+      if (batch != null) {
+        batch.add(this);
+      }
+      else {
+        myStorageLockContext.myStorageLock.flushBuffersForOwners(Collections.singleton(myStorageIndex), myStorageLockContext);
+        isDirty = false;
+      }
     }
 
     if (IOStatistics.DEBUG) {
@@ -473,18 +547,25 @@ public class PagedFileStorage implements Forceable {
   public static class StorageLock {
     private static final int FILE_INDEX_MASK = 0xFFFF0000;
     private static final int FILE_INDEX_SHIFT = 16;
+    private static final int SHARDS_COUNT = Integer.highestOneBit(Math.max(1, SystemProperties.getIntProperty("idea.paged.storage.cache.shards", 16)));
     public final StorageLockContext myDefaultStorageLockContext;
     private final ConcurrentIntObjectMap<PagedFileStorage> myIndex2Storage = IntMaps.newConcurrentIntObjectHashMap();
 
-    private final LinkedHashMap<Integer, ByteBufferWrapper> mySegments;
-    private final ReentrantLock mySegmentsAccessLock = new ReentrantLock(); // protects map operations of mySegments, needed for LRU order, mySize and myMappingChangeCount
-    // todo avoid locking for access
-
-    private final ReentrantLock mySegmentsAllocationLock = new ReentrantLock();
-    private final ConcurrentLinkedQueue<ByteBufferWrapper> mySegmentsToRemove = new ConcurrentLinkedQueue<>();
-    private volatile long mySize;
+    // mapped pages are split into shards by (storage index, page), so fetching pages of unrelated storages doesn't contend on one lock
+    private final SegmentShard[] myShards;
+    private final AtomicInteger myEvictionCursor = new AtomicInteger();
+    private final AtomicLong mySize = new AtomicLong();
     private volatile long mySizeLimit;
-    private volatile int myMappingChangeCount;
+    private final AtomicInteger myMappingChangeCount = new AtomicInteger();
+
+    private final LongAdder myHits = new LongAdder();
+    private final LongAdder myMisses = new LongAdder();
+    private final LongAdder myEvictions = new LongAdder();
+    private final LongAdder myLockWaitNanos = new LongAdder();
+    private final LongAdder myFlushedBytes = new LongAdder();
+    private final LongAdder myFlushWrites = new LongAdder();
+    private final LatencyHistogram myFlushLatency = new LatencyHistogram();
+    private final LatencyHistogram myFsyncLatency = new LatencyHistogram();
 
     public StorageLock() {
       this(true);
@@ -494,25 +575,10 @@ public class PagedFileStorage implements Forceable {
       myDefaultStorageLockContext = new StorageLockContext(this, checkThreadAccess);
 
       mySizeLimit = UPPER_LIMIT;
-      mySegments = new consulo.util.collection.impl.map.LinkedHashMap<Integer, ByteBufferWrapper>(10, 0.75f, true) {
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<Integer, ByteBufferWrapper> eldest) {
-          return mySize > mySizeLimit;
-        }
-
-        @Nullable
-        @Override
-        public ByteBufferWrapper remove(Object key) {
-          // this method can be called after removeEldestEntry
-          ByteBufferWrapper wrapper = super.remove(key);
-          if (wrapper != null) {
-            ++myMappingChangeCount;
-            mySegmentsToRemove.offer(wrapper);
-            mySize -= wrapper.myLength;
-          }
-          return wrapper;
-        }
-      };
+      myShards = new SegmentShard[SHARDS_COUNT];
+      for (int i = 0; i < myShards.length; i++) {
+        myShards[i] = new SegmentShard();
+      }
     }
 
     public void lock() {
@@ -523,6 +589,12 @@ public class PagedFileStorage implements Forceable {
       myDefaultStorageLockContext.unlock();
     }
 
+    @Nonnull
+    public Statistics getStatistics() {
+      return new Statistics(myHits.sum(), myMisses.sum(), myEvictions.sum(), myLockWaitNanos.sum(), mySize.get(), mySizeLimit,
+                            myFlushedBytes.sum(), myFlushWrites.sum(), myFlushLatency.copy(), myFsyncLatency.copy());
+    }
+
     private int registerPagedFileStorage(@Nonnull PagedFileStorage storage) {
       int registered = myIndex2Storage.size();
       assert registered <= MAX_LIVE_STORAGES_COUNT;
@@ -539,31 +611,44 @@ public class PagedFileStorage implements Forceable {
       return myIndex2Storage.get(index);
     }
 
+    private int getShardIndex(int key) {
+      int h = key * 0x9E3779B9;
+      return (h ^ (h >>> 16)) & (myShards.length - 1);
+    }
+
     private ByteBufferWrapper get(Integer key) {
+      SegmentShard shard = myShards[getShardIndex(key)];
       ByteBufferWrapper wrapper;
+      shard.lockAccess();
       try {         // fast path
-        mySegmentsAccessLock.lock();
-        wrapper = mySegments.get(key);
-        if (wrapper != null) return wrapper;
+        wrapper = shard.mySegments.get(key);
+        if (wrapper != null) {
+          myHits.increment();
+          return wrapper;
+        }
       }
       finally {
-        mySegmentsAccessLock.unlock();
+        shard.mySegmentsAccessLock.unlock();
       }
 
-      mySegmentsAllocationLock.lock();
+      shard.lockAllocation();
       try {
         // check if anybody cared about our segment
-        mySegmentsAccessLock.lock();
+        shard.lockAccess();
         try {
-          wrapper = mySegments.get(key);
-          if (wrapper != null) return wrapper;
+          wrapper = shard.mySegments.get(key);
+          if (wrapper != null) {
+            myHits.increment();
+            return wrapper;
+          }
         }
         finally {
-          mySegmentsAccessLock.unlock();
+          shard.mySegmentsAccessLock.unlock();
         }
+        myMisses.increment();
 
         long started = IOStatistics.DEBUG ? System.currentTimeMillis() : 0;
-        wrapper = createValue(key);
+        wrapper = createValue(key, shard);
 
         if (IOStatistics.DEBUG) {
           long finished = System.currentTimeMillis();
@@ -572,54 +657,47 @@ public class PagedFileStorage implements Forceable {
           }
         }
 
-        mySegmentsAccessLock.lock();
+        shard.lockAccess();
         try {
-          mySegments.put(key, wrapper);
-          mySize += wrapper.myLength;
+          shard.mySegments.put(key, wrapper);
+          mySize.addAndGet(wrapper.myLength);
         }
         finally {
-          mySegmentsAccessLock.unlock();
+          shard.mySegmentsAccessLock.unlock();
         }
 
-        ensureSize(mySizeLimit);
+        ensureSize(shard, mySizeLimit);
 
         return wrapper;
       }
       finally {
-        mySegmentsAllocationLock.unlock();
+        shard.mySegmentsAllocationLock.unlock();
       }
     }
 
-    private void disposeRemovedSegments() {
-      if (mySegmentsToRemove.isEmpty()) return;
+    private void ensureSize(SegmentShard owner, long sizeLimit) {
+      assert owner.mySegmentsAllocationLock.isHeldByCurrentThread();
 
-      assert mySegmentsAllocationLock.isHeldByCurrentThread();
-      Iterator<ByteBufferWrapper> iterator = mySegmentsToRemove.iterator();
-      while (iterator.hasNext()) {
-        iterator.next().dispose();
-        iterator.remove();
-      }
-    }
+      // keep the most recently mapped page of the owner shard, it is being returned to the caller
+      owner.evictEldest(sizeLimit, 1);
+      if (mySize.get() <= sizeLimit) return;
 
-    private void ensureSize(long sizeLimit) {
-      assert mySegmentsAllocationLock.isHeldByCurrentThread();
-
-      try {
-        mySegmentsAccessLock.lock();
-        while (mySize > sizeLimit) {
-          // we still have to drop something
-          mySegments.doRemoveEldestEntry();
+      // other shards are drained without waiting for their allocation, a busy shard will shrink itself on its next mapping
+      int start = myEvictionCursor.getAndIncrement();
+      for (int i = 0; i < myShards.length && mySize.get() > sizeLimit; i++) {
+        SegmentShard shard = myShards[(start + i) & (myShards.length - 1)];
+        if (shard == owner || !shard.mySegmentsAllocationLock.tryLock()) continue;
+        try {
+          shard.evictEldest(sizeLimit, 0);
+        }
+        finally {
+          shard.mySegmentsAllocationLock.unlock();
         }
       }
-      finally {
-        mySegmentsAccessLock.unlock();
-      }
-
-      disposeRemovedSegments();
     }
 
     @Nonnull
-    private ByteBufferWrapper createValue(Integer key) {
+    private ByteBufferWrapper createValue(Integer key, SegmentShard shard) {
       final int storageIndex = key & FILE_INDEX_MASK;
       PagedFileStorage owner = getRegisteredPagedFileStorageByIndex(storageIndex);
       assert owner != null : "No storage for index " + storageIndex;
@@ -652,10 +730,10 @@ public class PagedFileStorage implements Forceable {
           if (mySizeLimit > LOWER_LIMIT) {
             mySizeLimit -= owner.myPageSize;
           }
-          long newSize = mySize - owner.myPageSize;
+          long newSize = mySize.get() - owner.myPageSize;
           if (newSize < 0) {
-            LOG.info("Currently allocated:" + mySize);
-            LOG.info("Mapping failed due to OOME. Current buffers: " + mySegments);
+            LOG.info("Currently allocated:" + mySize.get());
+            LOG.info("Mapping failed due to OOME. " + getStatistics());
             LOG.info(oome.getMessage(), oome);
             try {
               Class<?> aClass = Class.forName("java.nio.Bits");
@@ -683,7 +761,7 @@ public class PagedFileStorage implements Forceable {
                                              wrapper.myLength +
                                              " block", e);
           }
-          ensureSize(newSize); // next try
+          ensureSize(shard, newSize); // next try
         }
       }
     }
@@ -696,88 +774,299 @@ public class PagedFileStorage implements Forceable {
 
     @Nullable
     private Map<Integer, ByteBufferWrapper> getBuffersOrderedForOwner(int index, StorageLockContext storageLockContext) {
-      mySegmentsAccessLock.lock();
-      try {
-        checkThreadAccess(storageLockContext);
-        Map<Integer, ByteBufferWrapper> mineBuffers = null;
-        for (Map.Entry<Integer, ByteBufferWrapper> entry : mySegments.entrySet()) {
-          if ((entry.getKey() & FILE_INDEX_MASK) == index) {
-            if (mineBuffers == null) {
-              mineBuffers = new TreeMap<>(Comparator.comparingInt(o -> o));
+      checkThreadAccess(storageLockContext);
+      Map<Integer, ByteBufferWrapper> mineBuffers = null;
+      for (SegmentShard shard : myShards) {
+        shard.lockAccess();
+        try {
+          for (Map.Entry<Integer, ByteBufferWrapper> entry : shard.mySegments.entrySet()) {
+            if ((entry.getKey() & FILE_INDEX_MASK) == index) {
+              if (mineBuffers == null) {
+                mineBuffers = new TreeMap<>(Comparator.comparingInt(o -> o));
+              }
+              mineBuffers.put(entry.getKey(), entry.getValue());
             }
-            mineBuffers.put(entry.getKey(), entry.getValue());
           }
         }
-        return mineBuffers;
+        finally {
+          shard.mySegmentsAccessLock.unlock();
+        }
       }
-      finally {
-        mySegmentsAccessLock.unlock();
+      return mineBuffers;
+    }
+
+    @Nonnull
+    private BitSet getShardsOf(@Nonnull Map<Integer, ByteBufferWrapper> buffers) {
+      BitSet shards = new BitSet(myShards.length);
+      for (Integer key : buffers.keySet()) {
+        shards.set(getShardIndex(key));
       }
+      return shards;
     }
 
     private void unmapBuffersForOwner(int index, StorageLockContext storageLockContext) {
       final Map<Integer, ByteBufferWrapper> buffers = getBuffersOrderedForOwner(index, storageLockContext);
 
       if (buffers != null) {
-        mySegmentsAccessLock.lock();
-        try {
-          for (Integer key : buffers.keySet()) {
-            mySegments.remove(key);
+        for (Integer key : buffers.keySet()) {
+          SegmentShard shard = myShards[getShardIndex(key)];
+          shard.lockAccess();
+          try {
+            shard.mySegments.remove(key);
+          }
+          finally {
+            shard.mySegmentsAccessLock.unlock();
           }
-        }
-        finally {
-          mySegmentsAccessLock.unlock();
         }
 
-        mySegmentsAllocationLock.lock();
-        try {
-          disposeRemovedSegments();
-        }
-        finally {
-          mySegmentsAllocationLock.unlock();
+        BitSet shards = getShardsOf(buffers);
+        for (int i = shards.nextSetBit(0); i >= 0; i = shards.nextSetBit(i + 1)) {
+          SegmentShard shard = myShards[i];
+          shard.lockAllocation();
+          try {
+            shard.disposeRemovedSegments();
+          }
+          finally {
+            shard.mySegmentsAllocationLock.unlock();
+          }
         }
       }
     }
 
-    private void flushBuffersForOwner(int index, StorageLockContext storageLockContext) {
-      Map<Integer, ByteBufferWrapper> buffers = getBuffersOrderedForOwner(index, storageLockContext);
-
-      if (buffers != null) {
-        mySegmentsAllocationLock.lock();
-        try {
-          ReadWriteDirectBufferWrapper.FileContext fileContext = null;
-          for (ByteBufferWrapper buffer : buffers.values()) {
-            if (buffer instanceof ReadWriteDirectBufferWrapper) {
-              fileContext = ((ReadWriteDirectBufferWrapper)buffer).flushWithContext(fileContext);
-            }
-            else {
-              buffer.flush();
+    /**
+     * @return files which were written to successfully
+     */
+    @Nonnull
+    private Set<File> flushBuffersForOwners(@Nonnull Collection<Integer> indices, StorageLockContext storageLockContext) {
+      Map<Integer, ByteBufferWrapper> buffers = new HashMap<>();
+      for (int index : indices) {
+        Map<Integer, ByteBufferWrapper> ownerBuffers = getBuffersOrderedForOwner(index, storageLockContext);
+        if (ownerBuffers != null) buffers.putAll(ownerBuffers);
+      }
+      if (buffers.isEmpty()) return Collections.emptySet();
+
+      long started = System.nanoTime();
+      Map<File, List<ReadWriteDirectBufferWrapper>> dirtyBuffersByFile = new TreeMap<>();
+      Set<File> writtenFiles = new HashSet<>();
+      // buffers must not be disposed while being flushed, shards are locked in ascending order to avoid deadlocks between flushes
+      BitSet shards = getShardsOf(buffers);
+      for (int i = shards.nextSetBit(0); i >= 0; i = shards.nextSetBit(i + 1)) {
+        myShards[i].lockAllocation();
+      }
+      try {
+        for (ByteBufferWrapper buffer : buffers.values()) {
+          if (buffer instanceof ReadWriteDirectBufferWrapper) {
+            if (buffer.isDirty()) {
+              dirtyBuffersByFile.computeIfAbsent(buffer.myFile, __ -> new ArrayList<>()).add((ReadWriteDirectBufferWrapper)buffer);
             }
           }
-          if (fileContext != null) {
-            fileContext.close();
+          else {
+            buffer.flush();
           }
         }
-        finally {
-          mySegmentsAllocationLock.unlock();
+
+        for (Map.Entry<File, List<ReadWriteDirectBufferWrapper>> entry : dirtyBuffersByFile.entrySet()) {
+          List<ReadWriteDirectBufferWrapper> fileBuffers = entry.getValue();
+          fileBuffers.sort(Comparator.comparingLong(buffer -> buffer.myPosition));
+          long bytes = 0;
+          for (ReadWriteDirectBufferWrapper buffer : fileBuffers) {
+            bytes += buffer.myLength;
+          }
+          try (ReadWriteDirectBufferWrapper.FileContext fileContext = new ReadWriteDirectBufferWrapper.FileContext(entry.getKey())) {
+            myFlushWrites.add(ReadWriteDirectBufferWrapper.flushSorted(fileContext, fileBuffers));
+            myFlushedBytes.add(bytes);
+            writtenFiles.add(entry.getKey());
+          }
+          catch (IOException e) {
+            LOG.error(e.getMessage(), e);
+          }
+        }
+      }
+      finally {
+        for (int i = shards.nextSetBit(0); i >= 0; i = shards.nextSetBit(i + 1)) {
+          myShards[i].mySegmentsAllocationLock.unlock();
+        }
+      }
+      myFlushLatency.record(System.nanoTime() - started);
+      return writtenFiles;
+    }
+
+    private void fsync(@Nonnull Collection<File> files) {
+      if (files.isEmpty()) return;
+      long started = System.nanoTime();
+      for (File file : files) {
+        try (ReadWriteDirectBufferWrapper.FileContext fileContext = new ReadWriteDirectBufferWrapper.FileContext(file)) {
+          fileContext.file.getChannel().force(false);
+        }
+        catch (IOException e) {
+          LOG.error(e.getMessage(), e);
         }
       }
+      myFsyncLatency.record(System.nanoTime() - started);
     }
 
     public void invalidateBuffer(int page) {
-      mySegmentsAccessLock.lock();
+      SegmentShard shard = myShards[getShardIndex(page)];
+      shard.lockAccess();
       try {
-        mySegments.remove(page);
+        shard.mySegments.remove(page);
       }
       finally {
-        mySegmentsAccessLock.unlock();
+        shard.mySegmentsAccessLock.unlock();
       }
-      mySegmentsAllocationLock.lock();
+      shard.lockAllocation();
       try {
-        disposeRemovedSegments();
+        shard.disposeRemovedSegments();
       }
       finally {
-        mySegmentsAllocationLock.unlock();
+        shard.mySegmentsAllocationLock.unlock();
+      }
+    }
+
+    private final class SegmentShard {
+      private final LinkedHashMap<Integer, ByteBufferWrapper> mySegments = new LinkedHashMap<Integer, ByteBufferWrapper>(10, 0.75f, true) {
+        @Nullable
+        @Override
+        public ByteBufferWrapper remove(Object key) {
+          // this method can be called from doRemoveEldestEntry
+          ByteBufferWrapper wrapper = super.remove(key);
+          if (wrapper != null) {
+            myMappingChangeCount.incrementAndGet();
+            mySegmentsToRemove.offer(wrapper);
+            mySize.addAndGet(-wrapper.myLength);
+          }
+          return wrapper;
+        }
+      };
+      private final ReentrantLock mySegmentsAccessLock = new ReentrantLock(); // protects map operations of mySegments, needed for LRU order
+      private final ReentrantLock mySegmentsAllocationLock = new ReentrantLock();
+      private final ConcurrentLinkedQueue<ByteBufferWrapper> mySegmentsToRemove = new ConcurrentLinkedQueue<>();
+
+      private void lockAccess() {
+        lockCounted(mySegmentsAccessLock);
+      }
+
+      private void lockAllocation() {
+        lockCounted(mySegmentsAllocationLock);
+      }
+
+      private void lockCounted(ReentrantLock lock) {
+        if (lock.tryLock()) return;
+        long started = System.nanoTime();
+        lock.lock();
+        myLockWaitNanos.add(System.nanoTime() - started);
+      }
+
+      private void evictEldest(long sizeLimit, int keep) {
+        lockAccess();
+        try {
+          while (mySize.get() > sizeLimit && mySegments.size() > keep) {
+            // we still have to drop something
+            mySegments.doRemoveEldestEntry();
+            myEvictions.increment();
+          }
+        }
+        finally {
+          mySegmentsAccessLock.unlock();
+        }
+
+        disposeRemovedSegments();
+      }
+
+      private void disposeRemovedSegments() {
+        if (mySegmentsToRemove.isEmpty()) return;
+
+        assert mySegmentsAllocationLock.isHeldByCurrentThread();
+        Iterator<ByteBufferWrapper> iterator = mySegmentsToRemove.iterator();
+        while (iterator.hasNext()) {
+          iterator.next().dispose();
+          iterator.remove();
+        }
+      }
+    }
+
+    public static final class Statistics {
+      private final long myHits;
+      private final long myMisses;
+      private final long myEvictions;
+      private final long myLockWaitNanos;
+      private final long myMappedSize;
+      private final long myMappedSizeLimit;
+      private final long myFlushedBytes;
+      private final long myFlushWrites;
+      private final LatencyHistogram myFlushLatency;
+      private final LatencyHistogram myFsyncLatency;
+
+      private Statistics(long hits,
+                         long misses,
+                         long evictions,
+                         long lockWaitNanos,
+                         long mappedSize,
+                         long mappedSizeLimit,
+                         long flushedBytes,
+                         long flushWrites,
+                         @Nonnull LatencyHistogram flushLatency,
+                         @Nonnull LatencyHistogram fsyncLatency) {
+        myHits = hits;
+        myMisses = misses;
+        myEvictions = evictions;
+        myLockWaitNanos = lockWaitNanos;
+        myMappedSize = mappedSize;
+        myMappedSizeLimit = mappedSizeLimit;
+        myFlushedBytes = flushedBytes;
+        myFlushWrites = flushWrites;
+        myFlushLatency = flushLatency;
+        myFsyncLatency = fsyncLatency;
+      }
+
+      public long getHits() {
+        return myHits;
+      }
+
+      public long getMisses() {
+        return myMisses;
+      }
+
+      public long getEvictions() {
+        return myEvictions;
+      }
+
+      public long getLockWaitNanos() {
+        return myLockWaitNanos;
+      }
+
+      public long getMappedSize() {
+        return myMappedSize;
+      }
+
+      public long getMappedSizeLimit() {
+        return myMappedSizeLimit;
+      }
+
+      public long getFlushedBytes() {
+        return myFlushedBytes;
+      }
+
+      public long getFlushWrites() {
+        return myFlushWrites;
+      }
+
+      @Nonnull
+      public LatencyHistogram getFlushLatency() {
+        return myFlushLatency;
+      }
+
+      @Nonnull
+      public LatencyHistogram getFsyncLatency() {
+        return myFsyncLatency;
+      }
+
+      @Override
+      public String toString() {
+        return "hits=" + myHits + "; misses=" + myMisses + "; evictions=" + myEvictions +
+               "; lock wait=" + myLockWaitNanos / 1000000 + "ms; mapped=" + myMappedSize / MB + "MB of " + myMappedSizeLimit / MB + "MB" +
+               "; flushed=" + myFlushedBytes / MB + "MB in " + myFlushWrites + " writes; flush latency: " + myFlushLatency +
+               "; fsync latency: " + myFsyncLatency;
       }
     }
   }
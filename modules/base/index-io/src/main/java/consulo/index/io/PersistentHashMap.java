@@ -12,6 +12,7 @@ import consulo.util.io.BufferExposingByteArrayOutputStream;
 import consulo.util.io.FilePermissionCopier;
 import consulo.util.io.FileUtil;
 import consulo.util.io.UnsyncByteArrayInputStream;
+import consulo.util.lang.Pair;
 import consulo.util.lang.StringUtil;
 import consulo.util.lang.SystemProperties;
 import consulo.util.lang.ThreadLocalCachedValue;
@@ -23,9 +24,10 @@ import org.slf4j.LoggerFactory;
 import jakarta.annotation.Nonnull;
 import jakarta.annotation.Nullable;
 import java.io.*;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
 import java.util.function.Predicate;
 
 /**
@@ -117,6 +119,10 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
 
   private final Runnable myAppendCacheFlusher = LowMemoryWatcherInternal.register(this::dropMemoryCaches);
 
+  // guarded by myEnumerator
+  @Nullable
+  private PersistentHashMapBloomFilter myBloomFilter;
+
   public PersistentHashMap(@Nonnull final File file, @Nonnull KeyDescriptor<Key> keyDescriptor, @Nonnull DataExternalizer<Value> valueExternalizer) throws IOException {
     this(file, keyDescriptor, valueExternalizer, INITIAL_INDEX_SIZE);
   }
@@ -201,9 +207,13 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
       myReadCompactionGarbageSize = (int)(data2 >>> 32);
       myCanReEnumerate = myEnumerator.canReEnumerate();
 
+      if (useBloomFilter()) {
+        loadOrBuildBloomFilter();
+      }
       if (makesSenseToCompact()) {
         compact();
       }
+      if (!myIsReadOnly) IOStatistics.registerMap(this);
     }
     catch (IOException e) {
       try {
@@ -238,6 +248,89 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
     return false;
   }
 
+  /**
+   * Maps with many lookups of absent keys can keep a bloom filter of their keys, which is saved next to the map on close.
+   */
+  protected boolean useBloomFilter() {
+    return false;
+  }
+
+  @Nonnull
+  private File getBloomFilterFile() {
+    return new File(myStorageFile.getPath() + ".bloom");
+  }
+
+  private void loadOrBuildBloomFilter() throws IOException {
+    File file = getBloomFilterFile();
+    PersistentHashMapBloomFilter filter = PersistentHashMapBloomFilter.load(file);
+    if (!myIsReadOnly) {
+      // the filter is saved on close only, a map which was not closed properly may contain keys missing in the saved filter
+      FileUtil.delete(file);
+    }
+    if (filter == null || filter.isSaturated()) {
+      buildBloomFilter(getTargetBloomFilterCapacity());
+    }
+    else {
+      myBloomFilter = filter;
+    }
+  }
+
+  private void buildBloomFilter(int capacity) throws IOException {
+    PersistentHashMapBloomFilter filter = new PersistentHashMapBloomFilter(capacity);
+    // all enumerated keys, including ones without mapping: an extra key only costs a false positive
+    processKeys(key -> {
+      filter.add(myKeyDescriptor.hashCode(key));
+      return true;
+    });
+    if (filter.isSaturated()) {
+      // enumerator keeps many keys without values
+      buildBloomFilter(2 * filter.getElementCount());
+      return;
+    }
+    myBloomFilter = filter;
+  }
+
+  // twice the live keys, so the filter is rebuilt after as many new keys are added as the map has
+  private int getTargetBloomFilterCapacity() {
+    return Math.max(PersistentHashMapBloomFilter.MIN_CAPACITY, 2 * getSize());
+  }
+
+  private void addToBloomFilter(Key key) throws IOException {
+    PersistentHashMapBloomFilter filter = myBloomFilter;
+    if (filter == null) return;
+    filter.add(myKeyDescriptor.hashCode(key));
+    if (filter.isSaturated()) {
+      myBloomFilter = null;
+      buildBloomFilter(getTargetBloomFilterCapacity());
+    }
+  }
+
+  @TestOnly
+  int getBloomFilterCapacity() {
+    PersistentHashMapBloomFilter filter = myBloomFilter;
+    return filter == null ? -1 : filter.getCapacity();
+  }
+
+  private boolean isDefinitelyAbsent(Key key) {
+    PersistentHashMapBloomFilter filter = myBloomFilter;
+    if (filter == null || filter.maybeContains(myKeyDescriptor.hashCode(key))) return false;
+    IOStatistics.ourBloomFilterNegatives.increment();
+    return true;
+  }
+
+  private void countBloomFilterLookup(boolean found) {
+    if (myBloomFilter == null) return;
+    (found ? IOStatistics.ourBloomFilterHits : IOStatistics.ourBloomFilterFalsePositives).increment();
+  }
+
+  /**
+   * @return summary of lookups answered by bloom filters of all maps, see {@link #useBloomFilter()}
+   */
+  @Nonnull
+  public static String getBloomFilterStatistics() {
+    return IOStatistics.getBloomFilterStatistics();
+  }
+
   private static final int MAX_RECYCLED_BUFFER_SIZE = 4096;
 
   private SLRUCache<Key, BufferExposingByteArrayOutputStream> createAppendCache(final KeyDescriptor<Key> keyDescriptor) {
@@ -288,6 +381,88 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
     return (int)myLiveAndGarbageKeysCounter;
   }
 
+  /**
+   * @return approximate number of bytes in the value storage occupied by values of removed or rewritten keys
+   */
+  public long getEstimatedGarbageBytes() {
+    synchronized (myEnumerator) {
+      final long fileSize = myValueStorage.getSize();
+      int liveKeys = getLiveKeyCount();
+      int deadKeys = getDeadKeyCount();
+      if (liveKeys + deadKeys <= 0) return 0;
+
+      final long avgValueSize = fileSize / (liveKeys + deadKeys);
+      return Math.min(fileSize, avgValueSize * deadKeys + myReadCompactionGarbageSize);
+    }
+  }
+
+  public long getValueStorageSize() {
+    synchronized (myEnumerator) {
+      return myValueStorage.getSize();
+    }
+  }
+
+  /**
+   * @return live and dead key counts and the estimated garbage share of the value storage, for reports
+   */
+  @Nonnull
+  public String getFragmentationStatistics() {
+    synchronized (myEnumerator) {
+      int liveKeys = getLiveKeyCount();
+      int deadKeys = getDeadKeyCount();
+      long size = myValueStorage.getSize();
+      long garbage = getEstimatedGarbageBytes();
+      return "live keys: " + liveKeys + ", dead keys: " + deadKeys + ", live/dead ratio: " +
+             (deadKeys == 0 ? "-" : String.format("%.2f", (double)liveKeys / deadKeys)) + ", garbage: " + garbage + " of " + size + " bytes";
+    }
+  }
+
+  private int getLiveKeyCount() {
+    return (int)(myLiveAndGarbageKeysCounter / LIVE_KEY_MASK);
+  }
+
+  private int getDeadKeyCount() {
+    return (int)(myLiveAndGarbageKeysCounter & DEAD_KEY_NUMBER_MASK);
+  }
+
+  /**
+   * Compacts the map when at least {@code minGarbageRatio} of its value storage is estimated to be garbage.
+   * Unlike {@link #makesSenseToCompact()} this does not require the storage to be large, and is meant to be called
+   * in background when the application is idle.
+   *
+   * @return true if the map was compacted
+   */
+  public boolean compactIfFragmented(double minGarbageRatio, long minGarbageBytes) throws IOException {
+    if (myIsReadOnly) return false;
+    synchronized (myEnumerator) {
+      if (isClosed() || isCorrupted()) return false;
+      long garbage = getEstimatedGarbageBytes();
+      long size = myValueStorage.getSize();
+      if (garbage < minGarbageBytes || size == 0 || (double)garbage / size < minGarbageRatio) return false;
+      compact();
+      return true;
+    }
+  }
+
+  /**
+   * @return writable maps currently opened in this process, the most fragmented first
+   */
+  @Nonnull
+  public static List<PersistentHashMap<?, ?>> getOpenMapsByGarbageSize() {
+    List<PersistentHashMap<?, ?>> maps = IOStatistics.getOpenMaps();
+    List<Pair<PersistentHashMap<?, ?>, Long>> withGarbage = new ArrayList<>(maps.size());
+    for (PersistentHashMap<?, ?> map : maps) {
+      if (map.isClosed()) continue;
+      withGarbage.add(Pair.create(map, map.getEstimatedGarbageBytes()));
+    }
+    withGarbage.sort((o1, o2) -> Long.compare(o2.second, o1.second));
+    List<PersistentHashMap<?, ?>> result = new ArrayList<>(withGarbage.size());
+    for (Pair<PersistentHashMap<?, ?>, Long> pair : withGarbage) {
+      result.add(pair.first);
+    }
+    return result;
+  }
+
   public File getBaseFile() {
     return myEnumerator.myFile;
   }
@@ -338,6 +513,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
     synchronized (myEnumerator) {
       try {
         doPut(key, value);
+        addToBloomFilter(key);
       }
       catch (IOException ex) {
         myEnumerator.markCorrupted();
@@ -420,6 +596,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
     synchronized (myEnumerator) {
       try {
         doAppendData(key, appender);
+        addToBloomFilter(key);
       }
       catch (IOException ex) {
         myEnumerator.markCorrupted();
@@ -538,9 +715,12 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   @Override
   public final Value get(Key key) throws IOException {
     synchronized (myEnumerator) {
+      if (isDefinitelyAbsent(key)) return null;
       myBusyReading = true;
       try {
-        return doGet(key);
+        Value value = doGet(key);
+        countBloomFilterLookup(value != null);
+        return value;
       }
       catch (IOException ex) {
         myEnumerator.markCorrupted();
@@ -629,7 +809,10 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
 
   public final boolean containsMapping(Key key) throws IOException {
     synchronized (myEnumerator) {
-      return doContainsMapping(key);
+      if (isDefinitelyAbsent(key)) return false;
+      boolean contains = doContainsMapping(key);
+      countBloomFilterLookup(contains);
+      return contains;
     }
   }
 
@@ -727,8 +910,27 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   @Override
   public final void close() throws IOException {
     if (myDoTrace) LOG.info("Closed " + myStorageFile);
+    IOStatistics.unregisterMap(this);
     synchronized (myEnumerator) {
-      doClose();
+      try {
+        doClose();
+      }
+      finally {
+        saveBloomFilter();
+      }
+    }
+  }
+
+  private void saveBloomFilter() {
+    PersistentHashMapBloomFilter filter = myBloomFilter;
+    myBloomFilter = null;
+    if (filter == null || myIsReadOnly || isCorrupted()) return;
+    try {
+      filter.save(getBloomFilterFile());
+    }
+    catch (IOException e) {
+      LOG.info("Cannot save bloom filter of " + myStorageFile, e);
+      FileUtil.delete(getBloomFilterFile());
     }
   }
 
@@ -829,25 +1031,28 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
 
       myValueStorage.dispose();
 
-      if (oldFiles != null) {
-        for (File f : oldFiles) {
-          assert FileUtil.deleteWithRenaming(f);
-        }
-      }
-
       final long newSize = newStorage.getSize();
 
       File newDataFile = new File(newPath);
       final String newBaseName = newDataFile.getName();
       final File[] newFiles = getFilesInDirectoryWithNameStartingWith(newDataFile, newBaseName);
 
+      // newFiles should get the same names as oldDataFiles, each replaces its old file in one step,
+      // so a crash never leaves the map without a value storage
+      Set<File> replacedFiles = new HashSet<>();
       if (newFiles != null) {
         File parentFile = newDataFile.getParentFile();
-
-        // newFiles should get the same names as oldDataFiles
         for (File f : newFiles) {
-          String nameAfterRename = StringUtil.replace(f.getName(), newBaseName, oldDataFileBaseName);
-          FileUtil.rename(f, new File(parentFile, nameAfterRename), FilePermissionCopier.BY_NIO2);
+          File target = new File(parentFile, StringUtil.replace(f.getName(), newBaseName, oldDataFileBaseName));
+          replaceFile(f, target);
+          replacedFiles.add(target);
+        }
+      }
+      if (oldFiles != null) {
+        for (File f : oldFiles) {
+          if (!replacedFiles.contains(f) && !FileUtil.delete(f)) {
+            LOG.info("Cannot delete " + f + " after compaction");
+          }
         }
       }
 
@@ -855,6 +1060,10 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
       LOG.info("Compacted " + myEnumerator.myFile.getPath() + ":" + sizeBefore + " bytes into " + newSize + " bytes in " + (System.currentTimeMillis() - now) + "ms.");
       myEnumerator.putMetaData(myLiveAndGarbageKeysCounter);
       myEnumerator.putMetaData2(myLargeIndexWatermarkId);
+      if (myBloomFilter != null) {
+        // drop keys removed since the filter was built
+        buildBloomFilter(getTargetBloomFilterCapacity());
+      }
       if (myDoTrace) {
         if (!myEnumerator.isDirty()) {
           LOG.error("assertion failed", new AssertionError());
@@ -863,6 +1072,15 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
     }
   }
 
+  private static void replaceFile(@Nonnull File source, @Nonnull File target) throws IOException {
+    try {
+      Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+    catch (AtomicMoveNotSupportedException e) {
+      Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
   private static File[] getFilesInDirectoryWithNameStartingWith(@Nonnull File fileFromDirectory, @Nonnull final String baseFileName) {
     File parentFile = fileFromDirectory.getParentFile();
     return parentFile != null ? parentFile.listFiles(pathname -> pathname.getName().startsWith(baseFileName)) : null;
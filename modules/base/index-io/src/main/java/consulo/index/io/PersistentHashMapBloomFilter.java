@@ -0,0 +1,111 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.index.io;
+
+import consulo.util.nodep.BloomFilterBase;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+
+import java.io.*;
+
+/**
+ * Bloom filter over key hashes of a {@link PersistentHashMap}, used to answer negative lookups without touching the enumerator
+ * and value storage pages. Keys are never removed from the filter, removed keys just become false positives until the filter
+ * is rebuilt on compaction or when it runs out of capacity.
+ */
+final class PersistentHashMapBloomFilter extends BloomFilterBase {
+  private static final int VERSION = 1;
+  private static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+  static final int MIN_CAPACITY = 1024;
+
+  private final int myCapacity;
+  private int myElementCount;
+
+  PersistentHashMapBloomFilter(int capacity) {
+    super(capacity, FALSE_POSITIVE_PROBABILITY);
+    myCapacity = capacity;
+  }
+
+  private PersistentHashMapBloomFilter(@Nonnull DataInput input, int capacity, int elementCount) throws IOException {
+    super(input);
+    myCapacity = capacity;
+    myElementCount = elementCount;
+  }
+
+  /**
+   * Keys which the filter may already contain aren't counted, so putting the same keys again doesn't saturate it. Such a key can be
+   * a new one too, the filter then holds slightly more keys than counted, by its false positive rate at most.
+   */
+  void add(int keyHash) {
+    int secondHash = secondHash(keyHash);
+    if (maybeContains(keyHash, secondHash)) return;
+    addIt(keyHash, secondHash);
+    myElementCount++;
+  }
+
+  boolean maybeContains(int keyHash) {
+    return maybeContains(keyHash, secondHash(keyHash));
+  }
+
+  /**
+   * @return true if more keys were added than the filter was sized for, so its false positive rate is above the target one
+   */
+  boolean isSaturated() {
+    return myElementCount > myCapacity;
+  }
+
+  int getCapacity() {
+    return myCapacity;
+  }
+
+  int getElementCount() {
+    return myElementCount;
+  }
+
+  private static int secondHash(int hash) {
+    // murmur3 finalizer, spreads key hashes which often differ only in few low bits
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    hash *= 0xc2b2ae35;
+    hash ^= hash >>> 16;
+    return hash;
+  }
+
+  void save(@Nonnull File file) throws IOException {
+    try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+      output.writeInt(VERSION);
+      output.writeInt(myCapacity);
+      output.writeInt(myElementCount);
+      save(output);
+    }
+  }
+
+  @Nullable
+  static PersistentHashMapBloomFilter load(@Nonnull File file) {
+    if (!file.exists()) return null;
+    try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (input.readInt() != VERSION) return null;
+      int capacity = input.readInt();
+      int elementCount = input.readInt();
+      return new PersistentHashMapBloomFilter(input, capacity, elementCount);
+    }
+    catch (IOException e) {
+      IOStatistics.LOG.info("Cannot load bloom filter from " + file, e);
+      return null;
+    }
+  }
+}
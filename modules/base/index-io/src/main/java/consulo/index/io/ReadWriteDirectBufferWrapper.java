@@ -5,6 +5,7 @@ import consulo.util.io.FileUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import jakarta.annotation.Nonnull;
 import jakarta.annotation.Nullable;
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -12,6 +13,8 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
 
 public class ReadWriteDirectBufferWrapper extends DirectBufferWrapper {
   private static final Logger LOG = LoggerFactory.getLogger(ReadWriteDirectBufferWrapper.class);
@@ -103,6 +106,53 @@ public class ReadWriteDirectBufferWrapper extends DirectBufferWrapper {
     myDirty = false;
   }
 
+  /**
+   * Writes dirty buffers of one file, adjacent buffers are written with a single gathering write.
+   *
+   * @param buffers buffers of {@code fileContext} file sorted by position
+   * @return number of write calls issued
+   */
+  static int flushSorted(@Nonnull FileContext fileContext, @Nonnull List<ReadWriteDirectBufferWrapper> buffers) throws IOException {
+    RandomAccessFile file = fileContext.file;
+    assert file != null;
+    FileChannel channel = file.getChannel();
+    List<ReadWriteDirectBufferWrapper> run = new ArrayList<>();
+    List<ByteBuffer> runBuffers = new ArrayList<>();
+    int writes = 0;
+    for (int i = 0; i <= buffers.size(); i++) {
+      ReadWriteDirectBufferWrapper wrapper = i < buffers.size() ? buffers.get(i) : null;
+      ByteBuffer buffer = wrapper != null && wrapper.isDirty() ? wrapper.getCachedBuffer() : null;
+      boolean continuesRun = buffer != null && !run.isEmpty() &&
+                             run.get(run.size() - 1).myPosition + runBuffers.get(runBuffers.size() - 1).limit() == wrapper.myPosition;
+      if (!continuesRun && !run.isEmpty()) {
+        writeRun(channel, run, runBuffers);
+        writes++;
+        run.clear();
+        runBuffers.clear();
+      }
+      if (buffer != null) {
+        run.add(wrapper);
+        runBuffers.add((ByteBuffer)buffer.duplicate().rewind());
+      }
+    }
+    return writes;
+  }
+
+  private static void writeRun(FileChannel channel, List<ReadWriteDirectBufferWrapper> run, List<ByteBuffer> runBuffers) throws IOException {
+    ByteBuffer[] buffers = runBuffers.toArray(new ByteBuffer[0]);
+    long remaining = 0;
+    for (ByteBuffer buffer : buffers) {
+      remaining += buffer.remaining();
+    }
+    channel.position(run.get(0).myPosition);
+    while (remaining > 0) {
+      remaining -= channel.write(buffers);
+    }
+    for (ReadWriteDirectBufferWrapper wrapper : run) {
+      wrapper.myDirty = false;
+    }
+  }
+
   @Override
   public void flush() {
     ByteBuffer buffer = getCachedBuffer();
@@ -213,6 +213,7 @@ public class SortedIdSet implements Cloneable, RandomAccessIntContainer {
     int newSize = mySetLength + count;
     if (newSize < mySet.length) return this;
     if (newSize > ChangeBufferingList.MAX_FILES) {
+      if (ChangeBufferingList.COMPRESSED_OFF_HEAP_ID_SETS) return CompressedIdSet.copyOf(intIterator(), true);
       return new IdBitSet(this, count);
     }
 
@@ -13,6 +13,7 @@ module consulo.index.io {
   requires org.slf4j;
 
   requires consulo.container.api;
+  requires consulo.util.nodep;
 
   exports consulo.index.io;
   exports consulo.index.io.data;
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.index.io;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+public class CompressedIdSetTest {
+  @Test
+  public void testAddRemoveContains() {
+    for (boolean offHeap : new boolean[]{false, true}) {
+      CompressedIdSet set = new CompressedIdSet(offHeap);
+      assertTrue(set.add(5));
+      assertFalse(set.add(5));
+      assertTrue(set.add(70000));
+      assertTrue(set.add(0));
+      assertEquals(3, set.size());
+      assertTrue(set.contains(70000));
+      assertFalse(set.contains(70001));
+      assertFalse(set.contains(-1));
+      assertTrue(set.remove(5));
+      assertFalse(set.remove(5));
+      assertEquals(2, set.size());
+      assertEquals(List.of(0, 70000), toList(set));
+    }
+  }
+
+  @Test
+  public void testRandomOperationsMatchTreeSet() {
+    Random random = new Random(42);
+    for (boolean offHeap : new boolean[]{false, true}) {
+      CompressedIdSet set = new CompressedIdSet(offHeap);
+      TreeSet<Integer> expected = new TreeSet<>();
+      for (int i = 0; i < 200_000; i++) {
+        // a narrow range makes some chunks dense enough to become bitmaps and go back to arrays on removal
+        int id = random.nextInt(4) == 0 ? random.nextInt(1 << 20) : random.nextInt(12_000);
+        if (random.nextInt(3) == 0) {
+          assertEquals(expected.remove(id), set.remove(id));
+        }
+        else {
+          assertEquals(expected.add(id), set.add(id));
+        }
+      }
+      assertEquals(expected.size(), set.size());
+      assertEquals(new ArrayList<>(expected), toList(set));
+
+      set.compact();
+      assertEquals(new ArrayList<>(expected), toList(set));
+    }
+  }
+
+  @Test
+  public void testRetainAll() {
+    Random random = new Random(7);
+    CompressedIdSet first = new CompressedIdSet(true);
+    CompressedIdSet second = new CompressedIdSet(false);
+    TreeSet<Integer> expected = new TreeSet<>();
+    TreeSet<Integer> other = new TreeSet<>();
+    for (int i = 0; i < 50_000; i++) {
+      int a = random.nextInt(300_000);
+      int b = random.nextInt(i % 2 == 0 ? 10_000 : 300_000);
+      first.add(a);
+      expected.add(a);
+      second.add(b);
+      other.add(b);
+    }
+    // dense bitmap chunks on both sides
+    for (int i = 0; i < 9000; i++) {
+      first.add(i * 2);
+      expected.add(i * 2);
+      second.add(i * 3);
+      other.add(i * 3);
+    }
+
+    first.retainAll(second);
+    expected.retainAll(other);
+    assertEquals(expected.size(), first.size());
+    assertEquals(new ArrayList<>(expected), toList(first));
+
+    first.retainAll(new CompressedIdSet(false));
+    assertTrue(first.isEmpty());
+    assertFalse(first.intIterator().hasNext());
+  }
+
+  @Test
+  public void testAddAll() {
+    Random random = new Random(11);
+    CompressedIdSet first = new CompressedIdSet(false);
+    CompressedIdSet second = new CompressedIdSet(true);
+    TreeSet<Integer> expected = new TreeSet<>();
+    for (int i = 0; i < 30_000; i++) {
+      int a = random.nextInt(200_000);
+      int b = random.nextInt(i % 2 == 0 ? 8_000 : 400_000);
+      first.add(a);
+      second.add(b);
+      expected.add(a);
+      expected.add(b);
+    }
+
+    first.addAll(second);
+    assertEquals(expected.size(), first.size());
+    assertEquals(new ArrayList<>(expected), toList(first));
+
+    // chunks copied from the other set must not be shared with it
+    second.remove(second.intIterator().next());
+    assertEquals(new ArrayList<>(expected), toList(first));
+  }
+
+  @Test
+  public void testCloneIsIndependent() {
+    CompressedIdSet set = new CompressedIdSet(true);
+    for (int i = 0; i < 10_000; i++) set.add(i * 7);
+    CompressedIdSet clone = set.clone();
+    set.add(1);
+    clone.remove(0);
+    assertTrue(set.contains(0));
+    assertFalse(clone.contains(1));
+    assertEquals(10_001, set.size());
+    assertEquals(9_999, clone.size());
+  }
+
+  private static List<Integer> toList(CompressedIdSet set) {
+    List<Integer> result = new ArrayList<>();
+    for (ValueContainer.IntIterator iterator = set.intIterator(); iterator.hasNext(); ) {
+      result.add(iterator.next());
+    }
+    return result;
+  }
+}
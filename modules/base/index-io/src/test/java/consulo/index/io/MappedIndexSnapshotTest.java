@@ -0,0 +1,114 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.index.io;
+
+import consulo.index.io.internal.ValueContainerImpl;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+
+import static org.junit.Assert.*;
+
+public class MappedIndexSnapshotTest {
+  @Rule
+  public TemporaryFolder myTempDir = new TemporaryFolder();
+
+  private File writeSnapshot() throws IOException {
+    IndexSnapshotWriter<String, Integer> writer =
+      new IndexSnapshotWriter<>(EnumeratorStringDescriptor.INSTANCE, EnumeratorIntegerDescriptor.INSTANCE, null);
+
+    ValueContainerImpl<Integer> foo = new ValueContainerImpl<>();
+    foo.addValue(3, 100);
+    foo.addValue(1, 100);
+    foo.addValue(2, 200);
+    writer.add("foo", foo);
+
+    ValueContainerImpl<Integer> bar = new ValueContainerImpl<>();
+    bar.addValue(4, 300);
+    writer.add("bar", bar);
+
+    File file = myTempDir.newFile("index" + MappedIndexSnapshot.FILE_EXTENSION);
+    writer.write(file);
+    return file;
+  }
+
+  private static Map<Integer, List<Integer>> readValues(ValueContainer<Integer> container) {
+    Map<Integer, List<Integer>> result = new TreeMap<>();
+    for (ValueContainer.ValueIterator<Integer> iterator = container.getValueIterator(); iterator.hasNext(); ) {
+      Integer value = iterator.next();
+      List<Integer> ids = new ArrayList<>();
+      ValueContainer.IntIterator idIterator = iterator.getInputIdsIterator();
+      int size = idIterator.size();
+      while (idIterator.hasNext()) {
+        ids.add(idIterator.next());
+      }
+      assertEquals(ids.size(), size);
+      ValueContainer.IntPredicate predicate = iterator.getValueAssociationPredicate();
+      for (int id = -1; id <= 50; id++) {
+        assertEquals("id " + id + " of value " + value, ids.contains(id), predicate.contains(id));
+      }
+      result.put(value, ids);
+    }
+    return result;
+  }
+
+  private static List<String> collectKeys(MappedIndexSnapshot<String, Integer> snapshot, IntPredicate inputFilter) throws IOException {
+    List<String> keys = new ArrayList<>();
+    snapshot.processKeys(keys::add, inputFilter);
+    Collections.sort(keys);
+    return keys;
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    File file = writeSnapshot();
+    MappedIndexSnapshot<String, Integer> snapshot = new MappedIndexSnapshot<>(file, EnumeratorStringDescriptor.INSTANCE, EnumeratorIntegerDescriptor.INSTANCE, null);
+    assertEquals(2, snapshot.getKeyCount());
+
+    Map<Integer, List<Integer>> expected = new TreeMap<>();
+    expected.put(100, Arrays.asList(1, 3));
+    expected.put(200, Collections.singletonList(2));
+    assertEquals(expected, readValues(snapshot.get("foo")));
+    assertEquals(Collections.singletonMap(300, Collections.singletonList(4)), readValues(snapshot.get("bar")));
+    assertEquals(0, snapshot.get("baz").size());
+
+    assertEquals(Arrays.asList("bar", "foo"), collectKeys(snapshot, null));
+    assertEquals(Collections.singletonList("foo"), collectKeys(snapshot, id -> id == 2));
+  }
+
+  @Test
+  public void testRemappingDropsUnknownIds() throws IOException {
+    File file = writeSnapshot();
+    // 1 -> 30, 2 -> 10, 3 -> 20, ids 4 and up are unknown
+    IntUnaryOperator remapping = id -> id == 1 ? 30 : id == 2 ? 10 : id == 3 ? 20 : 0;
+    MappedIndexSnapshot<String, Integer> snapshot = new MappedIndexSnapshot<>(file, EnumeratorStringDescriptor.INSTANCE, EnumeratorIntegerDescriptor.INSTANCE, remapping);
+
+    Map<Integer, List<Integer>> expected = new TreeMap<>();
+    expected.put(100, Arrays.asList(20, 30));
+    expected.put(200, Collections.singletonList(10));
+    assertEquals(expected, readValues(snapshot.get("foo")));
+    assertEquals(Collections.singletonMap(300, Collections.emptyList()), readValues(snapshot.get("bar")));
+
+    assertEquals(Collections.singletonList("foo"), collectKeys(snapshot, id -> true));
+    assertEquals(Collections.emptyList(), collectKeys(snapshot, id -> id == 0));
+  }
+}
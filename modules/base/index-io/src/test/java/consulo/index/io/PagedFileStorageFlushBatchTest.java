@@ -0,0 +1,146 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.index.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class PagedFileStorageFlushBatchTest {
+  private static final int PAGE_SIZE = 4096;
+  private static final byte[] DATA = {1, 2, 3, 4, 5, 6, 7, 8};
+
+  @Rule
+  public TemporaryFolder myTempDir = new TemporaryFolder();
+
+  private static PagedFileStorage createStorage(File file) throws IOException {
+    PagedFileStorage storage = new PagedFileStorage(file, (PagedFileStorage.StorageLockContext)null, PAGE_SIZE, false);
+    storage.lock();
+    try {
+      storage.resize(PAGE_SIZE);
+    }
+    finally {
+      storage.unlock();
+    }
+    return storage;
+  }
+
+  private static void write(PagedFileStorage storage, long offset) {
+    storage.lock();
+    try {
+      storage.put(offset, DATA, 0, DATA.length);
+      storage.force();
+    }
+    finally {
+      storage.unlock();
+    }
+  }
+
+  private static byte[] readFromDisk(File file, long offset) throws IOException {
+    byte[] result = new byte[DATA.length];
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      raf.seek(offset);
+      raf.readFully(result);
+    }
+    return result;
+  }
+
+  @Test
+  public void testForcedStorageStaysDirtyUntilBatchIsWritten() throws IOException {
+    File file = myTempDir.newFile("storage");
+    PagedFileStorage storage = createStorage(file);
+    try {
+      AtomicReference<byte[]> onDiskInsideBatch = new AtomicReference<>();
+      PagedFileStorage.runWithBatchedFlush(() -> {
+        write(storage, 100);
+        assertTrue("storage must not be reported clean before its pages are written", storage.isDirty());
+        try {
+          onDiskInsideBatch.set(readFromDisk(file, 100));
+        }
+        catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      });
+      assertArrayEquals(new byte[DATA.length], onDiskInsideBatch.get());
+
+      assertFalse(storage.isDirty());
+      assertArrayEquals(DATA, readFromDisk(file, 100));
+    }
+    finally {
+      storage.lock();
+      try {
+        storage.close();
+      }
+      finally {
+        storage.unlock();
+      }
+    }
+  }
+
+  @Test
+  public void testForceOnAnotherThreadFlushesSynchronouslyWhileBatchIsPending() throws Exception {
+    File file = myTempDir.newFile("storage");
+    PagedFileStorage storage = createStorage(file);
+    try {
+      AtomicReference<byte[]> onDiskInsideBatch = new AtomicReference<>();
+      AtomicReference<Throwable> failure = new AtomicReference<>();
+      PagedFileStorage.runWithBatchedFlush(() -> {
+        write(storage, 200);
+        Thread thread = new Thread(() -> {
+          try {
+            storage.lock();
+            try {
+              storage.force();
+            }
+            finally {
+              storage.unlock();
+            }
+            onDiskInsideBatch.set(readFromDisk(file, 200));
+          }
+          catch (Throwable e) {
+            failure.set(e);
+          }
+        });
+        thread.start();
+        try {
+          thread.join();
+        }
+        catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      });
+      assertNull(failure.get());
+      assertArrayEquals(DATA, onDiskInsideBatch.get());
+      assertFalse(storage.isDirty());
+    }
+    finally {
+      storage.lock();
+      try {
+        storage.close();
+      }
+      finally {
+        storage.unlock();
+      }
+    }
+  }
+}
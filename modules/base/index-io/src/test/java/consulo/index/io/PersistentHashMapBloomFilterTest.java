@@ -0,0 +1,112 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.index.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class PersistentHashMapBloomFilterTest {
+  @Rule
+  public TemporaryFolder myTempDir = new TemporaryFolder();
+
+  private PersistentHashMap<String, Integer> createMap(File file) throws IOException {
+    return new PersistentHashMap<String, Integer>(file, EnumeratorStringDescriptor.INSTANCE, EnumeratorIntegerDescriptor.INSTANCE) {
+      @Override
+      protected boolean useBloomFilter() {
+        return true;
+      }
+    };
+  }
+
+  @Test
+  public void testCountsDistinctKeysOnly() {
+    PersistentHashMapBloomFilter filter = new PersistentHashMapBloomFilter(PersistentHashMapBloomFilter.MIN_CAPACITY);
+    for (int round = 0; round < 10; round++) {
+      for (int i = 0; i < 1000; i++) {
+        filter.add(("key" + i).hashCode());
+      }
+    }
+    assertTrue(filter.getElementCount() <= 1000);
+    assertFalse(filter.isSaturated());
+  }
+
+  @Test
+  public void testCapacityIsStableOnRepeatedPuts() throws IOException {
+    PersistentHashMap<String, Integer> map = createMap(new File(myTempDir.getRoot(), "map"));
+    try {
+      for (int i = 0; i < 3000; i++) {
+        map.put("key" + i, i);
+      }
+      int capacity = map.getBloomFilterCapacity();
+      assertTrue(capacity >= 3000);
+
+      // an index storage puts the same keys again and again
+      for (int round = 0; round < 20; round++) {
+        for (int i = 0; i < 3000; i++) {
+          map.put("key" + i, i + round);
+        }
+      }
+      assertEquals(capacity, map.getBloomFilterCapacity());
+    }
+    finally {
+      map.close();
+    }
+  }
+
+  @Test
+  public void testNoFalseNegativesAfterRebuildAndReopen() throws IOException {
+    File file = new File(myTempDir.getRoot(), "map");
+    PersistentHashMap<String, Integer> map = createMap(file);
+    int initialCapacity = map.getBloomFilterCapacity();
+    // enough keys to rebuild the filter a few times
+    int count = 10 * initialCapacity;
+    try {
+      for (int i = 0; i < count; i++) {
+        map.put("key" + i, i);
+      }
+      assertTrue(map.getBloomFilterCapacity() > initialCapacity);
+      assertAllKeysFound(map, count);
+      assertNull(map.get("absent"));
+    }
+    finally {
+      map.close();
+    }
+
+    // the saved filter is loaded
+    map = createMap(file);
+    try {
+      assertAllKeysFound(map, count);
+      map.put("added after reopen", -1);
+      assertEquals(Integer.valueOf(-1), map.get("added after reopen"));
+    }
+    finally {
+      map.close();
+    }
+  }
+
+  private static void assertAllKeysFound(PersistentHashMap<String, Integer> map, int count) throws IOException {
+    for (int i = 0; i < count; i++) {
+      assertEquals("key" + i, Integer.valueOf(i), map.get("key" + i));
+      assertTrue(map.containsMapping("key" + i));
+    }
+  }
+}
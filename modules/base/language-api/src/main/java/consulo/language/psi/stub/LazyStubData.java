@@ -2,19 +2,19 @@
 package consulo.language.psi.stub;
 
 import consulo.index.io.AbstractStringEnumerator;
-import consulo.util.collection.ArrayUtil;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.BitSet;
 
 class LazyStubData {
   private final AbstractStringEnumerator myStorage;
   private final MostlyUShortIntList myParentsAndStarts;
-  private final byte[] mySerializedStubs;
+  // read-only, may be a view of the whole serialized tree, so every stub is decoded straight from it
+  private final ByteBuffer mySerializedStubs;
   private final BitSet myAllStarts;
 
-  LazyStubData(AbstractStringEnumerator storage, MostlyUShortIntList parentsAndStarts, byte[] serializedStubs, BitSet allStarts) {
+  LazyStubData(AbstractStringEnumerator storage, MostlyUShortIntList parentsAndStarts, ByteBuffer serializedStubs, BitSet allStarts) {
     myStorage = storage;
     myParentsAndStarts = parentsAndStarts;
     mySerializedStubs = serializedStubs;
@@ -40,12 +40,16 @@ class LazyStubData {
     return stub;
   }
 
-  private ByteArrayInputStream stubBytes(int index) {
+  private StubBufferInputStream stubBytes(int index) {
     int start = getDataStart(index);
-    if (start == 0) return new ByteArrayInputStream(ArrayUtil.EMPTY_BYTE_ARRAY);
+    if (start == 0) return new StubBufferInputStream(StubBufferInputStream.EMPTY_BUFFER);
 
     int end = myAllStarts.nextSetBit(start + 1);
-    if (end < 0) end = mySerializedStubs.length + 1;
-    return new ByteArrayInputStream(mySerializedStubs, start - 1, end - start);
+    if (end < 0) end = mySerializedStubs.limit() + 1;
+    // stubs are instantiated concurrently, each reader gets its own position
+    ByteBuffer bytes = mySerializedStubs.duplicate();
+    bytes.limit(end - 1);
+    bytes.position(start - 1);
+    return new StubBufferInputStream(bytes);
   }
 }
\ No newline at end of file
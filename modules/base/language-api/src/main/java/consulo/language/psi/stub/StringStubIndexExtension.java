@@ -22,8 +22,11 @@ package consulo.language.psi.stub;
 import consulo.index.io.EnumeratorStringDescriptor;
 import consulo.index.io.KeyDescriptor;
 import consulo.language.psi.PsiElement;
+import consulo.project.Project;
+import consulo.project.content.scope.ProjectScopes;
 
 import jakarta.annotation.Nonnull;
+import java.util.function.Predicate;
 
 public abstract class StringStubIndexExtension<Psi extends PsiElement> extends AbstractStubIndex<String, Psi> {
   @Override
@@ -37,6 +40,13 @@ public abstract class StringStubIndexExtension<Psi extends PsiElement> extends A
     return new EnumeratorStringDescriptor();
   }
 
+  /**
+   * Processes keys starting with the given prefix, e.g. names to complete, see {@link StubIndex#processKeysWithPrefix}.
+   */
+  public boolean processKeysWithPrefix(@Nonnull String prefix, @Nonnull Project project, @Nonnull Predicate<? super String> processor) {
+    return StubIndex.getInstance().processKeysWithPrefix(getKey(), prefix, processor, ProjectScopes.getAllScope(project), null);
+  }
+
   public boolean traceKeyHashToVirtualFileMapping() {
     return false;
   }
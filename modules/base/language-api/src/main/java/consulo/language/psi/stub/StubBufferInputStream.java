@@ -0,0 +1,76 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.language.psi.stub;
+
+import jakarta.annotation.Nonnull;
+
+import java.io.EOFException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Unsynchronized input stream over a byte buffer, which can hand out regions of the buffer without copying them,
+ * see {@link StubSerializationHelper#deserialize(ByteBuffer)}.
+ */
+final class StubBufferInputStream extends InputStream {
+  static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
+  private final ByteBuffer myBuffer;
+
+  StubBufferInputStream(@Nonnull ByteBuffer buffer) {
+    myBuffer = buffer;
+  }
+
+  @Override
+  public int read() {
+    return myBuffer.hasRemaining() ? myBuffer.get() & 0xFF : -1;
+  }
+
+  @Override
+  public int read(@Nonnull byte[] b, int off, int len) {
+    if (len == 0) return 0;
+    if (!myBuffer.hasRemaining()) return -1;
+    int count = Math.min(len, myBuffer.remaining());
+    myBuffer.get(b, off, count);
+    return count;
+  }
+
+  @Override
+  public long skip(long n) {
+    int count = (int)Math.max(0, Math.min(n, myBuffer.remaining()));
+    myBuffer.position(myBuffer.position() + count);
+    return count;
+  }
+
+  @Override
+  public int available() {
+    return myBuffer.remaining();
+  }
+
+  /**
+   * @return read-only view of the next {@code length} bytes starting at index 0, the stream skips them
+   */
+  @Nonnull
+  ByteBuffer readSlice(int length) throws EOFException {
+    if (length > myBuffer.remaining()) {
+      throw new EOFException("Expected " + length + " bytes, but only " + myBuffer.remaining() + " are available");
+    }
+    ByteBuffer slice = myBuffer.slice();
+    slice.limit(length);
+    myBuffer.position(myBuffer.position() + length);
+    return slice.asReadOnlyBuffer();
+  }
+}
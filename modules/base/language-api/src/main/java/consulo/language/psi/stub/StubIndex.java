@@ -73,6 +73,18 @@ public abstract class StubIndex {
     return processAllKeys(indexKey, ObjectUtil.assertNotNull(scope.getProject()), processor);
   }
 
+  /**
+   * Processes keys starting with the given prefix in no particular order. Like with {@link #processAllKeys}, keys present only
+   * in files outside of the scope may be reported too.
+   */
+  public boolean processKeysWithPrefix(@Nonnull StubIndexKey<String, ?> indexKey,
+                                       @Nonnull String prefix,
+                                       @Nonnull Predicate<? super String> processor,
+                                       @Nonnull ProjectAwareSearchScope scope,
+                                       @Nullable IdFilter idFilter) {
+    return processAllKeys(indexKey, key -> !key.startsWith(prefix) || processor.test(key), scope, idFilter);
+  }
+
   /**
    * @deprecated use {@link #getElements(StubIndexKey, Object, Project, ProjectAwareSearchScope, Class)}
    */
@@ -20,6 +20,7 @@ import consulo.util.lang.ObjectUtil;
 import jakarta.annotation.Nonnull;
 import jakarta.annotation.Nullable;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -151,6 +152,21 @@ public class StubSerializationHelper {
 
   @Nonnull
   public Stub deserialize(@Nonnull InputStream stream) throws IOException, SerializerNotFoundException {
+    return deserialize(stream, null);
+  }
+
+  /**
+   * Deserializes the tree without copying its stub data: stubs keep a read-only view of the buffer and are decoded from it
+   * one by one on access, so the buffer content must not change afterwards.
+   */
+  @Nonnull
+  public Stub deserialize(@Nonnull ByteBuffer buffer) throws IOException, SerializerNotFoundException {
+    StubBufferInputStream stream = new StubBufferInputStream(buffer.asReadOnlyBuffer());
+    return deserialize(stream, stream);
+  }
+
+  @Nonnull
+  private Stub deserialize(@Nonnull InputStream stream, @Nullable StubBufferInputStream buffer) throws IOException, SerializerNotFoundException {
     FileLocalStringEnumerator storage = new FileLocalStringEnumerator(false);
     StubInputStream inputStream = new StubInputStream(stream, storage);
     IntEnumerator serializerLocalEnumerator = IntEnumerator.read(inputStream);
@@ -161,11 +177,11 @@ public class StubSerializationHelper {
       Logger.getInstance(getClass()).error("Incorrect stub files count during deserialization:" + stubFilesCount);
     }
 
-    Stub baseStub = deserializeRoot(inputStream, storage, serializerLocalEnumerator);
+    Stub baseStub = deserializeRoot(inputStream, buffer, storage, serializerLocalEnumerator);
     final List<PsiFileStub> stubs = new ArrayList<>(stubFilesCount);
     if (baseStub instanceof PsiFileStub) stubs.add((PsiFileStub)baseStub);
     for (int j = 1; j < stubFilesCount; j++) {
-      Stub deserialize = deserializeRoot(inputStream, storage, serializerLocalEnumerator);
+      Stub deserialize = deserializeRoot(inputStream, buffer, storage, serializerLocalEnumerator);
       if (deserialize instanceof PsiFileStub) {
         final PsiFileStub fileStub = (PsiFileStub)deserialize;
         stubs.add(fileStub);
@@ -183,13 +199,16 @@ public class StubSerializationHelper {
     return baseStub;
   }
 
-  private Stub deserializeRoot(StubInputStream inputStream, FileLocalStringEnumerator storage, IntEnumerator serializerLocalEnumerator) throws IOException, SerializerNotFoundException {
+  private Stub deserializeRoot(StubInputStream inputStream,
+                               @Nullable StubBufferInputStream buffer,
+                               FileLocalStringEnumerator storage,
+                               IntEnumerator serializerLocalEnumerator) throws IOException, SerializerNotFoundException {
     ObjectStubSerializer<?, Stub> serializer = getClassById(DataInputOutputUtil.readINT(inputStream), null, serializerLocalEnumerator);
     ourRootStubSerializer.set(serializer);
     try {
       Stub stub = serializer.deserialize(inputStream, null);
       if (stub instanceof StubBase) {
-        deserializeStubList((StubBase)stub, serializer, inputStream, storage, serializerLocalEnumerator);
+        deserializeStubList((StubBase)stub, serializer, inputStream, buffer, storage, serializerLocalEnumerator);
       }
       else {
         deserializeChildren(inputStream, stub, serializerLocalEnumerator);
@@ -215,8 +234,12 @@ public class StubSerializationHelper {
     }
   }
 
-  private void deserializeStubList(StubBase<?> root, ObjectStubSerializer rootType, StubInputStream inputStream, FileLocalStringEnumerator storage, IntEnumerator serializerLocalEnumerator)
-          throws IOException, SerializerNotFoundException {
+  private void deserializeStubList(StubBase<?> root,
+                                   ObjectStubSerializer rootType,
+                                   StubInputStream inputStream,
+                                   @Nullable StubBufferInputStream buffer,
+                                   FileLocalStringEnumerator storage,
+                                   IntEnumerator serializerLocalEnumerator) throws IOException, SerializerNotFoundException {
     int stubCount = DataInputOutputUtil.readINT(inputStream);
     LazyStubList stubList = new LazyStubList(stubCount, root, rootType);
 
@@ -258,7 +281,7 @@ public class StubSerializationHelper {
         deserializeChildren(0);
       }
     }.deserializeRoot();
-    byte[] serializedStubs = readByteArray(inputStream);
+    ByteBuffer serializedStubs = readSerializedStubs(inputStream, buffer);
     stubList.setStubData(new LazyStubData(storage, parentsAndStarts, serializedStubs, allStarts));
   }
 
@@ -294,16 +317,18 @@ public class StubSerializationHelper {
     return tempBuffer.size() == 0 ? ArrayUtil.EMPTY_BYTE_ARRAY : tempBuffer.toByteArray();
   }
 
-  private byte[] readByteArray(StubInputStream inputStream) throws IOException {
+  // the input stream doesn't buffer, so when it reads a buffer the stub data is right at the buffer position
+  private ByteBuffer readSerializedStubs(StubInputStream inputStream, @Nullable StubBufferInputStream buffer) throws IOException {
     int length = DataInputOutputUtil.readINT(inputStream);
-    if (length == 0) return ArrayUtil.EMPTY_BYTE_ARRAY;
+    if (length == 0) return StubBufferInputStream.EMPTY_BUFFER;
+    if (buffer != null) return buffer.readSlice(length);
 
     byte[] array = new byte[length];
     int read = inputStream.read(array);
     if (read != array.length) {
       Logger.getInstance(getClass()).error("Serialized array length mismatch");
     }
-    return array;
+    return ByteBuffer.wrap(array).asReadOnlyBuffer();
   }
 
   private static void writeByteArray(DataOutput out, byte[] array, int len) throws IOException {
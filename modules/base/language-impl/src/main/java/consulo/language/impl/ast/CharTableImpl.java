@@ -21,20 +21,48 @@ import consulo.util.collection.primitive.ints.IntMaps;
 import consulo.util.collection.primitive.ints.IntObjectMap;
 import consulo.util.lang.CharArrayUtil;
 import consulo.util.lang.StringUtil;
+import consulo.util.lang.SystemProperties;
 
 import jakarta.annotation.Nonnull;
 import jakarta.annotation.Nullable;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
+ * Interns leaf texts of a tree. Tables are used by several parsing threads at once, so entries are split into stripes by hash
+ * with a lock per stripe. The predefined static entries are never modified after publication and are read without locking.
+ * Tokens missing in a table are looked up in the {@link SharedTokens shared tier} first, so equal identifiers of different files
+ * refer to the same string.
+ *
  * @author max
  */
 public class CharTableImpl implements CharTable {
   private static final int INTERN_THRESHOLD = 40; // 40 or more characters long tokens won't be interned.
 
-  private static final StringHashToCharSequencesMap STATIC_ENTRIES = newStaticSet();
-  private final StringHashToCharSequencesMap entries = new StringHashToCharSequencesMap();
+  private static final int STRIPES = 8;
+
+  private static final List<CharSequence> ourStaticTexts = new ArrayList<>(); // guarded by itself
+  private static volatile StringHashToCharSequencesMap STATIC_ENTRIES = newStaticSet();
+
+  @Nullable
+  private static final SharedTokens SHARED_TOKENS =
+    SystemProperties.getBooleanProperty("idea.char.table.shared.tokens", true)
+    ? new SharedTokens(SystemProperties.getIntProperty("idea.char.table.shared.tokens.max", 64 * 1024))
+    : null;
+
+  private static final LongAdder ourRequests = new LongAdder();
+  private static final LongAdder ourStaticHits = new LongAdder();
+  private static final LongAdder ourTableHits = new LongAdder();
+  private static final LongAdder ourSharedHits = new LongAdder();
+  private static final LongAdder ourSavedChars = new LongAdder();
+
+  // stripes are created on first use, most tables of small trees use a few of them
+  private final AtomicReferenceArray<StringHashToCharSequencesMap> myStripes = new AtomicReferenceArray<>(STRIPES);
 
   @Nonnull
   @Override
@@ -53,15 +81,48 @@ public class CharTableImpl implements CharTable {
   @Nonnull
   private CharSequence doIntern(@Nonnull CharSequence text, int startOffset, int endOffset) {
     int hashCode = subSequenceHashCode(text, startOffset, endOffset);
+    ourRequests.increment();
     CharSequence interned = STATIC_ENTRIES.getSubSequenceWithHashCode(hashCode, text, startOffset, endOffset);
     if (interned != null) {
+      ourStaticHits.increment();
+      ourSavedChars.add(endOffset - startOffset);
       return interned;
     }
 
-    synchronized (entries) {
+    StringHashToCharSequencesMap stripe = getStripe(hashCode);
+    synchronized (stripe) {
+      interned = stripe.getSubSequenceWithHashCode(hashCode, text, startOffset, endOffset);
+      if (interned != null) {
+        ourTableHits.increment();
+        ourSavedChars.add(endOffset - startOffset);
+        return interned;
+      }
+
+      String shared = SHARED_TOKENS == null ? null : SHARED_TOKENS.get(hashCode, text, startOffset, endOffset);
+      if (shared != null) {
+        ourSharedHits.increment();
+        ourSavedChars.add(endOffset - startOffset);
+        stripe.addWithHashCode(hashCode, shared);
+        return shared;
+      }
+
       // We need to create separate string just to prevent referencing all character data when original is string or char sequence over string
-      return entries.getOrAddSubSequenceWithHashCode(hashCode, text, startOffset, endOffset);
+      String added = createSequence(text, startOffset, endOffset);
+      stripe.addWithHashCode(hashCode, added);
+      if (SHARED_TOKENS != null) SHARED_TOKENS.put(hashCode, added);
+      return added;
+    }
+  }
+
+  @Nonnull
+  private StringHashToCharSequencesMap getStripe(int hashCode) {
+    int index = (hashCode ^ hashCode >>> 16) & (STRIPES - 1);
+    StringHashToCharSequencesMap stripe = myStripes.get(index);
+    if (stripe == null) {
+      StringHashToCharSequencesMap created = new StringHashToCharSequencesMap();
+      stripe = myStripes.compareAndSet(index, null, created) ? created : myStripes.get(index);
     }
+    return stripe;
   }
 
   @Nonnull
@@ -107,13 +168,37 @@ public class CharTableImpl implements CharTable {
   }
 
   public static void staticIntern(@Nonnull String text) {
-    synchronized (STATIC_ENTRIES) {
-      STATIC_ENTRIES.add(text);
+    staticIntern(List.of(text));
+  }
+
+  // static entries are read without locking, so they are replaced with an extended copy instead of being modified
+  private static void staticIntern(@Nonnull List<String> texts) {
+    synchronized (ourStaticTexts) {
+      ourStaticTexts.addAll(texts);
+      StringHashToCharSequencesMap entries = new StringHashToCharSequencesMap();
+      for (CharSequence text : ourStaticTexts) {
+        entries.add(text);
+      }
+      STATIC_ENTRIES = entries;
     }
   }
 
+  /**
+   * @return interning statistics of all tables since start, for diagnostics
+   */
+  @Nonnull
+  public static String getStatistics() {
+    long requests = ourRequests.sum();
+    long hits = ourStaticHits.sum() + ourTableHits.sum() + ourSharedHits.sum();
+    return "requests: " + requests +
+           ", hit rate: " + (requests == 0 ? 0 : hits * 100 / requests) + "%" +
+           " (static: " + ourStaticHits.sum() + ", table: " + ourTableHits.sum() + ", shared: " + ourSharedHits.sum() + ")" +
+           ", chars saved: " + ourSavedChars.sum() +
+           ", shared tokens: " + (SHARED_TOKENS == null ? "disabled" : SHARED_TOKENS.size());
+  }
+
   private static StringHashToCharSequencesMap newStaticSet() {
-    final StringHashToCharSequencesMap r = new StringHashToCharSequencesMap();
+    final List<CharSequence> r = ourStaticTexts;
     r.add("==");
     r.add("!=");
     r.add("||");
@@ -209,10 +294,16 @@ public class CharTableImpl implements CharTable {
     r.add("<%@");
     r.add("${");
     r.add("");
-    return r;
+
+    StringHashToCharSequencesMap entries = new StringHashToCharSequencesMap();
+    for (CharSequence text : r) {
+      entries.add(text);
+    }
+    return entries;
   }
 
   public static void addStringsFromClassToStatics(@Nonnull Class aClass) {
+    List<String> texts = new ArrayList<>();
     for (Field field : aClass.getDeclaredFields()) {
       if ((field.getModifiers() & Modifier.STATIC) == 0) continue;
       if ((field.getModifiers() & Modifier.PUBLIC) == 0) continue;
@@ -223,8 +314,9 @@ public class CharTableImpl implements CharTable {
       catch (Exception e) {
         continue;
       }
-      staticIntern(typeName);
+      if (typeName != null) texts.add(typeName);
     }
+    staticIntern(texts);
   }
 
   private static class StringHashToCharSequencesMap {
@@ -281,6 +373,24 @@ public class CharTableImpl implements CharTable {
       return getOrAddSubSequenceWithHashCode(hashCode, sequence, startOffset, endOffset);
     }
 
+    // adds a sequence known to be missing
+    void addWithHashCode(int hashCode, CharSequence sequence) {
+      Object value = myMap.get(hashCode);
+      if (value == null) {
+        myMap.put(hashCode, sequence);
+      }
+      else if (value instanceof CharSequence) {
+        myMap.put(hashCode, new CharSequence[]{(CharSequence)value, sequence});
+      }
+      else {
+        CharSequence[] existingSequenceArray = (CharSequence[])value;
+        CharSequence[] newSequenceArray = new CharSequence[existingSequenceArray.length + 1];
+        System.arraycopy(existingSequenceArray, 0, newSequenceArray, 0, existingSequenceArray.length);
+        newSequenceArray[existingSequenceArray.length] = sequence;
+        myMap.put(hashCode, newSequenceArray);
+      }
+    }
+
     private CharSequence getOrAddSubSequenceWithHashCode(int hashCode, CharSequence sequence, int startOffset, int endOffset) {
       String addedSequence = null;
 
@@ -314,6 +424,60 @@ public class CharTableImpl implements CharTable {
     }
   }
 
+  /**
+   * Tokens recently interned by any table, so equal tokens of different files share a string. Referenced weakly to keep only tokens
+   * of living trees, and bounded: a stripe grown over its limit is cleared, tokens used again come back on the next miss.
+   * A hash collision replaces the older token, this is a cache and missing a token only costs a copy.
+   */
+  private static final class SharedTokens {
+    private final IntObjectMap<WeakReference<String>>[] myStripes;
+    private final int myMaxStripeSize;
+
+    @SuppressWarnings("unchecked")
+    private SharedTokens(int maxSize) {
+      myStripes = new IntObjectMap[STRIPES * 2];
+      for (int i = 0; i < myStripes.length; i++) {
+        myStripes[i] = IntMaps.newIntObjectHashMap();
+      }
+      myMaxStripeSize = Math.max(16, maxSize / myStripes.length);
+    }
+
+    private IntObjectMap<WeakReference<String>> getStripe(int hashCode) {
+      return myStripes[(hashCode ^ hashCode >>> 16) & (myStripes.length - 1)];
+    }
+
+    @Nullable
+    String get(int hashCode, @Nonnull CharSequence text, int startOffset, int endOffset) {
+      IntObjectMap<WeakReference<String>> stripe = getStripe(hashCode);
+      WeakReference<String> ref;
+      synchronized (stripe) {
+        ref = stripe.get(hashCode);
+      }
+      String token = ref == null ? null : ref.get();
+      return token != null && StringHashToCharSequencesMap.charSequenceSubSequenceEquals(token, text, startOffset, endOffset) ? token : null;
+    }
+
+    void put(int hashCode, @Nonnull String token) {
+      IntObjectMap<WeakReference<String>> stripe = getStripe(hashCode);
+      synchronized (stripe) {
+        if (stripe.size() >= myMaxStripeSize) {
+          stripe.clear();
+        }
+        stripe.put(hashCode, new WeakReference<>(token));
+      }
+    }
+
+    int size() {
+      int size = 0;
+      for (IntObjectMap<WeakReference<String>> stripe : myStripes) {
+        synchronized (stripe) {
+          size += stripe.size();
+        }
+      }
+      return size;
+    }
+  }
+
   private static int subSequenceHashCode(CharSequence sequence, int startOffset, int endOffset) {
     if (startOffset == 0 && endOffset == sequence.length()) {
       return StringUtil.stringHashCode(sequence);
@@ -20,6 +20,7 @@
 package consulo.language.impl.ast;
 
 import consulo.application.progress.ProgressManager;
+import consulo.application.util.concurrent.JobLauncher;
 import consulo.language.ast.IElementType;
 import consulo.language.ast.ILazyParseableElementTypeBase;
 import consulo.language.impl.DebugUtil;
@@ -28,16 +29,22 @@ import consulo.logging.attachment.AttachmentFactory;
 import consulo.util.lang.CharArrayUtil;
 import consulo.util.lang.ImmutableCharSequence;
 import consulo.util.lang.ObjectUtil;
+import consulo.util.lang.SystemProperties;
 import consulo.util.lang.ref.SoftReference;
 import org.jetbrains.annotations.TestOnly;
 
 import jakarta.annotation.Nonnull;
 import jakarta.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
 import java.util.function.Supplier;
 
 public class LazyParseableElement extends CompositeElement {
   private static final Logger LOG = Logger.getInstance(LazyParseableElement.class);
   private static final Supplier<CharSequence> NO_TEXT = () -> null;
+  private static final boolean PARALLEL_EXPANSION = SystemProperties.getBooleanProperty("idea.psi.parallel.chameleon.expansion", true);
 
   private static class ChameleonLock {
     private ChameleonLock() {
@@ -198,6 +205,58 @@ public class LazyParseableElement extends CompositeElement {
     }
   }
 
+  /**
+   * Expands all collapsed chameleons under the given node, including the ones appearing in the expanded chameleons.
+   * Chameleons of the same nesting level are independent, so they are parsed concurrently, each one is linked into the tree
+   * under its own lock as if it were expanded on demand. Must be called under read action.
+   */
+  public static void expandAll(@Nonnull CompositeElement root) {
+    List<LazyParseableElement> collapsed = new ArrayList<>();
+    collectCollapsed(root, collapsed);
+    while (!collapsed.isEmpty()) {
+      if (PARALLEL_EXPANSION) {
+        boolean expanded = JobLauncher.getInstance().invokeConcurrentlyUnderProgress(collapsed, ProgressManager.getInstance().getProgressIndicator(), chameleon -> {
+          chameleon.ensureParsed();
+          return true;
+        });
+        // the rest will be expanded on demand
+        if (!expanded) return;
+      }
+      else {
+        for (LazyParseableElement chameleon : collapsed) {
+          ProgressManager.checkCanceled();
+          chameleon.ensureParsed();
+        }
+      }
+
+      List<LazyParseableElement> nested = new ArrayList<>();
+      for (LazyParseableElement chameleon : collapsed) {
+        collectCollapsed(chameleon, nested);
+      }
+      collapsed = nested;
+    }
+  }
+
+  // walks raw children only, so nothing is expanded on the way
+  private static void collectCollapsed(@Nonnull CompositeElement root, @Nonnull List<LazyParseableElement> result) {
+    if (root instanceof LazyParseableElement && !((LazyParseableElement)root).isParsed()) {
+      result.add((LazyParseableElement)root);
+      return;
+    }
+    Deque<CompositeElement> queue = new ArrayDeque<>();
+    queue.add(root);
+    while (!queue.isEmpty()) {
+      for (TreeElement child = queue.poll().rawFirstChild(); child != null; child = child.getTreeNext()) {
+        if (child instanceof LazyParseableElement && !((LazyParseableElement)child).isParsed()) {
+          result.add((LazyParseableElement)child);
+        }
+        else if (child instanceof CompositeElement) {
+          queue.add((CompositeElement)child);
+        }
+      }
+    }
+  }
+
   private void assertTextLengthIntact(CharSequence text, TreeElement child) {
     int length = 0;
     while (child != null) {
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.language.impl.internal.parser;
+
+import consulo.application.progress.ProgressIndicatorProvider;
+import consulo.language.ast.IElementType;
+import consulo.language.lexer.Lexer;
+import consulo.language.lexer.RestartableLexer;
+import consulo.language.psi.PsiFile;
+import consulo.language.version.LanguageVersion;
+import consulo.logging.Logger;
+import consulo.util.dataholder.Key;
+import consulo.util.lang.StringUtil;
+import consulo.util.lang.SystemProperties;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+
+/**
+ * Lexemes of the last parsed text of a big physical file, so the next full reparse of the file in {@link PsiBuilderImpl} runs the lexer
+ * over the changed region only and takes lexemes of the unchanged prefix and suffix from here.
+ * <p>
+ * Relexing starts from a lexeme which the lexer entered in its initial state, and stops as soon as the lexer produces a lexeme in the
+ * initial state at the start of an old lexeme which was entered in the initial state too: from that point the lexer would produce exactly
+ * the old lexemes. That's the rule {@code LexerEditorHighlighter} uses for lexers which aren't {@link RestartableLexer}s, those are never
+ * relexed here, as they restart in their own restartable states and need the states of preceding tokens, which aren't kept.
+ * <p>
+ * Unlike highlighting lexers, parser lexers aren't tested to restart correctly, so incremental lexing is off unless
+ * {@code idea.psi.builder.incremental.lexing} is set, and with assertions enabled every relexing is checked against lexing the whole text.
+ */
+final class FileLexemeCache {
+  private static final Logger LOG = Logger.getInstance(FileLexemeCache.class);
+
+  static final boolean ENABLED = SystemProperties.getBooleanProperty("idea.psi.builder.incremental.lexing", false);
+  private static final boolean CHECK = SystemProperties.getBooleanProperty("idea.psi.builder.incremental.lexing.check",
+                                                                           FileLexemeCache.class.desiredAssertionStatus());
+  // lexing smaller files is cheaper than keeping their lexemes
+  private static final int MIN_TEXT_LENGTH = SystemProperties.getIntProperty("idea.psi.builder.incremental.lexing.min.length", 32 * 1024);
+  // lexemes in the initial state are remembered as restart points not closer than this, to keep the restart table small
+  private static final int RESTART_STEP = 16;
+
+  private static final Key<SoftReference<FileLexemeCache>> FILE_LEXEMES = Key.create("FILE_LEXEMES");
+
+  // texts passed to the builder are immutable snapshots, keeping the reference is enough
+  private final CharSequence myText;
+  private final Class<?> myLexerClass;
+  private final LanguageVersion myLanguageVersion;
+  private final int myInitialState;
+  private final int[] myLexStarts;
+  private final IElementType[] myLexTypes;
+  private final int myLexemeCount;
+  // sorted indices of lexemes the lexer entered in the initial state
+  private final int[] myRestarts;
+  private final int myRestartCount;
+
+  private FileLexemeCache(@Nonnull CharSequence text,
+                          @Nonnull Lexer lexer,
+                          @Nonnull LanguageVersion languageVersion,
+                          int initialState,
+                          @Nonnull int[] lexStarts,
+                          @Nonnull IElementType[] lexTypes,
+                          int lexemeCount,
+                          @Nonnull int[] restarts,
+                          int restartCount) {
+    myText = text;
+    myLexerClass = lexer.getClass();
+    myLanguageVersion = languageVersion;
+    myInitialState = initialState;
+    myLexStarts = lexStarts;
+    myLexTypes = lexTypes;
+    myLexemeCount = lexemeCount;
+    myRestarts = restarts;
+    myRestartCount = restartCount;
+  }
+
+  static boolean isApplicable(@Nullable PsiFile file, @Nonnull CharSequence text, @Nonnull Lexer lexer) {
+    return ENABLED && file != null && text.length() >= MIN_TEXT_LENGTH && !(lexer instanceof RestartableLexer) && file.isPhysical();
+  }
+
+  /**
+   * @return lexemes of the given text of the file, relexing only the changed region of the last committed text if its lexemes are cached
+   * and with the same lexer, or null if the lexer produced a broken lexeme sequence
+   */
+  @Nullable
+  static FileLexemeCache lex(@Nonnull PsiFile file,
+                             @Nonnull Lexer lexer,
+                             @Nonnull LanguageVersion languageVersion,
+                             @Nonnull CharSequence text,
+                             @Nullable CharSequence lastCommittedText) {
+    SoftReference<FileLexemeCache> ref = file.getUserData(FILE_LEXEMES);
+    FileLexemeCache result = lex(ref == null ? null : ref.get(), lexer, languageVersion, text, lastCommittedText, CHECK);
+    file.putUserData(FILE_LEXEMES, result == null ? null : new SoftReference<>(result));
+    return result;
+  }
+
+  /**
+   * @param check whether to compare relexed lexemes with the ones of the whole text, the latter are returned if they differ
+   */
+  @Nullable
+  static FileLexemeCache lex(@Nullable FileLexemeCache previous,
+                             @Nonnull Lexer lexer,
+                             @Nonnull LanguageVersion languageVersion,
+                             @Nonnull CharSequence text,
+                             @Nullable CharSequence lastCommittedText,
+                             boolean check) {
+    if (previous == null || lastCommittedText == null || !previous.isLexemesOf(lastCommittedText, lexer, languageVersion)) {
+      return lexAll(lexer, languageVersion, text);
+    }
+
+    FileLexemeCache result = previous.relex(lexer, text);
+    if (check && result != null) {
+      FileLexemeCache expected = lexAll(lexer, languageVersion, text);
+      int mismatch = expected == null ? -1 : expected.findMismatch(result);
+      if (mismatch >= 0) {
+        LOG.error("Relexed lexemes differ from lexing the whole text at lexeme " + mismatch + " (offset " + expected.myLexStarts[mismatch] +
+                  "), " + lexer.getClass().getName() + " can't restart in its initial state, set idea.psi.builder.incremental.lexing=false");
+        return expected;
+      }
+    }
+    return result;
+  }
+
+  // index of the first lexeme which differs from the other one's, -1 if lexemes are the same
+  private int findMismatch(@Nonnull FileLexemeCache other) {
+    int count = Math.min(myLexemeCount, other.myLexemeCount);
+    for (int i = 0; i < count; i++) {
+      if (myLexStarts[i] != other.myLexStarts[i] || myLexTypes[i] != other.myLexTypes[i]) return i;
+    }
+    return myLexemeCount == other.myLexemeCount ? -1 : count;
+  }
+
+  private boolean isLexemesOf(@Nonnull CharSequence text, @Nonnull Lexer lexer, @Nonnull LanguageVersion languageVersion) {
+    return myLexerClass == lexer.getClass() && myLanguageVersion == languageVersion && (myText == text || StringUtil.equals(myText, text));
+  }
+
+  int getLexemeCount() {
+    return myLexemeCount;
+  }
+
+  /**
+   * @return copy of lexeme starts followed by the text length, the builder may modify it
+   */
+  @Nonnull
+  int[] copyLexStarts() {
+    return Arrays.copyOf(myLexStarts, myLexemeCount + 1);
+  }
+
+  /**
+   * @return copy of lexeme types, the builder may remap them
+   */
+  @Nonnull
+  IElementType[] copyLexTypes() {
+    return Arrays.copyOf(myLexTypes, myLexemeCount + 1);
+  }
+
+  @Nullable
+  private static FileLexemeCache lexAll(@Nonnull Lexer lexer, @Nonnull LanguageVersion languageVersion, @Nonnull CharSequence text) {
+    lexer.start(text);
+    Lexemes lexemes = new Lexemes(Math.max(10, text.length() / 5), lexer.getState());
+    if (!lexemes.lexUntil(lexer, null)) return null;
+    return lexemes.finish(text, lexer, languageVersion);
+  }
+
+  @Nullable
+  private FileLexemeCache relex(@Nonnull Lexer lexer, @Nonnull CharSequence text) {
+    CharSequence oldText = myText;
+    int prefix = StringUtil.commonPrefixLength(oldText, text);
+    if (prefix == oldText.length() && prefix == text.length()) {
+      return new FileLexemeCache(text, lexer, myLanguageVersion, myInitialState, myLexStarts, myLexTypes, myLexemeCount, myRestarts, myRestartCount);
+    }
+    int suffix = Math.min(StringUtil.commonSuffixLength(oldText, text), Math.min(oldText.length(), text.length()) - prefix);
+    int shift = text.length() - oldText.length();
+
+    // the last restart point before the change, the lexeme ending right at the change start may grow
+    int restart = findRestart(prefix);
+    int restartIndex = restart < 0 ? 0 : myRestarts[restart];
+    int restartOffset = restart < 0 ? 0 : myLexStarts[restartIndex];
+
+    Lexemes lexemes = new Lexemes(myLexemeCount + Math.max(10, shift / 5), myInitialState);
+    lexemes.append(this, 0, restartIndex, 0, 0, 0);
+
+    lexer.start(text, restartOffset, text.length(), myInitialState);
+    Resync resync = new Resync(text.length() - suffix, shift);
+    if (!lexemes.lexUntil(lexer, resync)) return null;
+
+    if (resync.myOldIndex >= 0) {
+      lexemes.append(this, resync.myOldIndex, myLexemeCount, shift, resync.myOldRestart, lexemes.myCount - resync.myOldIndex);
+    }
+    return lexemes.finish(text, lexer, myLanguageVersion);
+  }
+
+  // index in myRestarts of the last restart point starting before the offset, -1 if none
+  private int findRestart(int offset) {
+    int low = 0;
+    int high = myRestartCount - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (myLexStarts[myRestarts[mid]] < offset) low = mid + 1;
+      else high = mid - 1;
+    }
+    return low - 1;
+  }
+
+  private int findRestartIndex(int lexemeIndex) {
+    return Arrays.binarySearch(myRestarts, 0, myRestartCount, lexemeIndex);
+  }
+
+  // decides where the relexed lexemes meet the old ones again
+  private final class Resync {
+    private final int myChangeEnd;
+    private final int myShift;
+    private int myOldIndex = -1;
+    private int myOldRestart = -1;
+
+    private Resync(int changeEnd, int shift) {
+      myChangeEnd = changeEnd;
+      myShift = shift;
+    }
+
+    private boolean isResynced(int start, int state) {
+      if (start < myChangeEnd || state != myInitialState) return false;
+      int oldIndex = Arrays.binarySearch(myLexStarts, 0, myLexemeCount, start - myShift);
+      if (oldIndex < 0) return false;
+      int oldRestart = findRestartIndex(oldIndex);
+      if (oldRestart < 0) return false;
+      myOldIndex = oldIndex;
+      myOldRestart = oldRestart;
+      return true;
+    }
+  }
+
+  private static final class Lexemes {
+    private final int myInitialState;
+    private int[] myStarts;
+    private IElementType[] myTypes;
+    private int myCount;
+    private int[] myRestarts = new int[16];
+    private int myRestartCount;
+
+    private Lexemes(int capacity, int initialState) {
+      myInitialState = initialState;
+      myStarts = new int[capacity + 1];
+      myTypes = new IElementType[capacity + 1];
+    }
+
+    private void ensureCapacity(int count) {
+      if (count >= myTypes.length) {
+        int newLength = Math.max(count + 1, myTypes.length * 3 / 2);
+        myStarts = Arrays.copyOf(myStarts, newLength);
+        myTypes = Arrays.copyOf(myTypes, newLength);
+      }
+    }
+
+    private void addRestart(int index) {
+      if (myRestartCount == myRestarts.length) {
+        myRestarts = Arrays.copyOf(myRestarts, myRestartCount * 3 / 2);
+      }
+      myRestarts[myRestartCount++] = index;
+    }
+
+    /**
+     * Copies old lexemes [from, to) shifting their starts, with their restart points starting from the given one.
+     */
+    private void append(@Nonnull FileLexemeCache cache, int from, int to, int shift, int fromRestart, int indexShift) {
+      int count = to - from;
+      ensureCapacity(myCount + count);
+      System.arraycopy(cache.myLexStarts, from, myStarts, myCount, count);
+      System.arraycopy(cache.myLexTypes, from, myTypes, myCount, count);
+      if (shift != 0) {
+        for (int i = myCount; i < myCount + count; i++) myStarts[i] += shift;
+      }
+      myCount += count;
+      for (int r = Math.max(fromRestart, 0); r < cache.myRestartCount && cache.myRestarts[r] < to; r++) {
+        addRestart(cache.myRestarts[r] + indexShift);
+      }
+    }
+
+    /**
+     * Appends lexemes produced by the lexer until the end of the text or until resynchronized with the old lexemes.
+     *
+     * @return false if the lexemes sequence is broken, the builder relexes the text itself then to report it
+     */
+    private boolean lexUntil(@Nonnull Lexer lexer, @Nullable Resync resync) {
+      int offset = myCount == 0 ? 0 : myStarts[myCount - 1];
+      int lastRestart = myRestartCount == 0 ? -RESTART_STEP : myRestarts[myRestartCount - 1];
+      while (true) {
+        IElementType type = lexer.getTokenType();
+        if (type == null) return true;
+
+        if (myCount % 20 == 0) ProgressIndicatorProvider.checkCanceled();
+
+        int start = lexer.getTokenStart();
+        if (start < offset) return false;
+        int state = lexer.getState();
+        if (resync != null && resync.isResynced(start, state)) return true;
+
+        ensureCapacity(myCount + 1);
+        if (state == myInitialState && myCount - lastRestart >= RESTART_STEP) {
+          addRestart(myCount);
+          lastRestart = myCount;
+        }
+        myStarts[myCount] = offset = start;
+        myTypes[myCount] = type;
+        myCount++;
+        lexer.advance();
+      }
+    }
+
+    @Nonnull
+    private FileLexemeCache finish(@Nonnull CharSequence text, @Nonnull Lexer lexer, @Nonnull LanguageVersion languageVersion) {
+      ensureCapacity(myCount);
+      myStarts[myCount] = text.length();
+      return new FileLexemeCache(text, lexer, languageVersion, myInitialState, myStarts, myTypes, myCount, myRestarts, myRestartCount);
+    }
+  }
+}
@@ -47,7 +47,7 @@ import consulo.util.lang.ref.SimpleReference;
 import jakarta.annotation.Nonnull;
 import jakarta.annotation.Nullable;
 import java.util.AbstractList;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import java.util.function.Function;
@@ -70,7 +70,7 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
   private IElementType[] myLexTypes;
   private int myCurrentLexeme;
 
-  private final MyList myProduction = new MyList();
+  private final Production myProduction = new Production();
 
   private final Lexer myLexer;
   private final TokenSet myWhitespaces;
@@ -108,19 +108,6 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
     }
   });
 
-  private final LimitedPool<DoneMarker> DONE_MARKERS = new LimitedPool<>(2000, new LimitedPool.ObjectFactory<DoneMarker>() {
-    @Nonnull
-    @Override
-    public DoneMarker create() {
-      return new DoneMarker();
-    }
-
-    @Override
-    public void cleanup(@Nonnull final DoneMarker doneMarker) {
-      doneMarker.clean();
-    }
-  });
-
   public PsiBuilderImpl(@Nullable Project project,
                         @Nullable PsiFile containingFile,
                         @Nonnull ParserDefinition parserDefinition,
@@ -233,6 +220,18 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
       }
     }
 
+    //noinspection ConstantConditions
+    if (!doLexingOptimizationCorrectionCheck && parentCachingNode instanceof FileElement && FileLexemeCache.isApplicable(myFile, myText, myLexer)) {
+      FileLexemeCache fileLexemes = FileLexemeCache.lex(myFile, myLexer, myLanguageVersion, myText, myLastCommittedText);
+      if (fileLexemes != null) {
+        myLexStarts = fileLexemes.copyLexStarts();
+        myLexTypes = fileLexemes.copyLexTypes();
+        myLexemeCount = fileLexemes.getLexemeCount();
+        clearCachedTokenType();
+        return;
+      }
+    }
+
     int approxLexCount = Math.max(10, myText.length() / 5);
 
     myLexStarts = new int[approxLexCount];
@@ -304,8 +303,7 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
   public LighterASTNode getLatestDoneMarker() {
     int index = myProduction.size() - 1;
     while (index >= 0) {
-      ProductionMarker marker = myProduction.get(index);
-      if (marker instanceof DoneMarker) return ((DoneMarker)marker).myStart;
+      if (myProduction.isDone(index)) return myProduction.get(index);
       --index;
     }
     return null;
@@ -342,14 +340,20 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
   private static class StartMarker extends ProductionMarker implements Marker {
     private PsiBuilderImpl myBuilder;
     private IElementType myType;
-    private DoneMarker myDoneMarker;
     private Throwable myDebugAllocationPosition;
     private ProductionMarker myFirstChild;
     private ProductionMarker myLastChild;
     private int myHC = -1;
 
+    // the done entry of the marker in the production, kept here instead of a separate marker object
+    private int myDoneLexemeIndex = -1;
+    private WhitespacesAndCommentsBinder myDoneEdgeTokenBinder;
+    private boolean myCollapse;
+    private LocalizeValue myErrorMessage;
+
     private StartMarker() {
       myEdgeTokenBinder = WhitespacesBinders.DEFAULT_LEFT_BINDER;
+      myDoneEdgeTokenBinder = WhitespacesBinders.DEFAULT_RIGHT_BINDER;
     }
 
     @Override
@@ -357,11 +361,18 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
       super.clean();
       myBuilder = null;
       myType = null;
-      myDoneMarker = null;
       myDebugAllocationPosition = null;
       myFirstChild = myLastChild = null;
       myHC = -1;
       myEdgeTokenBinder = WhitespacesBinders.DEFAULT_LEFT_BINDER;
+      myDoneLexemeIndex = -1;
+      myDoneEdgeTokenBinder = WhitespacesBinders.DEFAULT_RIGHT_BINDER;
+      myCollapse = false;
+      myErrorMessage = null;
+    }
+
+    private boolean isDone() {
+      return myDoneLexemeIndex >= 0;
     }
 
     @Override
@@ -382,12 +393,12 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
           lexIdx = lastLeaf;
           hc += child.hc();
           if (child instanceof StartMarker) {
-            lexIdx = ((StartMarker)child).myDoneMarker.myLexemeIndex;
+            lexIdx = ((StartMarker)child).myDoneLexemeIndex;
           }
           child = child.myNext;
         }
 
-        for (int i = builder.myLexStarts[lexIdx]; i < builder.myLexStarts[myDoneMarker.myLexemeIndex]; i++) {
+        for (int i = builder.myLexStarts[lexIdx]; i < builder.myLexStarts[myDoneLexemeIndex]; i++) {
           hc += bufArray != null ? bufArray[i] : buf.charAt(i);
         }
 
@@ -404,12 +415,12 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
 
     @Override
     public int getEndOffset() {
-      return myBuilder.myLexStarts[myDoneMarker.myLexemeIndex] + myBuilder.myOffset;
+      return myBuilder.myLexStarts[myDoneLexemeIndex] + myBuilder.myOffset;
     }
 
     @Override
     public int getEndIndex() {
-      return myDoneMarker.myLexemeIndex;
+      return myDoneLexemeIndex;
     }
 
     public void addChild(@Nonnull ProductionMarker node) {
@@ -460,7 +471,7 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
     @Override
     public void doneBefore(@Nonnull final IElementType type, @Nonnull final Marker before, @Nonnull final LocalizeValue errorMessage) {
       StartMarker marker = (StartMarker)before;
-      myBuilder.myProduction.add(myBuilder.myProduction.lastIndexOf(marker), new ErrorItem(myBuilder, errorMessage, marker.myLexemeIndex));
+      myBuilder.myProduction.add(myBuilder.myProduction.lastIndexOfStart(marker), new ErrorItem(myBuilder, errorMessage, marker.myLexemeIndex), false);
       doneBefore(type, before);
     }
 
@@ -494,15 +505,15 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
       }
 
       if (right != null) {
-        if (myDoneMarker == null) throw new IllegalArgumentException("Cannot set right-edge processor for unclosed marker");
-        myDoneMarker.myEdgeTokenBinder = right;
+        if (!isDone()) throw new IllegalArgumentException("Cannot set right-edge processor for unclosed marker");
+        myDoneEdgeTokenBinder = right;
       }
     }
 
     @Override
     public String toString() {
       if (myBuilder == null) return "<dropped>";
-      boolean isDone = myDoneMarker != null;
+      boolean isDone = isDone();
       CharSequence originalText = myBuilder.getOriginalText();
       int startOffset = getStartOffset() - myBuilder.myOffset;
       int endOffset = isDone ? getEndOffset() - myBuilder.myOffset : myBuilder.getCurrentOffset();
@@ -513,12 +524,12 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
 
   @Nonnull
   private Marker precede(final StartMarker marker) {
-    int idx = myProduction.lastIndexOf(marker);
+    int idx = myProduction.lastIndexOfStart(marker);
     if (idx < 0) {
       LOG.error("Cannot precede dropped or rolled-back marker");
     }
     StartMarker pre = createMarker(marker.myLexemeIndex);
-    myProduction.add(idx, pre);
+    myProduction.add(idx, pre, false);
     return pre;
   }
 
@@ -648,58 +659,6 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
     }
   }
 
-  private static class DoneMarker extends ProductionMarker {
-    private StartMarker myStart;
-    private boolean myCollapse;
-
-    DoneMarker() {
-      myEdgeTokenBinder = WhitespacesBinders.DEFAULT_RIGHT_BINDER;
-    }
-
-    DoneMarker(final StartMarker marker, final int currentLexeme) {
-      this();
-      myLexemeIndex = currentLexeme;
-      myStart = marker;
-    }
-
-    @Override
-    public void clean() {
-      super.clean();
-      myStart = null;
-      myEdgeTokenBinder = WhitespacesBinders.DEFAULT_RIGHT_BINDER;
-    }
-
-    @Override
-    public int hc() {
-      throw new UnsupportedOperationException("Shall not be called on this kind of markers");
-    }
-
-    @Nonnull
-    @Override
-    public IElementType getTokenType() {
-      throw new UnsupportedOperationException("Shall not be called on this kind of markers");
-    }
-
-    @Override
-    public int getEndOffset() {
-      throw new UnsupportedOperationException("Shall not be called on this kind of markers");
-    }
-
-    @Override
-    public int getStartOffset() {
-      throw new UnsupportedOperationException("Shall not be called on this kind of markers");
-    }
-  }
-
-  private static class DoneWithErrorMarker extends DoneMarker {
-    private final LocalizeValue myMessage;
-
-    private DoneWithErrorMarker(@Nonnull StartMarker marker, final int currentLexeme, @Nonnull LocalizeValue message) {
-      super(marker, currentLexeme);
-      myMessage = message;
-    }
-  }
-
   private static class ErrorItem extends ProductionMarker {
     private final PsiBuilderImpl myBuilder;
     private final LocalizeValue myMessage;
@@ -927,7 +886,7 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
   private void rollbackTo(@Nonnull Marker marker) {
     myCurrentLexeme = ((StartMarker)marker).myLexemeIndex;
     myTokenTypeChecked = true;
-    int idx = myProduction.lastIndexOf(marker);
+    int idx = myProduction.lastIndexOfStart((StartMarker)marker);
     if (idx < 0) {
       LOG.error("The marker must be added before rolled back to.");
     }
@@ -941,13 +900,13 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
    */
   public boolean hasErrorsAfter(@Nonnull Marker marker) {
     assert marker instanceof StartMarker;
-    int idx = myProduction.lastIndexOf(marker);
+    int idx = myProduction.lastIndexOfStart((StartMarker)marker);
     if (idx < 0) {
       LOG.error("The marker must be added before checked for errors.");
     }
     for (int i = idx + 1; i < myProduction.size(); ++i) {
       ProductionMarker m = myProduction.get(i);
-      if (m instanceof ErrorItem || m instanceof DoneWithErrorMarker) {
+      if (m instanceof ErrorItem || myProduction.isDone(i) && ((StartMarker)m).myErrorMessage != null) {
         return true;
       }
     }
@@ -955,68 +914,66 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
   }
 
   public void drop(@Nonnull Marker marker) {
-    final DoneMarker doneMarker = ((StartMarker)marker).myDoneMarker;
-    if (doneMarker != null) {
-      myProduction.remove(myProduction.lastIndexOf(doneMarker));
-      DONE_MARKERS.recycle(doneMarker);
+    final StartMarker startMarker = (StartMarker)marker;
+    if (startMarker.isDone()) {
+      myProduction.remove(myProduction.lastIndexOfDone(startMarker));
     }
-    final boolean removed = myProduction.remove(myProduction.lastIndexOf(marker)) == marker;
-    if (!removed) {
+    final int idx = myProduction.lastIndexOfStart(startMarker);
+    if (idx < 0) {
       LOG.error("The marker must be added before it is dropped.");
     }
-    START_MARKERS.recycle((StartMarker)marker);
+    myProduction.remove(idx);
+    START_MARKERS.recycle(startMarker);
   }
 
   public void error(@Nonnull Marker marker, LocalizeValue message) {
     doValidityChecks(marker, null);
 
-    DoneWithErrorMarker doneMarker = new DoneWithErrorMarker((StartMarker)marker, myCurrentLexeme, message);
-    boolean tieToTheLeft = isEmpty(((StartMarker)marker).myLexemeIndex, myCurrentLexeme);
-    if (tieToTheLeft) ((StartMarker)marker).myEdgeTokenBinder = WhitespacesBinders.DEFAULT_RIGHT_BINDER;
+    final StartMarker startMarker = (StartMarker)marker;
+    boolean tieToTheLeft = isEmpty(startMarker.myLexemeIndex, myCurrentLexeme);
+    if (tieToTheLeft) startMarker.myEdgeTokenBinder = WhitespacesBinders.DEFAULT_RIGHT_BINDER;
 
-    ((StartMarker)marker).myDoneMarker = doneMarker;
-    myProduction.add(doneMarker);
+    startMarker.myDoneLexemeIndex = myCurrentLexeme;
+    startMarker.myErrorMessage = message;
+    myProduction.add(myProduction.size(), startMarker, true);
   }
 
   private void errorBefore(@Nonnull Marker marker, @Nonnull LocalizeValue message, @Nonnull Marker before) {
     doValidityChecks(marker, before);
 
-    @SuppressWarnings("SuspiciousMethodCalls") int beforeIndex = myProduction.lastIndexOf(before);
+    int beforeIndex = myProduction.lastIndexOfStart((StartMarker)before);
 
-    DoneWithErrorMarker doneMarker = new DoneWithErrorMarker((StartMarker)marker, ((StartMarker)before).myLexemeIndex, message);
-    boolean tieToTheLeft = isEmpty(((StartMarker)marker).myLexemeIndex, ((StartMarker)before).myLexemeIndex);
-    if (tieToTheLeft) ((StartMarker)marker).myEdgeTokenBinder = WhitespacesBinders.DEFAULT_RIGHT_BINDER;
+    final StartMarker startMarker = (StartMarker)marker;
+    boolean tieToTheLeft = isEmpty(startMarker.myLexemeIndex, ((StartMarker)before).myLexemeIndex);
+    if (tieToTheLeft) startMarker.myEdgeTokenBinder = WhitespacesBinders.DEFAULT_RIGHT_BINDER;
 
-    ((StartMarker)marker).myDoneMarker = doneMarker;
-    myProduction.add(beforeIndex, doneMarker);
+    startMarker.myDoneLexemeIndex = ((StartMarker)before).myLexemeIndex;
+    startMarker.myErrorMessage = message;
+    myProduction.add(beforeIndex, startMarker, true);
   }
 
   public void done(@Nonnull Marker marker) {
     doValidityChecks(marker, null);
 
-    DoneMarker doneMarker = DONE_MARKERS.alloc();
-    doneMarker.myStart = (StartMarker)marker;
-    doneMarker.myLexemeIndex = myCurrentLexeme;
-    boolean tieToTheLeft = doneMarker.myStart.myType.isLeftBound() && isEmpty(((StartMarker)marker).myLexemeIndex, myCurrentLexeme);
-    if (tieToTheLeft) ((StartMarker)marker).myEdgeTokenBinder = WhitespacesBinders.DEFAULT_RIGHT_BINDER;
+    final StartMarker startMarker = (StartMarker)marker;
+    boolean tieToTheLeft = startMarker.myType.isLeftBound() && isEmpty(startMarker.myLexemeIndex, myCurrentLexeme);
+    if (tieToTheLeft) startMarker.myEdgeTokenBinder = WhitespacesBinders.DEFAULT_RIGHT_BINDER;
 
-    ((StartMarker)marker).myDoneMarker = doneMarker;
-    myProduction.add(doneMarker);
+    startMarker.myDoneLexemeIndex = myCurrentLexeme;
+    myProduction.add(myProduction.size(), startMarker, true);
   }
 
   public void doneBefore(@Nonnull Marker marker, @Nonnull Marker before) {
     doValidityChecks(marker, before);
 
-    @SuppressWarnings("SuspiciousMethodCalls") int beforeIndex = myProduction.lastIndexOf(before);
+    int beforeIndex = myProduction.lastIndexOfStart((StartMarker)before);
 
-    DoneMarker doneMarker = DONE_MARKERS.alloc();
-    doneMarker.myLexemeIndex = ((StartMarker)before).myLexemeIndex;
-    doneMarker.myStart = (StartMarker)marker;
-    boolean tieToTheLeft = doneMarker.myStart.myType.isLeftBound() && isEmpty(((StartMarker)marker).myLexemeIndex, ((StartMarker)before).myLexemeIndex);
-    if (tieToTheLeft) ((StartMarker)marker).myEdgeTokenBinder = WhitespacesBinders.DEFAULT_RIGHT_BINDER;
+    final StartMarker startMarker = (StartMarker)marker;
+    boolean tieToTheLeft = startMarker.myType.isLeftBound() && isEmpty(startMarker.myLexemeIndex, ((StartMarker)before).myLexemeIndex);
+    if (tieToTheLeft) startMarker.myEdgeTokenBinder = WhitespacesBinders.DEFAULT_RIGHT_BINDER;
 
-    ((StartMarker)marker).myDoneMarker = doneMarker;
-    myProduction.add(beforeIndex, doneMarker);
+    startMarker.myDoneLexemeIndex = ((StartMarker)before).myLexemeIndex;
+    myProduction.add(beforeIndex, startMarker, true);
   }
 
   private boolean isEmpty(final int startIdx, final int endIdx) {
@@ -1029,27 +986,25 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
 
   public void collapse(@Nonnull Marker marker) {
     done(marker);
-    ((StartMarker)marker).myDoneMarker.myCollapse = true;
+    ((StartMarker)marker).myCollapse = true;
   }
 
   @SuppressWarnings("ThrowableResultOfMethodCallIgnored")
   private void doValidityChecks(@Nonnull Marker marker, @Nullable final Marker before) {
-    final DoneMarker doneMarker = ((StartMarker)marker).myDoneMarker;
-    if (doneMarker != null) {
+    if (((StartMarker)marker).isDone()) {
       LOG.error("Marker already done.");
     }
 
     if (!myDebugMode) return;
 
-    int idx = myProduction.lastIndexOf(marker);
+    int idx = myProduction.lastIndexOfStart((StartMarker)marker);
     if (idx < 0) {
       LOG.error("Marker has never been added.");
     }
 
     int endIdx = myProduction.size();
     if (before != null) {
-      //noinspection SuspiciousMethodCalls
-      endIdx = myProduction.lastIndexOf(before);
+      endIdx = myProduction.lastIndexOfStart((StartMarker)before);
       if (endIdx < 0) {
         LOG.error("'Before' marker has never been added.");
       }
@@ -1062,7 +1017,7 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
       Object item = myProduction.get(i);
       if (item instanceof StartMarker) {
         StartMarker otherMarker = (StartMarker)item;
-        if (otherMarker.myDoneMarker == null) {
+        if (!otherMarker.isDone()) {
           final Throwable debugAllocOther = otherMarker.myDebugAllocationPosition;
           final Throwable debugAllocThis = ((StartMarker)marker).myDebugAllocationPosition;
           if (debugAllocOther != null) {
@@ -1200,6 +1155,13 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
 
       if (curNode == null) LOG.error("Unexpected end of the production");
 
+      if (myProduction.isDone(i)) {
+        assertMarkersBalanced(item == curNode, item);
+        curNode = nodes.pop();
+        curDepth--;
+        continue;
+      }
+
       item.myParent = curNode;
       if (item instanceof StartMarker) {
         final StartMarker marker = (StartMarker)item;
@@ -1210,11 +1172,6 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
         curDepth++;
         if (curDepth > maxDepth) maxDepth = curDepth;
       }
-      else if (item instanceof DoneMarker) {
-        assertMarkersBalanced(((DoneMarker)item).myStart == curNode, item);
-        curNode = nodes.pop();
-        curDepth--;
-      }
       else if (item instanceof ErrorItem) {
         int curToken = item.myLexemeIndex;
         if (curToken == lastErrorIndex) continue;
@@ -1228,8 +1185,8 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
       LOG.error("Tokens " + missed + " were not inserted into the tree. " + (myFile != null ? myFile.getLanguage() + ", " : "") + "Text:\n" + myText);
     }
 
-    if (rootMarker.myDoneMarker.myLexemeIndex < myLexemeCount) {
-      final List<IElementType> missed = ContainerUtil.newArrayList(myLexTypes, rootMarker.myDoneMarker.myLexemeIndex, myLexemeCount);
+    if (rootMarker.myDoneLexemeIndex < myLexemeCount) {
+      final List<IElementType> missed = ContainerUtil.newArrayList(myLexTypes, rootMarker.myDoneLexemeIndex, myLexemeCount);
       LOG.error("Tokens " + missed + " are outside of root element \"" + rootMarker.myType + "\". Text:\n" + myText);
     }
 
@@ -1266,26 +1223,28 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
     for (int i = 1, size = myProduction.size() - 1; i < size; i++) {
       ProductionMarker item = myProduction.get(i);
       if (item instanceof StartMarker) {
-        assertMarkersBalanced(((StartMarker)item).myDoneMarker != null, item);
+        assertMarkersBalanced(((StartMarker)item).isDone(), item);
       }
 
-      boolean recursive = item.myEdgeTokenBinder instanceof WhitespacesAndCommentsBinder.RecursiveBinder;
-      int prevProductionLexIndex = recursive ? 0 : myProduction.get(i - 1).myLexemeIndex;
-      int wsStartIndex = Math.max(item.myLexemeIndex, lastIndex);
+      WhitespacesAndCommentsBinder binder = myProduction.getEdgeTokenBinder(i);
+      int itemLexIndex = myProduction.getLexemeIndex(i);
+      boolean recursive = binder instanceof WhitespacesAndCommentsBinder.RecursiveBinder;
+      int prevProductionLexIndex = recursive ? 0 : myProduction.getLexemeIndex(i - 1);
+      int wsStartIndex = Math.max(itemLexIndex, lastIndex);
       while (wsStartIndex > prevProductionLexIndex && whitespaceOrComment(myLexTypes[wsStartIndex - 1])) wsStartIndex--;
-      int wsEndIndex = item.myLexemeIndex;
+      int wsEndIndex = itemLexIndex;
       while (wsEndIndex < myLexemeCount && whitespaceOrComment(myLexTypes[wsEndIndex])) wsEndIndex++;
 
       if (wsStartIndex != wsEndIndex) {
         wsTokens.configure(wsStartIndex, wsEndIndex);
         tokenTextGetter.configure(wsStartIndex);
         boolean atEnd = wsStartIndex == 0 || wsEndIndex == myLexemeCount;
-        item.myLexemeIndex = wsStartIndex + item.myEdgeTokenBinder.getEdgePosition(wsTokens, atEnd, tokenTextGetter);
+        itemLexIndex = wsStartIndex + binder.getEdgePosition(wsTokens, atEnd, tokenTextGetter);
+        myProduction.setLexemeIndex(i, itemLexIndex);
         if (recursive) {
           for (int k = i - 1; k > 1; k--) {
-            ProductionMarker prev = myProduction.get(k);
-            if (prev.myLexemeIndex >= item.myLexemeIndex) {
-              prev.myLexemeIndex = item.myLexemeIndex;
+            if (myProduction.getLexemeIndex(k) >= itemLexIndex) {
+              myProduction.setLexemeIndex(k, itemLexIndex);
             }
             else {
               break;
@@ -1293,11 +1252,12 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
           }
         }
       }
-      else if (item.myLexemeIndex < wsStartIndex) {
-        item.myLexemeIndex = wsStartIndex;
+      else if (itemLexIndex < wsStartIndex) {
+        itemLexIndex = wsStartIndex;
+        myProduction.setLexemeIndex(i, itemLexIndex);
       }
 
-      lastIndex = item.myLexemeIndex;
+      lastIndex = itemLexIndex;
     }
   }
 
@@ -1354,22 +1314,31 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
     CompositeElement curNode = rootNode;
 
     int lexIndex = rootMarker.myLexemeIndex;
-    ProductionMarker item = rootMarker.myFirstChild != null ? rootMarker.myFirstChild : rootMarker.myDoneMarker;
+    // null item stands for the end of the current marker
+    ProductionMarker item = rootMarker.myFirstChild;
     while (true) {
-      lexIndex = insertLeaves(lexIndex, item.myLexemeIndex, curNode);
+      if (item == null) {
+        lexIndex = insertLeaves(lexIndex, curMarker.myDoneLexemeIndex, curNode);
+        if (curMarker == rootMarker) break;
 
-      if (item == rootMarker.myDoneMarker) break;
+        item = curMarker.myNext;
+        curMarker = (StartMarker)curMarker.myParent;
+        curNode = curNode.getTreeParent();
+        continue;
+      }
+
+      lexIndex = insertLeaves(lexIndex, item.myLexemeIndex, curNode);
 
       if (item instanceof StartMarker) {
         final StartMarker marker = (StartMarker)item;
-        if (!marker.myDoneMarker.myCollapse) {
+        if (!marker.myCollapse) {
           curMarker = marker;
 
           final CompositeElement childNode = createComposite(marker);
           curNode.rawAddChildrenWithoutNotifications(childNode);
           curNode = childNode;
 
-          item = marker.myFirstChild != null ? marker.myFirstChild : marker.myDoneMarker;
+          item = marker.myFirstChild;
           continue;
         }
         else {
@@ -1380,13 +1349,8 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
         final CompositeElement errorElement = Factory.createErrorElement(((ErrorItem)item).myMessage);
         curNode.rawAddChildrenWithoutNotifications(errorElement);
       }
-      else if (item instanceof DoneMarker) {
-        curMarker = (StartMarker)((DoneMarker)item).myStart.myParent;
-        curNode = curNode.getTreeParent();
-        item = ((DoneMarker)item).myStart;
-      }
 
-      item = item.myNext != null ? item.myNext : curMarker.myDoneMarker;
+      item = item.myNext;
     }
   }
 
@@ -1409,14 +1373,14 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
 
   private int collapseLeaves(@Nonnull CompositeElement ast, @Nonnull StartMarker startMarker) {
     final int start = myLexStarts[startMarker.myLexemeIndex];
-    final int end = myLexStarts[startMarker.myDoneMarker.myLexemeIndex];
+    final int end = myLexStarts[startMarker.myDoneLexemeIndex];
     final IElementType markerType = startMarker.myType;
     final TreeElement leaf = createLeaf(markerType, start, end);
-    if (markerType instanceof ILazyParseableElementType && ((ILazyParseableElementType)markerType).reuseCollapsedTokens() && startMarker.myLexemeIndex < startMarker.myDoneMarker.myLexemeIndex) {
-      final int length = startMarker.myDoneMarker.myLexemeIndex - startMarker.myLexemeIndex;
+    if (markerType instanceof ILazyParseableElementType && ((ILazyParseableElementType)markerType).reuseCollapsedTokens() && startMarker.myLexemeIndex < startMarker.myDoneLexemeIndex) {
+      final int length = startMarker.myDoneLexemeIndex - startMarker.myLexemeIndex;
       final int[] relativeStarts = new int[length + 1];
       final IElementType[] types = new IElementType[length];
-      for (int i = startMarker.myLexemeIndex; i < startMarker.myDoneMarker.myLexemeIndex; i++) {
+      for (int i = startMarker.myLexemeIndex; i < startMarker.myDoneLexemeIndex; i++) {
         relativeStarts[i - startMarker.myLexemeIndex] = myLexStarts[i] - start;
         types[i - startMarker.myLexemeIndex] = myLexTypes[i];
       }
@@ -1424,14 +1388,14 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
       leaf.putUserData(LAZY_PARSEABLE_TOKENS, new LazyParseableTokensCache(relativeStarts, types));
     }
     ast.rawAddChildrenWithoutNotifications(leaf);
-    return startMarker.myDoneMarker.myLexemeIndex;
+    return startMarker.myDoneLexemeIndex;
   }
 
   @Nonnull
   private static CompositeElement createComposite(@Nonnull StartMarker marker) {
     final IElementType type = marker.myType;
     if (type == TokenType.ERROR_ELEMENT) {
-      LocalizeValue message = marker.myDoneMarker instanceof DoneWithErrorMarker ? ((DoneWithErrorMarker)marker.myDoneMarker).myMessage : null;
+      LocalizeValue message = marker.myErrorMessage;
       return Factory.createErrorElement(message == null ? LocalizeValue.empty() : message);
     }
 
@@ -1458,8 +1422,8 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
     if (node instanceof ErrorItem) return ((ErrorItem)node).myMessage;
     if (node instanceof StartMarker) {
       final StartMarker marker = (StartMarker)node;
-      if (marker.myType == TokenType.ERROR_ELEMENT && marker.myDoneMarker instanceof DoneWithErrorMarker) {
-        return ((DoneWithErrorMarker)marker.myDoneMarker).myMessage;
+      if (marker.myType == TokenType.ERROR_ELEMENT && marker.myErrorMessage != null) {
+        return marker.myErrorMessage;
       }
     }
 
@@ -1665,8 +1629,8 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
       while (child != null) {
         lexIndex = insertLeaves(lexIndex, child.myLexemeIndex, marker.myBuilder, marker);
 
-        if (child instanceof StartMarker && ((StartMarker)child).myDoneMarker.myCollapse) {
-          int lastIndex = ((StartMarker)child).myDoneMarker.myLexemeIndex;
+        if (child instanceof StartMarker && ((StartMarker)child).myCollapse) {
+          int lastIndex = ((StartMarker)child).myDoneLexemeIndex;
           insertLeaf(child.getTokenType(), marker.myBuilder, child.myLexemeIndex, lastIndex, true, marker);
         }
         else {
@@ -1675,12 +1639,12 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
         }
 
         if (child instanceof StartMarker) {
-          lexIndex = ((StartMarker)child).myDoneMarker.myLexemeIndex;
+          lexIndex = ((StartMarker)child).myDoneLexemeIndex;
         }
         child = child.myNext;
       }
 
-      insertLeaves(lexIndex, marker.myDoneMarker.myLexemeIndex, marker.myBuilder, marker);
+      insertLeaves(lexIndex, marker.myDoneLexemeIndex, marker.myBuilder, marker);
       into.set(nodes == null ? LighterASTNode.EMPTY_ARRAY : nodes);
       nodes = null;
 
@@ -1851,15 +1815,93 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
     myFile = containingFile;
   }
 
-  private static class MyList extends ArrayList<ProductionMarker> {
-    // make removeRange method available.
-    @Override
-    protected void removeRange(final int fromIndex, final int toIndex) {
-      super.removeRange(fromIndex, toIndex);
+  /**
+   * Start markers, their done entries and error items in the order the parser added them. Done entries refer to their start markers
+   * and are told apart by a flag in a parallel array, so a production costs a single marker object.
+   */
+  private static class Production {
+    private ProductionMarker[] myMarkers = new ProductionMarker[256];
+    private boolean[] myDone = new boolean[256];
+    private int mySize;
+
+    int size() {
+      return mySize;
+    }
+
+    boolean isEmpty() {
+      return mySize == 0;
+    }
+
+    /**
+     * @return the marker of the entry, the start marker for a done entry
+     */
+    ProductionMarker get(int index) {
+      return myMarkers[index];
+    }
+
+    boolean isDone(int index) {
+      return myDone[index];
+    }
+
+    int getLexemeIndex(int index) {
+      return myDone[index] ? ((StartMarker)myMarkers[index]).myDoneLexemeIndex : myMarkers[index].myLexemeIndex;
+    }
+
+    void setLexemeIndex(int index, int lexemeIndex) {
+      if (myDone[index]) {
+        ((StartMarker)myMarkers[index]).myDoneLexemeIndex = lexemeIndex;
+      }
+      else {
+        myMarkers[index].myLexemeIndex = lexemeIndex;
+      }
+    }
+
+    WhitespacesAndCommentsBinder getEdgeTokenBinder(int index) {
+      return myDone[index] ? ((StartMarker)myMarkers[index]).myDoneEdgeTokenBinder : myMarkers[index].myEdgeTokenBinder;
     }
 
-    private MyList() {
-      super(256);
+    void add(@Nonnull ProductionMarker marker) {
+      add(mySize, marker, false);
+    }
+
+    void add(int index, @Nonnull ProductionMarker marker, boolean done) {
+      if (mySize == myMarkers.length) {
+        myMarkers = Arrays.copyOf(myMarkers, mySize * 3 / 2);
+        myDone = Arrays.copyOf(myDone, myMarkers.length);
+      }
+      System.arraycopy(myMarkers, index, myMarkers, index + 1, mySize - index);
+      System.arraycopy(myDone, index, myDone, index + 1, mySize - index);
+      myMarkers[index] = marker;
+      myDone[index] = done;
+      mySize++;
+    }
+
+    void remove(int index) {
+      System.arraycopy(myMarkers, index + 1, myMarkers, index, mySize - index - 1);
+      System.arraycopy(myDone, index + 1, myDone, index, mySize - index - 1);
+      myMarkers[--mySize] = null;
+    }
+
+    void removeRange(int fromIndex, int toIndex) {
+      System.arraycopy(myMarkers, toIndex, myMarkers, fromIndex, mySize - toIndex);
+      System.arraycopy(myDone, toIndex, myDone, fromIndex, mySize - toIndex);
+      int newSize = mySize - (toIndex - fromIndex);
+      Arrays.fill(myMarkers, newSize, mySize, null);
+      mySize = newSize;
+    }
+
+    int lastIndexOfStart(@Nonnull ProductionMarker marker) {
+      for (int i = mySize - 1; i >= 0; i--) {
+        if (myMarkers[i] == marker && !myDone[i]) return i;
+      }
+      return -1;
+    }
+
+    int lastIndexOfDone(@Nonnull StartMarker marker) {
+      for (int i = mySize - 1; i >= 0; i--) {
+        if (myMarkers[i] == marker && myDone[i]) return i;
+      }
+      return -1;
     }
   }
 
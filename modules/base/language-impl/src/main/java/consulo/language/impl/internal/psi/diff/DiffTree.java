@@ -16,7 +16,11 @@
 package consulo.language.impl.internal.psi.diff;
 
 import consulo.language.util.FlyweightCapableTreeStructure;
+import consulo.util.collection.primitive.ints.IntIntMap;
+import consulo.util.collection.primitive.ints.IntMaps;
 import consulo.util.lang.CharArrayUtil;
+import consulo.util.lang.StringUtil;
+import consulo.util.lang.SystemProperties;
 import consulo.util.lang.ThreeState;
 import consulo.util.lang.ref.SimpleReference;
 
@@ -29,6 +33,9 @@ import java.util.List;
  */
 public class DiffTree<OT, NT> {
   private static final int CHANGE_PARENT_VERSUS_CHILDREN_THRESHOLD = 20;
+  private static final boolean ANCHORS_ENABLED = SystemProperties.getBooleanProperty("idea.diff.tree.anchors", true);
+  // shorter children, like whitespaces and punctuation, repeat too often to realign children by them
+  private static final int MIN_ANCHOR_LENGTH = 32;
 
   private final FlyweightCapableTreeStructure<OT> myOldTree;
   private final FlyweightCapableTreeStructure<NT> myNewTree;
@@ -141,6 +148,7 @@ public class DiffTree<OT, NT> {
       else {
         int oldIndex = prefixLength;
         int newIndex = prefixLength;
+        Anchors anchors = null;
         while (oldIndex < oldChildrenSize - suffixLength || newIndex < newChildrenSize - suffixLength) {
           OT oldChild1 = oldIndex < oldChildrenSize - suffixLength ? oldChildren[oldIndex] : null;
           OT oldChild2 = oldIndex < oldChildrenSize - suffixLength - 1 ? oldChildren[oldIndex + 1] : null;
@@ -150,6 +158,30 @@ public class DiffTree<OT, NT> {
           NT newChild3 = newIndex < newChildrenSize - suffixLength - 2 ? newChildren[newIndex + 2] : null;
 
           CompareResult c11 = looksEqual(comparator, oldChild1, newChild1);
+          if (c11 == CompareResult.DRILL_DOWN_NEEDED && ANCHORS_ENABLED &&
+              oldChildrenSize - suffixLength - oldIndex + newChildrenSize - suffixLength - newIndex > 2) {
+            // drilling down into a different node of the same type would rewrite its subtree, check whether the node
+            // is actually kept unchanged at a farther position, e.g. after a big paste in between
+            if (!textMatch(oldChild1, newChild1)) {
+              if (anchors == null) {
+                anchors = new Anchors(oldChildren, prefixLength, oldChildrenSize - suffixLength, newChildren, prefixLength, newChildrenSize - suffixLength);
+              }
+              int oldAnchor = anchors.findOld(newIndex, oldIndex + 1, oldChildrenSize - suffixLength);
+              int newAnchor = anchors.findNew(oldIndex, newIndex + 1, newChildrenSize - suffixLength);
+              if (oldAnchor >= 0 && (newAnchor < 0 || oldAnchor - oldIndex <= newAnchor - newIndex)) {
+                for (; oldIndex < oldAnchor; oldIndex++) {
+                  consumer.nodeDeleted(oldNode, oldChildren[oldIndex]);
+                }
+                continue;
+              }
+              if (newAnchor >= 0) {
+                for (; newIndex < newAnchor; newIndex++) {
+                  consumer.nodeInserted(oldNode, newChildren[newIndex], newIndex);
+                }
+                continue;
+              }
+            }
+          }
           if (c11 == CompareResult.EQUAL || c11 == CompareResult.DRILL_DOWN_NEEDED) {
             if (c11 == CompareResult.DRILL_DOWN_NEEDED) {
               build(oldChild1, newChild1, level + 1, consumer);
@@ -293,6 +325,104 @@ public class DiffTree<OT, NT> {
     return CharArrayUtil.regionMatches(myOldText, oldStart, oldEnd, myNewText, newStart, newEnd);
   }
 
+  @Nonnull
+  private static <T> ChildHashes hashChildren(@Nonnull FlyweightCapableTreeStructure<T> tree,
+                                              @Nonnull T[] children,
+                                              int from,
+                                              int to,
+                                              int treeStart,
+                                              @Nonnull CharSequence text) {
+    ChildHashes hashes = new ChildHashes(from, to);
+    for (int i = from; i < to; i++) {
+      int start = tree.getStartOffset(children[i]) - treeStart;
+      int end = tree.getEndOffset(children[i]) - treeStart;
+      // children out of the known text are never anchors, neither are short ones, so only their texts are hashed
+      if (start >= 0 && end <= text.length() && end - start >= MIN_ANCHOR_LENGTH) {
+        hashes.add(i, StringUtil.stringHashCode(text, start, end));
+      }
+    }
+    return hashes;
+  }
+
+  // text hashes of the children in a range which are long enough to be anchors
+  private static final class ChildHashes {
+    private final int myFrom;
+    private final int[] myHashes;
+    private final boolean[] myHashed;
+    // hash -> the index of the only child with the hash + 1, or -1 if there are a few such children
+    private final IntIntMap myUnique = IntMaps.newIntIntHashMap();
+
+    private ChildHashes(int from, int to) {
+      myFrom = from;
+      myHashes = new int[to - from];
+      myHashed = new boolean[to - from];
+    }
+
+    private void add(int index, int hash) {
+      myHashes[index - myFrom] = hash;
+      myHashed[index - myFrom] = true;
+      myUnique.putInt(hash, myUnique.containsKey(hash) ? -1 : index + 1);
+    }
+
+    private int hash(int index) {
+      return myHashes[index - myFrom];
+    }
+
+    // whether the child is the only child with its text in the range
+    private boolean isUnique(int index) {
+      return myHashed[index - myFrom] && uniqueIndex(myHashes[index - myFrom]) == index;
+    }
+
+    /**
+     * @return index of the only child with the hash in the range, or -1
+     */
+    private int uniqueIndex(int hash) {
+      int index = myUnique.containsKey(hash) ? myUnique.getInt(hash) : 0;
+      return index > 0 ? index - 1 : -1;
+    }
+  }
+
+  /**
+   * Finds unchanged children of a node at different positions in the old and new children by hashes of their texts. As children with
+   * the same text, like equal methods, can't be told apart, only a child which text is unique among both the old and the new children
+   * in the range is an anchor, otherwise the current pair is drilled into as usual.
+   */
+  private final class Anchors {
+    private final OT[] myOldChildren;
+    private final NT[] myNewChildren;
+    private final ChildHashes myOldHashes;
+    private final ChildHashes myNewHashes;
+
+    private Anchors(@Nonnull OT[] oldChildren, int oldFrom, int oldTo, @Nonnull NT[] newChildren, int newFrom, int newTo) {
+      myOldChildren = oldChildren;
+      myNewChildren = newChildren;
+      myOldHashes = hashChildren(myOldTree, oldChildren, oldFrom, oldTo, myOldTreeStart, myOldText);
+      myNewHashes = hashChildren(myNewTree, newChildren, newFrom, newTo, myNewTreeStart, myNewText);
+    }
+
+    /**
+     * @return index of the old child in [from, to) with the same type and text as the new child, or -1
+     */
+    private int findOld(int newIndex, int from, int to) {
+      if (!myNewHashes.isUnique(newIndex)) return -1;
+      int i = myOldHashes.uniqueIndex(myNewHashes.hash(newIndex));
+      return i >= from && i < to && isAnchor(myOldChildren[i], myNewChildren[newIndex]) ? i : -1;
+    }
+
+    /**
+     * @return index of the new child in [from, to) with the same type and text as the old child, or -1
+     */
+    private int findNew(int oldIndex, int from, int to) {
+      if (!myOldHashes.isUnique(oldIndex)) return -1;
+      int i = myNewHashes.uniqueIndex(myOldHashes.hash(oldIndex));
+      return i >= from && i < to && isAnchor(myOldChildren[oldIndex], myNewChildren[i]) ? i : -1;
+    }
+
+    private boolean isAnchor(@Nonnull OT oldChild, @Nonnull NT newChild) {
+      return myComparator.typesEqual(oldChild, newChild) && textMatch(oldChild, newChild);
+    }
+  }
+
   @Nonnull
   private CompareResult looksEqual(@Nonnull ShallowNodeComparator<OT, NT> comparator, OT oldChild1, NT newChild1) {
     if (oldChild1 == null || newChild1 == null) {
@@ -767,6 +767,15 @@ public abstract class PsiFileImpl extends UserDataHolderBase implements PsiFileE
     return treeElement != null ? treeElement : loadTreeElement();
   }
 
+  /**
+   * Loads the AST and expands all its lazy-parseable elements at once, concurrently where possible,
+   * for whole-file processing which would expand them one by one anyway.
+   */
+  @RequiredReadAction
+  public void expandLazyParseableElements() {
+    LazyParseableElement.expandAll(calcTreeElement());
+  }
+
   @RequiredReadAction
   @Override
   @Nonnull
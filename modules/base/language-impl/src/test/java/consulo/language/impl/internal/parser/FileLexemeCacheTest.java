@@ -0,0 +1,242 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.language.impl.internal.parser;
+
+import consulo.language.Language;
+import consulo.language.ast.IElementType;
+import consulo.language.lexer.LexerBase;
+import consulo.language.version.LanguageVersion;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FileLexemeCacheTest {
+  private static final Language LANGUAGE = new Language("FILE_LEXEME_CACHE_TEST") {
+  };
+  private static final LanguageVersion VERSION = new LanguageVersion("DEFAULT", "Default", LANGUAGE);
+
+  private static final IElementType WORD = new IElementType("WORD", LANGUAGE);
+  private static final IElementType SPACE = new IElementType("SPACE", LANGUAGE);
+  private static final IElementType COMMENT_START = new IElementType("COMMENT_START", LANGUAGE);
+  private static final IElementType COMMENT_TEXT = new IElementType("COMMENT_TEXT", LANGUAGE);
+  private static final IElementType COMMENT_END = new IElementType("COMMENT_END", LANGUAGE);
+
+  /**
+   * Words and spaces, block comments are lexed line by line in state 1.
+   */
+  private static class TestLexer extends LexerBase {
+    private CharSequence myBuffer;
+    private int myEnd;
+    private int myTokenStart;
+    private int myTokenEnd;
+    private int myState;
+    private IElementType myType;
+    int myLexedTokens;
+
+    @Override
+    public void start(CharSequence buffer, int startOffset, int endOffset, int initialState) {
+      myBuffer = buffer;
+      myEnd = endOffset;
+      myTokenEnd = startOffset;
+      myState = initialState;
+      locateToken();
+    }
+
+    private void locateToken() {
+      myTokenStart = myTokenEnd;
+      if (myTokenStart >= myEnd) {
+        myType = null;
+        return;
+      }
+      myLexedTokens++;
+      int i = myTokenStart;
+      if (myState == 1) {
+        if (startsWith(i, "*/")) {
+          myType = COMMENT_END;
+          myTokenEnd = i + 2;
+          return;
+        }
+        while (i < myEnd && !startsWith(i, "*/") && myBuffer.charAt(i) != '\n') i++;
+        if (i == myTokenStart) i++;
+        myType = COMMENT_TEXT;
+      }
+      else if (startsWith(i, "/*")) {
+        myType = COMMENT_START;
+        i += 2;
+      }
+      else if (Character.isWhitespace(myBuffer.charAt(i))) {
+        while (i < myEnd && Character.isWhitespace(myBuffer.charAt(i))) i++;
+        myType = SPACE;
+      }
+      else {
+        while (i < myEnd && !Character.isWhitespace(myBuffer.charAt(i)) && !startsWith(i, "/*")) i++;
+        myType = WORD;
+      }
+      myTokenEnd = i;
+    }
+
+    private boolean startsWith(int offset, String prefix) {
+      return offset + prefix.length() <= myEnd && myBuffer.subSequence(offset, offset + prefix.length()).toString().equals(prefix);
+    }
+
+    @Override
+    public int getState() {
+      return myState;
+    }
+
+    @Override
+    public IElementType getTokenType() {
+      return myType;
+    }
+
+    @Override
+    public int getTokenStart() {
+      return myTokenStart;
+    }
+
+    @Override
+    public int getTokenEnd() {
+      return myTokenEnd;
+    }
+
+    @Override
+    public void advance() {
+      if (myType == COMMENT_START) myState = 1;
+      else if (myType == COMMENT_END) myState = 0;
+      locateToken();
+    }
+
+    @Override
+    public CharSequence getBufferSequence() {
+      return myBuffer;
+    }
+
+    @Override
+    public int getBufferEnd() {
+      return myEnd;
+    }
+  }
+
+  // reports the initial state inside comments too, so it may be restarted in the middle of a comment
+  private static final class HiddenStateLexer extends TestLexer {
+    @Override
+    public int getState() {
+      return 0;
+    }
+  }
+
+  @Test
+  public void testRelexedLexemesMatchFullLexing() {
+    Random random = new Random(1);
+    String text = generateText(random, 40_000);
+    FileLexemeCache cache = FileLexemeCache.lex(null, new TestLexer(), VERSION, text, null, false);
+
+    String[] inserts = {"word", " ", "\n", "/*", "*/", "/* closed */", "x/*y", ""};
+    for (int edit = 0; edit < 300; edit++) {
+      int start = random.nextInt(text.length() + 1);
+      int end = Math.min(text.length(), start + (random.nextBoolean() ? 0 : random.nextInt(50)));
+      String newText = text.substring(0, start) + inserts[random.nextInt(inserts.length)] + text.substring(end);
+
+      FileLexemeCache relexed = FileLexemeCache.lex(cache, new TestLexer(), VERSION, newText, text, false);
+      assertSameLexemes("edit " + edit + " at " + start, lexAll(newText), relexed);
+      cache = relexed;
+      text = newText;
+    }
+  }
+
+  @Test
+  public void testOnlyChangedRegionIsRelexed() {
+    String text = generateText(new Random(2), 100_000);
+    TestLexer lexer = new TestLexer();
+    FileLexemeCache cache = FileLexemeCache.lex(null, lexer, VERSION, text, null, false);
+    int allTokens = lexer.myLexedTokens;
+
+    int offset = text.indexOf(' ', text.length() / 2);
+    String newText = text.substring(0, offset) + " inserted " + text.substring(offset);
+    lexer.myLexedTokens = 0;
+    FileLexemeCache relexed = FileLexemeCache.lex(cache, lexer, VERSION, newText, text, false);
+    assertSameLexemes("insert", lexAll(newText), relexed);
+    assertTrue(lexer.myLexedTokens + " of " + allTokens, lexer.myLexedTokens < allTokens / 20);
+  }
+
+  @Test
+  public void testUnrelatedCacheIsNotUsed() {
+    String text = generateText(new Random(3), 10_000);
+    FileLexemeCache cache = FileLexemeCache.lex(null, new TestLexer(), VERSION, text, null, false);
+
+    // the cached lexemes are of another text or another lexer
+    TestLexer lexer = new TestLexer();
+    String newText = "prefix " + text;
+    assertSameLexemes("other text", lexAll(newText), FileLexemeCache.lex(cache, lexer, VERSION, newText, "other", false));
+    assertSameLexemes("other lexer", lexAll(newText), FileLexemeCache.lex(cache, new HiddenStateLexer(), VERSION, newText, text, false));
+  }
+
+  @Test
+  public void testCheckReportsWrongRestart() {
+    StringBuilder comment = new StringBuilder("a b c\n/*");
+    for (int i = 0; i < 200; i++) {
+      comment.append("line ").append(i).append('\n');
+    }
+    String text = comment.append("*/ d e").toString();
+    FileLexemeCache cache = FileLexemeCache.lex(null, new HiddenStateLexer(), VERSION, text, null, false);
+
+    // the lexer restarts inside the comment and lexes its words as code
+    int offset = text.indexOf("line 150");
+    String newText = text.substring(0, offset) + "x" + text.substring(offset);
+    FileLexemeCache relexed = FileLexemeCache.lex(cache, new HiddenStateLexer(), VERSION, newText, text, false);
+    assertFalse(Arrays.equals(lexAll(newText).copyLexStarts(), relexed.copyLexStarts()));
+
+    // the error is logged and lexemes of the whole text are used, the test logger rethrows it
+    try {
+      FileLexemeCache.lex(cache, new HiddenStateLexer(), VERSION, newText, text, true);
+      fail();
+    }
+    catch (AssertionError e) {
+      assertTrue(e.getMessage(), e.getMessage().contains(HiddenStateLexer.class.getName()));
+    }
+  }
+
+  private static FileLexemeCache lexAll(String text) {
+    return FileLexemeCache.lex(null, new TestLexer(), VERSION, text, null, false);
+  }
+
+  private static void assertSameLexemes(String message, FileLexemeCache expected, FileLexemeCache actual) {
+    assertNotNull(message, actual);
+    assertEquals(message, expected.getLexemeCount(), actual.getLexemeCount());
+    assertArrayEquals(message, expected.copyLexStarts(), actual.copyLexStarts());
+    assertArrayEquals(message, expected.copyLexTypes(), actual.copyLexTypes());
+  }
+
+  private static String generateText(Random random, int length) {
+    StringBuilder builder = new StringBuilder(length + 100);
+    while (builder.length() < length) {
+      int kind = random.nextInt(20);
+      if (kind == 0) {
+        builder.append("/* comment\n  line ").append(random.nextInt(100)).append("\n */");
+      }
+      else if (kind < 4) {
+        builder.append('\n');
+      }
+      else {
+        builder.append("word").append(random.nextInt(1000)).append(' ');
+      }
+    }
+    return builder.toString();
+  }
+}
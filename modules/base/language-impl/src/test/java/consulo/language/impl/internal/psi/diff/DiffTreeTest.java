@@ -0,0 +1,171 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.language.impl.internal.psi.diff;
+
+import consulo.language.util.FlyweightCapableTreeStructure;
+import consulo.util.lang.ThreeState;
+import consulo.util.lang.ref.SimpleReference;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class DiffTreeTest {
+  private static final String A = "alpha beta gamma delta epsilon zeta";
+  private static final String B = "one two three four five six seven";
+  private static final String C = "the quick brown fox jumps over dog";
+  private static final String P = "pasted text of a block long enough";
+
+  // blocks of words and spaces
+  private static final class Node {
+    final String myType;
+    final String myText;
+    final int myStart;
+    final Node[] myChildren;
+
+    Node(String type, String text, int start, Node[] children) {
+      myType = type;
+      myText = text;
+      myStart = start;
+      myChildren = children;
+    }
+
+    @Override
+    public String toString() {
+      return myText;
+    }
+  }
+
+  private static final class Tree implements FlyweightCapableTreeStructure<Node> {
+    private final Node myRoot;
+
+    Tree(String... blocks) {
+      Node[] children = new Node[blocks.length];
+      int offset = 0;
+      for (int i = 0; i < blocks.length; i++) {
+        List<Node> words = new ArrayList<>();
+        for (String word : blocks[i].split("(?<= )|(?= )")) {
+          words.add(new Node(word.equals(" ") ? "SPACE" : "WORD", word, offset, new Node[0]));
+          offset += word.length();
+        }
+        children[i] = new Node("BLOCK", blocks[i], offset - blocks[i].length(), words.toArray(new Node[0]));
+      }
+      myRoot = new Node("ROOT", String.join("", blocks), 0, children);
+    }
+
+    @Override
+    public Node getRoot() {
+      return myRoot;
+    }
+
+    @Override
+    public Node getParent(Node node) {
+      return null;
+    }
+
+    @Override
+    public Node prepareForGetChildren(Node node) {
+      return node;
+    }
+
+    @Override
+    public int getChildren(Node parent, SimpleReference<Node[]> into) {
+      into.set(parent.myChildren);
+      return parent.myChildren.length;
+    }
+
+    @Override
+    public void disposeChildren(Node[] nodes, int count) {
+    }
+
+    @Override
+    public CharSequence toString(Node node) {
+      return node.myText;
+    }
+
+    @Override
+    public int getStartOffset(Node node) {
+      return node.myStart;
+    }
+
+    @Override
+    public int getEndOffset(Node node) {
+      return node.myStart + node.myText.length();
+    }
+  }
+
+  private static final ShallowNodeComparator<Node, Node> COMPARATOR = new ShallowNodeComparator<>() {
+    @Override
+    public ThreeState deepEqual(Node oldNode, Node newNode) {
+      if (oldNode.myText.equals(newNode.myText)) return ThreeState.YES;
+      return oldNode.myChildren.length == 0 ? ThreeState.NO : ThreeState.UNSURE;
+    }
+
+    @Override
+    public boolean typesEqual(Node oldNode, Node newNode) {
+      return oldNode.myType.equals(newNode.myType);
+    }
+
+    @Override
+    public boolean hashCodesEqual(Node oldNode, Node newNode) {
+      return oldNode.myText.equals(newNode.myText);
+    }
+  };
+
+  @Test
+  public void testEditedDuplicateIsDrilledInto() {
+    String editedA = A.replace("beta", "BETA");
+    String editedC = C.replace("dog", "cat");
+    assertEquals(List.of("replaced beta with BETA", "replaced dog with cat"), diff(new Tree(A, B, A, C), new Tree(editedA, B, A, editedC)));
+  }
+
+  @Test
+  public void testShiftedBlocksAreKept() {
+    String editedC = C.replace("dog", "cat");
+    assertEquals(List.of("inserted " + P + " at 0", "replaced dog with cat"), diff(new Tree(A, B, C), new Tree(P, A, B, editedC)));
+    assertEquals(List.of("deleted " + P, "replaced dog with cat"), diff(new Tree(P, A, B, C), new Tree(A, B, editedC)));
+  }
+
+  @Test
+  public void testUniqueBlockIsAnAnchorNextToDuplicates() {
+    // the copies of A can't be told apart, but B is unique on both sides
+    String editedC = C.replace("dog", "cat");
+    assertEquals(List.of("inserted " + A + " at 0", "replaced dog with cat"), diff(new Tree(B, A, C), new Tree(A, B, A, editedC)));
+  }
+
+  private static List<String> diff(Tree oldTree, Tree newTree) {
+    List<String> events = new ArrayList<>();
+    DiffTree.diff(oldTree, newTree, COMPARATOR, new DiffTreeChangeBuilder<>() {
+      @Override
+      public void nodeReplaced(Node oldChild, Node newChild) {
+        events.add("replaced " + oldChild + " with " + newChild);
+      }
+
+      @Override
+      public void nodeDeleted(Node oldParent, Node oldNode) {
+        events.add("deleted " + oldNode);
+      }
+
+      @Override
+      public void nodeInserted(Node oldParent, Node newNode, int pos) {
+        events.add("inserted " + newNode + " at " + pos);
+      }
+    }, oldTree.getRoot().myText);
+    return events;
+  }
+}
@@ -0,0 +1,493 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.test.light;
+
+import consulo.disposer.AutoDisposable;
+import consulo.disposer.Disposer;
+import consulo.language.Language;
+import consulo.language.ast.ASTNode;
+import consulo.language.ast.IElementType;
+import consulo.language.ast.IFileElementType;
+import consulo.language.ast.LighterASTNode;
+import consulo.language.ast.LighterASTTokenNode;
+import consulo.language.ast.TokenSet;
+import consulo.language.ast.TokenType;
+import consulo.language.file.FileViewProvider;
+import consulo.language.impl.ast.LeafElement;
+import consulo.language.impl.internal.parser.PsiBuilderImpl;
+import consulo.language.lexer.Lexer;
+import consulo.language.lexer.LexerBase;
+import consulo.language.parser.ParserDefinition;
+import consulo.language.parser.PsiBuilder;
+import consulo.language.parser.PsiParser;
+import consulo.language.parser.WhitespacesBinders;
+import consulo.language.psi.PsiErrorElement;
+import consulo.language.psi.PsiFile;
+import consulo.language.util.FlyweightCapableTreeStructure;
+import consulo.language.version.LanguageVersion;
+import consulo.localize.LocalizeValue;
+import consulo.util.lang.ref.SimpleReference;
+import jakarta.annotation.Nonnull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.function.Consumer;
+
+/**
+ * Checks that the heavy and the light trees built by {@link PsiBuilderImpl} agree for every kind of marker operation.
+ */
+public class PsiBuilderImplTest {
+  private static final IElementType ROOT = new IElementType("ROOT", null);
+  private static final IElementType ITEM = new IElementType("ITEM", null);
+  private static final IElementType PAIR = new IElementType("PAIR", null);
+  private static final IElementType BINARY = new IElementType("BINARY", null);
+  private static final IElementType COLLAPSED = new IElementType("COLLAPSED", null);
+
+  private static final IElementType WORD = new IElementType("WORD", null);
+  private static final IElementType SIGN = new IElementType("SIGN", null);
+  private static final IElementType COMMENT = new IElementType("COMMENT", null);
+
+  private static final TokenSet COMMENTS = TokenSet.create(COMMENT);
+
+  private static final LanguageVersion LANGUAGE_VERSION = new LanguageVersion("DEFAULT", "DEFAULT", Language.ANY);
+
+  @AfterEach
+  public void after() {
+    Disposer.assertIsEmpty();
+  }
+
+  @Test
+  public void testDone() throws Throwable {
+    doTest("a b c", builder -> {
+      PsiBuilder.Marker pair = builder.mark();
+      builder.advanceLexer();
+      builder.advanceLexer();
+      pair.done(PAIR);
+    }, "ROOT\n" +
+       "  PAIR\n" +
+       "    WORD('a')\n" +
+       "    WHITE_SPACE(' ')\n" +
+       "    WORD('b')\n" +
+       "  WHITE_SPACE(' ')\n" +
+       "  WORD('c')\n");
+  }
+
+  @Test
+  public void testDoneBefore() throws Throwable {
+    doTest("a b c", builder -> {
+      PsiBuilder.Marker pair = builder.mark();
+      builder.advanceLexer();
+      PsiBuilder.Marker item = builder.mark();
+      builder.advanceLexer();
+      pair.doneBefore(PAIR, item);
+      item.done(ITEM);
+    }, "ROOT\n" +
+       "  PAIR\n" +
+       "    WORD('a')\n" +
+       "  WHITE_SPACE(' ')\n" +
+       "  ITEM\n" +
+       "    WORD('b')\n" +
+       "  WHITE_SPACE(' ')\n" +
+       "  WORD('c')\n");
+  }
+
+  @Test
+  public void testDoneBeforeWithError() throws Throwable {
+    doTest("a b", builder -> {
+      PsiBuilder.Marker pair = builder.mark();
+      builder.advanceLexer();
+      PsiBuilder.Marker item = builder.mark();
+      builder.advanceLexer();
+      item.done(ITEM);
+      pair.doneBefore(PAIR, item, LocalizeValue.of("sign expected"));
+    }, "ROOT\n" +
+       "  PAIR\n" +
+       "    WORD('a')\n" +
+       "    ERROR_ELEMENT: sign expected\n" +
+       "  WHITE_SPACE(' ')\n" +
+       "  ITEM\n" +
+       "    WORD('b')\n");
+  }
+
+  @Test
+  public void testPrecede() throws Throwable {
+    doTest("a + b", builder -> {
+      PsiBuilder.Marker left = builder.mark();
+      builder.advanceLexer();
+      left.done(ITEM);
+      PsiBuilder.Marker binary = left.precede();
+      builder.advanceLexer();
+      PsiBuilder.Marker right = builder.mark();
+      builder.advanceLexer();
+      right.done(ITEM);
+      binary.done(BINARY);
+      Assertions.assertSame(binary, builder.getLatestDoneMarker());
+    }, "ROOT\n" +
+       "  BINARY\n" +
+       "    ITEM\n" +
+       "      WORD('a')\n" +
+       "    WHITE_SPACE(' ')\n" +
+       "    SIGN('+')\n" +
+       "    WHITE_SPACE(' ')\n" +
+       "    ITEM\n" +
+       "      WORD('b')\n");
+  }
+
+  @Test
+  public void testDrop() throws Throwable {
+    doTest("a b c", builder -> {
+      PsiBuilder.Marker open = builder.mark();
+      builder.advanceLexer();
+      open.drop();
+      PsiBuilder.Marker done = builder.mark();
+      builder.advanceLexer();
+      done.done(ITEM);
+      done.drop();
+      PsiBuilder.Marker item = builder.mark();
+      builder.advanceLexer();
+      item.done(ITEM);
+    }, "ROOT\n" +
+       "  WORD('a')\n" +
+       "  WHITE_SPACE(' ')\n" +
+       "  WORD('b')\n" +
+       "  WHITE_SPACE(' ')\n" +
+       "  ITEM\n" +
+       "    WORD('c')\n");
+  }
+
+  @Test
+  public void testRollbackTo() throws Throwable {
+    doTest("a b", builder -> {
+      PsiBuilder.Marker attempt = builder.mark();
+      PsiBuilder.Marker item = builder.mark();
+      builder.advanceLexer();
+      item.done(ITEM);
+      builder.error(LocalizeValue.of("sign expected"));
+      attempt.rollbackTo();
+
+      PsiBuilder.Marker pair = builder.mark();
+      builder.advanceLexer();
+      builder.advanceLexer();
+      pair.done(PAIR);
+    }, "ROOT\n" +
+       "  PAIR\n" +
+       "    WORD('a')\n" +
+       "    WHITE_SPACE(' ')\n" +
+       "    WORD('b')\n");
+  }
+
+  @Test
+  public void testError() throws Throwable {
+    doTest("a + b", builder -> {
+      PsiBuilder.Marker start = builder.mark();
+      builder.advanceLexer();
+      builder.error(LocalizeValue.of("word expected"));
+      PsiBuilder.Marker error = builder.mark();
+      builder.advanceLexer();
+      error.error(LocalizeValue.of("unexpected sign"));
+      PsiBuilder.Marker empty = builder.mark();
+      empty.error(LocalizeValue.of("empty"));
+      Assertions.assertTrue(((PsiBuilderImpl)builder).hasErrorsAfter(start));
+      start.drop();
+    }, "ROOT\n" +
+       "  WORD('a')\n" +
+       "  ERROR_ELEMENT: word expected\n" +
+       "  WHITE_SPACE(' ')\n" +
+       "  ERROR_ELEMENT: unexpected sign\n" +
+       "    SIGN('+')\n" +
+       "  ERROR_ELEMENT: empty\n" +
+       "  WHITE_SPACE(' ')\n" +
+       "  WORD('b')\n");
+  }
+
+  @Test
+  public void testErrorBefore() throws Throwable {
+    doTest("a + b", builder -> {
+      PsiBuilder.Marker error = builder.mark();
+      builder.advanceLexer();
+      builder.advanceLexer();
+      PsiBuilder.Marker item = builder.mark();
+      builder.advanceLexer();
+      item.done(ITEM);
+      error.errorBefore(LocalizeValue.of("unexpected tokens"), item);
+    }, "ROOT\n" +
+       "  ERROR_ELEMENT: unexpected tokens\n" +
+       "    WORD('a')\n" +
+       "    WHITE_SPACE(' ')\n" +
+       "    SIGN('+')\n" +
+       "  WHITE_SPACE(' ')\n" +
+       "  ITEM\n" +
+       "    WORD('b')\n");
+  }
+
+  @Test
+  public void testCollapse() throws Throwable {
+    doTest("a + b c", builder -> {
+      PsiBuilder.Marker collapsed = builder.mark();
+      builder.advanceLexer();
+      builder.advanceLexer();
+      builder.advanceLexer();
+      collapsed.collapse(COLLAPSED);
+      PsiBuilder.Marker item = builder.mark();
+      builder.advanceLexer();
+      item.done(ITEM);
+    }, "ROOT\n" +
+       "  COLLAPSED('a + b')\n" +
+       "  WHITE_SPACE(' ')\n" +
+       "  ITEM\n" +
+       "    WORD('c')\n");
+  }
+
+  @Test
+  public void testDefaultEdgeBinders() throws Throwable {
+    doTest("a #x\n b #y\n c", builder -> {
+      builder.advanceLexer();
+      PsiBuilder.Marker item = builder.mark();
+      builder.advanceLexer();
+      item.done(ITEM);
+    }, "ROOT\n" +
+       "  WORD('a')\n" +
+       "  WHITE_SPACE(' ')\n" +
+       "  COMMENT('#x')\n" +
+       "  WHITE_SPACE('\\n ')\n" +
+       "  ITEM\n" +
+       "    WORD('b')\n" +
+       "  WHITE_SPACE(' ')\n" +
+       "  COMMENT('#y')\n" +
+       "  WHITE_SPACE('\\n ')\n" +
+       "  WORD('c')\n");
+  }
+
+  @Test
+  public void testCustomEdgeBinders() throws Throwable {
+    doTest("a #x\n b #y\n c", builder -> {
+      builder.advanceLexer();
+      PsiBuilder.Marker item = builder.mark();
+      builder.advanceLexer();
+      item.done(ITEM);
+      item.setCustomEdgeTokenBinders(WhitespacesBinders.leadingCommentsBinder(COMMENTS), WhitespacesBinders.trailingCommentsBinder(COMMENTS));
+    }, "ROOT\n" +
+       "  WORD('a')\n" +
+       "  WHITE_SPACE(' ')\n" +
+       "  ITEM\n" +
+       "    COMMENT('#x')\n" +
+       "    WHITE_SPACE('\\n ')\n" +
+       "    WORD('b')\n" +
+       "    WHITE_SPACE(' ')\n" +
+       "    COMMENT('#y')\n" +
+       "  WHITE_SPACE('\\n ')\n" +
+       "  WORD('c')\n");
+  }
+
+  @Test
+  public void testRightEdgeBinderOfOpenMarker() throws Throwable {
+    doTest("a", builder -> {
+      PsiBuilder.Marker item = builder.mark();
+      Assertions.assertThrows(IllegalArgumentException.class, () -> item.setCustomEdgeTokenBinders(null, WhitespacesBinders.GREEDY_RIGHT_BINDER));
+      builder.advanceLexer();
+      item.done(ITEM);
+    }, "ROOT\n" +
+       "  ITEM\n" +
+       "    WORD('a')\n");
+  }
+
+  private static void doTest(@Nonnull String text, @Nonnull Consumer<PsiBuilder> parser, @Nonnull String expected) throws Throwable {
+    try (AutoDisposable disposable = AutoDisposable.newAutoDisposable("PsiBuilderImplTest")) {
+      LightApplicationBuilder.create(disposable).build();
+
+      ASTNode tree = parse(text, parser).getTreeBuilt();
+      StringBuilder heavy = new StringBuilder();
+      dumpTree(tree, 0, heavy);
+      Assertions.assertEquals(expected, heavy.toString(), "AST");
+
+      FlyweightCapableTreeStructure<LighterASTNode> lightTree = parse(text, parser).getLightTree();
+      StringBuilder light = new StringBuilder();
+      dumpLightTree(lightTree, lightTree.getRoot(), 0, light);
+      Assertions.assertEquals(expected, light.toString(), "LighterAST");
+    }
+  }
+
+  @Nonnull
+  private static PsiBuilderImpl parse(@Nonnull String text, @Nonnull Consumer<PsiBuilder> parser) {
+    PsiBuilderImpl builder = new PsiBuilderImpl(null, null, new TestParserDefinition(), new TestLexer(), LANGUAGE_VERSION, null, text, null, null);
+    PsiBuilder.Marker root = builder.mark();
+    parser.accept(builder);
+    while (!builder.eof()) {
+      builder.advanceLexer();
+    }
+    root.done(ROOT);
+    return builder;
+  }
+
+  private static void dumpTree(@Nonnull ASTNode node, int indent, @Nonnull StringBuilder out) {
+    IElementType type = node.getElementType();
+    LocalizeValue errorMessage = type == TokenType.ERROR_ELEMENT ? ((PsiErrorElement)node).getErrorDescriptionValue() : null;
+    dumpNode(type, node instanceof LeafElement ? node.getText() : null, errorMessage, indent, out);
+    for (ASTNode child = node.getFirstChildNode(); child != null; child = child.getTreeNext()) {
+      dumpTree(child, indent + 1, out);
+    }
+  }
+
+  private static void dumpLightTree(@Nonnull FlyweightCapableTreeStructure<LighterASTNode> tree,
+                                    @Nonnull LighterASTNode node,
+                                    int indent,
+                                    @Nonnull StringBuilder out) {
+    IElementType type = node.getTokenType();
+    LocalizeValue errorMessage = type == TokenType.ERROR_ELEMENT ? PsiBuilderImpl.getErrorMessageImpl(node) : null;
+    dumpNode(type, node instanceof LighterASTTokenNode ? tree.toString(node) : null, errorMessage, indent, out);
+
+    SimpleReference<LighterASTNode[]> children = SimpleReference.create();
+    int count = tree.getChildren(tree.prepareForGetChildren(node), children);
+    for (int i = 0; i < count; i++) {
+      dumpLightTree(tree, children.get()[i], indent + 1, out);
+    }
+    tree.disposeChildren(children.get(), count);
+  }
+
+  private static void dumpNode(@Nonnull IElementType type, CharSequence leafText, LocalizeValue errorMessage, int indent, @Nonnull StringBuilder out) {
+    out.append("  ".repeat(indent)).append(type);
+    if (errorMessage != null) {
+      out.append(": ").append(errorMessage.getValue());
+    }
+    if (leafText != null) {
+      out.append("('").append(leafText.toString().replace("\n", "\\n")).append("')");
+    }
+    out.append('\n');
+  }
+
+  private static class TestParserDefinition implements ParserDefinition {
+    @Nonnull
+    @Override
+    public Language getLanguage() {
+      return Language.ANY;
+    }
+
+    @Nonnull
+    @Override
+    public Lexer createLexer(@Nonnull LanguageVersion languageVersion) {
+      return new TestLexer();
+    }
+
+    @Nonnull
+    @Override
+    public PsiParser createParser(@Nonnull LanguageVersion languageVersion) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Nonnull
+    @Override
+    public IFileElementType getFileNodeType() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Nonnull
+    @Override
+    public TokenSet getCommentTokens(@Nonnull LanguageVersion languageVersion) {
+      return COMMENTS;
+    }
+
+    @Nonnull
+    @Override
+    public TokenSet getStringLiteralElements(@Nonnull LanguageVersion languageVersion) {
+      return TokenSet.EMPTY;
+    }
+
+    @Nonnull
+    @Override
+    public PsiFile createFile(@Nonnull FileViewProvider viewProvider) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * Words of letters, runs of whitespace, comments from '#' to the end of the line and single sign characters.
+   */
+  private static class TestLexer extends LexerBase {
+    private CharSequence myBuffer;
+    private int myEnd;
+    private int myTokenStart;
+    private int myTokenEnd;
+    private IElementType myTokenType;
+
+    @Override
+    public void start(@Nonnull CharSequence buffer, int startOffset, int endOffset, int initialState) {
+      myBuffer = buffer;
+      myEnd = endOffset;
+      myTokenEnd = startOffset;
+      advance();
+    }
+
+    @Override
+    public int getState() {
+      return 0;
+    }
+
+    @Override
+    public IElementType getTokenType() {
+      return myTokenType;
+    }
+
+    @Override
+    public int getTokenStart() {
+      return myTokenStart;
+    }
+
+    @Override
+    public int getTokenEnd() {
+      return myTokenEnd;
+    }
+
+    @Override
+    public void advance() {
+      myTokenStart = myTokenEnd;
+      if (myTokenStart >= myEnd) {
+        myTokenType = null;
+        return;
+      }
+
+      char c = myBuffer.charAt(myTokenStart);
+      int end = myTokenStart + 1;
+      if (Character.isLetter(c)) {
+        while (end < myEnd && Character.isLetter(myBuffer.charAt(end))) end++;
+        myTokenType = WORD;
+      }
+      else if (Character.isWhitespace(c)) {
+        while (end < myEnd && Character.isWhitespace(myBuffer.charAt(end))) end++;
+        myTokenType = TokenType.WHITE_SPACE;
+      }
+      else if (c == '#') {
+        while (end < myEnd && myBuffer.charAt(end) != '\n') end++;
+        myTokenType = COMMENT;
+      }
+      else {
+        myTokenType = SIGN;
+      }
+      myTokenEnd = end;
+    }
+
+    @Nonnull
+    @Override
+    public CharSequence getBufferSequence() {
+      return myBuffer;
+    }
+
+    @Override
+    public int getBufferEnd() {
+      return myEnd;
+    }
+  }
+}
@@ -21,22 +21,111 @@ import consulo.util.collection.SLRUMap;
 import jakarta.annotation.Nonnull;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * SLRU cache of open file accessors.
+ * <p>
+ * The cache may be created growable: hashes of recently evicted keys are remembered, and when accessors evicted recently
+ * are reopened too often, i.e. the working set doesn't fit, the cache doubles its size up to the given maximum.
+ */
 public abstract class FileAccessorCache<K, T> implements HashingStrategy<K> {
-  /*@GuardedBy("myCacheLock")*/ private final SLRUMap<K, Handle<T>> myCache;
+  /*@GuardedBy("myCacheLock")*/ private AccessorMap myCache;
   /*@GuardedBy("myCacheLock")*/ private final List<T> myElementsToBeDisposed = new ArrayList<T>();
   private final Object myCacheLock = new Object();
   private final Object myUpdateLock = new Object();
 
+  private final int myMaxProtectedQueueSize;
+  /*@GuardedBy("myCacheLock")*/ private int myProtectedQueueSize;
+  /*@GuardedBy("myCacheLock")*/ private int myProbationalQueueSize;
+  // hashes of keys evicted from the cache lately, at most the maximal cache capacity of them
+  /*@GuardedBy("myCacheLock")*/ private final Set<Integer> myEvictedKeys = new LinkedHashSet<Integer>();
+  /*@GuardedBy("myCacheLock")*/ private K myKeyBeingPut;
+  /*@GuardedBy("myCacheLock")*/ private int myReopensSinceResize;
+
+  private final AtomicLong myHits = new AtomicLong();
+  private final AtomicLong myMisses = new AtomicLong();
+  private final AtomicLong myReopens = new AtomicLong();
+
   public FileAccessorCache(int protectedQueueSize, int probationalQueueSize) {
-    myCache = new SLRUMap<K, Handle<T>>(protectedQueueSize, probationalQueueSize, this) {
-      @Override
-      protected final void onDropFromCache(K key, Handle<T> value) {
-        value.release();
+    this(protectedQueueSize, probationalQueueSize, protectedQueueSize);
+  }
+
+  /**
+   * @param maxProtectedQueueSize the protected queue size the cache may grow to, the probational queue grows proportionally
+   */
+  public FileAccessorCache(int protectedQueueSize, int probationalQueueSize, int maxProtectedQueueSize) {
+    myMaxProtectedQueueSize = Math.max(protectedQueueSize, maxProtectedQueueSize);
+    myProtectedQueueSize = protectedQueueSize;
+    myProbationalQueueSize = probationalQueueSize;
+    myCache = createCache(protectedQueueSize, probationalQueueSize);
+  }
+
+  @Nonnull
+  private AccessorMap createCache(int protectedQueueSize, int probationalQueueSize) {
+    return new AccessorMap(protectedQueueSize, probationalQueueSize);
+  }
+
+  private final class AccessorMap extends SLRUMap<K, Handle<T>> {
+    private AccessorMap(int protectedQueueSize, int probationalQueueSize) {
+      super(protectedQueueSize, probationalQueueSize, FileAccessorCache.this);
+    }
+
+    @Override
+    protected void onDropFromCache(K key, Handle<T> value) {
+      if (myKeyBeingPut != null && !FileAccessorCache.this.equals(key, myKeyBeingPut)) {
+        rememberEvicted(key);
+      }
+      value.release();
+    }
+
+    /**
+     * Moves the entries to the same queues of the given cache keeping their order, the target queues must be large enough
+     * to hold them, so no entry is dropped and no handle is released.
+     */
+    void transferTo(@Nonnull AccessorMap target) {
+      // both queues iterate from the eldest entry
+      for (Map.Entry<K, Handle<T>> entry : myProtectedQueue.entrySet()) {
+        target.myProtectedQueue.put(entry.getKey(), entry.getValue());
       }
-    };
+      for (Map.Entry<K, Handle<T>> entry : myProbationalQueue.entrySet()) {
+        target.myProbationalQueue.put(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  private void rememberEvicted(K key) {
+    myEvictedKeys.add(hashCode(key));
+    if (myEvictedKeys.size() > myMaxProtectedQueueSize + myProbationalQueueSize) {
+      Iterator<Integer> iterator = myEvictedKeys.iterator();
+      iterator.next();
+      iterator.remove();
+    }
+  }
+
+  // the key is about to be reopened
+  private void onMiss(K key) {
+    myMisses.incrementAndGet();
+    if (!myEvictedKeys.remove(hashCode(key))) return;
+
+    myReopens.incrementAndGet();
+    if (++myReopensSinceResize < myProtectedQueueSize / 2 || myProtectedQueueSize >= myMaxProtectedQueueSize) return;
+
+    int protectedQueueSize = Math.min(myMaxProtectedQueueSize, myProtectedQueueSize * 2);
+    int probationalQueueSize = (int)((long)myProbationalQueueSize * protectedQueueSize / myProtectedQueueSize);
+    // neither queue shrinks, so the entries stay in their queues
+    AccessorMap cache = createCache(protectedQueueSize, probationalQueueSize);
+    myCache.transferTo(cache);
+    myCache = cache;
+    myProtectedQueueSize = protectedQueueSize;
+    myProbationalQueueSize = probationalQueueSize;
+    myReopensSinceResize = 0;
   }
 
   protected abstract T createAccessor(K key) throws IOException;
@@ -74,7 +163,14 @@ public abstract class FileAccessorCache<K, T> implements HashingStrategy<K> {
       cached.allocate();
 
       synchronized (myCacheLock) {
-        myCache.put(key, cached);
+        onMiss(key);
+        myKeyBeingPut = key;
+        try {
+          myCache.put(key, cached);
+        }
+        finally {
+          myKeyBeingPut = null;
+        }
       }
 
       disposeInvalidAccessors();
@@ -117,6 +213,7 @@ public abstract class FileAccessorCache<K, T> implements HashingStrategy<K> {
       final Handle<T> value = myCache.get(key);
       if (value != null) {
         value.allocate();
+        myHits.incrementAndGet();
       }
       return value;
     }
@@ -148,6 +245,36 @@ public abstract class FileAccessorCache<K, T> implements HashingStrategy<K> {
     }
   }
 
+  public long getHitCount() {
+    return myHits.get();
+  }
+
+  public long getMissCount() {
+    return myMisses.get();
+  }
+
+  /**
+   * @return number of misses for keys which were evicted from the cache lately
+   */
+  public long getReopenCount() {
+    return myReopens.get();
+  }
+
+  public int getCapacity() {
+    synchronized (myCacheLock) {
+      return myProtectedQueueSize + myProbationalQueueSize;
+    }
+  }
+
+  @Nonnull
+  public String getStatistics() {
+    long hits = getHitCount();
+    long misses = getMissCount();
+    long requests = hits + misses;
+    return "hits: " + hits + ", misses: " + misses + ", reopens: " + getReopenCount() + ", hit rate: " +
+           (requests == 0 ? 0 : hits * 100 / requests) + "%, capacity: " + getCapacity();
+  }
+
   @Override
   public int hashCode(K value) {
     return value.hashCode();
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.util.io;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FileAccessorCacheTest {
+  private static final class Accessor {
+    final String myKey;
+    boolean myDisposed;
+
+    Accessor(String key) {
+      myKey = key;
+    }
+  }
+
+  private static final class TestCache extends FileAccessorCache<String, Accessor> {
+    final List<String> myOpened = new ArrayList<>();
+
+    TestCache(int protectedQueueSize, int probationalQueueSize, int maxProtectedQueueSize) {
+      super(protectedQueueSize, probationalQueueSize, maxProtectedQueueSize);
+    }
+
+    @Override
+    protected Accessor createAccessor(String key) {
+      myOpened.add(key);
+      return new Accessor(key);
+    }
+
+    @Override
+    protected void disposeAccessor(Accessor accessor) {
+      assertFalse(accessor.myKey + " is disposed twice", accessor.myDisposed);
+      accessor.myDisposed = true;
+    }
+  }
+
+  @Test
+  public void testGrowingKeepsHeldHandlesAndOrder() {
+    TestCache cache = new TestCache(4, 2, 8);
+
+    // the second access moves a key to the protected queue, the handles are held by callers
+    List<FileAccessorCache.Handle<Accessor>> held = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      cache.get("p" + i).release();
+      held.add(cache.get("p" + i));
+    }
+
+    // evicted probational keys reopened twice make the cache grow
+    for (String key : new String[]{"x0", "x1", "x2", "x0", "x1"}) {
+      cache.get(key).release();
+    }
+    assertEquals(12, cache.getCapacity());
+    assertEquals(2, cache.getReopenCount());
+
+    for (FileAccessorCache.Handle<Accessor> handle : held) {
+      Accessor accessor = handle.get();
+      assertFalse(accessor.myKey + " is disposed while held", accessor.myDisposed);
+      FileAccessorCache.Handle<Accessor> cached = cache.getIfCached(accessor.myKey);
+      assertSame(handle, cached);
+      cached.release();
+    }
+
+    // the probational entries stay probational: x2 and x0 and the reopened x1 fit in the grown queue of 4
+    for (String key : new String[]{"x2", "x0", "x1"}) {
+      FileAccessorCache.Handle<Accessor> cached = cache.getIfCached(key);
+      assertNotNull(key, cached);
+      cached.release();
+    }
+    assertEquals(List.of("p0", "p1", "p2", "p3", "x0", "x1", "x2", "x0", "x1"), cache.myOpened);
+
+    // the protected queue kept its order: p0 is demoted and dropped first
+    for (FileAccessorCache.Handle<Accessor> handle : held) {
+      handle.release();
+    }
+    for (String key : new String[]{"q0", "q1", "q2"}) {
+      cache.get(key).release();
+      cache.get(key).release();
+    }
+    for (String key : new String[]{"r0", "r1", "r2"}) {
+      cache.get(key).release();
+    }
+    assertNull(cache.getIfCached("p0"));
+    assertTrue(held.get(0).get().myDisposed);
+    for (int i = 1; i < 4; i++) {
+      FileAccessorCache.Handle<Accessor> cached = cache.getIfCached("p" + i);
+      assertSame(held.get(i), cached);
+      cached.release();
+    }
+  }
+
+  @Test
+  public void testDoesNotGrowBeyondMaximum() {
+    TestCache cache = new TestCache(2, 1, 4);
+    // the working set never fits in the probational queue, but is reopened soon enough to be noticed
+    for (int round = 0; round < 20; round++) {
+      for (int i = 0; i < 5; i++) {
+        cache.get("k" + i).release();
+      }
+    }
+    assertEquals(6, cache.getCapacity());
+  }
+}
@@ -38,6 +38,27 @@ public interface FileWatcherNotificationSink {
 
   void notifyDirtyPathRecursive(@Nonnull String path);
 
+  /**
+   * Reports a batch of changes at once, so that the sink can process them together.
+   */
+  default void notifyChanges(@Nonnull Collection<String> dirtyPaths,
+                             @Nonnull Collection<String> createdOrDeletedPaths,
+                             @Nonnull Collection<String> dirtyDirectories,
+                             @Nonnull Collection<String> dirtyPathsRecursive) {
+    for (String path : dirtyPaths) {
+      notifyDirtyPath(path);
+    }
+    for (String path : createdOrDeletedPaths) {
+      notifyPathCreatedOrDeleted(path);
+    }
+    for (String path : dirtyDirectories) {
+      notifyDirtyDirectory(path);
+    }
+    for (String path : dirtyPathsRecursive) {
+      notifyDirtyPathRecursive(path);
+    }
+  }
+
   void notifyReset(@Nullable String path);
 
   void notifyUserOnFailure(@Nonnull String cause);